@@ -0,0 +1,256 @@
+package com.eatthepath.jvptree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic datasets for benchmarks. All generators are deterministic for a given {@link Random}, and so
+ * benchmarks that seed their random number generators with fixed values see identical data from run to run and commit
+ * to commit.
+ */
+public class BenchmarkDatasets {
+
+    /**
+     * A fixed seed for generating indexed points.
+     */
+    public static final long POINT_SEED = 0x5eed_0001L;
+
+    /**
+     * A fixed seed for generating query points; queries are drawn from the same distribution as indexed points, but are
+     * not the same points.
+     */
+    public static final long QUERY_SEED = 0x5eed_0002L;
+
+    private static final int CLUSTER_COUNT = 32;
+    private static final double CLUSTER_STANDARD_DEVIATION = 0.05;
+
+    private static final int MAX_INTRINSIC_DIMENSIONS = 4;
+    private static final double EMBEDDING_NOISE = 0.01;
+
+    // Strings and codes are generated as variations of a smaller set of "root" values, much like misspellings of real
+    // words or perceptual hashes of near-duplicate images
+    private static final int POINTS_PER_ROOT = 16;
+    private static final int MAX_STRING_EDITS = 3;
+
+    public enum VectorDistribution {
+        /**
+         * Points distributed uniformly throughout the unit hypercube.
+         */
+        UNIFORM,
+
+        /**
+         * Points drawn from a mixture of Gaussian clusters with centers distributed uniformly throughout the unit
+         * hypercube.
+         */
+        CLUSTERED,
+
+        /**
+         * Points distributed uniformly throughout a random low-dimensional subspace, embedded in the full space with a
+         * little noise; vp-trees should handle these points almost as well as truly low-dimensional points.
+         */
+        LOW_INTRINSIC_DIMENSION
+    }
+
+    private BenchmarkDatasets() {
+    }
+
+    /**
+     * Creates a list of vectors drawn from the given distribution. Random clusters and subspaces are chosen using a
+     * generator seeded with {@link #POINT_SEED} so that points and queries generated with different random number
+     * generators share the same structure.
+     *
+     * @param distribution the distribution from which to draw vectors
+     * @param count the number of vectors to generate
+     * @param dimensions the number of dimensions of each vector
+     * @param random the source of randomness for individual vectors
+     *
+     * @return a list of vectors
+     */
+    public static List<double[]> createVectors(final VectorDistribution distribution, final int count, final int dimensions, final Random random) {
+        final Random structureRandom = new Random(POINT_SEED);
+        final List<double[]> vectors = new ArrayList<>(count);
+
+        switch (distribution) {
+            case UNIFORM: {
+                for (int i = 0; i < count; i++) {
+                    vectors.add(createUniformVector(dimensions, random));
+                }
+
+                break;
+            }
+
+            case CLUSTERED: {
+                final double[][] centers = new double[CLUSTER_COUNT][];
+
+                for (int i = 0; i < centers.length; i++) {
+                    centers[i] = createUniformVector(dimensions, structureRandom);
+                }
+
+                for (int i = 0; i < count; i++) {
+                    final double[] center = centers[random.nextInt(centers.length)];
+                    final double[] vector = new double[dimensions];
+
+                    for (int d = 0; d < dimensions; d++) {
+                        vector[d] = center[d] + (random.nextGaussian() * CLUSTER_STANDARD_DEVIATION);
+                    }
+
+                    vectors.add(vector);
+                }
+
+                break;
+            }
+
+            case LOW_INTRINSIC_DIMENSION: {
+                final int intrinsicDimensions = Math.min(dimensions, MAX_INTRINSIC_DIMENSIONS);
+                final double[][] basis = new double[intrinsicDimensions][dimensions];
+
+                for (int k = 0; k < intrinsicDimensions; k++) {
+                    for (int d = 0; d < dimensions; d++) {
+                        basis[k][d] = structureRandom.nextGaussian() / Math.sqrt(dimensions);
+                    }
+                }
+
+                for (int i = 0; i < count; i++) {
+                    final double[] vector = new double[dimensions];
+
+                    for (int k = 0; k < intrinsicDimensions; k++) {
+                        final double coordinate = random.nextDouble();
+
+                        for (int d = 0; d < dimensions; d++) {
+                            vector[d] += coordinate * basis[k][d];
+                        }
+                    }
+
+                    for (int d = 0; d < dimensions; d++) {
+                        vector[d] += random.nextGaussian() * EMBEDDING_NOISE;
+                    }
+
+                    vectors.add(vector);
+                }
+
+                break;
+            }
+
+            default: {
+                throw new IllegalArgumentException("Unexpected distribution: " + distribution);
+            }
+        }
+
+        return vectors;
+    }
+
+    private static double[] createUniformVector(final int dimensions, final Random random) {
+        final double[] vector = new double[dimensions];
+
+        for (int d = 0; d < dimensions; d++) {
+            vector[d] = random.nextDouble();
+        }
+
+        return vector;
+    }
+
+    /**
+     * Creates a list of lowercase strings, each of which is a random variation (by a few insertions, deletions, and
+     * substitutions) of one of a smaller set of random "root" strings. Root strings are chosen using a generator
+     * seeded with {@link #POINT_SEED}.
+     *
+     * @param count the number of strings to generate
+     * @param length the length of each root string
+     * @param random the source of randomness for variations of root strings
+     *
+     * @return a list of strings
+     */
+    public static List<String> createStrings(final int count, final int length, final Random random) {
+        final Random structureRandom = new Random(POINT_SEED);
+        final String[] roots = new String[Math.max(1, count / POINTS_PER_ROOT)];
+
+        for (int i = 0; i < roots.length; i++) {
+            final StringBuilder builder = new StringBuilder(length);
+
+            for (int c = 0; c < length; c++) {
+                builder.append(randomLetter(structureRandom));
+            }
+
+            roots[i] = builder.toString();
+        }
+
+        final List<String> strings = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            final StringBuilder builder = new StringBuilder(roots[random.nextInt(roots.length)]);
+            final int edits = random.nextInt(MAX_STRING_EDITS + 1);
+
+            for (int e = 0; e < edits; e++) {
+                final int position = random.nextInt(builder.length() + 1);
+
+                switch (builder.length() == 0 ? 0 : random.nextInt(3)) {
+                    case 0: {
+                        builder.insert(position, randomLetter(random));
+                        break;
+                    }
+
+                    case 1: {
+                        builder.deleteCharAt(Math.min(position, builder.length() - 1));
+                        break;
+                    }
+
+                    default: {
+                        builder.setCharAt(Math.min(position, builder.length() - 1), randomLetter(random));
+                        break;
+                    }
+                }
+            }
+
+            strings.add(builder.toString());
+        }
+
+        return strings;
+    }
+
+    private static char randomLetter(final Random random) {
+        return (char) ('a' + random.nextInt(26));
+    }
+
+    /**
+     * Creates a list of bit strings, each of which is a random variation (by flipping up to one sixteenth of its bits)
+     * of one of a smaller set of random "root" codes. Root codes are chosen using a generator seeded with
+     * {@link #POINT_SEED}.
+     *
+     * @param count the number of codes to generate
+     * @param bits the number of bits in each code; must be a multiple of 64
+     * @param random the source of randomness for variations of root codes
+     *
+     * @return a list of codes packed into arrays of {@code long}s
+     */
+    public static List<long[]> createHammingCodes(final int count, final int bits, final Random random) {
+        if (bits % Long.SIZE != 0) {
+            throw new IllegalArgumentException("Number of bits must be a multiple of 64.");
+        }
+
+        final Random structureRandom = new Random(POINT_SEED);
+        final long[][] roots = new long[Math.max(1, count / POINTS_PER_ROOT)][bits / Long.SIZE];
+
+        for (final long[] root : roots) {
+            for (int i = 0; i < root.length; i++) {
+                root[i] = structureRandom.nextLong();
+            }
+        }
+
+        final List<long[]> codes = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            final long[] code = roots[random.nextInt(roots.length)].clone();
+            final int flips = random.nextInt((bits / 16) + 1);
+
+            for (int f = 0; f < flips; f++) {
+                final int bit = random.nextInt(bits);
+                code[bit / Long.SIZE] ^= 1L << (bit % Long.SIZE);
+            }
+
+            codes.add(code);
+        }
+
+        return codes;
+    }
+}
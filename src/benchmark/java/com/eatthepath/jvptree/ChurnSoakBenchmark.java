@@ -0,0 +1,134 @@
+package com.eatthepath.jvptree;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.eatthepath.jvptree.util.CountingDistanceFunction;
+
+/**
+ * Measures how query latency drifts as a tree degrades under sustained churn. Before measurement, each trial replaces
+ * every point in the tree {@code churnRounds} times, oldest first, with new points drawn from a distribution that
+ * drifts a little further from the original with every round, without ever rebuilding the tree explicitly. Comparing
+ * results across {@code churnRounds} values shows how much the tree's incremental rebalancing (and, with a non-zero
+ * {@code tombstoneThreshold}, its deferred deletion) lets query latency and distance calculations grow over the life of
+ * a long-running index; the {@code rebuilt} parameter shows how much of that a full rebuild recovers. Latency is
+ * sampled to show the distribution of query times, and a separate average-time benchmark reports distance
+ * calculations per query.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ChurnSoakBenchmark {
+
+    @Param({"100000"})
+    public int treeSize;
+
+    @Param({"0", "1", "4", "16"})
+    public int churnRounds;
+
+    @Param({"0", "0.25"})
+    public double tombstoneThreshold;
+
+    @Param({"false", "true"})
+    public boolean rebuilt;
+
+    @Param({"8"})
+    public int dimensions;
+
+    @Param({"16"})
+    public int resultSetSize;
+
+    private CountingDistanceFunction<double[]> distanceFunction;
+    private VPTree<double[], double[]> vptree;
+
+    private List<double[]> queryPoints;
+    private int queryIndex;
+
+    private static final int QUERY_POINT_COUNT = 1024;
+
+    // How far, in each dimension, the distribution of new points moves with each round of churn
+    private static final double DRIFT_PER_ROUND = 0.05;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Random random = new Random(BenchmarkDatasets.POINT_SEED);
+
+        this.distanceFunction = new CountingDistanceFunction<>(new EuclideanDistanceFunction());
+
+        final ArrayDeque<double[]> pointsInTree = new ArrayDeque<>(this.createPoints(this.treeSize, 0, random));
+        this.vptree = new VPTree<>(this.distanceFunction, pointsInTree);
+        this.vptree.setTombstoneThreshold(this.tombstoneThreshold);
+
+        for (int round = 1; round <= this.churnRounds; round++) {
+            for (final double[] point : this.createPoints(this.treeSize, round, random)) {
+                this.vptree.remove(pointsInTree.removeFirst());
+                this.vptree.add(point);
+
+                pointsInTree.addLast(point);
+            }
+        }
+
+        if (this.rebuilt) {
+            this.vptree.rebuild();
+        }
+
+        // Queries follow the current distribution of points
+        this.queryPoints = this.createPoints(QUERY_POINT_COUNT, this.churnRounds, new Random(BenchmarkDatasets.QUERY_SEED));
+    }
+
+    private List<double[]> createPoints(final int count, final int round, final Random random) {
+        final List<double[]> points = BenchmarkDatasets.createVectors(BenchmarkDatasets.VectorDistribution.CLUSTERED,
+                count, this.dimensions, random);
+
+        for (final double[] point : points) {
+            for (int d = 0; d < point.length; d++) {
+                point[d] += round * DRIFT_PER_ROUND;
+            }
+        }
+
+        return points;
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() {
+        this.distanceFunction.reset();
+    }
+
+    private double[] nextQueryPoint() {
+        this.queryIndex = (this.queryIndex + 1) % QUERY_POINT_COUNT;
+        return this.queryPoints.get(this.queryIndex);
+    }
+
+    @Benchmark
+    public List<double[]> benchmarkGetNearestNeighbors() {
+        return this.vptree.getNearestNeighbors(this.nextQueryPoint(), this.resultSetSize);
+    }
+
+    // JMH only reports auxiliary counters for throughput and average-time benchmarks
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public List<double[]> benchmarkGetNearestNeighborsDistanceCalls(final DistanceCallCounters counters) {
+        final List<double[]> nearestNeighbors = this.vptree.getNearestNeighbors(this.nextQueryPoint(), this.resultSetSize);
+        counters.recordOperation(this.distanceFunction);
+
+        return nearestNeighbors;
+    }
+}
@@ -0,0 +1,204 @@
+package com.eatthepath.jvptree;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Measures queries running alongside writes. Each benchmark group pairs query threads with writer threads that replace
+ * the oldest point in the index with a new one, keeping the index the same size; groups differ in their balance of
+ * readers and writers. {@link VPTree} isn't thread-safe, and so the {@code LOCKED_VP_TREE} index guards a single tree
+ * with a read/write lock, as most callers would; {@code SEGMENTED_VP_TREE} uses {@link SegmentedVPTree}, which buffers
+ * writes and compacts them into new segments in the background.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ConcurrentMixedWorkloadBenchmark {
+
+    public enum IndexType {
+        LOCKED_VP_TREE,
+        SEGMENTED_VP_TREE
+    }
+
+    @State(Scope.Group)
+    public static class IndexState {
+
+        @Param({"LOCKED_VP_TREE", "SEGMENTED_VP_TREE"})
+        public IndexType indexType;
+
+        @Param({"100000"})
+        public int indexSize;
+
+        @Param({"8"})
+        public int dimensions;
+
+        @Param({"16"})
+        public int resultSetSize;
+
+        private SpatialIndex<double[], double[]> index;
+        private ReadWriteLock lock;
+
+        // Points in the index, oldest first
+        private ConcurrentLinkedQueue<double[]> pointsInIndex;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            final List<double[]> points = BenchmarkDatasets.createVectors(BenchmarkDatasets.VectorDistribution.CLUSTERED,
+                    this.indexSize, this.dimensions, new Random(BenchmarkDatasets.POINT_SEED));
+
+            switch (this.indexType) {
+                case LOCKED_VP_TREE: {
+                    this.index = new VPTree<>(new EuclideanDistanceFunction(), points);
+                    this.lock = new ReentrantReadWriteLock();
+                    break;
+                }
+
+                case SEGMENTED_VP_TREE: {
+                    final SegmentedVPTree<double[], double[]> segmentedTree =
+                            new SegmentedVPTree<>(new EuclideanDistanceFunction());
+
+                    segmentedTree.addAll(points);
+                    segmentedTree.compact();
+
+                    this.index = segmentedTree;
+                    this.lock = null;
+                    break;
+                }
+
+                default: {
+                    throw new IllegalArgumentException("Unexpected index type: " + this.indexType);
+                }
+            }
+
+            this.pointsInIndex = new ConcurrentLinkedQueue<>(points);
+        }
+
+        List<double[]> getNearestNeighbors(final double[] queryPoint) {
+            if (this.lock == null) {
+                return this.index.getNearestNeighbors(queryPoint, this.resultSetSize);
+            }
+
+            this.lock.readLock().lock();
+
+            try {
+                return this.index.getNearestNeighbors(queryPoint, this.resultSetSize);
+            } finally {
+                this.lock.readLock().unlock();
+            }
+        }
+
+        boolean replaceOldestPoint(final double[] newPoint) {
+            final double[] oldestPoint = this.pointsInIndex.poll();
+            final boolean modified;
+
+            if (this.lock == null) {
+                modified = this.index.remove(oldestPoint) & this.index.add(newPoint);
+            } else {
+                this.lock.writeLock().lock();
+
+                try {
+                    modified = this.index.remove(oldestPoint) & this.index.add(newPoint);
+                } finally {
+                    this.lock.writeLock().unlock();
+                }
+            }
+
+            this.pointsInIndex.add(newPoint);
+
+            return modified;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class PointSource {
+
+        private static final int POINT_COUNT = 4096;
+
+        private List<double[]> points;
+        private int pointIndex;
+
+        @Setup(Level.Trial)
+        public void setUp(final IndexState indexState, final ThreadParams threadParams) {
+            // Each thread gets its own deterministic stream of points
+            this.points = BenchmarkDatasets.createVectors(BenchmarkDatasets.VectorDistribution.CLUSTERED,
+                    POINT_COUNT, indexState.dimensions, new Random(BenchmarkDatasets.QUERY_SEED + threadParams.getThreadIndex()));
+        }
+
+        double[] nextPoint() {
+            this.pointIndex = (this.pointIndex + 1) % POINT_COUNT;
+
+            // Writers may add the same coordinates more than once, but never the same array, so points are always
+            // distinct as far as the index is concerned
+            return this.points.get(this.pointIndex).clone();
+        }
+
+        double[] nextQueryPoint() {
+            this.pointIndex = (this.pointIndex + 1) % POINT_COUNT;
+            return this.points.get(this.pointIndex);
+        }
+    }
+
+    @Benchmark
+    @Group("readMostly")
+    @GroupThreads(7)
+    public List<double[]> readMostlyQuery(final IndexState indexState, final PointSource pointSource) {
+        return indexState.getNearestNeighbors(pointSource.nextQueryPoint());
+    }
+
+    @Benchmark
+    @Group("readMostly")
+    @GroupThreads(1)
+    public boolean readMostlyWrite(final IndexState indexState, final PointSource pointSource) {
+        return indexState.replaceOldestPoint(pointSource.nextPoint());
+    }
+
+    @Benchmark
+    @Group("balanced")
+    @GroupThreads(4)
+    public List<double[]> balancedQuery(final IndexState indexState, final PointSource pointSource) {
+        return indexState.getNearestNeighbors(pointSource.nextQueryPoint());
+    }
+
+    @Benchmark
+    @Group("balanced")
+    @GroupThreads(4)
+    public boolean balancedWrite(final IndexState indexState, final PointSource pointSource) {
+        return indexState.replaceOldestPoint(pointSource.nextPoint());
+    }
+
+    @Benchmark
+    @Group("writeMostly")
+    @GroupThreads(1)
+    public List<double[]> writeMostlyQuery(final IndexState indexState, final PointSource pointSource) {
+        return indexState.getNearestNeighbors(pointSource.nextQueryPoint());
+    }
+
+    @Benchmark
+    @Group("writeMostly")
+    @GroupThreads(7)
+    public boolean writeMostlyWrite(final IndexState indexState, final PointSource pointSource) {
+        return indexState.replaceOldestPoint(pointSource.nextPoint());
+    }
+}
@@ -0,0 +1,40 @@
+package com.eatthepath.jvptree;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.eatthepath.jvptree.util.CountingDistanceFunction;
+
+/**
+ * Reports the number of distance calculations and the number of benchmark operations as secondary JMH results
+ * alongside timing results. Because distance calculations usually dominate the cost of building and searching
+ * vp-trees, {@code distanceCalls / operations} is a machine-independent measure of how much work each operation does.
+ * JMH sums event counters across iterations and threads, so both counters hold raw counts and the ratio must be taken
+ * from the reported totals. Benchmarks should call {@link #recordOperation(CountingDistanceFunction)} once per
+ * operation and reset their distance function's count at the start of each iteration. JMH only reports auxiliary
+ * counters for {@code Throughput} and {@code AverageTime} benchmarks.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.EVENTS)
+public class DistanceCallCounters {
+
+    public long operations;
+
+    public long distanceCalls;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        this.operations = 0;
+        this.distanceCalls = 0;
+    }
+
+    public void recordOperation(final CountingDistanceFunction<?> distanceFunction) {
+        this.operations += 1;
+
+        // The distance function counts every call since the start of the iteration
+        this.distanceCalls = distanceFunction.getCallCount();
+    }
+}
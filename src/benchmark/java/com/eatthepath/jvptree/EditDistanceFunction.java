@@ -0,0 +1,35 @@
+package com.eatthepath.jvptree;
+
+/**
+ * Calculates the Levenshtein distance between two strings (the number of single-character insertions, deletions, and
+ * substitutions needed to turn one string into the other).
+ */
+public class EditDistanceFunction implements DistanceFunction<String> {
+
+    @Override
+    public double getDistance(final String firstString, final String secondString) {
+        int[] previousRow = new int[secondString.length() + 1];
+        int[] currentRow = new int[secondString.length() + 1];
+
+        for (int j = 0; j <= secondString.length(); j++) {
+            previousRow[j] = j;
+        }
+
+        for (int i = 1; i <= firstString.length(); i++) {
+            currentRow[0] = i;
+
+            for (int j = 1; j <= secondString.length(); j++) {
+                final int substitutionCost = firstString.charAt(i - 1) == secondString.charAt(j - 1) ? 0 : 1;
+
+                currentRow[j] = Math.min(previousRow[j - 1] + substitutionCost,
+                        Math.min(previousRow[j], currentRow[j - 1]) + 1);
+            }
+
+            final int[] swap = previousRow;
+            previousRow = currentRow;
+            currentRow = swap;
+        }
+
+        return previousRow[secondString.length()];
+    }
+}
@@ -0,0 +1,16 @@
+package com.eatthepath.jvptree;
+
+public class EuclideanDistanceFunction implements DistanceFunction<double[]> {
+
+    @Override
+    public double getDistance(final double[] firstPoint, final double[] secondPoint) {
+        double sumOfSquares = 0;
+
+        for (int i = 0; i < firstPoint.length; i++) {
+            final double delta = firstPoint[i] - secondPoint[i];
+            sumOfSquares += delta * delta;
+        }
+
+        return Math.sqrt(sumOfSquares);
+    }
+}
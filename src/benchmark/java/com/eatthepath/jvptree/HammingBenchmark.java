@@ -0,0 +1,22 @@
+package com.eatthepath.jvptree;
+
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Param;
+
+public class HammingBenchmark extends MetricSpaceBenchmark<long[]> {
+
+    @Param({"64", "256"})
+    public int bits;
+
+    @Override
+    protected List<long[]> createPoints(final int count, final Random random) {
+        return BenchmarkDatasets.createHammingCodes(count, this.bits, random);
+    }
+
+    @Override
+    protected DistanceFunction<long[]> createDistanceFunction() {
+        return new HammingDistanceFunction();
+    }
+}
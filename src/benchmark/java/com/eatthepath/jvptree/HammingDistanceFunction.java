@@ -0,0 +1,19 @@
+package com.eatthepath.jvptree;
+
+/**
+ * Calculates the number of differing bits between two bit strings of the same length, each packed into an array of
+ * {@code long}s.
+ */
+public class HammingDistanceFunction implements DistanceFunction<long[]> {
+
+    @Override
+    public double getDistance(final long[] firstCode, final long[] secondCode) {
+        int differingBits = 0;
+
+        for (int i = 0; i < firstCode.length; i++) {
+            differingBits += Long.bitCount(firstCode[i] ^ secondCode[i]);
+        }
+
+        return differingBits;
+    }
+}
@@ -0,0 +1,103 @@
+package com.eatthepath.jvptree;
+
+/**
+ * A histogram of latencies with a fixed relative precision. Values below 128 are counted exactly; larger values are
+ * counted in buckets no wider than 1/64 of their lower bound, and so percentiles are accurate to within about 1.6%
+ * regardless of scale. Histograms are not thread-safe; threads should record into histograms of their own and
+ * {@linkplain #add(LatencyHistogram) combine} them afterward.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_BUCKET_COUNT = SUB_BUCKET_COUNT * 2;
+
+    private final long[] counts = new long[LINEAR_BUCKET_COUNT + ((Long.SIZE - SUB_BUCKET_BITS - 1) * SUB_BUCKET_COUNT)];
+
+    private long totalCount;
+    private long sum;
+    private long max;
+
+    public void record(final long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Values must not be negative.");
+        }
+
+        this.counts[getBucketIndex(value)] += 1;
+
+        this.totalCount += 1;
+        this.sum += value;
+        this.max = Math.max(this.max, value);
+    }
+
+    public void add(final LatencyHistogram histogram) {
+        for (int i = 0; i < this.counts.length; i++) {
+            this.counts[i] += histogram.counts[i];
+        }
+
+        this.totalCount += histogram.totalCount;
+        this.sum += histogram.sum;
+        this.max = Math.max(this.max, histogram.max);
+    }
+
+    static int getBucketIndex(final long value) {
+        if (value < LINEAR_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        // Shift the value so that it has exactly SUB_BUCKET_BITS + 1 significant bits
+        final int shift = (Long.SIZE - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS + 1);
+
+        return LINEAR_BUCKET_COUNT + ((shift - 1) * SUB_BUCKET_COUNT) + (int) ((value >> shift) - SUB_BUCKET_COUNT);
+    }
+
+    static long getHighestValueInBucket(final int index) {
+        if (index < LINEAR_BUCKET_COUNT) {
+            return index;
+        }
+
+        final int shift = ((index - LINEAR_BUCKET_COUNT) / SUB_BUCKET_COUNT) + 1;
+        final long subBucket = ((index - LINEAR_BUCKET_COUNT) % SUB_BUCKET_COUNT) + SUB_BUCKET_COUNT;
+
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    public long getCount() {
+        return this.totalCount;
+    }
+
+    public long getMax() {
+        return this.max;
+    }
+
+    public double getMean() {
+        return this.totalCount == 0 ? 0 : (double) this.sum / this.totalCount;
+    }
+
+    /**
+     * Returns the smallest recorded value (to within this histogram's precision) that is greater than or equal to the
+     * given percentage of all recorded values.
+     *
+     * @param percentile the percentile to find, between 0 and 100
+     *
+     * @return the value at the given percentile, or 0 if no values have been recorded
+     */
+    public long getValueAtPercentile(final double percentile) {
+        if (this.totalCount == 0) {
+            return 0;
+        }
+
+        final long targetCount = Math.max(1, (long) Math.ceil((percentile / 100) * this.totalCount));
+        long count = 0;
+
+        for (int i = 0; i < this.counts.length; i++) {
+            count += this.counts[i];
+
+            if (count >= targetCount) {
+                return Math.min(getHighestValueInBucket(i), this.max);
+            }
+        }
+
+        return this.max;
+    }
+}
@@ -0,0 +1,479 @@
+package com.eatthepath.jvptree;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Replays a stream of nearest-neighbor queries against a spatial index at a fixed target rate from many threads,
+ * records the distribution of query latencies, and checks a sample of results against a brute-force search. Unlike
+ * JMH benchmarks, which report averages, the harness is meant to expose tail latency under realistic load.</p>
+ *
+ * <p>The harness is "open-loop": query {@code i} is scheduled to start at {@code i / targetRate} seconds after the
+ * run begins, whether or not earlier queries have finished, and each query's latency is measured from its scheduled
+ * start rather than from the moment a thread got around to it. If the index falls behind, queueing delays show up in
+ * the latency distribution instead of silently lowering the request rate. Service times (measured from the actual
+ * start of each query) are reported separately.</p>
+ *
+ * <p>Results are checked after the run so that brute-force searches don't disturb the measurement. Recall is the
+ * fraction of the true k nearest neighbors returned by the index, counting any returned point at least as close as the
+ * true k-th nearest neighbor as correct so that ties don't count against the index.</p>
+ *
+ * <p>The harness may be run from the command line (see {@link #main(String[])}), in which case it writes a JSON report
+ * suitable for comparison across releases, or embedded in other programs to test any {@link SpatialIndex} that
+ * supports concurrent queries.</p>
+ *
+ * @param <P> the base type of points between which distances can be measured
+ * @param <E> the specific type of point contained in the index under test
+ */
+public class LoadHarness<P, E extends P> {
+
+    private final SpatialIndex<P, E> index;
+    private final DistanceFunction<P> distanceFunction;
+    private final List<E> points;
+    private final List<? extends P> queryPoints;
+    private final int maxResults;
+
+    /**
+     * The results of a single run of the harness.
+     */
+    public static class Report {
+        private final double targetQueriesPerSecond;
+        private final int threadCount;
+        private final long elapsedNanos;
+
+        private final LatencyHistogram latencies;
+        private final LatencyHistogram serviceTimes;
+        private final long errors;
+
+        private final int recallSamples;
+        private final double meanRecall;
+        private final double minRecall;
+        private final int inexactResults;
+
+        Report(final double targetQueriesPerSecond, final int threadCount, final long elapsedNanos, final LatencyHistogram latencies, final LatencyHistogram serviceTimes, final long errors, final int recallSamples, final double meanRecall, final double minRecall, final int inexactResults) {
+            this.targetQueriesPerSecond = targetQueriesPerSecond;
+            this.threadCount = threadCount;
+            this.elapsedNanos = elapsedNanos;
+            this.latencies = latencies;
+            this.serviceTimes = serviceTimes;
+            this.errors = errors;
+            this.recallSamples = recallSamples;
+            this.meanRecall = meanRecall;
+            this.minRecall = minRecall;
+            this.inexactResults = inexactResults;
+        }
+
+        public long getQueryCount() {
+            return this.latencies.getCount();
+        }
+
+        public double getAchievedQueriesPerSecond() {
+            return this.latencies.getCount() / (this.elapsedNanos / 1e9);
+        }
+
+        public LatencyHistogram getLatencies() {
+            return this.latencies;
+        }
+
+        public LatencyHistogram getServiceTimes() {
+            return this.serviceTimes;
+        }
+
+        public long getErrors() {
+            return this.errors;
+        }
+
+        public double getMeanRecall() {
+            return this.meanRecall;
+        }
+
+        public double getMinRecall() {
+            return this.minRecall;
+        }
+
+        public int getInexactResults() {
+            return this.inexactResults;
+        }
+
+        /**
+         * Returns a JSON representation of this report with the given descriptive properties (for example, the kind of
+         * index and the size of the dataset) in a {@code "configuration"} object. Latencies are in microseconds.
+         *
+         * @param configuration descriptive properties to include in the report
+         *
+         * @return a JSON representation of this report
+         */
+        public String toJson(final Map<String, String> configuration) {
+            final StringBuilder json = new StringBuilder("{\n");
+
+            json.append("  \"configuration\": {");
+
+            boolean first = true;
+
+            for (final Map.Entry<String, String> entry : configuration.entrySet()) {
+                json.append(first ? "\n" : ",\n");
+                json.append("    \"").append(escape(entry.getKey())).append("\": \"").append(escape(entry.getValue())).append('"');
+                first = false;
+            }
+
+            json.append(first ? "},\n" : "\n  },\n");
+
+            json.append(String.format(Locale.ROOT, "  \"targetQueriesPerSecond\": %.1f,%n", this.targetQueriesPerSecond));
+            json.append(String.format(Locale.ROOT, "  \"achievedQueriesPerSecond\": %.1f,%n", this.getAchievedQueriesPerSecond()));
+            json.append(String.format(Locale.ROOT, "  \"threads\": %d,%n", this.threadCount));
+            json.append(String.format(Locale.ROOT, "  \"queries\": %d,%n", this.getQueryCount()));
+            json.append(String.format(Locale.ROOT, "  \"errors\": %d,%n", this.errors));
+            json.append("  \"latencyMicros\": ").append(histogramToJson(this.latencies)).append(",\n");
+            json.append("  \"serviceTimeMicros\": ").append(histogramToJson(this.serviceTimes)).append(",\n");
+            json.append(String.format(Locale.ROOT,
+                    "  \"recall\": {\"samples\": %d, \"mean\": %.6f, \"min\": %.6f, \"inexactResults\": %d}%n",
+                    this.recallSamples, this.meanRecall, this.minRecall, this.inexactResults));
+
+            return json.append("}\n").toString();
+        }
+
+        private static String histogramToJson(final LatencyHistogram histogram) {
+            return String.format(Locale.ROOT,
+                    "{\"mean\": %.3f, \"p50\": %.3f, \"p90\": %.3f, \"p99\": %.3f, \"p999\": %.3f, \"max\": %.3f}",
+                    histogram.getMean() / 1000,
+                    histogram.getValueAtPercentile(50) / 1000.0,
+                    histogram.getValueAtPercentile(90) / 1000.0,
+                    histogram.getValueAtPercentile(99) / 1000.0,
+                    histogram.getValueAtPercentile(99.9) / 1000.0,
+                    histogram.getMax() / 1000.0);
+        }
+
+        private static String escape(final String string) {
+            return string.replace("\\", "\\\\").replace("\"", "\\\"");
+        }
+    }
+
+    private static class SampledResult<E> {
+        private final int queryIndex;
+        private final List<E> result;
+
+        private SampledResult(final int queryIndex, final List<E> result) {
+            this.queryIndex = queryIndex;
+            this.result = result;
+        }
+    }
+
+    private static class Worker<P, E extends P> extends Thread {
+        private static final long SPIN_NANOS = 200_000;
+
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final LatencyHistogram serviceTimes = new LatencyHistogram();
+        private final List<SampledResult<E>> sampledResults = new ArrayList<>();
+        private long errors;
+
+        private final LoadHarness<P, E> harness;
+        private final AtomicLong nextQuery;
+        private final long startNanos;
+        private final long nanosPerQuery;
+        private final long endNanos;
+        private final int recallSampleInterval;
+
+        private Worker(final LoadHarness<P, E> harness, final AtomicLong nextQuery, final long startNanos, final long nanosPerQuery, final long endNanos, final int recallSampleInterval) {
+            this.harness = harness;
+            this.nextQuery = nextQuery;
+            this.startNanos = startNanos;
+            this.nanosPerQuery = nanosPerQuery;
+            this.endNanos = endNanos;
+            this.recallSampleInterval = recallSampleInterval;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final long query = this.nextQuery.getAndIncrement();
+                final long scheduledStartNanos = this.startNanos + (query * this.nanosPerQuery);
+
+                if (scheduledStartNanos >= this.endNanos) {
+                    break;
+                }
+
+                long now;
+
+                // Parking usually oversleeps by tens of microseconds, which would show up as latency, so spin through
+                // the last stretch before each query's scheduled start
+                while ((now = System.nanoTime()) < scheduledStartNanos) {
+                    if (scheduledStartNanos - now > SPIN_NANOS) {
+                        LockSupport.parkNanos(scheduledStartNanos - now - SPIN_NANOS);
+                    }
+                }
+
+                final int queryIndex = (int) (query % this.harness.queryPoints.size());
+
+                try {
+                    final List<E> result = this.harness.index.getNearestNeighbors(
+                            this.harness.queryPoints.get(queryIndex), this.harness.maxResults);
+
+                    final long finishNanos = System.nanoTime();
+
+                    this.latencies.record(finishNanos - scheduledStartNanos);
+                    this.serviceTimes.record(finishNanos - now);
+
+                    if (this.recallSampleInterval > 0 && query % this.recallSampleInterval == 0) {
+                        this.sampledResults.add(new SampledResult<>(queryIndex, result));
+                    }
+                } catch (final RuntimeException e) {
+                    this.errors += 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Constructs a new load harness.
+     *
+     * @param index the index to test; must support concurrent queries
+     * @param distanceFunction the distance function used by the index
+     * @param points the points in the index, for checking results
+     * @param queryPoints the query points to replay, in order; queries wrap around to the start of the list as needed
+     * @param maxResults the number of nearest neighbors to request in each query
+     */
+    public LoadHarness(final SpatialIndex<P, E> index, final DistanceFunction<P> distanceFunction, final List<E> points, final List<? extends P> queryPoints, final int maxResults) {
+        if (queryPoints.isEmpty()) {
+            throw new IllegalArgumentException("Must provide at least one query point.");
+        }
+
+        this.index = index;
+        this.distanceFunction = distanceFunction;
+        this.points = points;
+        this.queryPoints = queryPoints;
+        this.maxResults = maxResults;
+    }
+
+    /**
+     * Issues queries at the given rate for the given duration and reports the results.
+     *
+     * @param targetQueriesPerSecond the rate at which to issue queries
+     * @param threadCount the number of threads issuing queries
+     * @param duration the length of the run
+     * @param recallSampleInterval the interval at which to check query results against a brute-force search (for
+     * example, 100 checks one in every hundred queries); 0 disables checking
+     *
+     * @return a report describing the run
+     *
+     * @throws InterruptedException if interrupted while waiting for the run to finish
+     */
+    public Report run(final double targetQueriesPerSecond, final int threadCount, final Duration duration, final int recallSampleInterval) throws InterruptedException {
+        if (!(targetQueriesPerSecond > 0)) {
+            throw new IllegalArgumentException("Target rate must be positive.");
+        }
+
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Must use at least one thread.");
+        }
+
+        final AtomicLong nextQuery = new AtomicLong();
+        final long nanosPerQuery = Math.max(1, Math.round(1e9 / targetQueriesPerSecond));
+
+        final List<Worker<P, E>> workers = new ArrayList<>(threadCount);
+
+        final long startNanos = System.nanoTime();
+        final long endNanos = startNanos + duration.toNanos();
+
+        for (int i = 0; i < threadCount; i++) {
+            final Worker<P, E> worker =
+                    new Worker<>(this, nextQuery, startNanos, nanosPerQuery, endNanos, recallSampleInterval);
+
+            worker.setName("load-harness-" + i);
+            worker.setDaemon(true);
+            worker.start();
+
+            workers.add(worker);
+        }
+
+        for (final Worker<P, E> worker : workers) {
+            worker.join();
+        }
+
+        final long elapsedNanos = System.nanoTime() - startNanos;
+
+        final LatencyHistogram latencies = new LatencyHistogram();
+        final LatencyHistogram serviceTimes = new LatencyHistogram();
+        long errors = 0;
+
+        int recallSamples = 0;
+        double recallSum = 0;
+        double minRecall = 1;
+        int inexactResults = 0;
+
+        for (final Worker<P, E> worker : workers) {
+            latencies.add(worker.latencies);
+            serviceTimes.add(worker.serviceTimes);
+            errors += worker.errors;
+
+            for (final SampledResult<E> sampledResult : worker.sampledResults) {
+                final double recall = this.getRecall(this.queryPoints.get(sampledResult.queryIndex), sampledResult.result);
+
+                recallSamples += 1;
+                recallSum += recall;
+                minRecall = Math.min(minRecall, recall);
+
+                if (recall < 1) {
+                    inexactResults += 1;
+                }
+            }
+        }
+
+        return new Report(targetQueriesPerSecond, threadCount, elapsedNanos, latencies, serviceTimes, errors,
+                recallSamples, recallSamples == 0 ? Double.NaN : recallSum / recallSamples,
+                recallSamples == 0 ? Double.NaN : minRecall, inexactResults);
+    }
+
+    private double getRecall(final P queryPoint, final List<E> result) {
+        final NearestNeighborCollector<P, E> collector =
+                new NearestNeighborCollector<>(queryPoint, this.distanceFunction, this.maxResults);
+
+        for (final E point : this.points) {
+            collector.offerPoint(point);
+        }
+
+        if (collector.size() == 0) {
+            return result == null || result.isEmpty() ? 1 : 0;
+        }
+
+        if (result == null) {
+            return 0;
+        }
+
+        final double kthDistance = collector.getDistance(collector.size() - 1);
+
+        int correctResults = 0;
+
+        for (final E point : result) {
+            if (this.distanceFunction.getDistance(queryPoint, point) <= kthDistance) {
+                correctResults += 1;
+            }
+        }
+
+        return Math.min(1, (double) correctResults / collector.size());
+    }
+
+    /**
+     * Runs the harness against a generated dataset and writes a JSON report. Options are given as
+     * {@code --name=value} pairs:
+     *
+     * <dl>
+     *  <dt>{@code --index}</dt><dd>{@code vptree} (the default), {@code sharded}, or {@code segmented}</dd>
+     *  <dt>{@code --points}</dt><dd>the number of points to index (default 100000)</dd>
+     *  <dt>{@code --dimensions}</dt><dd>the number of dimensions of each point (default 8)</dd>
+     *  <dt>{@code --distribution}</dt><dd>one of {@link BenchmarkDatasets.VectorDistribution} (default
+     *  {@code CLUSTERED})</dd>
+     *  <dt>{@code --k}</dt><dd>the number of nearest neighbors to request (default 16)</dd>
+     *  <dt>{@code --rate}</dt><dd>the target rate in queries per second (default 1000)</dd>
+     *  <dt>{@code --threads}</dt><dd>the number of threads issuing queries (default 8)</dd>
+     *  <dt>{@code --warmup}</dt><dd>the length of an unreported warm-up run in seconds (default 10)</dd>
+     *  <dt>{@code --duration}</dt><dd>the length of the measured run in seconds (default 30)</dd>
+     *  <dt>{@code --recall-sample-interval}</dt><dd>check one in every this many queries against a brute-force
+     *  search (default 100; 0 disables checking)</dd>
+     *  <dt>{@code --output}</dt><dd>a file to which to write the report (default: standard output)</dd>
+     * </dl>
+     *
+     * @param args command-line options
+     *
+     * @throws Exception in case of any problem running the harness or writing the report
+     */
+    public static void main(final String[] args) throws Exception {
+        final Map<String, String> options = new HashMap<>();
+
+        for (final String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Options must be given as --name=value; got \"" + arg + "\"");
+            }
+
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+
+        final String indexType = options.getOrDefault("index", "vptree");
+        final int pointCount = Integer.parseInt(options.getOrDefault("points", "100000"));
+        final int dimensions = Integer.parseInt(options.getOrDefault("dimensions", "8"));
+        final BenchmarkDatasets.VectorDistribution distribution =
+                BenchmarkDatasets.VectorDistribution.valueOf(options.getOrDefault("distribution", "CLUSTERED"));
+        final int maxResults = Integer.parseInt(options.getOrDefault("k", "16"));
+        final double targetRate = Double.parseDouble(options.getOrDefault("rate", "1000"));
+        final int threadCount = Integer.parseInt(options.getOrDefault("threads", "8"));
+        final Duration warmup = Duration.ofSeconds(Long.parseLong(options.getOrDefault("warmup", "10")));
+        final Duration duration = Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration", "30")));
+        final int recallSampleInterval = Integer.parseInt(options.getOrDefault("recall-sample-interval", "100"));
+
+        final List<double[]> points = BenchmarkDatasets.createVectors(distribution, pointCount, dimensions,
+                new Random(BenchmarkDatasets.POINT_SEED));
+
+        final List<double[]> queryPoints = BenchmarkDatasets.createVectors(distribution, 65536, dimensions,
+                new Random(BenchmarkDatasets.QUERY_SEED));
+
+        final EuclideanDistanceFunction distanceFunction = new EuclideanDistanceFunction();
+        final SpatialIndex<double[], double[]> index;
+
+        switch (indexType) {
+            case "vptree": {
+                index = new VPTree<>(distanceFunction, points);
+                break;
+            }
+
+            case "sharded": {
+                index = new ShardedVPTree<>(distanceFunction, points, Runtime.getRuntime().availableProcessors());
+                break;
+            }
+
+            case "segmented": {
+                final SegmentedVPTree<double[], double[]> segmentedTree = new SegmentedVPTree<>(distanceFunction);
+                segmentedTree.addAll(points);
+                segmentedTree.compact();
+
+                index = segmentedTree;
+                break;
+            }
+
+            default: {
+                throw new IllegalArgumentException("Unknown index type: " + indexType);
+            }
+        }
+
+        final LoadHarness<double[], double[]> harness =
+                new LoadHarness<>(index, distanceFunction, points, queryPoints, maxResults);
+
+        if (!warmup.isZero()) {
+            harness.run(targetRate, threadCount, warmup, 0);
+        }
+
+        final Report report = harness.run(targetRate, threadCount, duration, recallSampleInterval);
+
+        final Map<String, String> configuration = new LinkedHashMap<>();
+        configuration.put("index", indexType);
+        configuration.put("points", String.valueOf(pointCount));
+        configuration.put("dimensions", String.valueOf(dimensions));
+        configuration.put("distribution", distribution.name());
+        configuration.put("k", String.valueOf(maxResults));
+        configuration.put("durationSeconds", String.valueOf(duration.getSeconds()));
+        configuration.put("javaVersion", System.getProperty("java.version"));
+
+        final String json = report.toJson(configuration);
+
+        if (options.containsKey("output")) {
+            try (final Writer writer = Files.newBufferedWriter(Paths.get(options.get("output")), StandardCharsets.UTF_8)) {
+                writer.write(json);
+            } catch (final IOException e) {
+                throw new IOException("Failed to write report to " + options.get("output"), e);
+            }
+        } else {
+            System.out.print(json);
+        }
+    }
+}
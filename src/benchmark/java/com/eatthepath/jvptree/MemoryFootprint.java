@@ -0,0 +1,197 @@
+package com.eatthepath.jvptree;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import com.eatthepath.jvptree.util.SamplingMedianDistanceThresholdSelectionStrategy;
+
+/**
+ * <p>Measures the heap memory retained by vp-trees with different node capacities and layouts by building trees and
+ * comparing heap usage after garbage collection before and after each tree is built. Points are created before any
+ * measurement begins, and so measurements cover only the memory retained by the tree itself, just like
+ * {@link TreeHealthReport#getEstimatedHeapBytes()} and {@link TreeHealthReport#estimateHeapBytes(int, int)}, which are
+ * reported alongside measurements for comparison.</p>
+ *
+ * <p>Heap measurements are only as precise as the garbage collector allows; running with {@code -XX:+UseSerialGC}
+ * gives the most consistent results. Options are given as {@code --name=value} pairs:</p>
+ *
+ * <dl>
+ *  <dt>{@code --points}</dt><dd>the number of points in each tree (default 100000)</dd>
+ *  <dt>{@code --dimensions}</dt><dd>the number of dimensions of each point (default 8)</dd>
+ *  <dt>{@code --capacities}</dt><dd>a comma-separated list of node capacities to measure (default
+ *  {@code 4,8,16,32,64,128,256})</dd>
+ *  <dt>{@code --repetitions}</dt><dd>the number of trees to build and measure for each configuration; the smallest
+ *  measurement is reported (default 3)</dd>
+ * </dl>
+ */
+public class MemoryFootprint {
+
+    /**
+     * Optional features of a tree that change how much memory its nodes occupy.
+     */
+    public enum Layout {
+        PLAIN,
+        ATTRIBUTE_SUMMARIES,
+        EQUALITY_LOCATOR,
+        IDENTITY_LOCATOR
+    }
+
+    // Keeps measured objects reachable until after the heap has been measured
+    private static volatile Object retainedObject;
+
+    /**
+     * Measures the heap memory retained by the object created by the given factory. Callers should make sure that
+     * anything the object refers to, but which shouldn't count toward the measurement, already exists before calling
+     * this method.
+     *
+     * @param factory a supplier of the object to measure
+     *
+     * @return the difference, in bytes, between heap usage after garbage collection with and without the new object
+     */
+    public static long measureRetainedHeapBytes(final Supplier<?> factory) {
+        final long heapBytesBefore = getUsedHeapBytesAfterGarbageCollection();
+
+        retainedObject = factory.get();
+
+        try {
+            return getUsedHeapBytesAfterGarbageCollection() - heapBytesBefore;
+        } finally {
+            retainedObject = null;
+        }
+    }
+
+    private static long getUsedHeapBytesAfterGarbageCollection() {
+        final Runtime runtime = Runtime.getRuntime();
+
+        long usedHeapBytes = Long.MAX_VALUE;
+        int collectionsWithoutProgress = 0;
+
+        // A single collection doesn't always free everything that's unreachable, so keep collecting until heap usage
+        // stops falling for a few collections in a row
+        for (int i = 0; i < 32 && collectionsWithoutProgress < 4; i++) {
+            System.gc();
+
+            final long currentUsedHeapBytes = runtime.totalMemory() - runtime.freeMemory();
+
+            if (currentUsedHeapBytes < usedHeapBytes) {
+                usedHeapBytes = currentUsedHeapBytes;
+                collectionsWithoutProgress = 0;
+            } else {
+                collectionsWithoutProgress += 1;
+            }
+        }
+
+        return usedHeapBytes;
+    }
+
+    static VPTree<double[], double[]> buildTree(final List<double[]> points, final int nodeCapacity, final Layout layout) {
+        final VPTree<double[], double[]> vptree = new VPTree<>(new EuclideanDistanceFunction(),
+                new SamplingMedianDistanceThresholdSelectionStrategy<>(SamplingMedianDistanceThresholdSelectionStrategy.DEFAULT_NUMBER_OF_SAMPLES),
+                nodeCapacity, points);
+
+        switch (layout) {
+            case PLAIN: {
+                break;
+            }
+
+            case ATTRIBUTE_SUMMARIES: {
+                vptree.setAttributeFunction(point -> point[0] < 0.5);
+                break;
+            }
+
+            case EQUALITY_LOCATOR: {
+                vptree.setLocatorMode(VPTree.LocatorMode.EQUALITY);
+                break;
+            }
+
+            case IDENTITY_LOCATOR: {
+                vptree.setLocatorMode(VPTree.LocatorMode.IDENTITY);
+                break;
+            }
+
+            default: {
+                throw new IllegalArgumentException("Unexpected layout: " + layout);
+            }
+        }
+
+        return vptree;
+    }
+
+    static long estimateHeapBytes(final int size, final int nodeCapacity, final Layout layout) {
+        switch (layout) {
+            case PLAIN: {
+                return TreeHealthReport.estimateHeapBytes(size, nodeCapacity);
+            }
+
+            case ATTRIBUTE_SUMMARIES: {
+                return TreeHealthReport.estimateHeapBytes(size, nodeCapacity, VPTree.LocatorMode.NONE, true);
+            }
+
+            case EQUALITY_LOCATOR: {
+                return TreeHealthReport.estimateHeapBytes(size, nodeCapacity, VPTree.LocatorMode.EQUALITY, false);
+            }
+
+            case IDENTITY_LOCATOR: {
+                return TreeHealthReport.estimateHeapBytes(size, nodeCapacity, VPTree.LocatorMode.IDENTITY, false);
+            }
+
+            default: {
+                throw new IllegalArgumentException("Unexpected layout: " + layout);
+            }
+        }
+    }
+
+    public static void main(final String[] args) {
+        final Map<String, String> options = new HashMap<>();
+
+        for (final String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Options must be given as --name=value; got \"" + arg + "\"");
+            }
+
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+
+        final int pointCount = Integer.parseInt(options.getOrDefault("points", "100000"));
+        final int dimensions = Integer.parseInt(options.getOrDefault("dimensions", "8"));
+        final String[] capacities = options.getOrDefault("capacities", "4,8,16,32,64,128,256").split(",");
+        final int repetitions = Integer.parseInt(options.getOrDefault("repetitions", "3"));
+
+        final List<double[]> points = BenchmarkDatasets.createVectors(BenchmarkDatasets.VectorDistribution.CLUSTERED,
+                pointCount, dimensions, new Random(BenchmarkDatasets.POINT_SEED));
+
+        final long pointBytes = measureRetainedHeapBytes(() -> BenchmarkDatasets.createVectors(
+                BenchmarkDatasets.VectorDistribution.CLUSTERED, pointCount, dimensions, new Random(BenchmarkDatasets.POINT_SEED)));
+
+        System.out.printf(Locale.ROOT, "%d points with %d dimensions; points alone occupy %.1f bytes per point%n%n",
+                pointCount, dimensions, (double) pointBytes / pointCount);
+
+        System.out.printf(Locale.ROOT, "%-20s %8s %14s %14s %14s%n",
+                "layout", "capacity", "measured B/pt", "report B/pt", "estimate B/pt");
+
+        for (final Layout layout : Layout.values()) {
+            for (final String capacity : capacities) {
+                final int nodeCapacity = Integer.parseInt(capacity.trim());
+
+                long measuredBytes = Long.MAX_VALUE;
+
+                for (int i = 0; i < repetitions; i++) {
+                    measuredBytes = Math.min(measuredBytes,
+                            measureRetainedHeapBytes(() -> buildTree(points, nodeCapacity, layout)));
+                }
+
+                final long reportedBytes = buildTree(points, nodeCapacity, layout).getHealthReport().getEstimatedHeapBytes();
+                final long estimatedBytes = estimateHeapBytes(pointCount, nodeCapacity, layout);
+
+                System.out.printf(Locale.ROOT, "%-20s %8d %14.1f %14.1f %14.1f%n", layout, nodeCapacity,
+                        (double) measuredBytes / pointCount,
+                        (double) reportedBytes / pointCount,
+                        (double) estimatedBytes / pointCount);
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.eatthepath.jvptree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.eatthepath.jvptree.util.CountingDistanceFunction;
+import com.eatthepath.jvptree.util.SamplingMedianDistanceThresholdSelectionStrategy;
+
+/**
+ * A base class for benchmarks that build and search trees of generated points. Each subclass supplies a kind of point
+ * and a distance function; this class measures construction, nearest-neighbor searches, and distance searches, and
+ * reports the total number of distance calculations and operations (as {@code distanceCalls} and {@code operations};
+ * see {@link DistanceCallCounters}) alongside the time per operation.
+ *
+ * <p>Points and queries are generated from fixed seeds (see {@link BenchmarkDatasets}), and so results are comparable
+ * between commits. Default parameters are sized to run on a laptop; larger runs may set point counts as high as ten
+ * million with JMH's {@code -p} option (for example, {@code -p pointCount=1000000,10000000}) given enough heap.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public abstract class MetricSpaceBenchmark<P> {
+
+    @Param({"10000", "100000"})
+    public int pointCount;
+
+    @Param({"32"})
+    public int nodeCapacity;
+
+    @Param({"16"})
+    public int resultSetSize;
+
+    private List<P> points;
+    private CountingDistanceFunction<P> distanceFunction;
+    private VPTree<P, P> vptree;
+
+    private List<P> queryPoints;
+    private int queryIndex;
+
+    // Chosen so that a typical distance search finds about as many points as a nearest-neighbor search
+    private double maxDistance;
+
+    private static final int QUERY_POINT_COUNT = 1024;
+    private static final int RADIUS_CALIBRATION_QUERIES = 15;
+
+    protected abstract List<P> createPoints(int count, Random random);
+
+    protected abstract DistanceFunction<P> createDistanceFunction();
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        this.points = this.createPoints(this.pointCount, new Random(BenchmarkDatasets.POINT_SEED));
+        this.queryPoints = this.createPoints(QUERY_POINT_COUNT, new Random(BenchmarkDatasets.QUERY_SEED));
+
+        this.distanceFunction = new CountingDistanceFunction<>(this.createDistanceFunction());
+        this.vptree = this.createTree();
+
+        final double[] kthNeighborDistances = new double[RADIUS_CALIBRATION_QUERIES];
+
+        for (int i = 0; i < kthNeighborDistances.length; i++) {
+            final P queryPoint = this.queryPoints.get(i);
+            final List<P> neighbors = this.vptree.getNearestNeighbors(queryPoint, this.resultSetSize);
+
+            kthNeighborDistances[i] =
+                    this.distanceFunction.getDistance(queryPoint, neighbors.get(neighbors.size() - 1));
+        }
+
+        Arrays.sort(kthNeighborDistances);
+        this.maxDistance = kthNeighborDistances[kthNeighborDistances.length / 2];
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() {
+        this.distanceFunction.reset();
+    }
+
+    private VPTree<P, P> createTree() {
+        return new VPTree<>(this.distanceFunction, new SamplingMedianDistanceThresholdSelectionStrategy<>(),
+                this.nodeCapacity, new ArrayList<>(this.points));
+    }
+
+    private P nextQueryPoint() {
+        this.queryIndex = (this.queryIndex + 1) % QUERY_POINT_COUNT;
+        return this.queryPoints.get(this.queryIndex);
+    }
+
+    @Benchmark
+    public VPTree<?, ?> benchmarkConstructTree(final DistanceCallCounters counters) {
+        final VPTree<P, P> vptree = this.createTree();
+        counters.recordOperation(this.distanceFunction);
+
+        return vptree;
+    }
+
+    @Benchmark
+    public List<?> benchmarkGetNearestNeighbors(final DistanceCallCounters counters) {
+        final List<P> nearestNeighbors = this.vptree.getNearestNeighbors(this.nextQueryPoint(), this.resultSetSize);
+        counters.recordOperation(this.distanceFunction);
+
+        return nearestNeighbors;
+    }
+
+    @Benchmark
+    public List<?> benchmarkGetAllWithinDistance(final DistanceCallCounters counters) {
+        final List<P> pointsWithinDistance = this.vptree.getAllWithinDistance(this.nextQueryPoint(), this.maxDistance);
+        counters.recordOperation(this.distanceFunction);
+
+        return pointsWithinDistance;
+    }
+}
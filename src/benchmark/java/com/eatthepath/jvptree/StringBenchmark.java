@@ -0,0 +1,22 @@
+package com.eatthepath.jvptree;
+
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Param;
+
+public class StringBenchmark extends MetricSpaceBenchmark<String> {
+
+    @Param({"8", "32"})
+    public int stringLength;
+
+    @Override
+    protected List<String> createPoints(final int count, final Random random) {
+        return BenchmarkDatasets.createStrings(count, this.stringLength, random);
+    }
+
+    @Override
+    protected DistanceFunction<String> createDistanceFunction() {
+        return new EditDistanceFunction();
+    }
+}
@@ -0,0 +1,88 @@
+package com.eatthepath.jvptree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares allocating and non-allocating query methods. This benchmark is most informative when run with JMH's GC
+ * profiler (i.e. {@code -prof gc}), which reports allocations per operation.
+ */
+@State(Scope.Thread)
+public class VPTreeAllocationBenchmark {
+
+    @Param({"100000"})
+    public int pointCount;
+
+    @Param({"16"})
+    public int resultSetSize;
+
+    @Param({"0.01"})
+    public double maxDistance;
+
+    private VPTree<CartesianPoint, CartesianPoint> vptree;
+
+    // Query points are generated ahead of time so that creating them doesn't show up in allocation measurements
+    private CartesianPoint[] queryPoints;
+    private int queryIndex;
+
+    private final NearestNeighborCollector<CartesianPoint, CartesianPoint> collector = new NearestNeighborCollector<>();
+
+    private double distanceSum;
+    private final PointConsumer<CartesianPoint> distanceAccumulator = (point, distance) -> this.distanceSum += distance;
+
+    private static final int QUERY_POINT_COUNT = 1024;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random();
+        final List<CartesianPoint> points = new ArrayList<>(this.pointCount);
+
+        for (int i = 0; i < this.pointCount; i++) {
+            points.add(new CartesianPoint(random.nextDouble(), random.nextDouble()));
+        }
+
+        this.vptree = new VPTree<>(new CartesianDistanceFunction(), points);
+
+        this.queryPoints = new CartesianPoint[QUERY_POINT_COUNT];
+
+        for (int i = 0; i < QUERY_POINT_COUNT; i++) {
+            this.queryPoints[i] = new CartesianPoint(random.nextDouble(), random.nextDouble());
+        }
+    }
+
+    private CartesianPoint nextQueryPoint() {
+        this.queryIndex = (this.queryIndex + 1) % QUERY_POINT_COUNT;
+        return this.queryPoints[this.queryIndex];
+    }
+
+    @Benchmark
+    public List<CartesianPoint> benchmarkGetNearestNeighbors() {
+        return this.vptree.getNearestNeighbors(this.nextQueryPoint(), this.resultSetSize);
+    }
+
+    @Benchmark
+    public CartesianPoint benchmarkGetNearestNeighborsWithCollector() {
+        this.vptree.getNearestNeighbors(this.nextQueryPoint(), this.resultSetSize, point -> true, this.collector);
+        return this.collector.getPoint(0);
+    }
+
+    @Benchmark
+    public List<CartesianPoint> benchmarkGetAllWithinDistance() {
+        return this.vptree.getAllWithinDistance(this.nextQueryPoint(), this.maxDistance);
+    }
+
+    @Benchmark
+    public double benchmarkForEachWithinDistance() {
+        this.distanceSum = 0;
+        this.vptree.forEachWithinDistance(this.nextQueryPoint(), this.maxDistance, this.distanceAccumulator);
+
+        return this.distanceSum;
+    }
+}
@@ -0,0 +1,167 @@
+package com.eatthepath.jvptree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures single-point and batch insertion and removal, and the cost of rebuilding a tree after churn. Mutations
+ * change the tree being measured, so every iteration starts with a freshly-built tree and measures a fixed amount of
+ * work in {@link Mode#SingleShotTime} mode: each iteration of the single-point benchmarks performs
+ * {@value #SINGLE_POINT_OPERATIONS} operations (and reports the time for all of them), and each iteration of the batch
+ * benchmarks performs one batch operation.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class VPTreeMutationBenchmark {
+
+    static final int SINGLE_POINT_OPERATIONS = 1000;
+
+    @State(Scope.Thread)
+    public static class TreeState {
+
+        @Param({"10000", "100000", "1000000"})
+        public int treeSize;
+
+        @Param({"1000", "10000"})
+        public int batchSize;
+
+        @Param({"8"})
+        public int dimensions;
+
+        private final EuclideanDistanceFunction distanceFunction = new EuclideanDistanceFunction();
+
+        VPTree<double[], double[]> vptree;
+
+        // Points not in the tree, ready to be added
+        List<double[]> newPoints;
+        int newPointIndex;
+
+        // Points in the tree, in random order, ready to be removed
+        List<double[]> existingPoints;
+        int existingPointIndex;
+
+        // A batch of points in the tree to remove, and everything else in the tree, prepared ahead of time so that
+        // building collections doesn't count toward the time for batch removals
+        List<double[]> pointsToRemove;
+        Set<double[]> pointsToRemoveSet;
+        Set<double[]> pointsToRetain;
+
+        private List<double[]> points;
+
+        @Setup(Level.Trial)
+        public void setUpTrial() {
+            final Random random = new Random(BenchmarkDatasets.POINT_SEED);
+
+            this.points = BenchmarkDatasets.createVectors(BenchmarkDatasets.VectorDistribution.CLUSTERED,
+                    this.treeSize, this.dimensions, random);
+
+            this.newPoints = BenchmarkDatasets.createVectors(BenchmarkDatasets.VectorDistribution.CLUSTERED,
+                    Math.max(this.batchSize, SINGLE_POINT_OPERATIONS), this.dimensions, random);
+
+            this.existingPoints = new ArrayList<>(this.points);
+            Collections.shuffle(this.existingPoints, random);
+
+            this.pointsToRemove = this.existingPoints.subList(0, Math.min(this.batchSize, this.treeSize));
+            this.pointsToRemoveSet = new HashSet<>(this.pointsToRemove);
+
+            this.pointsToRetain = new HashSet<>(this.points);
+            this.pointsToRetain.removeAll(this.pointsToRemoveSet);
+
+        }
+
+        @Setup(Level.Iteration)
+        public void setUpIteration() {
+            this.vptree = new VPTree<>(this.distanceFunction, this.points);
+
+            this.newPointIndex = 0;
+            this.existingPointIndex = 0;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ChurnedTreeState extends TreeState {
+
+        // JMH finds the setup annotation on the superclass method and calls this override in its place
+        @Override
+        public void setUpIteration() {
+            super.setUpIteration();
+
+            // Replace a batch of points, leaving the tree the same size but with some stale vantage points and removed
+            // points still occupying space
+            this.vptree.removeAll(this.pointsToRemoveSet);
+            this.vptree.addAll(this.newPoints.subList(0, this.batchSize));
+        }
+    }
+
+    @Benchmark
+    @Warmup(iterations = 5, batchSize = SINGLE_POINT_OPERATIONS)
+    @Measurement(iterations = 10, batchSize = SINGLE_POINT_OPERATIONS)
+    public boolean benchmarkAdd(final TreeState state) {
+        return state.vptree.add(state.newPoints.get(state.newPointIndex++ % state.newPoints.size()));
+    }
+
+    @Benchmark
+    @Warmup(iterations = 5, batchSize = SINGLE_POINT_OPERATIONS)
+    @Measurement(iterations = 10, batchSize = SINGLE_POINT_OPERATIONS)
+    public boolean benchmarkRemove(final TreeState state) {
+        return state.vptree.remove(state.existingPoints.get(state.existingPointIndex++ % state.existingPoints.size()));
+    }
+
+    @Benchmark
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 10)
+    public boolean benchmarkAddAll(final TreeState state) {
+        return state.vptree.addAll(state.newPoints.subList(0, state.batchSize));
+    }
+
+    @Benchmark
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 10)
+    public boolean benchmarkRemoveAllList(final TreeState state) {
+        // Lists are searched for one point at a time
+        return state.vptree.removeAll(state.pointsToRemove);
+    }
+
+    @Benchmark
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 10)
+    public boolean benchmarkRemoveAllSet(final TreeState state) {
+        // Sets are removed in a single pass over the whole tree
+        return state.vptree.removeAll(state.pointsToRemoveSet);
+    }
+
+    @Benchmark
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 10)
+    public boolean benchmarkRetainAll(final TreeState state) {
+        // Retain everything except one batch of points
+        return state.vptree.retainAll(state.pointsToRetain);
+    }
+
+    @Benchmark
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 10)
+    public VPTree<double[], double[]> benchmarkRebuildAfterChurn(final ChurnedTreeState state) {
+        state.vptree.rebuild();
+        return state.vptree;
+    }
+}
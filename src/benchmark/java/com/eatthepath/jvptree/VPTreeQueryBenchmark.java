@@ -25,6 +25,11 @@ public class VPTreeQueryBenchmark {
     @Param({"2", "16", "128"})
     public int resultSetSize;
 
+    // Running instrumented queries before measurement lets the JIT see every kind of statistics object, as it would in
+    // an application that traces some of its queries; uninstrumented queries should be just as fast either way
+    @Param({"false", "true"})
+    public boolean exerciseInstrumentation;
+
     private List<CartesianPoint> points;
     private VPTree<CartesianPoint, CartesianPoint> vptree;
 
@@ -42,6 +47,24 @@ public class VPTreeQueryBenchmark {
         this.vptree = new VPTree<>(this.distanceFunction,
                 new SamplingMedianDistanceThresholdSelectionStrategy<CartesianPoint, CartesianPoint>(32),
                 this.nodeSize, this.points);
+
+        if (this.exerciseInstrumentation) {
+            final QueryStatistics statistics = new QueryStatistics();
+            final QueryTrace trace = new QueryTrace();
+
+            // Share one filter among all of the instrumented queries so we're measuring the cost of seeing different
+            // kinds of statistics rather than different kinds of filters
+            final PointFilter<CartesianPoint> filter = point -> true;
+
+            for (int i = 0; i < 20_000; i++) {
+                this.vptree.getNearestNeighbors(this.createRandomPoint(), this.resultSetSize, filter, statistics);
+                this.vptree.getNearestNeighbors(this.createRandomPoint(), this.resultSetSize, filter, trace);
+                this.vptree.getAllWithinDistance(this.createRandomPoint(), 0.01, filter, statistics);
+                this.vptree.getAllWithinDistance(this.createRandomPoint(), 0.01, filter, trace);
+
+                trace.reset();
+            }
+        }
     }
 
     @Benchmark
@@ -0,0 +1,25 @@
+package com.eatthepath.jvptree;
+
+import java.util.List;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Param;
+
+public class VectorBenchmark extends MetricSpaceBenchmark<double[]> {
+
+    @Param({"UNIFORM", "CLUSTERED", "LOW_INTRINSIC_DIMENSION"})
+    public BenchmarkDatasets.VectorDistribution distribution;
+
+    @Param({"2", "8", "32", "128", "512"})
+    public int dimensions;
+
+    @Override
+    protected List<double[]> createPoints(final int count, final Random random) {
+        return BenchmarkDatasets.createVectors(this.distribution, count, this.dimensions, random);
+    }
+
+    @Override
+    protected DistanceFunction<double[]> createDistanceFunction() {
+        return new EuclideanDistanceFunction();
+    }
+}
@@ -0,0 +1,123 @@
+package com.eatthepath.jvptree.jfr;
+
+import com.eatthepath.jvptree.VPTree;
+import com.eatthepath.jvptree.util.MedianDistanceThresholdSelectionStrategy;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JfrVPTreeListenerTest {
+
+    private static final String SLOW_QUERY_EVENT = "com.eatthepath.jvptree.SlowQuery";
+    private static final String NODE_REBUILD_EVENT = "com.eatthepath.jvptree.NodeRebuild";
+    private static final String PARTITION_FAILURE_EVENT = "com.eatthepath.jvptree.PartitionFailure";
+
+    @Test
+    public void testJfrVPTreeListenerIllegalArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new JfrVPTreeListener(Duration.ofMillis(-1)));
+    }
+
+    @Test
+    public void testIsEnabled() {
+        final JfrVPTreeListener listener = new JfrVPTreeListener();
+
+        // Trees shouldn't instrument queries unless a recording wants slow query events
+        assertFalse(listener.isEnabled());
+
+        try (final Recording recording = new Recording()) {
+            recording.enable(NODE_REBUILD_EVENT);
+            recording.disable(SLOW_QUERY_EVENT);
+            recording.start();
+
+            assertFalse(listener.isEnabled());
+        }
+
+        try (final Recording recording = new Recording()) {
+            recording.enable(SLOW_QUERY_EVENT);
+            recording.start();
+
+            assertTrue(listener.isEnabled());
+        }
+
+        assertFalse(listener.isEnabled());
+    }
+
+    @Test
+    public void testEvents(@TempDir final Path temporaryDirectory) throws Exception {
+        final List<Integer> points = new ArrayList<>();
+
+        for (int i = 0; i < 1000; i++) {
+            points.add(i);
+        }
+
+        final VPTree<Number, Integer> vpTree = new VPTree<>((first, second) -> Math.abs(first.intValue() - second.intValue()),
+                new MedianDistanceThresholdSelectionStrategy<>(), 8, points);
+
+        final List<RecordedEvent> events;
+
+        try (final Recording recording = new Recording()) {
+            recording.enable(SLOW_QUERY_EVENT);
+            recording.enable(NODE_REBUILD_EVENT);
+            recording.enable(PARTITION_FAILURE_EVENT);
+            recording.start();
+
+            // With a threshold of zero, every query is slow
+            vpTree.setListener(new JfrVPTreeListener(Duration.ZERO));
+
+            vpTree.getNearestNeighbors(500, 3);
+            vpTree.getAllWithinDistance(500, 2);
+            vpTree.rebuild();
+            vpTree.addAll(Collections.nCopies(20, 2000));
+
+            recording.stop();
+
+            final Path recordingFile = temporaryDirectory.resolve("recording.jfr");
+            recording.dump(recordingFile);
+
+            events = RecordingFile.readAllEvents(recordingFile);
+        }
+
+        final List<RecordedEvent> slowQueryEvents = getEvents(events, SLOW_QUERY_EVENT);
+        assertEquals(2, slowQueryEvents.size());
+
+        final RecordedEvent nearestNeighborEvent = slowQueryEvents.stream()
+                .filter(event -> "nearest neighbors".equals(event.getString("queryType")))
+                .findFirst()
+                .orElseThrow(AssertionError::new);
+
+        assertEquals(3, nearestNeighborEvent.getInt("maxResults"));
+        assertEquals(3, nearestNeighborEvent.getInt("resultSize"));
+        assertTrue(nearestNeighborEvent.getLong("distanceEvaluations") > 0);
+
+        final RecordedEvent distanceEvent = slowQueryEvents.stream()
+                .filter(event -> "within distance".equals(event.getString("queryType")))
+                .findFirst()
+                .orElseThrow(AssertionError::new);
+
+        assertEquals(2, distanceEvent.getDouble("maxDistance"));
+        assertEquals(5, distanceEvent.getInt("resultSize"));
+
+        assertTrue(getEvents(events, NODE_REBUILD_EVENT).stream()
+                .anyMatch(event -> event.getInt("pointsMoved") == 1000));
+
+        // Twenty identical points can't be split into leaves of eight
+        assertFalse(getEvents(events, PARTITION_FAILURE_EVENT).isEmpty());
+    }
+
+    private static List<RecordedEvent> getEvents(final List<RecordedEvent> events, final String eventName) {
+        return events.stream()
+                .filter(event -> eventName.equals(event.getEventType().getName()))
+                .collect(Collectors.toList());
+    }
+}
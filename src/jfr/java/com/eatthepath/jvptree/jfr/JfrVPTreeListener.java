@@ -0,0 +1,127 @@
+package com.eatthepath.jvptree.jfr;
+
+import java.time.Duration;
+
+import jdk.jfr.EventType;
+
+import com.eatthepath.jvptree.QueryStatistics;
+import com.eatthepath.jvptree.VPTreeListener;
+
+/**
+ * <p>A vp-tree listener that reports events to Java Flight Recorder so that index latency spikes can be correlated with
+ * garbage collection, CPU load, and other events in the same recording. This listener emits three kinds of events:</p>
+ *
+ * <ul>
+ *  <li>{@code com.eatthepath.jvptree.SlowQuery} for queries that take longer than a configurable threshold, including
+ *  the number of results requested, the query radius, the number of distances calculated, and the number of results
+ *  found</li>
+ *  <li>{@code com.eatthepath.jvptree.NodeRebuild} for nodes (or entire trees) rebuilt with new vantage points,
+ *  including the number of points moved</li>
+ *  <li>{@code com.eatthepath.jvptree.PartitionFailure} for nodes whose points could not be partitioned</li>
+ * </ul>
+ *
+ * <p>Events are only created if they are enabled in a running recording, and queries faster than the slow query
+ * threshold are discarded after a single comparison. While no recording has slow query events enabled, this listener
+ * {@linkplain #isEnabled() reports itself as disabled}, and trees run plain queries without timing or counting
+ * them. Listeners are stateless and may be shared by any number of trees.
+ * This class requires the {@code jdk.jfr} API; see the {@linkplain com.eatthepath.jvptree.jfr package documentation}
+ * for details.</p>
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @see com.eatthepath.jvptree.VPTree#setListener(VPTreeListener)
+ */
+public class JfrVPTreeListener implements VPTreeListener {
+
+    private final long slowQueryThresholdNanos;
+
+    private static final EventType SLOW_QUERY_EVENT_TYPE = EventType.getEventType(SlowQueryEvent.class);
+
+    /**
+     * The default threshold beyond which queries are reported as slow.
+     */
+    public static final Duration DEFAULT_SLOW_QUERY_THRESHOLD = Duration.ofMillis(10);
+
+    /**
+     * Constructs a new listener that reports queries that take longer than the default slow query threshold
+     * ({@link #DEFAULT_SLOW_QUERY_THRESHOLD}).
+     */
+    public JfrVPTreeListener() {
+        this(DEFAULT_SLOW_QUERY_THRESHOLD);
+    }
+
+    /**
+     * Constructs a new listener that reports queries that take longer than the given threshold.
+     *
+     * @param slowQueryThreshold the duration beyond which queries should be reported as slow; must not be negative
+     */
+    public JfrVPTreeListener(final Duration slowQueryThreshold) {
+        if (slowQueryThreshold.isNegative()) {
+            throw new IllegalArgumentException("Slow query threshold must not be negative.");
+        }
+
+        this.slowQueryThresholdNanos = slowQueryThreshold.toNanos();
+    }
+
+    /**
+     * Indicates whether slow query events are enabled in any running recording.
+     *
+     * @return {@code true} if slow query events are enabled or {@code false} otherwise
+     */
+    @Override
+    public boolean isEnabled() {
+        return SLOW_QUERY_EVENT_TYPE.isEnabled();
+    }
+
+    @Override
+    public void nearestNeighborQueryCompleted(final int maxResults, final int resultCount, final QueryStatistics statistics, final long durationNanos) {
+        if (durationNanos >= this.slowQueryThresholdNanos) {
+            this.commitSlowQueryEvent("nearest neighbors", maxResults, Double.NaN, resultCount, statistics, durationNanos);
+        }
+    }
+
+    @Override
+    public void distanceQueryCompleted(final double maxDistance, final int resultCount, final QueryStatistics statistics, final long durationNanos) {
+        if (durationNanos >= this.slowQueryThresholdNanos) {
+            this.commitSlowQueryEvent("within distance", 0, maxDistance, resultCount, statistics, durationNanos);
+        }
+    }
+
+    private void commitSlowQueryEvent(final String queryType, final int maxResults, final double maxDistance, final int resultCount, final QueryStatistics statistics, final long durationNanos) {
+        final SlowQueryEvent event = new SlowQueryEvent();
+
+        if (event.isEnabled()) {
+            event.queryType = queryType;
+            event.maxResults = maxResults;
+            event.maxDistance = maxDistance;
+            event.distanceEvaluations = statistics.getDistanceEvaluations();
+            event.nodesVisited = statistics.getInternalNodesVisited() + statistics.getLeavesScanned();
+            event.resultSize = resultCount;
+            event.queryDuration = durationNanos;
+
+            event.commit();
+        }
+    }
+
+    @Override
+    public void nodeRebuilt(final int pointsMoved, final long durationNanos) {
+        final NodeRebuildEvent event = new NodeRebuildEvent();
+
+        if (event.isEnabled()) {
+            event.pointsMoved = pointsMoved;
+            event.rebuildDuration = durationNanos;
+
+            event.commit();
+        }
+    }
+
+    @Override
+    public void partitionFailed(final int pointCount) {
+        final PartitionFailureEvent event = new PartitionFailureEvent();
+
+        if (event.isEnabled()) {
+            event.pointCount = pointCount;
+            event.commit();
+        }
+    }
+}
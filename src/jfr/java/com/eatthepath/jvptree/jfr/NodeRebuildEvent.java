@@ -0,0 +1,27 @@
+package com.eatthepath.jvptree.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A Java Flight Recorder event emitted when a vp-tree node is rebuilt with a new vantage point.
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ */
+@Name("com.eatthepath.jvptree.NodeRebuild")
+@Label("vp-tree Node Rebuild")
+@Description("A vp-tree node (or entire tree) rebuilt with a new vantage point")
+@Category("jvptree")
+class NodeRebuildEvent extends Event {
+
+    @Label("Points Moved")
+    int pointsMoved;
+
+    @Label("Rebuild Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long rebuildDuration;
+}
@@ -0,0 +1,22 @@
+package com.eatthepath.jvptree.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Java Flight Recorder event emitted when a vp-tree node's points cannot be partitioned.
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ */
+@Name("com.eatthepath.jvptree.PartitionFailure")
+@Label("vp-tree Partition Failure")
+@Description("A vp-tree node whose points could not be partitioned and which was left larger than the node capacity")
+@Category("jvptree")
+class PartitionFailureEvent extends Event {
+
+    @Label("Point Count")
+    int pointCount;
+}
@@ -0,0 +1,48 @@
+package com.eatthepath.jvptree.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A Java Flight Recorder event emitted when a vp-tree query takes longer than a {@link JfrVPTreeListener}'s slow query
+ * threshold.
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ */
+@Name("com.eatthepath.jvptree.SlowQuery")
+@Label("Slow vp-tree Query")
+@Description("A vp-tree query that took longer than the configured threshold")
+@Category("jvptree")
+@StackTrace(false)
+class SlowQueryEvent extends Event {
+
+    @Label("Query Type")
+    @Description("The kind of query: \"nearest neighbors\" or \"within distance\"")
+    String queryType;
+
+    @Label("Max Results")
+    @Description("The number of neighbors requested, or 0 for distance queries")
+    int maxResults;
+
+    @Label("Max Distance")
+    @Description("The maximum distance from the query point, or NaN for nearest-neighbor queries")
+    double maxDistance;
+
+    @Label("Distance Evaluations")
+    long distanceEvaluations;
+
+    @Label("Nodes Visited")
+    long nodesVisited;
+
+    @Label("Result Size")
+    int resultSize;
+
+    @Label("Query Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long queryDuration;
+}
@@ -0,0 +1,9 @@
+/**
+ * Contains a {@link com.eatthepath.jvptree.VPTreeListener} that reports vp-tree events to Java Flight Recorder. Classes
+ * in this package require the {@code jdk.jfr} API, which is available in Java 11 and later. They are only built by JDKs
+ * that provide it (see the {@code jfr} build profile) and are published separately in the artifact with the {@code jfr}
+ * classifier; the rest of the library does not depend on this package and builds and runs on Java 8.
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ */
+package com.eatthepath.jvptree.jfr;
@@ -0,0 +1,126 @@
+package com.eatthepath.jvptree;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Combines {@link QueryStatistics} from many queries, possibly running on many threads at once. Counts are kept in
+ * striped {@link LongAdder} cells, and so threads adding statistics rarely contend with one another; reading totals is
+ * comparatively expensive and is meant to happen periodically (for example, when exporting metrics).</p>
+ *
+ * <p>Aggregate statistics may be attached to a tree with
+ * {@link VPTree#setAggregateQueryStatistics(AggregateQueryStatistics)}, in which case the tree records statistics for
+ * every nearest-neighbor and distance query it performs, or filled manually with {@link #add(QueryStatistics)}.</p>
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ */
+public class AggregateQueryStatistics {
+
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder distanceEvaluations = new LongAdder();
+    private final LongAdder internalNodesVisited = new LongAdder();
+    private final LongAdder leavesScanned = new LongAdder();
+    private final LongAdder subtreesPruned = new LongAdder();
+    private final LongAdder filterRejections = new LongAdder();
+
+    /**
+     * Adds the counts from a single query to these aggregate statistics.
+     *
+     * @param statistics the statistics for a single query
+     */
+    public void add(final QueryStatistics statistics) {
+        this.queries.increment();
+        this.distanceEvaluations.add(statistics.getDistanceEvaluations());
+        this.internalNodesVisited.add(statistics.getInternalNodesVisited());
+        this.leavesScanned.add(statistics.getLeavesScanned());
+        this.subtreesPruned.add(statistics.getSubtreesPruned());
+        this.filterRejections.add(statistics.getFilterRejections());
+    }
+
+    /**
+     * Returns the number of queries whose statistics have been added.
+     *
+     * @return the number of queries whose statistics have been added
+     */
+    public long getQueries() {
+        return this.queries.sum();
+    }
+
+    /**
+     * Returns the total number of distances calculated by all queries.
+     *
+     * @return the total number of distances calculated
+     *
+     * @see QueryStatistics#getDistanceEvaluations()
+     */
+    public long getDistanceEvaluations() {
+        return this.distanceEvaluations.sum();
+    }
+
+    /**
+     * Returns the total number of internal nodes visited by all queries.
+     *
+     * @return the total number of internal nodes visited
+     *
+     * @see QueryStatistics#getInternalNodesVisited()
+     */
+    public long getInternalNodesVisited() {
+        return this.internalNodesVisited.sum();
+    }
+
+    /**
+     * Returns the total number of leaf nodes scanned by all queries.
+     *
+     * @return the total number of leaf nodes scanned
+     *
+     * @see QueryStatistics#getLeavesScanned()
+     */
+    public long getLeavesScanned() {
+        return this.leavesScanned.sum();
+    }
+
+    /**
+     * Returns the total number of subtrees pruned by all queries.
+     *
+     * @return the total number of subtrees pruned
+     *
+     * @see QueryStatistics#getSubtreesPruned()
+     */
+    public long getSubtreesPruned() {
+        return this.subtreesPruned.sum();
+    }
+
+    /**
+     * Returns the total number of points rejected by the filters of all queries.
+     *
+     * @return the total number of points rejected by filters
+     *
+     * @see QueryStatistics#getFilterRejections()
+     */
+    public long getFilterRejections() {
+        return this.filterRejections.sum();
+    }
+
+    /**
+     * Resets all counts to zero. Statistics added concurrently with a reset may or may not be counted.
+     */
+    public void reset() {
+        this.queries.reset();
+        this.distanceEvaluations.reset();
+        this.internalNodesVisited.reset();
+        this.leavesScanned.reset();
+        this.subtreesPruned.reset();
+        this.filterRejections.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "AggregateQueryStatistics{" +
+                "queries=" + this.getQueries() +
+                ", distanceEvaluations=" + this.getDistanceEvaluations() +
+                ", internalNodesVisited=" + this.getInternalNodesVisited() +
+                ", leavesScanned=" + this.getLeavesScanned() +
+                ", subtreesPruned=" + this.getSubtreesPruned() +
+                ", filterRejections=" + this.getFilterRejections() +
+                '}';
+    }
+}
@@ -0,0 +1,104 @@
+package com.eatthepath.jvptree;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * A fixed-size list view of a range of an array. Nodes under construction partition the points in a slice in place,
+ * then hand sub-slices of the same array to their children, and so a whole tree can be built from a single array
+ * without copying points at every level. Slices may be reordered with {@link #set(int, Object)}, but can't grow or
+ * shrink; leaf nodes copy their points into a list of their own before adding or removing points, and release their
+ * slices when they do so that the shared array doesn't keep removed points reachable.
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ */
+class ArraySlice<E> extends AbstractList<E> implements RandomAccess {
+
+    private final Object[] array;
+    private final int fromIndex;
+    private final int toIndex;
+
+    /**
+     * Constructs a new slice that spans the whole of the given array.
+     *
+     * @param array the array to view
+     */
+    ArraySlice(final Object[] array) {
+        this(array, 0, array.length);
+    }
+
+    /**
+     * Constructs a new slice that spans the given range of the given array.
+     *
+     * @param array the array to view
+     * @param fromIndex the index of the first element in the slice (inclusive)
+     * @param toIndex the index of the last element in the slice (exclusive)
+     */
+    private ArraySlice(final Object[] array, final int fromIndex, final int toIndex) {
+        this.array = array;
+        this.fromIndex = fromIndex;
+        this.toIndex = toIndex;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(final int index) {
+        return (E) this.array[this.getArrayIndex(index)];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E set(final int index, final E element) {
+        final int arrayIndex = this.getArrayIndex(index);
+        final E previousElement = (E) this.array[arrayIndex];
+
+        this.array[arrayIndex] = element;
+
+        return previousElement;
+    }
+
+    @Override
+    public int size() {
+        return this.toIndex - this.fromIndex;
+    }
+
+    /**
+     * Returns a slice of the same array that spans the given range of this slice. Changes to either slice are visible
+     * in the other.
+     *
+     * @param fromIndex the index of the first element of this slice to include in the returned slice (inclusive)
+     * @param toIndex the index of the last element of this slice to include in the returned slice (exclusive)
+     *
+     * @return a slice that spans the given range of this slice
+     */
+    @Override
+    public ArraySlice<E> subList(final int fromIndex, final int toIndex) {
+        if (fromIndex < 0 || toIndex > this.size() || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("Range [" + fromIndex + ", " + toIndex + ") out of bounds for length " + this.size());
+        }
+
+        return new ArraySlice<>(this.array, this.fromIndex + fromIndex, this.fromIndex + toIndex);
+    }
+
+    /**
+     * Clears the references this slice holds in its array so that the array no longer keeps this slice's elements
+     * reachable. Slices must not be used after they've been released.
+     */
+    void release() {
+        Arrays.fill(this.array, this.fromIndex, this.toIndex, null);
+    }
+
+    @Override
+    public Object[] toArray() {
+        return Arrays.copyOfRange(this.array, this.fromIndex, this.toIndex);
+    }
+
+    private int getArrayIndex(final int index) {
+        if (index < 0 || index >= this.size()) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + this.size());
+        }
+
+        return this.fromIndex + index;
+    }
+}
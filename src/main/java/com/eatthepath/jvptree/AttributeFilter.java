@@ -0,0 +1,83 @@
+package com.eatthepath.jvptree;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * <p>A point filter that can also rule out entire parts of a vp-tree at once by examining a summary of the attribute
+ * values of the points they contain. When a tree has an {@linkplain VPTree#setAttributeFunction(Function) attribute
+ * function}, it keeps an {@link AttributeSummary} for each of its nodes, and searches with an attribute filter skip
+ * any node whose summary the filter rejects without calculating any distances.</p>
+ *
+ * <p>Attribute filters must be consistent with the attribute function of the tree they're used with: if
+ * {@link #allowSummary(AttributeSummary)} returns {@code false} for a summary, {@link #allowPoint(Object)} must return
+ * {@code false} for every point whose attribute value is included in that summary.</p>
+ *
+ * @param <T> the type of point to which this filter applies
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ */
+public interface AttributeFilter<T> extends PointFilter<T> {
+
+    /**
+     * Tests whether any of the points summarized by the given summary might pass this filter.
+     *
+     * @param summary a summary of the attribute values of a group of points
+     *
+     * @return {@code false} if no point summarized by the given summary can pass this filter, or {@code true} otherwise
+     */
+    boolean allowSummary(AttributeSummary summary);
+
+    /**
+     * Returns a filter that allows points whose attribute is equal to the given value.
+     *
+     * @param attributeFunction the function that extracts attribute values from points; should be the same function
+     * used as the attribute function of the tree with which the filter will be used
+     * @param value the attribute value to allow
+     * @param <T> the type of point to which the returned filter applies
+     *
+     * @return a filter that allows points whose attribute is equal to the given value
+     */
+    static <T> AttributeFilter<T> attributeEquals(final Function<? super T, ?> attributeFunction, final Object value) {
+        return new AttributeFilter<T>() {
+            @Override
+            public boolean allowSummary(final AttributeSummary summary) {
+                return summary.mightContain(value);
+            }
+
+            @Override
+            public boolean allowPoint(final T point) {
+                return Objects.equals(attributeFunction.apply(point), value);
+            }
+        };
+    }
+
+    /**
+     * Returns a filter that allows points whose attribute is equal to any of the given values.
+     *
+     * @param attributeFunction the function that extracts attribute values from points; should be the same function
+     * used as the attribute function of the tree with which the filter will be used
+     * @param values the attribute values to allow
+     * @param <T> the type of point to which the returned filter applies
+     *
+     * @return a filter that allows points whose attribute is equal to any of the given values
+     */
+    static <T> AttributeFilter<T> attributeIn(final Function<? super T, ?> attributeFunction, final Collection<?> values) {
+        final Set<Object> allowedValues = new HashSet<>(values);
+
+        return new AttributeFilter<T>() {
+            @Override
+            public boolean allowSummary(final AttributeSummary summary) {
+                return summary.mightContainAny(allowedValues);
+            }
+
+            @Override
+            public boolean allowPoint(final T point) {
+                return allowedValues.contains(attributeFunction.apply(point));
+            }
+        };
+    }
+}
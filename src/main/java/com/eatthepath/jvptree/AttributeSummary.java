@@ -0,0 +1,101 @@
+package com.eatthepath.jvptree;
+
+import java.util.Collection;
+import java.util.Objects;
+
+/**
+ * A compact, approximate summary of the attribute values of the points stored in one part of a vp-tree. Summaries are
+ * small Bloom filters: they may report that they might contain a value that none of the summarized points actually
+ * has, but never report that they don't contain a value that some summarized point has. Because values can't be
+ * removed from a Bloom filter, summaries may also continue to report values of points that have since been removed
+ * from the tree until the part of the tree they describe is rebuilt.
+ *
+ * @see VPTree#setAttributeFunction(java.util.function.Function)
+ * @see AttributeFilter
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ */
+public final class AttributeSummary {
+
+    private static final int SIZE_IN_BITS = 256;
+    private static final int HASH_COUNT = 3;
+
+    private final long[] bits = new long[SIZE_IN_BITS / Long.SIZE];
+
+    AttributeSummary() {
+    }
+
+    /**
+     * Adds an attribute value to this summary.
+     *
+     * @param value the value to add
+     */
+    void add(final Object value) {
+        final int hash = Objects.hashCode(value);
+
+        for (int i = 0; i < HASH_COUNT; i++) {
+            final int bit = getBitIndex(hash, i);
+            this.bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Adds all of the values in the given summary to this summary.
+     *
+     * @param summary the summary whose values should be added to this summary
+     */
+    void addAll(final AttributeSummary summary) {
+        for (int i = 0; i < this.bits.length; i++) {
+            this.bits[i] |= summary.bits[i];
+        }
+    }
+
+    /**
+     * Tests whether any of the summarized points might have the given attribute value.
+     *
+     * @param value the attribute value to test
+     *
+     * @return {@code false} if none of the summarized points has the given value, or {@code true} if some summarized
+     * point might have the given value
+     */
+    public boolean mightContain(final Object value) {
+        final int hash = Objects.hashCode(value);
+
+        for (int i = 0; i < HASH_COUNT; i++) {
+            final int bit = getBitIndex(hash, i);
+
+            if ((this.bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Tests whether any of the summarized points might have any of the given attribute values.
+     *
+     * @param values the attribute values to test
+     *
+     * @return {@code false} if none of the summarized points has any of the given values, or {@code true} if some
+     * summarized point might have one of the given values
+     */
+    public boolean mightContainAny(final Collection<?> values) {
+        for (final Object value : values) {
+            if (this.mightContain(value)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static int getBitIndex(final int hash, final int i) {
+        // Double hashing (see Kirsch and Mitzenmacher, "Less Hashing, Same Performance") with two scrambled copies of
+        // the value's hash code
+        final int h1 = hash * 0x9E3779B9;
+        final int h2 = Integer.reverse(hash * 0x85EBCA6B) | 1;
+
+        return (h1 + (i * h2)) >>> 24;
+    }
+}
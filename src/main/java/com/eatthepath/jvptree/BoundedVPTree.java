@@ -0,0 +1,530 @@
+package com.eatthepath.jvptree;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import com.eatthepath.jvptree.util.SamplingMedianDistanceThresholdSelectionStrategy;
+
+/**
+ * <p>A spatial index that holds at most a fixed number of points. When adding points would push the index past its
+ * capacity, the index evicts points according to an {@link EvictionPolicy}. Points are evicted in batches of a
+ * configurable size.</p>
+ *
+ * <p>Each point in the index is held in a small entry that is both stored in the underlying vp-tree and linked into a
+ * list that tracks eviction order, so the index needs no separate map from points to their bookkeeping data. Evicted
+ * and removed entries are found by walking the underlying vp-tree from its root to the leaf that holds them, which
+ * takes one distance calculation per level and touches nothing else in the tree. Because queries reorder the eviction
+ * list under the {@link EvictionPolicy#LEAST_RECENTLY_USED} policy, bounded indices are not thread-safe, even for
+ * concurrent reads.</p>
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @param <P> the base type of points between which distances can be measured
+ * @param <E> the specific type of point contained in this index
+ */
+public class BoundedVPTree<P, E extends P> extends AbstractCollection<E> implements SpatialIndex<P, E> {
+
+    /**
+     * Policies that determine which points a bounded index evicts when it exceeds its capacity.
+     */
+    public enum EvictionPolicy {
+        /**
+         * Evicts the points that were least recently added or returned as the result of a query.
+         */
+        LEAST_RECENTLY_USED,
+
+        /**
+         * Evicts the points that were added to the index least recently, regardless of whether they have been returned
+         * as query results.
+         */
+        FIRST_IN_FIRST_OUT,
+
+        /**
+         * Evicts points chosen uniformly at random.
+         */
+        RANDOM
+    }
+
+    private final VPTree<Object, Entry<E>> tree;
+
+    private final int capacity;
+    private final int evictionBatchSize;
+    private final EvictionPolicy evictionPolicy;
+
+    private final Random random = new Random();
+
+    // Entries are linked in eviction order; `head` is the next entry to be evicted
+    private Entry<E> head;
+    private Entry<E> tail;
+    private int size;
+
+    private int modificationCount;
+
+    private long hitCount;
+    private long evictionCount;
+
+    private static class Entry<E> {
+        private final E point;
+
+        private Entry<E> previous;
+        private Entry<E> next;
+
+        private Entry(final E point) {
+            this.point = point;
+        }
+    }
+
+    /**
+     * Constructs a new, empty bounded index. The index will use default vp-tree settings and will evict points in
+     * batches of one percent of its capacity.
+     *
+     * @param distanceFunction the distance function to use to calculate the distance between points
+     * @param capacity the maximum number of points the index may hold
+     * @param evictionPolicy the policy that determines which points are evicted when the index exceeds its capacity
+     */
+    public BoundedVPTree(final DistanceFunction<P> distanceFunction, final int capacity, final EvictionPolicy evictionPolicy) {
+        this(distanceFunction, VPTree.DEFAULT_NODE_CAPACITY, capacity, Math.max(1, capacity / 100), evictionPolicy);
+    }
+
+    /**
+     * Constructs a new, empty bounded index.
+     *
+     * @param distanceFunction the distance function to use to calculate the distance between points
+     * @param nodeCapacity the largest capacity a node may have before it should be partitioned
+     * @param capacity the maximum number of points the index may hold
+     * @param evictionBatchSize the minimum number of points to evict when the index exceeds its capacity; must be
+     * positive and no greater than the index's capacity
+     * @param evictionPolicy the policy that determines which points are evicted when the index exceeds its capacity
+     */
+    public BoundedVPTree(final DistanceFunction<P> distanceFunction, final int nodeCapacity, final int capacity, final int evictionBatchSize, final EvictionPolicy evictionPolicy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+
+        if (evictionBatchSize < 1 || evictionBatchSize > capacity) {
+            throw new IllegalArgumentException("Eviction batch size must be positive and no greater than capacity.");
+        }
+
+        Objects.requireNonNull(evictionPolicy, "Eviction policy must not be null.");
+
+        // The tree measures distances between entries and query points, so unwrap entries before passing them along
+        final DistanceFunction<Object> entryDistanceFunction =
+                (first, second) -> distanceFunction.getDistance(BoundedVPTree.<P>unwrap(first), BoundedVPTree.<P>unwrap(second));
+
+        this.tree = new VPTree<>(entryDistanceFunction, new SamplingMedianDistanceThresholdSelectionStrategy<>(
+                SamplingMedianDistanceThresholdSelectionStrategy.DEFAULT_NUMBER_OF_SAMPLES), nodeCapacity);
+
+        this.capacity = capacity;
+        this.evictionBatchSize = evictionBatchSize;
+        this.evictionPolicy = evictionPolicy;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <P> P unwrap(final Object pointOrEntry) {
+        return (P) (pointOrEntry instanceof Entry ? ((Entry<?>) pointOrEntry).point : pointOrEntry);
+    }
+
+    /**
+     * Returns the maximum number of points this index may hold.
+     *
+     * @return the maximum number of points this index may hold
+     */
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Returns the policy that determines which points this index evicts when it exceeds its capacity.
+     *
+     * @return the policy that determines which points this index evicts when it exceeds its capacity
+     */
+    public EvictionPolicy getEvictionPolicy() {
+        return this.evictionPolicy;
+    }
+
+    /**
+     * Returns the number of points this index has returned as query results over its lifetime.
+     *
+     * @return the number of points this index has returned as query results
+     */
+    public long getHitCount() {
+        return this.hitCount;
+    }
+
+    /**
+     * Returns the number of points this index has evicted over its lifetime. Points removed explicitly or by clearing
+     * the index are not counted as evictions.
+     *
+     * @return the number of points this index has evicted
+     */
+    public long getEvictionCount() {
+        return this.evictionCount;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.eatthepath.jvptree.SpatialIndex#getNearestNeighbors(java.lang.Object, int)
+     */
+    @Override
+    public List<E> getNearestNeighbors(final P queryPoint, final int maxResults) {
+        return this.getNearestNeighbors(queryPoint, maxResults, point -> true);
+    }
+
+    @Override
+    public List<E> getNearestNeighbors(final P queryPoint, final int maxResults, final PointFilter<? super E> filter) {
+        final List<Entry<E>> entries = this.tree.getNearestNeighbors(queryPoint, maxResults, entry -> filter.allowPoint(entry.point));
+        return entries == null ? new ArrayList<>() : this.recordHits(entries);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.eatthepath.jvptree.SpatialIndex#getAllWithinDistance(java.lang.Object, double)
+     */
+    @Override
+    public List<E> getAllWithinDistance(final P queryPoint, final double maxDistance) {
+        return this.getAllWithinDistance(queryPoint, maxDistance, point -> true);
+    }
+
+    @Override
+    public List<E> getAllWithinDistance(final P queryPoint, final double maxDistance, final PointFilter<? super E> filter) {
+        final List<Entry<E>> entries = this.tree.getAllWithinDistance(queryPoint, maxDistance, entry -> filter.allowPoint(entry.point));
+        return entries == null ? new ArrayList<>() : this.recordHits(entries);
+    }
+
+    private List<E> recordHits(final List<Entry<E>> entries) {
+        final List<E> points = new ArrayList<>(entries.size());
+
+        for (final Entry<E> entry : entries) {
+            points.add(entry.point);
+
+            if (this.evictionPolicy == EvictionPolicy.LEAST_RECENTLY_USED) {
+                this.unlink(entry);
+                this.linkLast(entry);
+            }
+        }
+
+        this.hitCount += entries.size();
+
+        return points;
+    }
+
+    private void linkLast(final Entry<E> entry) {
+        entry.previous = this.tail;
+        entry.next = null;
+
+        if (this.tail == null) {
+            this.head = entry;
+        } else {
+            this.tail.next = entry;
+        }
+
+        this.tail = entry;
+        this.size += 1;
+    }
+
+    private void unlink(final Entry<E> entry) {
+        if (entry.previous == null) {
+            this.head = entry.next;
+        } else {
+            entry.previous.next = entry.next;
+        }
+
+        if (entry.next == null) {
+            this.tail = entry.previous;
+        } else {
+            entry.next.previous = entry.previous;
+        }
+
+        entry.previous = null;
+        entry.next = null;
+
+        this.size -= 1;
+    }
+
+    /**
+     * Evicts points if this index has exceeded its capacity.
+     */
+    private void evictIfNeeded() {
+        if (this.size <= this.capacity) {
+            return;
+        }
+
+        final int pointsToEvict = Math.min(this.size, Math.max(this.size - this.capacity, this.evictionBatchSize));
+        final List<Entry<E>> evictedEntries = new ArrayList<>(pointsToEvict);
+
+        if (this.evictionPolicy == EvictionPolicy.RANDOM) {
+            // Selection sampling: visit each entry once and choose each with probability (still needed / still unseen),
+            // which picks a uniformly random subset of exactly the right size
+            int remainingToEvict = pointsToEvict;
+            int remainingToVisit = this.size;
+
+            for (Entry<E> entry = this.head; remainingToEvict > 0; remainingToVisit--) {
+                final Entry<E> next = entry.next;
+
+                if (this.random.nextInt(remainingToVisit) < remainingToEvict) {
+                    this.unlink(entry);
+                    evictedEntries.add(entry);
+                    remainingToEvict -= 1;
+                }
+
+                entry = next;
+            }
+        } else {
+            for (int i = 0; i < pointsToEvict; i++) {
+                final Entry<E> entry = this.head;
+
+                this.unlink(entry);
+                evictedEntries.add(entry);
+            }
+        }
+
+        // Entries are only equal to themselves, so the tree can find each one by descending to the leaf that holds it
+        // without sweeping the rest of the tree, and there's never a second copy to look for
+        for (final Entry<E> entry : evictedEntries) {
+            this.tree.remove(entry);
+        }
+
+        this.evictionCount += pointsToEvict;
+    }
+
+    /**
+     * Finds an entry for a point equal to the given point.
+     *
+     * @return an entry for a point equal to the given point, or {@code null} if no such entry exists
+     */
+    @SuppressWarnings("unchecked")
+    private Entry<E> findEntry(final Object point) {
+        final List<Entry<E>> candidates;
+
+        try {
+            // Any entry equal to the given point must be zero distance away from it
+            candidates = this.tree.getAllWithinDistance(unwrap(point), 0, entry -> Objects.equals(entry.point, point));
+        } catch (final ClassCastException e) {
+            return null;
+        }
+
+        return candidates == null || candidates.isEmpty() ? null : candidates.get(0);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#size()
+     */
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#contains(java.lang.Object)
+     */
+    @Override
+    public boolean contains(final Object o) {
+        return this.findEntry(o) != null;
+    }
+
+    /**
+     * Returns an iterator over the points in this index. Under the least-recently-used and first-in-first-out policies,
+     * points are returned in the order in which they would be evicted. Iterating over an index does not count as using
+     * its points.
+     *
+     * @return an iterator over the points in this index
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private Entry<E> next = BoundedVPTree.this.head;
+            private Entry<E> lastReturned;
+            private int expectedModificationCount = BoundedVPTree.this.modificationCount;
+
+            @Override
+            public boolean hasNext() {
+                return this.next != null;
+            }
+
+            @Override
+            public E next() {
+                if (BoundedVPTree.this.modificationCount != this.expectedModificationCount) {
+                    throw new ConcurrentModificationException();
+                }
+
+                if (this.next == null) {
+                    throw new NoSuchElementException();
+                }
+
+                this.lastReturned = this.next;
+                this.next = this.next.next;
+
+                return this.lastReturned.point;
+            }
+
+            @Override
+            public void remove() {
+                if (this.lastReturned == null) {
+                    throw new IllegalStateException();
+                }
+
+                BoundedVPTree.this.removeEntry(this.lastReturned);
+                this.expectedModificationCount = BoundedVPTree.this.modificationCount;
+                this.lastReturned = null;
+            }
+        };
+    }
+
+    /**
+     * Adds a point to this index, evicting other points if the index has exceeded its capacity.
+     *
+     * @param point the point to add
+     *
+     * @return {@code true} (as specified by {@link Collection#add(Object)})
+     */
+    @Override
+    public boolean add(final E point) {
+        final Entry<E> entry = new Entry<>(point);
+
+        this.tree.add(entry);
+        this.linkLast(entry);
+        this.modificationCount += 1;
+
+        this.evictIfNeeded();
+
+        return true;
+    }
+
+    /**
+     * Adds all of the given points to this index, evicting other points if the index has exceeded its capacity.
+     *
+     * @param points the points to add
+     *
+     * @return {@code true} if any points were added or {@code false} otherwise
+     */
+    @Override
+    public boolean addAll(final Collection<? extends E> points) {
+        if (points.isEmpty()) {
+            return false;
+        }
+
+        final List<Entry<E>> entries = new ArrayList<>(points.size());
+
+        for (final E point : points) {
+            final Entry<E> entry = new Entry<>(point);
+
+            entries.add(entry);
+            this.linkLast(entry);
+        }
+
+        this.tree.addAll(entries);
+        this.modificationCount += 1;
+
+        this.evictIfNeeded();
+
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#remove(java.lang.Object)
+     */
+    @Override
+    public boolean remove(final Object point) {
+        final Entry<E> entry = this.findEntry(point);
+
+        if (entry == null) {
+            return false;
+        }
+
+        this.removeEntry(entry);
+        return true;
+    }
+
+    private void removeEntry(final Entry<E> entry) {
+        this.tree.remove(entry);
+        this.unlink(entry);
+        this.modificationCount += 1;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#removeAll(java.util.Collection)
+     */
+    @Override
+    public boolean removeAll(final Collection<?> points) {
+        final Collection<?> pointsToRemove = toSet(points);
+        return this.removeIf(pointsToRemove::contains);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#retainAll(java.util.Collection)
+     */
+    @Override
+    public boolean retainAll(final Collection<?> points) {
+        final Collection<?> pointsToRetain = toSet(points);
+        return this.removeIf(point -> !pointsToRetain.contains(point));
+    }
+
+    /**
+     * Returns a collection with fast lookups that contains the same points as the given collection. We check every
+     * point in this tree against the given collection, and so lookups in anything other than a set (a list, for
+     * example) would take time proportional to the size of this tree times the size of the given collection.
+     */
+    private static Collection<?> toSet(final Collection<?> points) {
+        return points instanceof Set ? points : new HashSet<>(points);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#removeIf(java.util.function.Predicate)
+     */
+    @Override
+    public boolean removeIf(final Predicate<? super E> filter) {
+        final List<Entry<E>> removedEntries = new ArrayList<>();
+
+        for (Entry<E> entry = this.head; entry != null; ) {
+            final Entry<E> next = entry.next;
+
+            if (filter.test(entry.point)) {
+                this.unlink(entry);
+                removedEntries.add(entry);
+            }
+
+            entry = next;
+        }
+
+        if (!removedEntries.isEmpty()) {
+            for (final Entry<E> entry : removedEntries) {
+                this.tree.remove(entry);
+            }
+
+            this.modificationCount += 1;
+        }
+
+        return !removedEntries.isEmpty();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#clear()
+     */
+    @Override
+    public void clear() {
+        this.tree.clear();
+
+        this.head = null;
+        this.tail = null;
+        this.size = 0;
+
+        this.modificationCount += 1;
+    }
+}
@@ -0,0 +1,339 @@
+package com.eatthepath.jvptree;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * <p>Clusters the points in a vp-tree with the <a href="https://en.wikipedia.org/wiki/DBSCAN">DBSCAN</a> density-based
+ * clustering algorithm. A point is a "core" point if at least {@code minPoints} points (including the point itself)
+ * lie within {@code epsilon} of it; core points within {@code epsilon} of one another belong to the same cluster, and
+ * non-core points within {@code epsilon} of a core point join that core point's cluster as "border" points. All other
+ * points are noise.</p>
+ *
+ * <p>Rather than issuing an independent range query for every point, the clusterer works directly with the tree's
+ * structure in two parallel passes over the tree's leaves:</p>
+ *
+ * <ol>
+ *  <li>Points in each leaf are tested for "coreness" together; distances between points in the same leaf are
+ *  calculated once and counted for both points, and the rest of the tree is searched with a count-only query that
+ *  stops as soon as {@code minPoints} neighbors have been found.</li>
+ *  <li>Each core point's neighborhood is searched exactly once, and core neighbors are merged with a lock-free
+ *  union-find structure so that clusters can be expanded from many points at once.</li>
+ * </ol>
+ *
+ * <p>A border point may lie within {@code epsilon} of core points from more than one cluster. Such a point joins the
+ * cluster of the first of those core points in the order returned by the tree's iterator, and so clustering the same
+ * tree always produces the same labels regardless of the order in which parallel tasks happen to finish.</p>
+ *
+ * <p>The tree must not be modified while clustering is in progress.</p>
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @param <P> the base type of points between which distances can be measured
+ * @param <E> the specific type of point contained in the trees to be clustered
+ */
+public class DBSCANClusterer<P, E extends P> {
+
+    private final double epsilon;
+    private final int minPoints;
+
+    /**
+     * The label assigned to points that do not belong to any cluster.
+     */
+    public static final int NOISE = -1;
+
+    // Border points are claimed by their lowest-numbered core neighbor, so unclaimed points need a sentinel that's
+    // higher than any point's index
+    private static final int UNASSIGNED = Integer.MAX_VALUE;
+
+    /**
+     * The number of leaves below which a task will process leaves directly instead of splitting into subtasks.
+     */
+    private static final int LEAVES_PER_TASK = 16;
+
+    /**
+     * Constructs a new DBSCAN clusterer with the given parameters.
+     *
+     * @param epsilon the maximum distance between two points for them to be considered neighbors
+     * @param minPoints the minimum number of points (including the point itself) that must be within {@code epsilon}
+     * of a point for that point to be considered a core point
+     */
+    public DBSCANClusterer(final double epsilon, final int minPoints) {
+        if (epsilon < 0) {
+            throw new IllegalArgumentException("Epsilon must not be negative.");
+        }
+
+        if (minPoints < 1) {
+            throw new IllegalArgumentException("Minimum number of points must be positive.");
+        }
+
+        this.epsilon = epsilon;
+        this.minPoints = minPoints;
+    }
+
+    /**
+     * Clusters the points in the given tree using the {@linkplain ForkJoinPool#commonPool() common fork/join pool}.
+     *
+     * @param tree the tree whose points should be clustered
+     *
+     * @return an array of cluster labels for the points in the given tree, in the order returned by the tree's
+     * iterator; clusters are numbered consecutively from zero in order of their first appearance, and points that do
+     * not belong to any cluster are labeled {@value #NOISE}
+     */
+    public int[] cluster(final VPTree<P, E> tree) {
+        return this.cluster(tree, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Clusters the points in the given tree using the given fork/join pool.
+     *
+     * @param tree the tree whose points should be clustered
+     * @param forkJoinPool the pool in which to process the tree's leaves
+     *
+     * @return an array of cluster labels for the points in the given tree, in the order returned by the tree's
+     * iterator; clusters are numbered consecutively from zero in order of their first appearance, and points that do
+     * not belong to any cluster are labeled {@value #NOISE}
+     */
+    public int[] cluster(final VPTree<P, E> tree, final ForkJoinPool forkJoinPool) {
+        final ClusteringRun<P, E> run = new ClusteringRun<>(tree.getRootNode(), tree.getDistanceFunction(), this.epsilon, this.minPoints);
+
+        if (run.leafIndex.size() > 0) {
+            forkJoinPool.invoke(run.new LeafRangeTask(0, run.leafIndex.getLeaves().size(), false));
+            forkJoinPool.invoke(run.new LeafRangeTask(0, run.leafIndex.getLeaves().size(), true));
+        }
+
+        return run.getLabels();
+    }
+
+    private static class ClusteringRun<P, E extends P> {
+
+        private final VPTreeNode<P, E> rootNode;
+        private final DistanceFunction<P> distanceFunction;
+        private final double epsilon;
+        private final int minPoints;
+
+        private final LeafIndex<P, E> leafIndex;
+
+        private final boolean[] corePoints;
+        private final AtomicIntegerArray parents;
+        private final AtomicIntegerArray borderOwners;
+
+        private ClusteringRun(final VPTreeNode<P, E> rootNode, final DistanceFunction<P> distanceFunction, final double epsilon, final int minPoints) {
+            this.rootNode = rootNode;
+            this.distanceFunction = distanceFunction;
+            this.epsilon = epsilon;
+            this.minPoints = minPoints;
+
+            this.leafIndex = new LeafIndex<>(rootNode);
+
+            this.corePoints = new boolean[this.leafIndex.size()];
+            this.parents = new AtomicIntegerArray(this.leafIndex.size());
+            this.borderOwners = new AtomicIntegerArray(this.leafIndex.size());
+
+            for (int i = 0; i < this.leafIndex.size(); i++) {
+                this.parents.set(i, i);
+                this.borderOwners.set(i, UNASSIGNED);
+            }
+        }
+
+        private void findCorePoints(final VPTreeNode<P, E> leaf) {
+            final List<E> points = this.leafIndex.getPoints(leaf);
+            final int offset = this.leafIndex.getOffset(leaf);
+
+            // Every point is its own neighbor
+            final int[] neighborCounts = new int[points.size()];
+            Arrays.fill(neighborCounts, 1);
+
+            for (int i = 0; i < points.size(); i++) {
+                for (int j = i + 1; j < points.size(); j++) {
+                    if (this.distanceFunction.getDistance(points.get(i), points.get(j)) <= this.epsilon) {
+                        neighborCounts[i] += 1;
+                        neighborCounts[j] += 1;
+                    }
+                }
+            }
+
+            for (int i = 0; i < points.size(); i++) {
+                if (neighborCounts[i] < this.minPoints) {
+                    neighborCounts[i] += this.countNeighbors(this.rootNode, points.get(i), leaf, this.minPoints - neighborCounts[i]);
+                }
+
+                this.corePoints[offset + i] = neighborCounts[i] >= this.minPoints;
+            }
+        }
+
+        /**
+         * Counts points within epsilon of the given query point, stopping as soon as the given number of points have
+         * been found.
+         */
+        private int countNeighbors(final VPTreeNode<P, E> node, final P queryPoint, final VPTreeNode<P, E> excludedLeaf, final int limit) {
+            int count = 0;
+
+            if (node == excludedLeaf) {
+                return 0;
+            } else if (node.isLeaf()) {
+                for (final E point : this.leafIndex.getPoints(node)) {
+                    if (this.distanceFunction.getDistance(queryPoint, point) <= this.epsilon && ++count >= limit) {
+                        break;
+                    }
+                }
+            } else {
+                final double distanceFromVantagePointToQueryPoint =
+                        this.distanceFunction.getDistance(node.getVantagePoint(), queryPoint);
+
+                if (distanceFromVantagePointToQueryPoint <= node.getThreshold() + this.epsilon) {
+                    count += this.countNeighbors(node.getCloser(), queryPoint, excludedLeaf, limit);
+                }
+
+                if (count < limit && distanceFromVantagePointToQueryPoint + this.epsilon > node.getThreshold()) {
+                    count += this.countNeighbors(node.getFarther(), queryPoint, excludedLeaf, limit - count);
+                }
+            }
+
+            return count;
+        }
+
+        private void expandClusters(final VPTreeNode<P, E> leaf) {
+            final List<E> points = this.leafIndex.getPoints(leaf);
+            final int offset = this.leafIndex.getOffset(leaf);
+
+            for (int i = 0; i < points.size(); i++) {
+                if (this.corePoints[offset + i]) {
+                    this.connectNeighbors(this.rootNode, offset + i, points.get(i));
+                }
+            }
+        }
+
+        private void connectNeighbors(final VPTreeNode<P, E> node, final int queryIndex, final P queryPoint) {
+            if (node.isLeaf()) {
+                final List<E> points = this.leafIndex.getPoints(node);
+                final int offset = this.leafIndex.getOffset(node);
+
+                for (int i = 0; i < points.size(); i++) {
+                    final int neighborIndex = offset + i;
+
+                    if (neighborIndex != queryIndex && this.distanceFunction.getDistance(queryPoint, points.get(i)) <= this.epsilon) {
+                        if (this.corePoints[neighborIndex]) {
+                            // The neighbor will also find this point, so only one of the two needs to do the work
+                            if (neighborIndex > queryIndex) {
+                                this.union(queryIndex, neighborIndex);
+                            }
+                        } else {
+                            // Border points join the cluster of the lowest-numbered core point that can reach them
+                            this.borderOwners.accumulateAndGet(neighborIndex, queryIndex, Math::min);
+                        }
+                    }
+                }
+            } else {
+                final double distanceFromVantagePointToQueryPoint =
+                        this.distanceFunction.getDistance(node.getVantagePoint(), queryPoint);
+
+                if (distanceFromVantagePointToQueryPoint <= node.getThreshold() + this.epsilon) {
+                    this.connectNeighbors(node.getCloser(), queryIndex, queryPoint);
+                }
+
+                if (distanceFromVantagePointToQueryPoint + this.epsilon > node.getThreshold()) {
+                    this.connectNeighbors(node.getFarther(), queryIndex, queryPoint);
+                }
+            }
+        }
+
+        private int find(int index) {
+            while (true) {
+                final int parent = this.parents.get(index);
+
+                if (parent == index) {
+                    return index;
+                }
+
+                // Path halving; if another thread has changed things in the meantime, that's fine, too
+                this.parents.compareAndSet(index, parent, this.parents.get(parent));
+                index = parent;
+            }
+        }
+
+        private void union(final int firstIndex, final int secondIndex) {
+            while (true) {
+                final int firstRoot = this.find(firstIndex);
+                final int secondRoot = this.find(secondIndex);
+
+                if (firstRoot == secondRoot) {
+                    return;
+                }
+
+                // Always link the larger root beneath the smaller one so concurrent unions can't form a cycle
+                final int child = Math.max(firstRoot, secondRoot);
+                final int parent = Math.min(firstRoot, secondRoot);
+
+                if (this.parents.compareAndSet(child, child, parent)) {
+                    return;
+                }
+            }
+        }
+
+        private int[] getLabels() {
+            final int[] labels = new int[this.leafIndex.size()];
+            final int[] labelsByRoot = new int[this.leafIndex.size()];
+
+            Arrays.fill(labelsByRoot, NOISE);
+
+            int nextLabel = 0;
+
+            for (int i = 0; i < labels.length; i++) {
+                final int owner = this.corePoints[i] ? i : this.borderOwners.get(i);
+
+                if (owner == UNASSIGNED) {
+                    labels[i] = NOISE;
+                } else {
+                    final int root = this.find(owner);
+
+                    if (labelsByRoot[root] == NOISE) {
+                        labelsByRoot[root] = nextLabel++;
+                    }
+
+                    labels[i] = labelsByRoot[root];
+                }
+            }
+
+            return labels;
+        }
+
+        private class LeafRangeTask extends RecursiveAction {
+
+            private final int start;
+            private final int end;
+            private final boolean expandClusters;
+
+            private static final long serialVersionUID = 1L;
+
+            private LeafRangeTask(final int start, final int end, final boolean expandClusters) {
+                this.start = start;
+                this.end = end;
+                this.expandClusters = expandClusters;
+            }
+
+            @Override
+            protected void compute() {
+                if (this.end - this.start <= LEAVES_PER_TASK) {
+                    for (int i = this.start; i < this.end; i++) {
+                        final VPTreeNode<P, E> leaf = ClusteringRun.this.leafIndex.getLeaves().get(i);
+
+                        if (this.expandClusters) {
+                            ClusteringRun.this.expandClusters(leaf);
+                        } else {
+                            ClusteringRun.this.findCorePoints(leaf);
+                        }
+                    }
+                } else {
+                    final int middle = (this.start + this.end) >>> 1;
+
+                    invokeAll(new LeafRangeTask(this.start, middle, this.expandClusters),
+                            new LeafRangeTask(middle, this.end, this.expandClusters));
+                }
+            }
+        }
+    }
+}
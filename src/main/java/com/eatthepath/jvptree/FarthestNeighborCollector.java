@@ -0,0 +1,177 @@
+package com.eatthepath.jvptree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A utility class that collects results for a k-farthest-neighbors query in a vp-tree. Like
+ * {@link NearestNeighborCollector}, farthest neighbor collectors keep candidate points and their distances from the
+ * query point in a bounded binary heap backed by plain arrays, so each candidate's distance is measured exactly once.
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ */
+class FarthestNeighborCollector<P, E extends P> {
+    private final P queryPoint;
+    private final int capacity;
+
+    private final DistanceFunction<P> distanceFunction;
+
+    // A min-heap ordered by distance from the query point; the nearest retained point is always at index 0
+    private final Object[] points;
+    private final double[] distances;
+    private int size;
+
+    /**
+     * Constructs a new farthest neighbor collector that selectively accepts points that are far from the given query
+     * point as determined by the given distance function. Up to the given number of farthest neighbors are collected,
+     * and if neighbors are found that are farther away than points in the current set, the closest previously collected
+     * point is replaced with the more distant candidate.
+     *
+     * @param queryPoint the point for which farthest neighbors are to be collected
+     * @param distanceFunction the distance function to be used to determine the distance between the query point and
+     * potential neighbors
+     * @param capacity the maximum number of farthest neighbors to collect
+     */
+    public FarthestNeighborCollector(final P queryPoint, final DistanceFunction<P> distanceFunction, final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+
+        this.queryPoint = queryPoint;
+        this.distanceFunction = distanceFunction;
+        this.capacity = capacity;
+
+        this.points = new Object[capacity];
+        this.distances = new double[capacity];
+    }
+
+    /**
+     * Returns the query point for this collector.
+     *
+     * @return the query point for this collector
+     */
+    public P getQueryPoint() {
+        return this.queryPoint;
+    }
+
+    /**
+     * Indicates whether this collector has collected as many points as it can hold. Once a collector is full, points
+     * will only be accepted if they are farther from the query point than the nearest point already collected.
+     *
+     * @return {@code true} if this collector is full or {@code false} otherwise
+     */
+    public boolean isFull() {
+        return this.size >= this.capacity;
+    }
+
+    /**
+     * Offers a point to this collector. The point may or may not be added to the collection; points will only be added
+     * if the collector is not already full, or if the collector is full, but the offered point is farther from the
+     * query point than the closest point already in the collection.
+     *
+     * @param point the point to offer to this collector
+     */
+    public void offerPoint(final E point) {
+        final double distance = this.distanceFunction.getDistance(this.queryPoint, point);
+
+        if (this.size < this.capacity) {
+            // Sift the new point up from the bottom of the heap
+            int i = this.size++;
+
+            while (i > 0) {
+                final int parent = (i - 1) >>> 1;
+
+                if (this.distances[parent] <= distance) {
+                    break;
+                }
+
+                this.points[i] = this.points[parent];
+                this.distances[i] = this.distances[parent];
+                i = parent;
+            }
+
+            this.points[i] = point;
+            this.distances[i] = distance;
+        } else if (distance > this.distances[0]) {
+            this.siftDown(point, distance, this.size);
+        }
+    }
+
+    /**
+     * Places the given point at the top of the heap (replacing the current nearest point) and sifts it down to its
+     * proper place among the first {@code heapSize} entries.
+     */
+    private void siftDown(final Object point, final double distance, final int heapSize) {
+        int i = 0;
+
+        while (true) {
+            final int left = (2 * i) + 1;
+
+            if (left >= heapSize) {
+                break;
+            }
+
+            final int right = left + 1;
+            final int smallerChild = right < heapSize && this.distances[right] < this.distances[left] ? right : left;
+
+            if (this.distances[smallerChild] >= distance) {
+                break;
+            }
+
+            this.points[i] = this.points[smallerChild];
+            this.distances[i] = this.distances[smallerChild];
+            i = smallerChild;
+        }
+
+        this.points[i] = point;
+        this.distances[i] = distance;
+    }
+
+    /**
+     * Returns the distance from the query point to the closest point retained by this collector.
+     *
+     * @return the distance from the query point to the closest point retained by this collector, or zero if this
+     * collector is empty
+     */
+    public double getDistanceToNearestPoint() {
+        return this.size == 0 ? 0 : this.distances[0];
+    }
+
+    /**
+     * Returns a list of points retained by this collector, sorted by decreasing distance from the query point.
+     *
+     * @return a list of points retained by this collector, sorted by decreasing distance from the query point
+     */
+    @SuppressWarnings("unchecked")
+    public List<E> toSortedList() {
+        // Heapsort leaves the arrays in order of decreasing distance...
+        for (int heapSize = this.size - 1; heapSize > 0; heapSize--) {
+            final Object nearestPoint = this.points[0];
+            final double nearestDistance = this.distances[0];
+
+            this.siftDown(this.points[heapSize], this.distances[heapSize], heapSize);
+
+            this.points[heapSize] = nearestPoint;
+            this.distances[heapSize] = nearestDistance;
+        }
+
+        final ArrayList<E> sortedList = new ArrayList<>(this.size);
+
+        for (int i = 0; i < this.size; i++) {
+            sortedList.add((E) this.points[i]);
+        }
+
+        // ...so we reverse them to get back to a min-heap in case more points are offered later.
+        for (int i = 0, j = this.size - 1; i < j; i++, j--) {
+            final Object point = this.points[i];
+            this.points[i] = this.points[j];
+            this.points[j] = point;
+
+            final double distance = this.distances[i];
+            this.distances[i] = this.distances[j];
+            this.distances[j] = distance;
+        }
+
+        return sortedList;
+    }
+}
@@ -0,0 +1,250 @@
+package com.eatthepath.jvptree;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Builds a k-nearest-neighbor graph over all of the points in a vp-tree. Rather than issuing an independent query for
+ * every point, the builder processes the points of each leaf node together: distances between points in the same leaf
+ * are calculated once and shared by both points, and those shared distances seed each point's search bound before the
+ * rest of the tree is searched. Leaves are processed in parallel.
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ */
+class KnnGraphBuilder<P, E extends P> {
+
+    private final VPTreeNode<P, E> rootNode;
+    private final DistanceFunction<P> distanceFunction;
+    private final int k;
+
+    private final LeafIndex<P, E> leafIndex;
+
+    /**
+     * The number of leaves below which a task will process leaves directly instead of splitting into subtasks.
+     */
+    private static final int LEAVES_PER_TASK = 16;
+
+    /**
+     * Constructs a new graph builder for the tree with the given root node.
+     *
+     * @param rootNode the root node of the tree for which to build a k-nearest-neighbor graph
+     * @param distanceFunction the distance function to use to calculate the distance between points
+     * @param k the maximum number of neighbors to find for each point
+     */
+    KnnGraphBuilder(final VPTreeNode<P, E> rootNode, final DistanceFunction<P> distanceFunction, final int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("Number of neighbors must be positive.");
+        }
+
+        this.rootNode = rootNode;
+        this.distanceFunction = distanceFunction;
+        this.k = k;
+
+        this.leafIndex = new LeafIndex<>(rootNode);
+    }
+
+    /**
+     * Builds a k-nearest-neighbor graph using the given pool to process leaves in parallel.
+     *
+     * @param forkJoinPool the pool in which to process leaves
+     *
+     * @return an array of neighbor indices for each point in the tree; see {@link VPTree#buildKnnGraph(int)}
+     */
+    int[][] build(final ForkJoinPool forkJoinPool) {
+        final int[][] graph = new int[this.leafIndex.size()][];
+
+        if (!this.leafIndex.getLeaves().isEmpty()) {
+            forkJoinPool.invoke(new LeafRangeTask(graph, 0, this.leafIndex.getLeaves().size()));
+        }
+
+        return graph;
+    }
+
+    private void processLeaf(final VPTreeNode<P, E> leaf, final int[][] graph) {
+        final List<E> points = this.leafIndex.getPoints(leaf);
+        final int offset = this.leafIndex.getOffset(leaf);
+
+        final NeighborHeap[] heaps = new NeighborHeap[points.size()];
+
+        for (int i = 0; i < heaps.length; i++) {
+            heaps[i] = new NeighborHeap(this.k);
+        }
+
+        // Every pair of points in the same leaf gets exactly one distance calculation, which we share between both
+        // members of the pair.
+        for (int i = 0; i < points.size(); i++) {
+            for (int j = i + 1; j < points.size(); j++) {
+                final double distance = this.distanceFunction.getDistance(points.get(i), points.get(j));
+
+                heaps[i].offer(offset + j, distance);
+                heaps[j].offer(offset + i, distance);
+            }
+        }
+
+        // With bounds seeded from the point's leaf-mates, search the rest of the tree; we've already considered every
+        // point in this leaf, so we can skip it entirely.
+        for (int i = 0; i < points.size(); i++) {
+            this.collectNeighbors(this.rootNode, points.get(i), leaf, heaps[i]);
+            graph[offset + i] = heaps[i].toSortedIndices();
+        }
+    }
+
+    private void collectNeighbors(final VPTreeNode<P, E> node, final P queryPoint, final VPTreeNode<P, E> excludedLeaf, final NeighborHeap heap) {
+        if (node == excludedLeaf) {
+            return;
+        }
+
+        if (node.isLeaf()) {
+            final List<E> points = this.leafIndex.getPoints(node);
+            final int offset = this.leafIndex.getOffset(node);
+
+            for (int i = 0; i < points.size(); i++) {
+                heap.offer(offset + i, this.distanceFunction.getDistance(queryPoint, points.get(i)));
+            }
+        } else {
+            final double distanceFromVantagePointToQueryPoint =
+                    this.distanceFunction.getDistance(node.getVantagePoint(), queryPoint);
+
+            if (distanceFromVantagePointToQueryPoint <= node.getThreshold()) {
+                this.collectNeighbors(node.getCloser(), queryPoint, excludedLeaf, heap);
+
+                // Every point in the farther node is more than (threshold - distanceFromVantagePointToQueryPoint) away
+                // from the query point
+                if (!heap.isFull() || node.getThreshold() - distanceFromVantagePointToQueryPoint < heap.getBound()) {
+                    this.collectNeighbors(node.getFarther(), queryPoint, excludedLeaf, heap);
+                }
+            } else {
+                this.collectNeighbors(node.getFarther(), queryPoint, excludedLeaf, heap);
+
+                // Every point in the closer node is at least (distanceFromVantagePointToQueryPoint - threshold) away
+                // from the query point
+                if (!heap.isFull() || distanceFromVantagePointToQueryPoint - node.getThreshold() < heap.getBound()) {
+                    this.collectNeighbors(node.getCloser(), queryPoint, excludedLeaf, heap);
+                }
+            }
+        }
+    }
+
+    private class LeafRangeTask extends RecursiveAction {
+
+        private final int[][] graph;
+        private final int start;
+        private final int end;
+
+        private static final long serialVersionUID = 1L;
+
+        LeafRangeTask(final int[][] graph, final int start, final int end) {
+            this.graph = graph;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.end - this.start <= LEAVES_PER_TASK) {
+                for (int i = this.start; i < this.end; i++) {
+                    KnnGraphBuilder.this.processLeaf(KnnGraphBuilder.this.leafIndex.getLeaves().get(i), this.graph);
+                }
+            } else {
+                final int middle = (this.start + this.end) >>> 1;
+
+                invokeAll(new LeafRangeTask(this.graph, this.start, middle),
+                        new LeafRangeTask(this.graph, middle, this.end));
+            }
+        }
+    }
+
+    /**
+     * A bounded max-heap of point indices keyed by distance.
+     */
+    private static class NeighborHeap {
+
+        private final int[] indices;
+        private final double[] distances;
+        private int size;
+
+        NeighborHeap(final int capacity) {
+            this.indices = new int[capacity];
+            this.distances = new double[capacity];
+        }
+
+        boolean isFull() {
+            return this.size == this.indices.length;
+        }
+
+        double getBound() {
+            return this.distances[0];
+        }
+
+        void offer(final int index, final double distance) {
+            if (this.size < this.indices.length) {
+                // Sift the new entry up from the bottom of the heap
+                int i = this.size++;
+
+                while (i > 0) {
+                    final int parent = (i - 1) >>> 1;
+
+                    if (this.distances[parent] >= distance) {
+                        break;
+                    }
+
+                    this.indices[i] = this.indices[parent];
+                    this.distances[i] = this.distances[parent];
+                    i = parent;
+                }
+
+                this.indices[i] = index;
+                this.distances[i] = distance;
+            } else if (distance < this.distances[0]) {
+                this.replaceTop(index, distance);
+            }
+        }
+
+        private void replaceTop(final int index, final double distance) {
+            int i = 0;
+
+            while (true) {
+                final int left = (2 * i) + 1;
+
+                if (left >= this.size) {
+                    break;
+                }
+
+                final int right = left + 1;
+                final int largerChild = right < this.size && this.distances[right] > this.distances[left] ? right : left;
+
+                if (this.distances[largerChild] <= distance) {
+                    break;
+                }
+
+                this.indices[i] = this.indices[largerChild];
+                this.distances[i] = this.distances[largerChild];
+                i = largerChild;
+            }
+
+            this.indices[i] = index;
+            this.distances[i] = distance;
+        }
+
+        int[] toSortedIndices() {
+            final int[] sortedIndices = new int[this.size];
+
+            // Repeatedly pull the farthest remaining neighbor off the top of the heap, filling the array from the back
+            while (this.size > 0) {
+                sortedIndices[this.size - 1] = this.indices[0];
+
+                final int lastIndex = this.indices[this.size - 1];
+                final double lastDistance = this.distances[this.size - 1];
+
+                this.size -= 1;
+
+                if (this.size > 0) {
+                    this.replaceTop(lastIndex, lastDistance);
+                }
+            }
+
+            return sortedIndices;
+        }
+    }
+}
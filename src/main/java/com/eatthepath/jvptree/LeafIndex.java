@@ -0,0 +1,86 @@
+package com.eatthepath.jvptree;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Assigns a position to every point in a vp-tree by walking the tree's leaves in order. A point's position is the
+ * same as its position in the order returned by the tree's iterator, which lets bulk operations identify points with
+ * primitive indices instead of object references. Deleted points that haven't yet been purged from their leaves are
+ * skipped and have no position.
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ */
+class LeafIndex<P, E extends P> {
+
+    private final List<VPTreeNode<P, E>> leaves = new ArrayList<>();
+    private final IdentityHashMap<VPTreeNode<P, E>, Integer> offsetsByLeaf = new IdentityHashMap<>();
+    private final IdentityHashMap<VPTreeNode<P, E>, List<E>> pointsByLeaf = new IdentityHashMap<>();
+    private final int size;
+
+    /**
+     * Constructs a new leaf index for the tree with the given root node. The tree must not be modified while the index
+     * is in use.
+     *
+     * @param rootNode the root node of the tree to index
+     */
+    LeafIndex(final VPTreeNode<P, E> rootNode) {
+        this.size = rootNode == null ? 0 : this.collectLeaves(rootNode, 0);
+    }
+
+    private int collectLeaves(final VPTreeNode<P, E> node, final int offset) {
+        if (node.isLeaf()) {
+            final List<E> livePoints = node.getLivePoints();
+
+            this.leaves.add(node);
+            this.offsetsByLeaf.put(node, offset);
+            this.pointsByLeaf.put(node, livePoints);
+
+            return offset + livePoints.size();
+        } else {
+            return this.collectLeaves(node.getFarther(), this.collectLeaves(node.getCloser(), offset));
+        }
+    }
+
+    /**
+     * Returns all of the leaves in the indexed tree in iteration order.
+     *
+     * @return all of the leaves in the indexed tree
+     */
+    List<VPTreeNode<P, E>> getLeaves() {
+        return this.leaves;
+    }
+
+    /**
+     * Returns the live points in the given leaf in iteration order. The position of each point is the leaf's offset
+     * plus the point's index in the returned list.
+     *
+     * @param leaf the leaf for which to retrieve points
+     *
+     * @return the live points in the given leaf
+     */
+    List<E> getPoints(final VPTreeNode<P, E> leaf) {
+        return this.pointsByLeaf.get(leaf);
+    }
+
+    /**
+     * Returns the position of the first point in the given leaf.
+     *
+     * @param leaf the leaf for which to find an offset
+     *
+     * @return the position of the first point in the given leaf
+     */
+    int getOffset(final VPTreeNode<P, E> leaf) {
+        return this.offsetsByLeaf.get(leaf);
+    }
+
+    /**
+     * Returns the total number of points in the indexed tree.
+     *
+     * @return the total number of points in the indexed tree
+     */
+    int size() {
+        return this.size;
+    }
+}
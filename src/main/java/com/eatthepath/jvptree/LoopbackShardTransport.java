@@ -0,0 +1,46 @@
+package com.eatthepath.jvptree;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * A shard transport that delivers encoded requests directly to a shard server in the same JVM. Requests and responses
+ * still pass through the shard protocol's binary encoding, which makes loopback transports useful for testing and for
+ * running a coordinator and its shards in a single process.
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ */
+public class LoopbackShardTransport implements ShardTransport {
+
+    private final ShardServer<?, ?> shardServer;
+    private final Executor executor;
+
+    /**
+     * Constructs a new loopback transport that handles requests on the calling thread.
+     *
+     * @param shardServer the shard server to which to deliver requests
+     */
+    public LoopbackShardTransport(final ShardServer<?, ?> shardServer) {
+        this(shardServer, Runnable::run);
+    }
+
+    /**
+     * Constructs a new loopback transport that handles requests with the given executor.
+     *
+     * @param shardServer the shard server to which to deliver requests
+     * @param executor the executor with which to handle requests
+     */
+    public LoopbackShardTransport(final ShardServer<?, ?> shardServer, final Executor executor) {
+        this.shardServer = shardServer;
+        this.executor = executor;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.eatthepath.jvptree.ShardTransport#exchange(byte[])
+     */
+    @Override
+    public CompletableFuture<byte[]> exchange(final byte[] request) {
+        return CompletableFuture.supplyAsync(() -> this.shardServer.handle(request), this.executor);
+    }
+}
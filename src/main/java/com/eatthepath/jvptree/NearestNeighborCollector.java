@@ -1,24 +1,52 @@
 package com.eatthepath.jvptree;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.PriorityQueue;
 
 /**
- * A utility class that uses a priority queue to efficiently collect results for a k-nearest-neighbors query in a
- * vp-tree.
+ * <p>Collects results for a k-nearest-neighbors query in a vp-tree. Collectors keep candidate points and their
+ * distances from the query point in a bounded binary heap backed by plain arrays.</p>
+ *
+ * <p>Callers that issue many queries may construct a collector once and pass it to
+ * {@link VPTree#getNearestNeighbors(Object, int, PointFilter, NearestNeighborCollector)} for each query; the collector
+ * is reset at the start of each query and only allocates when a query asks for more results than any previous query.
+ * Once a query has finished, results may be read in order of increasing distance from the query point with
+ * {@link #getPoint(int)} and {@link #getDistance(int)}. Collectors are not thread-safe.</p>
  *
  * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @param <P> the base type of points between which distances can be measured
+ * @param <E> the specific type of point collected
  */
-class NearestNeighborCollector<P, E extends P> {
-    private final P queryPoint;
-    private final int capacity;
+public class NearestNeighborCollector<P, E extends P> {
+    private P queryPoint;
+    private int capacity;
+
+    // May be null for collectors that are only offered points with known distances
+    private DistanceFunction<P> distanceFunction;
+
+    // A max-heap ordered by distance from the query point; the farthest retained point is always at index 0
+    private Object[] points;
+    private double[] distances;
+    private int size;
 
-    private final DistanceFunction<P> distanceFunction;
-    private final DistanceComparator<P> distanceComparator;
-    private final PriorityQueue<E> priorityQueue;
+    // Indicates that the heap arrays are sorted in order of decreasing distance (which is also a valid max-heap)
+    private boolean sorted;
 
-    private double distanceToFarthestPoint;
+    // An optional bound shared with collectors searching other parts of the same index for the same query
+    private SharedDistanceBound sharedDistanceBound;
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    /**
+     * Constructs a new, empty nearest neighbor collector that may be passed to
+     * {@link VPTree#getNearestNeighbors(Object, int, PointFilter, NearestNeighborCollector)} and reused across queries.
+     */
+    public NearestNeighborCollector() {
+        this.points = new Object[DEFAULT_INITIAL_CAPACITY];
+        this.distances = new double[DEFAULT_INITIAL_CAPACITY];
+    }
 
     /**
      * Constructs a new nearest neighbor collector that selectively accepts points that are close to the given query
@@ -31,19 +59,62 @@ class NearestNeighborCollector<P, E extends P> {
      * potential neighbors
      * @param capacity the maximum number of nearest neighbors to collect
      */
-    public NearestNeighborCollector(final P queryPoint, final DistanceFunction<P> distanceFunction, final int capacity) {
+    NearestNeighborCollector(final P queryPoint, final DistanceFunction<P> distanceFunction, final int capacity) {
+        this.points = new Object[capacity > 0 ? capacity : 1];
+        this.distances = new double[capacity > 0 ? capacity : 1];
+
+        this.reset(queryPoint, distanceFunction, capacity);
+    }
+
+    /**
+     * Clears this collector and prepares it to collect up to the given number of neighbors of the given query point,
+     * measuring the distance to points offered without a known distance with the given distance function.
+     *
+     * @param queryPoint the point for which nearest neighbors are to be collected
+     * @param distanceFunction the distance function to be used to determine the distance between the query point and
+     * potential neighbors
+     * @param capacity the maximum number of nearest neighbors to collect
+     */
+    void reset(final P queryPoint, final DistanceFunction<P> distanceFunction, final int capacity) {
+        this.reset(queryPoint, capacity);
+        this.distanceFunction = distanceFunction;
+    }
+
+    /**
+     * Clears this collector and prepares it to collect up to the given number of neighbors of the given query point.
+     * The collector keeps the distance function (if any) with which it was last reset.
+     *
+     * @param queryPoint the point for which nearest neighbors are to be collected
+     * @param capacity the maximum number of nearest neighbors to collect
+     */
+    void reset(final P queryPoint, final int capacity) {
         if (capacity < 1) {
             throw new IllegalArgumentException("Capacity must be positive.");
         }
 
+        if (capacity > this.points.length) {
+            this.points = new Object[capacity];
+            this.distances = new double[capacity];
+        } else {
+            // Don't hold on to references from previous queries
+            Arrays.fill(this.points, 0, this.size, null);
+        }
+
         this.queryPoint = queryPoint;
-        this.distanceFunction = distanceFunction;
         this.capacity = capacity;
+        this.size = 0;
+        this.sorted = true;
+    }
 
-        this.distanceComparator = new DistanceComparator<>(queryPoint, distanceFunction);
-
-        this.priorityQueue =
-                new PriorityQueue<>(this.capacity, java.util.Collections.reverseOrder(this.distanceComparator));
+    /**
+     * Sets a distance bound to share with other collectors gathering neighbors of the same query point in parallel.
+     * This collector will lower the shared bound whenever it fills up, and will report the shared bound as its
+     * {@linkplain #getDistanceToFarthestPoint() farthest distance} if the shared bound is closer than its own.
+     *
+     * @param sharedDistanceBound the bound to share, or {@code null} to stop sharing a bound
+     */
+    void setSharedDistanceBound(final SharedDistanceBound sharedDistanceBound) {
+        this.sharedDistanceBound = sharedDistanceBound;
     }
 
     /**
@@ -61,39 +132,203 @@ class NearestNeighborCollector<P, E extends P> {
      * point than the most distant point already in the collection.
      *
      * @param point the point to offer to this collector
+     *
+     * @throws IllegalStateException if this collector has no distance function with which to measure the distance to
+     * the given point
      */
-    public void offerPoint(final E point) {
-        final boolean pointAdded;
+    void offerPoint(final E point) {
+        if (this.distanceFunction == null) {
+            throw new IllegalStateException("Collector has no distance function; points must be offered with known distances.");
+        }
 
-        if (this.priorityQueue.size() < this.capacity) {
-            this.priorityQueue.add(point);
-            pointAdded = true;
-        } else {
-            assert this.priorityQueue.size() > 0;
+        this.offerPoint(point, this.distanceFunction.getDistance(this.queryPoint, point));
+    }
+
+    /**
+     * Offers a point with a known distance from the query point to this collector.
+     *
+     * @param point the point to offer to this collector
+     * @param distance the distance between the given point and the query point
+     *
+     * @see #offerPoint(Object)
+     */
+    void offerPoint(final E point, final double distance) {
+        if (this.size < this.capacity) {
+            // Sift the new point up from the bottom of the heap
+            int i = this.size++;
+
+            while (i > 0) {
+                final int parent = (i - 1) >>> 1;
 
-            final double distanceToNewPoint = this.distanceFunction.getDistance(this.queryPoint, point);
+                if (this.distances[parent] >= distance) {
+                    break;
+                }
 
-            if (distanceToNewPoint < this.distanceToFarthestPoint) {
-                this.priorityQueue.poll();
-                this.priorityQueue.add(point);
-                pointAdded = true;
-            } else {
-                pointAdded = false;
+                this.points[i] = this.points[parent];
+                this.distances[i] = this.distances[parent];
+                i = parent;
             }
+
+            this.points[i] = point;
+            this.distances[i] = distance;
+
+            this.sorted = this.size == 1;
+        } else if (distance < this.distances[0]) {
+            this.siftDown(point, distance, this.size);
+            this.sorted = false;
+        } else {
+            return;
         }
 
-        if (pointAdded) {
-            this.distanceToFarthestPoint = this.distanceFunction.getDistance(this.queryPoint, this.priorityQueue.peek());
+        if (this.sharedDistanceBound != null && this.size == this.capacity) {
+            this.sharedDistanceBound.offer(this.distances[0]);
         }
     }
 
+    /**
+     * Places the given point at the top of the heap (replacing the current farthest point) and sifts it down to its
+     * proper place among the first {@code heapSize} entries.
+     */
+    private void siftDown(final Object point, final double distance, final int heapSize) {
+        int i = 0;
+
+        while (true) {
+            final int left = (2 * i) + 1;
+
+            if (left >= heapSize) {
+                break;
+            }
+
+            final int right = left + 1;
+            final int largerChild = right < heapSize && this.distances[right] > this.distances[left] ? right : left;
+
+            if (this.distances[largerChild] <= distance) {
+                break;
+            }
+
+            this.points[i] = this.points[largerChild];
+            this.distances[i] = this.distances[largerChild];
+            i = largerChild;
+        }
+
+        this.points[i] = point;
+        this.distances[i] = distance;
+    }
+
+    /**
+     * Indicates whether this collector has collected as many points as it can hold.
+     *
+     * @return {@code true} if this collector is full or {@code false} otherwise
+     */
+    boolean isFull() {
+        return this.size >= this.capacity;
+    }
+
+    /**
+     * Returns the distance beyond which points cannot be collected. Until this collector is full, any point may be
+     * collected; after that, only points closer than the farthest point already collected may be collected. If this
+     * collector has a shared distance bound closer than its own farthest point, the shared bound is returned instead.
+     *
+     * @return the distance from the query point to the farthest point collected so far if this collector is full, or
+     * positive infinity otherwise
+     */
+    double getDistanceToFarthestPoint() {
+        final double distanceToFarthestPoint = this.isFull() ? this.distances[0] : Double.POSITIVE_INFINITY;
+
+        return this.sharedDistanceBound == null ?
+                distanceToFarthestPoint : Math.min(distanceToFarthestPoint, this.sharedDistanceBound.get());
+    }
+
     /**
      * Returns the point retained by this collector that is the farthest from the query point.
      *
      * @return the point retained by this collector that is the farthest from the query point
      */
-    public E getFarthestPoint() {
-        return this.priorityQueue.peek();
+    @SuppressWarnings("unchecked")
+    E getFarthestPoint() {
+        return this.size == 0 ? null : (E) this.points[0];
+    }
+
+    /**
+     * Returns the number of points retained by this collector.
+     *
+     * @return the number of points retained by this collector
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the point at the given position in this collector's results, which are ordered by increasing distance
+     * from the query point.
+     *
+     * @param index the position of the point to return
+     *
+     * @return the point at the given position in this collector's results
+     *
+     * @throws IndexOutOfBoundsException if the given index is negative or not less than this collector's size
+     */
+    @SuppressWarnings("unchecked")
+    public E getPoint(final int index) {
+        return (E) this.points[this.getArrayIndex(index)];
+    }
+
+    /**
+     * Returns the distance between the query point and the point at the given position in this collector's results,
+     * which are ordered by increasing distance from the query point.
+     *
+     * @param index the position of the point whose distance should be returned
+     *
+     * @return the distance between the query point and the point at the given position
+     *
+     * @throws IndexOutOfBoundsException if the given index is negative or not less than this collector's size
+     */
+    public double getDistance(final int index) {
+        return this.distances[this.getArrayIndex(index)];
+    }
+
+    private int getArrayIndex(final int index) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        this.sort();
+
+        return this.size - 1 - index;
+    }
+
+    /**
+     * Sorts the heap arrays in place in order of decreasing distance from the query point. A descending array is still
+     * a valid max-heap, so points may continue to be offered after sorting.
+     */
+    private void sort() {
+        if (this.sorted) {
+            return;
+        }
+
+        // Heapsort leaves the arrays in ascending order...
+        for (int heapSize = this.size - 1; heapSize > 0; heapSize--) {
+            final Object farthestPoint = this.points[0];
+            final double farthestDistance = this.distances[0];
+
+            this.siftDown(this.points[heapSize], this.distances[heapSize], heapSize);
+
+            this.points[heapSize] = farthestPoint;
+            this.distances[heapSize] = farthestDistance;
+        }
+
+        // ...so we reverse them to get back to a max-heap.
+        for (int i = 0, j = this.size - 1; i < j; i++, j--) {
+            final Object point = this.points[i];
+            this.points[i] = this.points[j];
+            this.points[j] = point;
+
+            final double distance = this.distances[i];
+            this.distances[i] = this.distances[j];
+            this.distances[j] = distance;
+        }
+
+        this.sorted = true;
     }
 
     /**
@@ -102,8 +337,11 @@ class NearestNeighborCollector<P, E extends P> {
      * @return a list of points retained by this collector, sorted by distance from the query point
      */
     public List<E> toSortedList() {
-        final ArrayList<E> sortedList = new ArrayList<>(this.priorityQueue);
-        java.util.Collections.sort(sortedList, this.distanceComparator);
+        final ArrayList<E> sortedList = new ArrayList<>(this.size);
+
+        for (int i = 0; i < this.size; i++) {
+            sortedList.add(this.getPoint(i));
+        }
 
         return sortedList;
     }
@@ -0,0 +1,620 @@
+package com.eatthepath.jvptree;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import com.eatthepath.jvptree.util.SamplingMedianDistanceThresholdSelectionStrategy;
+
+/**
+ * <p>A spatial index that divides its points into independent partitions by a key derived from each point (for
+ * example, the tenant that owns each point). Each partition is searched on its own, so queries that name a partition
+ * only pay for the points in that partition rather than traversing (and filtering) every point in the index.</p>
+ *
+ * <p>Small partitions keep their points in a plain list and are searched by brute force; once a partition holds more
+ * than a configurable number of points (its "brute-force cutoff"), its points are moved into a {@link VPTree}.
+ * Partitions are created when their first point is added and discarded when their last point is removed, and an entire
+ * partition may be discarded at once with {@link #removePartition(Object)}. Partitions that haven't been used in a
+ * while may be compacted to release memory and undo the effects of churn; see
+ * {@link #compactIdlePartitions(Duration)}.</p>
+ *
+ * <p>Queries that don't name a partition (including all of the queries defined by {@link SpatialIndex}) search every
+ * partition with a single collector, and so their results are the same as if all points were in a single tree. Because
+ * they don't single out any partition, these queries don't count as uses of the partitions they search when deciding
+ * which partitions are idle.</p>
+ *
+ * <p>Like {@link VPTree}, partitioned indices are not thread-safe.</p>
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @param <K> the type of key by which points are partitioned
+ * @param <P> the base type of points between which distances can be measured
+ * @param <E> the specific type of point contained in this index
+ */
+public class PartitionedVPTree<K, P, E extends P> extends AbstractCollection<E> implements SpatialIndex<P, E> {
+
+    private final DistanceFunction<P> distanceFunction;
+    private final ThresholdSelectionStrategy<P, E> thresholdSelectionStrategy;
+    private final int nodeCapacity;
+
+    private final Function<? super E, ? extends K> partitionFunction;
+    private final int bruteForceCutoff;
+    private final Clock clock;
+
+    private final Map<K, Partition<P, E>> partitions = new HashMap<>();
+
+    /**
+     * The default number of points a partition may hold before it is indexed with a vp-tree.
+     */
+    public static final int DEFAULT_BRUTE_FORCE_CUTOFF = 256;
+
+    private static class Partition<P, E extends P> {
+        // Exactly one of `points` and `tree` is non-null at any given time
+        private ArrayList<E> points = new ArrayList<>();
+        private VPTree<P, E> tree;
+
+        private long lastAccessMillis;
+
+        // Whether this partition has been compacted and not modified since; compacting it again would do nothing useful
+        private boolean compacted;
+
+        private int size() {
+            return this.tree != null ? this.tree.size() : this.points.size();
+        }
+
+        private Iterator<E> iterator() {
+            return this.tree != null ? this.tree.iterator() : this.points.iterator();
+        }
+    }
+
+    /**
+     * Constructs a new, empty partitioned index that uses the given distance function and partition function. The index
+     * will use default vp-tree settings and the default brute-force cutoff.
+     *
+     * @param distanceFunction the distance function to use to calculate the distance between points
+     * @param partitionFunction the function that returns the key of the partition to which each point belongs; keys
+     * must have well-behaved {@code equals} and {@code hashCode} methods
+     */
+    public PartitionedVPTree(final DistanceFunction<P> distanceFunction, final Function<? super E, ? extends K> partitionFunction) {
+        this(distanceFunction, new SamplingMedianDistanceThresholdSelectionStrategy<P, E>(
+                SamplingMedianDistanceThresholdSelectionStrategy.DEFAULT_NUMBER_OF_SAMPLES),
+                VPTree.DEFAULT_NODE_CAPACITY, partitionFunction, DEFAULT_BRUTE_FORCE_CUTOFF, Clock.systemUTC());
+    }
+
+    /**
+     * Constructs a new, empty partitioned index.
+     *
+     * @param distanceFunction the distance function to use to calculate the distance between points
+     * @param thresholdSelectionStrategy the function to use to choose distance thresholds when partitioning nodes
+     * @param nodeCapacity the largest capacity a node may have before it should be partitioned
+     * @param partitionFunction the function that returns the key of the partition to which each point belongs; keys
+     * must have well-behaved {@code equals} and {@code hashCode} methods
+     * @param bruteForceCutoff the largest number of points a partition may hold before its points are indexed with a
+     * vp-tree; must not be negative
+     * @param clock the clock from which to read the time at which partitions were last used
+     */
+    public PartitionedVPTree(final DistanceFunction<P> distanceFunction, final ThresholdSelectionStrategy<P, E> thresholdSelectionStrategy, final int nodeCapacity, final Function<? super E, ? extends K> partitionFunction, final int bruteForceCutoff, final Clock clock) {
+        if (nodeCapacity < 1) {
+            throw new IllegalArgumentException("Node capacity must be positive.");
+        }
+
+        if (bruteForceCutoff < 0) {
+            throw new IllegalArgumentException("Brute-force cutoff must not be negative.");
+        }
+
+        this.distanceFunction = distanceFunction;
+        this.thresholdSelectionStrategy = thresholdSelectionStrategy;
+        this.nodeCapacity = nodeCapacity;
+
+        this.partitionFunction = partitionFunction;
+        this.bruteForceCutoff = bruteForceCutoff;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the partition with the given key and marks it as recently used.
+     *
+     * @return the partition with the given key, or {@code null} if no such partition exists
+     */
+    private Partition<P, E> getPartition(final Object key) {
+        final Partition<P, E> partition = this.partitions.get(key);
+
+        if (partition != null) {
+            partition.lastAccessMillis = this.clock.millis();
+        }
+
+        return partition;
+    }
+
+    /**
+     * Returns the key of the partition to which the given object would belong if it were a point in this index.
+     *
+     * @return the key of the partition to which the given object belongs, or {@code null} if the given object could not
+     * be a point in this index
+     */
+    @SuppressWarnings("unchecked")
+    private Object getPartitionKey(final Object point) {
+        try {
+            return this.partitionFunction.apply((E) point);
+        } catch (final ClassCastException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the keys of all of the partitions in this index. The returned set is a read-only view of this index's
+     * partition keys.
+     *
+     * @return the keys of all of the partitions in this index
+     */
+    public Set<K> getPartitionKeys() {
+        return Collections.unmodifiableSet(this.partitions.keySet());
+    }
+
+    /**
+     * Returns the number of points in the partition with the given key.
+     *
+     * @param key the key of the partition for which to count points
+     *
+     * @return the number of points in the partition with the given key, or 0 if no such partition exists
+     */
+    public int getPartitionSize(final K key) {
+        final Partition<P, E> partition = this.partitions.get(key);
+        return partition != null ? partition.size() : 0;
+    }
+
+    /**
+     * Indicates whether the partition with the given key has been indexed with a vp-tree.
+     *
+     * @param key the key of the partition to check
+     *
+     * @return {@code true} if the partition exists and is indexed with a vp-tree or {@code false} otherwise
+     */
+    boolean isPartitionIndexed(final K key) {
+        final Partition<P, E> partition = this.partitions.get(key);
+        return partition != null && partition.tree != null;
+    }
+
+    /**
+     * Removes the partition with the given key and all of its points from this index. Removing a partition takes
+     * constant time regardless of the number of points in the partition.
+     *
+     * @param key the key of the partition to remove
+     *
+     * @return the number of points removed from this index
+     */
+    public int removePartition(final K key) {
+        final Partition<P, E> partition = this.partitions.remove(key);
+        return partition != null ? partition.size() : 0;
+    }
+
+    /**
+     * Compacts the partition with the given key. Compacting a partition that has shrunk to (or below) the brute-force
+     * cutoff moves its points back into a plain list; compacting any other indexed partition rebuilds its vp-tree from
+     * scratch, which rebalances the tree and releases any memory held for removed points. Compacting a partition that
+     * hasn't been modified since it was last compacted has no effect.
+     *
+     * @param key the key of the partition to compact
+     */
+    public void compactPartition(final K key) {
+        final Partition<P, E> partition = this.partitions.get(key);
+
+        if (partition != null) {
+            this.compact(partition);
+        }
+    }
+
+    /**
+     * Compacts every partition that hasn't been read or modified for at least the given length of time. Partitions that
+     * haven't been modified since they were last compacted are skipped.
+     *
+     * @param maxIdleTime the length of time for which a partition must have been unused before it is compacted
+     *
+     * @return the number of partitions compacted
+     *
+     * @see #compactPartition(Object)
+     */
+    public int compactIdlePartitions(final Duration maxIdleTime) {
+        final long idleSinceMillis = this.clock.millis() - maxIdleTime.toMillis();
+        int compactedPartitions = 0;
+
+        for (final Partition<P, E> partition : this.partitions.values()) {
+            if (partition.lastAccessMillis <= idleSinceMillis && this.compact(partition)) {
+                compactedPartitions += 1;
+            }
+        }
+
+        return compactedPartitions;
+    }
+
+    /**
+     * Compacts the given partition unless it hasn't been modified since it was last compacted.
+     *
+     * @return {@code true} if the partition was compacted or {@code false} if it was skipped
+     */
+    private boolean compact(final Partition<P, E> partition) {
+        if (partition.compacted) {
+            return false;
+        }
+
+        if (partition.tree != null) {
+            if (partition.tree.size() <= this.bruteForceCutoff) {
+                partition.points = new ArrayList<>(partition.tree);
+                partition.tree = null;
+            } else {
+                partition.tree = new VPTree<>(this.distanceFunction, this.thresholdSelectionStrategy, this.nodeCapacity,
+                        new ArrayList<>(partition.tree));
+            }
+        } else {
+            partition.points.trimToSize();
+        }
+
+        partition.compacted = true;
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.eatthepath.jvptree.SpatialIndex#getNearestNeighbors(java.lang.Object, int)
+     */
+    @Override
+    public List<E> getNearestNeighbors(final P queryPoint, final int maxResults) {
+        return this.getNearestNeighbors(queryPoint, maxResults, point -> true);
+    }
+
+    @Override
+    public List<E> getNearestNeighbors(final P queryPoint, final int maxResults, final PointFilter<? super E> filter) {
+        final NearestNeighborCollector<P, E> collector =
+                new NearestNeighborCollector<>(queryPoint, this.distanceFunction, maxResults);
+
+        for (final Partition<P, E> partition : this.partitions.values()) {
+            this.collectNearestNeighbors(partition, collector, maxResults, filter);
+        }
+
+        return collector.toSortedList();
+    }
+
+    /**
+     * Returns a list of the nearest neighbors to a given query point within a single partition. The returned list is
+     * sorted by increasing distance from the query point.
+     *
+     * @param key the key of the partition to search
+     * @param queryPoint the point for which to find neighbors
+     * @param maxResults the maximum length of the returned list
+     *
+     * @return a list of the nearest neighbors to the given query point in the given partition, or an empty list if no
+     * such partition exists
+     */
+    public List<E> getNearestNeighbors(final K key, final P queryPoint, final int maxResults) {
+        return this.getNearestNeighbors(Collections.singleton(key), queryPoint, maxResults, point -> true);
+    }
+
+    /**
+     * Returns a list of the nearest neighbors to a given query point within a single partition that match the given
+     * filter. The returned list is sorted by increasing distance from the query point.
+     *
+     * @param key the key of the partition to search
+     * @param queryPoint the point for which to find neighbors
+     * @param maxResults the maximum length of the returned list
+     * @param filter a filter to apply to each element to determine if it should be included in the set of neighbors
+     *
+     * @return a list of the nearest neighbors to the given query point in the given partition, or an empty list if no
+     * such partition exists
+     */
+    public List<E> getNearestNeighbors(final K key, final P queryPoint, final int maxResults, final PointFilter<? super E> filter) {
+        return this.getNearestNeighbors(Collections.singleton(key), queryPoint, maxResults, filter);
+    }
+
+    /**
+     * Returns a list of the nearest neighbors to a given query point across several partitions that match the given
+     * filter. The returned list is sorted by increasing distance from the query point.
+     *
+     * @param keys the keys of the partitions to search; keys that do not identify a partition in this index are ignored
+     * @param queryPoint the point for which to find neighbors
+     * @param maxResults the maximum length of the returned list
+     * @param filter a filter to apply to each element to determine if it should be included in the set of neighbors
+     *
+     * @return a list of the nearest neighbors to the given query point in the given partitions
+     */
+    public List<E> getNearestNeighbors(final Collection<? extends K> keys, final P queryPoint, final int maxResults, final PointFilter<? super E> filter) {
+        final NearestNeighborCollector<P, E> collector =
+                new NearestNeighborCollector<>(queryPoint, this.distanceFunction, maxResults);
+
+        for (final K key : keys) {
+            final Partition<P, E> partition = this.getPartition(key);
+
+            if (partition != null) {
+                this.collectNearestNeighbors(partition, collector, maxResults, filter);
+            }
+        }
+
+        return collector.toSortedList();
+    }
+
+    private void collectNearestNeighbors(final Partition<P, E> partition, final NearestNeighborCollector<P, E> collector, final int maxResults, final PointFilter<? super E> filter) {
+        if (partition.tree != null) {
+            partition.tree.collectNearestNeighbors(collector, maxResults, filter);
+        } else {
+            for (final E point : partition.points) {
+                if (filter.allowPoint(point)) {
+                    collector.offerPoint(point);
+                }
+            }
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.eatthepath.jvptree.SpatialIndex#getAllWithinDistance(java.lang.Object, double)
+     */
+    @Override
+    public List<E> getAllWithinDistance(final P queryPoint, final double maxDistance) {
+        return this.getAllWithinDistance(queryPoint, maxDistance, point -> true);
+    }
+
+    @Override
+    public List<E> getAllWithinDistance(final P queryPoint, final double maxDistance, final PointFilter<? super E> filter) {
+        final List<E> pointsWithinRange = new ArrayList<>();
+
+        for (final Partition<P, E> partition : this.partitions.values()) {
+            this.collectAllWithinDistance(partition, queryPoint, maxDistance, filter, pointsWithinRange);
+        }
+
+        return pointsWithinRange;
+    }
+
+    /**
+     * Returns all points within a given distance of a query point within a single partition. The returned list is not
+     * sorted.
+     *
+     * @param key the key of the partition to search
+     * @param queryPoint the point for which to find neighbors
+     * @param maxDistance the maximum allowable distance from the query point; points farther away than
+     * {@code maxDistance} will be excluded from the returned list
+     *
+     * @return a list of all points in the given partition within the given distance of the query point, or an empty
+     * list if no such partition exists
+     */
+    public List<E> getAllWithinDistance(final K key, final P queryPoint, final double maxDistance) {
+        return this.getAllWithinDistance(Collections.singleton(key), queryPoint, maxDistance, point -> true);
+    }
+
+    /**
+     * Returns all points within a given distance of a query point within a single partition that match the given
+     * filter. The returned list is not sorted.
+     *
+     * @param key the key of the partition to search
+     * @param queryPoint the point for which to find neighbors
+     * @param maxDistance the maximum allowable distance from the query point; points farther away than
+     * {@code maxDistance} will be excluded from the returned list
+     * @param filter a filter to apply to each element to determine if it should be included in the returned list
+     *
+     * @return a list of all points in the given partition within the given distance of the query point, or an empty
+     * list if no such partition exists
+     */
+    public List<E> getAllWithinDistance(final K key, final P queryPoint, final double maxDistance, final PointFilter<? super E> filter) {
+        return this.getAllWithinDistance(Collections.singleton(key), queryPoint, maxDistance, filter);
+    }
+
+    /**
+     * Returns all points within a given distance of a query point across several partitions that match the given
+     * filter. The returned list is not sorted.
+     *
+     * @param keys the keys of the partitions to search; keys that do not identify a partition in this index are ignored
+     * @param queryPoint the point for which to find neighbors
+     * @param maxDistance the maximum allowable distance from the query point; points farther away than
+     * {@code maxDistance} will be excluded from the returned list
+     * @param filter a filter to apply to each element to determine if it should be included in the returned list
+     *
+     * @return a list of all points in the given partitions within the given distance of the query point
+     */
+    public List<E> getAllWithinDistance(final Collection<? extends K> keys, final P queryPoint, final double maxDistance, final PointFilter<? super E> filter) {
+        final List<E> pointsWithinRange = new ArrayList<>();
+
+        for (final K key : keys) {
+            final Partition<P, E> partition = this.getPartition(key);
+
+            if (partition != null) {
+                this.collectAllWithinDistance(partition, queryPoint, maxDistance, filter, pointsWithinRange);
+            }
+        }
+
+        return pointsWithinRange;
+    }
+
+    private void collectAllWithinDistance(final Partition<P, E> partition, final P queryPoint, final double maxDistance, final PointFilter<? super E> filter, final List<E> pointsWithinRange) {
+        if (partition.tree != null) {
+            partition.tree.forEachWithinDistance(queryPoint, maxDistance, filter,
+                    (point, distance) -> pointsWithinRange.add(point));
+        } else {
+            for (final E point : partition.points) {
+                if (filter.allowPoint(point) && this.distanceFunction.getDistance(queryPoint, point) <= maxDistance) {
+                    pointsWithinRange.add(point);
+                }
+            }
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#size()
+     */
+    @Override
+    public int size() {
+        int size = 0;
+
+        for (final Partition<P, E> partition : this.partitions.values()) {
+            size += partition.size();
+        }
+
+        return size;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#isEmpty()
+     */
+    @Override
+    public boolean isEmpty() {
+        // Empty partitions are always discarded
+        return this.partitions.isEmpty();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#contains(java.lang.Object)
+     */
+    @Override
+    public boolean contains(final Object o) {
+        final Partition<P, E> partition = this.getPartition(this.getPartitionKey(o));
+
+        if (partition == null) {
+            return false;
+        }
+
+        return partition.tree != null ? partition.tree.contains(o) : partition.points.contains(o);
+    }
+
+    /**
+     * Returns an iterator over the points in this index, one partition at a time. The returned iterator does not
+     * support removal.
+     *
+     * @return an iterator over the points in this index
+     */
+    @Override
+    public Iterator<E> iterator() {
+        final ArrayList<Iterator<E>> iterators = new ArrayList<>(this.partitions.size());
+
+        for (final Partition<P, E> partition : this.partitions.values()) {
+            iterators.add(partition.iterator());
+        }
+
+        return new MetaIterator<>(iterators);
+    }
+
+    /**
+     * Adds a point to the partition to which it belongs, creating the partition if necessary.
+     *
+     * @param point the point to add
+     *
+     * @return {@code true} (as specified by {@link Collection#add(Object)})
+     */
+    @Override
+    public boolean add(final E point) {
+        final K key = this.partitionFunction.apply(point);
+        final Partition<P, E> partition = this.partitions.computeIfAbsent(key, k -> new Partition<>());
+
+        partition.lastAccessMillis = this.clock.millis();
+        partition.compacted = false;
+
+        if (partition.tree != null) {
+            partition.tree.add(point);
+        } else {
+            partition.points.add(point);
+
+            if (partition.points.size() > this.bruteForceCutoff) {
+                partition.tree = new VPTree<>(this.distanceFunction, this.thresholdSelectionStrategy, this.nodeCapacity,
+                        partition.points);
+
+                partition.points = null;
+            }
+        }
+
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#remove(java.lang.Object)
+     */
+    @Override
+    public boolean remove(final Object point) {
+        final Object key = this.getPartitionKey(point);
+        final Partition<P, E> partition = this.getPartition(key);
+
+        if (partition == null) {
+            return false;
+        }
+
+        // Both lists and trees remove a single copy of the point
+        final boolean removed = partition.tree != null ? partition.tree.remove(point) : partition.points.remove(point);
+
+        if (removed) {
+            partition.compacted = false;
+        }
+
+        if (partition.size() == 0) {
+            this.partitions.remove(key);
+        }
+
+        return removed;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#removeAll(java.util.Collection)
+     */
+    @Override
+    public boolean removeAll(final Collection<?> points) {
+        boolean modified = false;
+
+        for (final Iterator<Partition<P, E>> iterator = this.partitions.values().iterator(); iterator.hasNext(); ) {
+            final Partition<P, E> partition = iterator.next();
+
+            // Both lists and trees remove every copy of each point, so promoting a partition to a tree doesn't change
+            // which points get removed
+            if (partition.tree != null ? partition.tree.removeAll(points) : partition.points.removeAll(points)) {
+                partition.compacted = false;
+                modified = true;
+            }
+
+            if (partition.size() == 0) {
+                iterator.remove();
+            }
+        }
+
+        return modified;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#retainAll(java.util.Collection)
+     */
+    @Override
+    public boolean retainAll(final Collection<?> points) {
+        boolean modified = false;
+
+        for (final Iterator<Partition<P, E>> iterator = this.partitions.values().iterator(); iterator.hasNext(); ) {
+            final Partition<P, E> partition = iterator.next();
+
+            if (partition.tree != null ? partition.tree.retainAll(points) : partition.points.retainAll(points)) {
+                partition.compacted = false;
+                modified = true;
+            }
+
+            if (partition.size() == 0) {
+                iterator.remove();
+            }
+        }
+
+        return modified;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#clear()
+     */
+    @Override
+    public void clear() {
+        this.partitions.clear();
+    }
+}
@@ -0,0 +1,39 @@
+package com.eatthepath.jvptree;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes points to and reads points from a compact binary form so they can be exchanged with remote shards.
+ *
+ * @param <T> the type of point to encode and decode
+ *
+ * @see ShardServer
+ * @see RemoteShardCoordinator
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ */
+public interface PointCodec<T> {
+
+    /**
+     * Writes the given point to the given output.
+     *
+     * @param point the point to write
+     * @param out the output to which to write the point
+     *
+     * @throws IOException if the point could not be written for any reason
+     */
+    void write(T point, DataOutput out) throws IOException;
+
+    /**
+     * Reads a point from the given input.
+     *
+     * @param in the input from which to read a point
+     *
+     * @return the point read from the given input
+     *
+     * @throws IOException if a point could not be read for any reason
+     */
+    T read(DataInput in) throws IOException;
+}
@@ -0,0 +1,19 @@
+package com.eatthepath.jvptree;
+
+/**
+ * A callback that receives points found by a spatial query along with their distance from the query point.
+ *
+ * @param <T> the type of point to which this consumer applies
+ *
+ * @see VPTree#forEachWithinDistance(Object, double, PointConsumer)
+ */
+public interface PointConsumer<T> {
+
+    /**
+     * Accepts a point found by a spatial query.
+     *
+     * @param point the point found by the query
+     * @param distance the distance between the point and the query point
+     */
+    void acceptPoint(T point, double distance);
+}
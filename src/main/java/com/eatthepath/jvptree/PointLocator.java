@@ -0,0 +1,128 @@
+package com.eatthepath.jvptree;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Maps the points in a vp-tree to the leaf nodes that contain them so that points can be found without searching the
+ * tree. Points may be matched either by equality or by identity. Nodes keep a tree's locator up to date as points are
+ * added, removed, and moved between leaves.
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ */
+class PointLocator<P, E extends P> {
+
+    private final boolean matchByIdentity;
+
+    // Values are either a single VPTreeNode or, if the tree contains several matching points, a LeafList of the leaves
+    // that contain them (with one entry per matching point)
+    private final Map<Object, Object> leavesByPoint;
+
+    private static class LeafList<P, E extends P> extends ArrayList<VPTreeNode<P, E>> {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Constructs a new, empty point locator.
+     *
+     * @param matchByIdentity if {@code true}, points are matched by identity; otherwise, points are matched by equality
+     */
+    PointLocator(final boolean matchByIdentity) {
+        this.matchByIdentity = matchByIdentity;
+        this.leavesByPoint = matchByIdentity ? new IdentityHashMap<>() : new HashMap<>();
+    }
+
+    boolean isMatchByIdentity() {
+        return this.matchByIdentity;
+    }
+
+    /**
+     * Indicates whether the given points match according to this locator's matching rules.
+     *
+     * @param first the first point to compare
+     * @param second the second point to compare
+     *
+     * @return {@code true} if the given points match or {@code false} otherwise
+     */
+    boolean matches(final Object first, final Object second) {
+        return this.matchByIdentity ? first == second : Objects.equals(first, second);
+    }
+
+    /**
+     * Records that the given leaf node contains the given point.
+     *
+     * @param point the point stored in the given leaf
+     * @param leaf the leaf node that contains the given point
+     */
+    @SuppressWarnings("unchecked")
+    void add(final E point, final VPTreeNode<P, E> leaf) {
+        final Object existing = this.leavesByPoint.putIfAbsent(point, leaf);
+
+        if (existing instanceof VPTreeNode) {
+            final LeafList<P, E> leaves = new LeafList<>();
+            leaves.add((VPTreeNode<P, E>) existing);
+            leaves.add(leaf);
+
+            this.leavesByPoint.put(point, leaves);
+        } else if (existing != null) {
+            ((LeafList<P, E>) existing).add(leaf);
+        }
+    }
+
+    /**
+     * Records that the given leaf node no longer contains one instance of the given point.
+     *
+     * @param point the point removed from the given leaf
+     * @param leaf the leaf node from which the point was removed
+     */
+    @SuppressWarnings("unchecked")
+    void remove(final Object point, final VPTreeNode<P, E> leaf) {
+        final Object existing = this.leavesByPoint.get(point);
+
+        if (existing == leaf) {
+            this.leavesByPoint.remove(point);
+        } else if (existing instanceof LeafList) {
+            final LeafList<P, E> leaves = (LeafList<P, E>) existing;
+
+            // Nodes don't override `equals`, so this removes the first reference to exactly this leaf
+            leaves.remove(leaf);
+
+            if (leaves.size() == 1) {
+                this.leavesByPoint.put(point, leaves.get(0));
+            }
+        }
+    }
+
+    /**
+     * Returns a leaf node that contains the given point.
+     *
+     * @param point the point to find
+     *
+     * @return a leaf node that contains the given point, or {@code null} if no leaf contains the given point
+     */
+    @SuppressWarnings("unchecked")
+    VPTreeNode<P, E> getLeaf(final Object point) {
+        final Object existing = this.leavesByPoint.get(point);
+
+        if (existing instanceof LeafList) {
+            final LeafList<P, E> leaves = (LeafList<P, E>) existing;
+            return leaves.get(leaves.size() - 1);
+        }
+
+        return (VPTreeNode<P, E>) existing;
+    }
+
+    /**
+     * Indicates whether any leaf contains the given point.
+     *
+     * @param point the point to find
+     *
+     * @return {@code true} if any leaf contains the given point or {@code false} otherwise
+     */
+    boolean contains(final Object point) {
+        return this.leavesByPoint.containsKey(point);
+    }
+}
@@ -0,0 +1,23 @@
+package com.eatthepath.jvptree;
+
+/**
+ * A callback that receives pairs of points found by a similarity join. Joins may run in parallel, so implementations
+ * must be safe to call from multiple threads at once.
+ *
+ * @param <A> the type of the first point in each pair
+ * @param <B> the type of the second point in each pair
+ *
+ * @see VPTree#forEachPairWithinDistance(double, PointPairConsumer)
+ * @see VPTree#forEachPairWithinDistance(VPTree, double, PointPairConsumer)
+ */
+public interface PointPairConsumer<A, B> {
+
+    /**
+     * Accepts a pair of points that are within the join's maximum distance of one another.
+     *
+     * @param firstPoint the first point in the pair
+     * @param secondPoint the second point in the pair
+     * @param distance the distance between the two points
+     */
+    void acceptPair(A firstPoint, B secondPoint, double distance);
+}
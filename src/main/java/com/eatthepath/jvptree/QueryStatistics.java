@@ -0,0 +1,163 @@
+package com.eatthepath.jvptree;
+
+/**
+ * <p>Counts the work done by a single vp-tree query. Callers may pass a statistics object to
+ * {@link VPTree#getNearestNeighbors(Object, int, PointFilter, QueryStatistics)} or
+ * {@link VPTree#getAllWithinDistance(Object, double, PointFilter, QueryStatistics)} to learn how many distances the
+ * query calculated and how much of the tree it had to visit. Queries that don't receive a statistics object neither
+ * record nor allocate anything for statistics.</p>
+ *
+ * <p>Statistics accumulate across queries until they are {@linkplain #reset() reset}, and so a single statistics object
+ * may either describe one query or summarize a series of queries. Statistics objects are not thread-safe; to combine
+ * statistics from many threads, see {@link AggregateQueryStatistics}. To see each step a query took rather than just
+ * its totals, see {@link QueryTrace}.</p>
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ */
+public class QueryStatistics {
+
+    private long distanceEvaluations;
+    private long internalNodesVisited;
+    private long leavesScanned;
+    private long subtreesPruned;
+    private long filterRejections;
+
+    void recordDistanceEvaluation() {
+        this.distanceEvaluations += 1;
+    }
+
+    void recordInternalNodeVisit() {
+        this.internalNodesVisited += 1;
+    }
+
+    void recordLeafScan() {
+        this.leavesScanned += 1;
+    }
+
+    void recordPrunedSubtree() {
+        this.subtreesPruned += 1;
+    }
+
+    void recordFilterRejection() {
+        this.filterRejections += 1;
+    }
+
+    void recordSummaryRejection() {
+        this.subtreesPruned += 1;
+    }
+
+    // The following hooks describe the shape of a search in more detail than plain statistics need; they do nothing
+    // here, but let QueryTrace record each step of a search.
+
+    void branchEntered(final double distanceFromVantagePointToQueryPoint, final double threshold, final boolean closerFirst) {
+    }
+
+    void childConsidered(final boolean closer, final boolean searched, final double minDistanceToChild, final double bound) {
+    }
+
+    void branchExited() {
+    }
+
+    void leafEntered() {
+    }
+
+    void leafExited(final double bound) {
+    }
+
+    /**
+     * Returns a copy of the counts in this statistics object.
+     *
+     * @return a plain statistics object with the same counts as this object
+     */
+    QueryStatistics copy() {
+        return this.since(new QueryStatistics());
+    }
+
+    /**
+     * Returns the counts accumulated by this statistics object since the given snapshot was taken.
+     *
+     * @param snapshot an earlier copy of this statistics object
+     *
+     * @return a plain statistics object with the difference between this object's counts and the snapshot's counts
+     */
+    QueryStatistics since(final QueryStatistics snapshot) {
+        final QueryStatistics difference = new QueryStatistics();
+
+        difference.distanceEvaluations = this.distanceEvaluations - snapshot.distanceEvaluations;
+        difference.internalNodesVisited = this.internalNodesVisited - snapshot.internalNodesVisited;
+        difference.leavesScanned = this.leavesScanned - snapshot.leavesScanned;
+        difference.subtreesPruned = this.subtreesPruned - snapshot.subtreesPruned;
+        difference.filterRejections = this.filterRejections - snapshot.filterRejections;
+
+        return difference;
+    }
+
+    /**
+     * Returns the number of times queries called the tree's distance function.
+     *
+     * @return the number of distances calculated
+     */
+    public long getDistanceEvaluations() {
+        return this.distanceEvaluations;
+    }
+
+    /**
+     * Returns the number of internal (non-leaf) nodes whose vantage points queries compared to the query point.
+     *
+     * @return the number of internal nodes visited
+     */
+    public long getInternalNodesVisited() {
+        return this.internalNodesVisited;
+    }
+
+    /**
+     * Returns the number of leaf nodes whose points queries examined.
+     *
+     * @return the number of leaf nodes scanned
+     */
+    public long getLeavesScanned() {
+        return this.leavesScanned;
+    }
+
+    /**
+     * Returns the number of subtrees queries skipped entirely, either because no point in the subtree could be close
+     * enough to the query point or because no point in the subtree could pass the query's
+     * {@linkplain AttributeFilter attribute filter}.
+     *
+     * @return the number of subtrees pruned
+     */
+    public long getSubtreesPruned() {
+        return this.subtreesPruned;
+    }
+
+    /**
+     * Returns the number of points examined by queries that were rejected by the queries' filters.
+     *
+     * @return the number of points rejected by filters
+     */
+    public long getFilterRejections() {
+        return this.filterRejections;
+    }
+
+    /**
+     * Resets all counts to zero.
+     */
+    public void reset() {
+        this.distanceEvaluations = 0;
+        this.internalNodesVisited = 0;
+        this.leavesScanned = 0;
+        this.subtreesPruned = 0;
+        this.filterRejections = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryStatistics{" +
+                "distanceEvaluations=" + this.distanceEvaluations +
+                ", internalNodesVisited=" + this.internalNodesVisited +
+                ", leavesScanned=" + this.leavesScanned +
+                ", subtreesPruned=" + this.subtreesPruned +
+                ", filterRejections=" + this.filterRejections +
+                '}';
+    }
+}
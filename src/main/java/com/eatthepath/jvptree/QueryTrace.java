@@ -0,0 +1,363 @@
+package com.eatthepath.jvptree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>Records each step of a vp-tree search so that callers can see exactly how a query walked the tree: every node it
+ * visited, the distance from the query point to each branch node's vantage point, which child it searched first, why
+ * it did or didn't search the other child, and how tight its distance bound was at each decision. Traces are meant for
+ * tuning node capacities and threshold selection strategies and for diagnosing unexpectedly slow queries.</p>
+ *
+ * <p>A trace is a kind of {@link QueryStatistics}, and so callers request a trace by passing it in place of statistics
+ * to {@link VPTree#getNearestNeighbors(Object, int, PointFilter, QueryStatistics)} or
+ * {@link VPTree#getAllWithinDistance(Object, double, PointFilter, QueryStatistics)}; once the query returns its
+ * results, the trace holds the path the query took along with the usual counts. Like statistics, traces accumulate
+ * steps across queries until they are {@linkplain #reset() reset}. Tracing allocates an object for every node visited,
+ * and so is much more expensive than gathering plain statistics. Traces are not thread-safe.</p>
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ */
+public class QueryTrace extends QueryStatistics {
+
+    private final List<NodeVisit> nodeVisits = new ArrayList<>();
+
+    // The branch nodes the search is currently inside, innermost last
+    private final ArrayDeque<NodeVisit> openBranches = new ArrayDeque<>();
+
+    private long distanceEvaluationsAtLeafEntry;
+    private long filterRejectionsAtLeafEntry;
+
+    /**
+     * Identifies one of a branch node's two children.
+     */
+    public enum Child {
+        /**
+         * The child that holds points no farther from the branch node's vantage point than its threshold.
+         */
+        CLOSER,
+
+        /**
+         * The child that holds points farther from the branch node's vantage point than its threshold.
+         */
+        FARTHER
+    }
+
+    /**
+     * Describes what a search did with one of a branch node's children.
+     */
+    public enum Outcome {
+        /**
+         * The search visited the child.
+         */
+        SEARCHED,
+
+        /**
+         * The search skipped the child because no point in the child could be within the search's distance bound.
+         */
+        PRUNED_BY_DISTANCE,
+
+        /**
+         * The search would have visited the child, but skipped it because the child's
+         * {@linkplain AttributeSummary attribute summary} ruled out every point the search's filter could allow.
+         */
+        PRUNED_BY_ATTRIBUTE_SUMMARY
+    }
+
+    /**
+     * A search's decision about whether to visit one of a branch node's children.
+     */
+    public static class ChildDecision {
+        private final Child child;
+        private Outcome outcome;
+        private final double minDistanceToChild;
+        private final double bound;
+
+        private ChildDecision(final Child child, final Outcome outcome, final double minDistanceToChild, final double bound) {
+            this.child = child;
+            this.outcome = outcome;
+            this.minDistanceToChild = minDistanceToChild;
+            this.bound = bound;
+        }
+
+        /**
+         * Returns the child about which the search made a decision.
+         *
+         * @return the child about which the search made a decision
+         */
+        public Child getChild() {
+            return this.child;
+        }
+
+        /**
+         * Returns what the search did with the child.
+         *
+         * @return what the search did with the child
+         */
+        public Outcome getOutcome() {
+            return this.outcome;
+        }
+
+        /**
+         * Returns the smallest possible distance between the query point and any point in the child, as inferred from
+         * the branch node's vantage point and threshold.
+         *
+         * @return a lower bound on the distance between the query point and any point in the child
+         */
+        public double getMinDistanceToChild() {
+            return this.minDistanceToChild;
+        }
+
+        /**
+         * Returns the search's distance bound at the time of the decision. For nearest-neighbor searches, this is the
+         * distance to the farthest neighbor collected so far (or positive infinity if the search had not yet found
+         * enough neighbors); for distance searches, this is the search's maximum distance.
+         *
+         * @return the search's distance bound at the time of the decision
+         */
+        public double getBound() {
+            return this.bound;
+        }
+
+        @Override
+        public String toString() {
+            return this.child + ": " + this.outcome + " (min distance " + this.minDistanceToChild + ", bound " + this.bound + ")";
+        }
+    }
+
+    /**
+     * A single node visited by a search.
+     */
+    public static class NodeVisit {
+        private final int depth;
+        private final boolean leaf;
+
+        private final double distanceFromVantagePointToQueryPoint;
+        private final double threshold;
+        private final Child firstChild;
+        private final List<ChildDecision> childDecisions;
+
+        private long distanceEvaluations;
+        private long filterRejections;
+        private double boundAfterScan;
+
+        private NodeVisit(final int depth, final double distanceFromVantagePointToQueryPoint, final double threshold, final Child firstChild) {
+            this.depth = depth;
+            this.leaf = false;
+            this.distanceFromVantagePointToQueryPoint = distanceFromVantagePointToQueryPoint;
+            this.threshold = threshold;
+            this.firstChild = firstChild;
+            this.childDecisions = new ArrayList<>(2);
+        }
+
+        private NodeVisit(final int depth) {
+            this.depth = depth;
+            this.leaf = true;
+            this.distanceFromVantagePointToQueryPoint = Double.NaN;
+            this.threshold = Double.NaN;
+            this.firstChild = null;
+            this.childDecisions = Collections.emptyList();
+        }
+
+        /**
+         * Returns the depth of the visited node relative to the node at which the search started (usually the root of
+         * the tree, which has a depth of 0).
+         *
+         * @return the depth of the visited node
+         */
+        public int getDepth() {
+            return this.depth;
+        }
+
+        /**
+         * Indicates whether the visited node is a leaf node.
+         *
+         * @return {@code true} if the visited node is a leaf node or {@code false} if it is a branch node
+         */
+        public boolean isLeaf() {
+            return this.leaf;
+        }
+
+        /**
+         * Returns the distance between the query point and the visited branch node's vantage point.
+         *
+         * @return the distance between the query point and the node's vantage point, or {@code NaN} for leaf nodes
+         */
+        public double getDistanceFromVantagePointToQueryPoint() {
+            return this.distanceFromVantagePointToQueryPoint;
+        }
+
+        /**
+         * Returns the visited branch node's distance threshold.
+         *
+         * @return the node's distance threshold, or {@code NaN} for leaf nodes
+         */
+        public double getThreshold() {
+            return this.threshold;
+        }
+
+        /**
+         * Returns the child of the visited branch node that the search considered first.
+         *
+         * @return the child the search considered first, or {@code null} for leaf nodes
+         */
+        public Child getFirstChild() {
+            return this.firstChild;
+        }
+
+        /**
+         * Returns the search's decisions about the visited branch node's children in the order in which it made them.
+         *
+         * @return the search's decisions about the node's children; empty for leaf nodes
+         */
+        public List<ChildDecision> getChildDecisions() {
+            return Collections.unmodifiableList(this.childDecisions);
+        }
+
+        /**
+         * Returns the number of distances calculated while scanning the visited leaf node's points.
+         *
+         * @return the number of distances calculated in the node, or 0 for branch nodes
+         */
+        public long getDistanceEvaluations() {
+            return this.distanceEvaluations;
+        }
+
+        /**
+         * Returns the number of the visited leaf node's points rejected by the search's filter.
+         *
+         * @return the number of points rejected by the search's filter, or 0 for branch nodes
+         */
+        public long getFilterRejections() {
+            return this.filterRejections;
+        }
+
+        /**
+         * Returns the search's distance bound after scanning the visited leaf node's points.
+         *
+         * @return the search's distance bound after scanning the node, or {@code NaN} for branch nodes
+         *
+         * @see ChildDecision#getBound()
+         */
+        public double getBoundAfterScan() {
+            return this.leaf ? this.boundAfterScan : Double.NaN;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder();
+
+            for (int i = 0; i < this.depth; i++) {
+                builder.append("  ");
+            }
+
+            if (this.leaf) {
+                builder.append("leaf: ")
+                        .append(this.distanceEvaluations).append(" distances, ")
+                        .append(this.filterRejections).append(" filtered, bound ")
+                        .append(this.boundAfterScan);
+            } else {
+                builder.append("branch: d(q, vp) ").append(this.distanceFromVantagePointToQueryPoint)
+                        .append(", threshold ").append(this.threshold)
+                        .append(", first ").append(this.firstChild);
+
+                for (final ChildDecision decision : this.childDecisions) {
+                    builder.append("; ").append(decision);
+                }
+            }
+
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Returns the nodes visited by traced searches in the order in which they were visited. Each branch node appears
+     * before the nodes visited below it. Searches that skip the tree's upper levels (see
+     * {@link VPTree#setBruteForceSelectivity(double)}) visit leaves directly, and those leaves have a depth of 0.
+     *
+     * @return the nodes visited by traced searches
+     */
+    public List<NodeVisit> getNodeVisits() {
+        return Collections.unmodifiableList(this.nodeVisits);
+    }
+
+    @Override
+    void recordSummaryRejection() {
+        super.recordSummaryRejection();
+
+        // The parent already decided to search this node, but the node's attribute summary turned the search away
+        if (!this.openBranches.isEmpty()) {
+            final List<ChildDecision> decisions = this.openBranches.peekLast().childDecisions;
+
+            if (!decisions.isEmpty()) {
+                decisions.get(decisions.size() - 1).outcome = Outcome.PRUNED_BY_ATTRIBUTE_SUMMARY;
+            }
+        }
+    }
+
+    @Override
+    void branchEntered(final double distanceFromVantagePointToQueryPoint, final double threshold, final boolean closerFirst) {
+        final NodeVisit visit = new NodeVisit(this.openBranches.size(), distanceFromVantagePointToQueryPoint, threshold,
+                closerFirst ? Child.CLOSER : Child.FARTHER);
+
+        this.nodeVisits.add(visit);
+        this.openBranches.addLast(visit);
+    }
+
+    @Override
+    void childConsidered(final boolean closer, final boolean searched, final double minDistanceToChild, final double bound) {
+        this.openBranches.peekLast().childDecisions.add(new ChildDecision(closer ? Child.CLOSER : Child.FARTHER,
+                searched ? Outcome.SEARCHED : Outcome.PRUNED_BY_DISTANCE, minDistanceToChild, bound));
+    }
+
+    @Override
+    void branchExited() {
+        this.openBranches.removeLast();
+    }
+
+    @Override
+    void leafEntered() {
+        this.nodeVisits.add(new NodeVisit(this.openBranches.size()));
+
+        this.distanceEvaluationsAtLeafEntry = this.getDistanceEvaluations();
+        this.filterRejectionsAtLeafEntry = this.getFilterRejections();
+    }
+
+    @Override
+    void leafExited(final double bound) {
+        final NodeVisit visit = this.nodeVisits.get(this.nodeVisits.size() - 1);
+
+        visit.distanceEvaluations = this.getDistanceEvaluations() - this.distanceEvaluationsAtLeafEntry;
+        visit.filterRejections = this.getFilterRejections() - this.filterRejectionsAtLeafEntry;
+        visit.boundAfterScan = bound;
+    }
+
+    /**
+     * Resets all counts to zero and discards all recorded steps.
+     */
+    @Override
+    public void reset() {
+        super.reset();
+
+        this.nodeVisits.clear();
+        this.openBranches.clear();
+    }
+
+    /**
+     * Returns a human-readable description of the recorded steps, with one line per visited node, indented by depth.
+     *
+     * @return a human-readable description of the recorded steps
+     */
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder(super.toString());
+
+        for (final NodeVisit visit : this.nodeVisits) {
+            builder.append(System.lineSeparator()).append(visit);
+        }
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,509 @@
+package com.eatthepath.jvptree;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>A spatial index that spreads its points across any number of shards, each of which may live in a different process
+ * or on a different machine. Coordinators send requests to their shards through {@link ShardTransport}s using a compact
+ * binary protocol, and shards serve those requests with a {@link ShardServer}.</p>
+ *
+ * <p>Nearest-neighbor searches happen in two stages. The coordinator first queries a single seed shard (chosen in
+ * round-robin order), then fans out to all of the other shards at once, merging each shard's results into a single
+ * bounded heap. Requests in the second stage carry the distance to the k-th nearest neighbor found by the first, so the
+ * other shards can prune everything beyond that bound. Filters can't be sent to shards, and so are applied by the
+ * coordinator; if too few of a shard's results pass the filter, the coordinator asks that shard for more, bounded by
+ * the best distance it knows of at that time.</p>
+ *
+ * <p>New points are distributed among shards in round-robin order. Coordinators are thread-safe. Most
+ * {@link Collection} operations (like {@link #contains(Object)}, {@link #removeAll(Collection)}, and {@link #clear()})
+ * are sent to every shard at once, but iteration works from a snapshot of every point in every shard and is
+ * correspondingly expensive.</p>
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @param <P> the base type of points between which distances can be measured
+ * @param <E> the specific type of point contained in this index
+ */
+public class RemoteShardCoordinator<P, E extends P> extends AbstractCollection<E> implements SpatialIndex<P, E> {
+
+    private final List<ShardTransport> shards;
+    private final PointCodec<P> queryPointCodec;
+    private final PointCodec<E> pointCodec;
+
+    private final AtomicInteger nextShard = new AtomicInteger();
+    private final AtomicInteger nextSeedShard = new AtomicInteger();
+
+    private interface RequestBodyWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private interface ResponseBodyReader<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    /**
+     * Constructs a new coordinator that distributes points among the shards reached by the given transports.
+     *
+     * @param shards the transports with which to reach this coordinator's shards; must not be empty
+     * @param queryPointCodec the codec with which to write query points to requests
+     * @param pointCodec the codec with which to read and write the points stored in shards
+     */
+    public RemoteShardCoordinator(final List<? extends ShardTransport> shards, final PointCodec<P> queryPointCodec, final PointCodec<E> pointCodec) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("Coordinators must have at least one shard.");
+        }
+
+        this.shards = new ArrayList<>(shards);
+        this.queryPointCodec = queryPointCodec;
+        this.pointCodec = pointCodec;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.eatthepath.jvptree.SpatialIndex#getNearestNeighbors(java.lang.Object, int)
+     */
+    @Override
+    public List<E> getNearestNeighbors(final P queryPoint, final int maxResults) {
+        return this.getNearestNeighbors(queryPoint, maxResults, null);
+    }
+
+    @Override
+    public List<E> getNearestNeighbors(final P queryPoint, final int maxResults, final PointFilter<? super E> filter) {
+        final NearestNeighborCollector<P, E> mergedCollector = new NearestNeighborCollector<>();
+        mergedCollector.reset(queryPoint, maxResults);
+
+        final SharedDistanceBound sharedDistanceBound = new SharedDistanceBound();
+
+        // Requests sent at the same time can't learn anything from one another's results, so query a single shard
+        // first to establish a bound, then send that bound to every other shard at once
+        final int seedShard = Math.floorMod(this.nextSeedShard.getAndIncrement(), this.shards.size());
+
+        join(this.getNearestNeighbors(this.shards.get(seedShard), queryPoint, maxResults, maxResults, filter, sharedDistanceBound)
+                .thenAccept(shardCollector -> mergeNearestNeighbors(shardCollector, mergedCollector, sharedDistanceBound)));
+
+        final List<CompletableFuture<Void>> futures = new ArrayList<>(this.shards.size() - 1);
+
+        for (int i = 0; i < this.shards.size(); i++) {
+            if (i != seedShard) {
+                futures.add(this.getNearestNeighbors(this.shards.get(i), queryPoint, maxResults, maxResults, filter, sharedDistanceBound)
+                        .thenAccept(shardCollector -> mergeNearestNeighbors(shardCollector, mergedCollector, sharedDistanceBound)));
+            }
+        }
+
+        for (final CompletableFuture<Void> future : futures) {
+            join(future);
+        }
+
+        return mergedCollector.toSortedList();
+    }
+
+    private static <P, E extends P> void mergeNearestNeighbors(final NearestNeighborCollector<P, E> shardCollector, final NearestNeighborCollector<P, E> mergedCollector, final SharedDistanceBound sharedDistanceBound) {
+        synchronized (mergedCollector) {
+            for (int i = 0; i < shardCollector.size(); i++) {
+                mergedCollector.offerPoint(shardCollector.getPoint(i), shardCollector.getDistance(i));
+            }
+
+            if (mergedCollector.isFull()) {
+                sharedDistanceBound.offer(mergedCollector.getDistanceToFarthestPoint());
+            }
+        }
+    }
+
+    /**
+     * Requests nearest neighbors from a single shard, asking for successively larger result sets until either enough
+     * results pass the given filter or the shard runs out of results. Each request carries the best bound known when
+     * it's sent.
+     */
+    private CompletableFuture<NearestNeighborCollector<P, E>> getNearestNeighbors(final ShardTransport shard, final P queryPoint, final int maxResults, final int requestedResults, final PointFilter<? super E> filter, final SharedDistanceBound distanceBound) {
+        final byte[] request = encodeRequest(ShardProtocol.NEAREST_NEIGHBORS, out -> {
+            this.queryPointCodec.write(queryPoint, out);
+            out.writeInt(requestedResults);
+            out.writeDouble(distanceBound.get());
+        });
+
+        return shard.exchange(request).thenCompose(response -> {
+            final NearestNeighborCollector<P, E> shardCollector = new NearestNeighborCollector<>();
+            shardCollector.reset(queryPoint, maxResults);
+
+            final int resultCount = decodeResponse(response, in -> {
+                final int count = ShardProtocol.readCount(in);
+
+                for (int i = 0; i < count; i++) {
+                    final E point = this.pointCodec.read(in);
+                    final double distance = in.readDouble();
+
+                    if (filter == null || filter.allowPoint(point)) {
+                        shardCollector.offerPoint(point, distance);
+                    }
+                }
+
+                return count;
+            });
+
+            if (!shardCollector.isFull() && resultCount == requestedResults && requestedResults <= Integer.MAX_VALUE / 2) {
+                // The filter rejected too many results, but the shard may have more to offer
+                return this.getNearestNeighbors(shard, queryPoint, maxResults, requestedResults * 2, filter, distanceBound);
+            }
+
+            return CompletableFuture.completedFuture(shardCollector);
+        });
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.eatthepath.jvptree.SpatialIndex#getAllWithinDistance(java.lang.Object, double)
+     */
+    @Override
+    public List<E> getAllWithinDistance(final P queryPoint, final double maxDistance) {
+        return this.getAllWithinDistance(queryPoint, maxDistance, null);
+    }
+
+    @Override
+    public List<E> getAllWithinDistance(final P queryPoint, final double maxDistance, final PointFilter<? super E> filter) {
+        final byte[] request = encodeRequest(ShardProtocol.ALL_WITHIN_DISTANCE, out -> {
+            this.queryPointCodec.write(queryPoint, out);
+            out.writeDouble(maxDistance);
+        });
+
+        final List<E> pointsWithinRange = new ArrayList<>();
+
+        for (final List<E> shardPoints : this.exchangeWithAllShards(request, this::readPoints)) {
+            for (final E point : shardPoints) {
+                if (filter == null || filter.allowPoint(point)) {
+                    pointsWithinRange.add(point);
+                }
+            }
+        }
+
+        return pointsWithinRange;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#size()
+     */
+    @Override
+    public int size() {
+        int size = 0;
+
+        for (final int shardSize : this.exchangeWithAllShards(encodeRequest(ShardProtocol.SIZE, out -> {}), DataInputStream::readInt)) {
+            size += shardSize;
+        }
+
+        return size;
+    }
+
+    /**
+     * Returns an iterator over a snapshot of all of the points in this index's shards. Removing points with the
+     * returned iterator removes them from their shards.
+     *
+     * @return an iterator over a snapshot of all of the points in this index's shards
+     */
+    @Override
+    public Iterator<E> iterator() {
+        final List<E> snapshot = new ArrayList<>();
+
+        for (final List<E> shardPoints : this.exchangeWithAllShards(encodeRequest(ShardProtocol.GET_ALL, out -> {}), this::readPoints)) {
+            snapshot.addAll(shardPoints);
+        }
+
+        final Iterator<E> snapshotIterator = snapshot.iterator();
+
+        return new Iterator<E>() {
+            private E lastReturned;
+            private boolean canRemove;
+
+            @Override
+            public boolean hasNext() {
+                return snapshotIterator.hasNext();
+            }
+
+            @Override
+            public E next() {
+                this.lastReturned = snapshotIterator.next();
+                this.canRemove = true;
+
+                return this.lastReturned;
+            }
+
+            @Override
+            public void remove() {
+                if (!this.canRemove) {
+                    throw new IllegalStateException();
+                }
+
+                RemoteShardCoordinator.this.remove(this.lastReturned);
+                this.canRemove = false;
+            }
+        };
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#contains(java.lang.Object)
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean contains(final Object point) {
+        final byte[] request;
+
+        try {
+            request = encodeRequest(ShardProtocol.CONTAINS, out -> this.pointCodec.write((E) point, out));
+        } catch (final ClassCastException e) {
+            return false;
+        }
+
+        for (final boolean shardContainsPoint : this.exchangeWithAllShards(request, DataInputStream::readBoolean)) {
+            if (shardContainsPoint) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#add(java.lang.Object)
+     */
+    @Override
+    public boolean add(final E point) {
+        final byte[] request = encodeRequest(ShardProtocol.ADD, out -> {
+            out.writeInt(1);
+            this.pointCodec.write(point, out);
+        });
+
+        return join(this.getNextShard().exchange(request).thenApply(response -> decodeResponse(response, DataInputStream::readBoolean)));
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#addAll(java.util.Collection)
+     */
+    @Override
+    public boolean addAll(final Collection<? extends E> points) {
+        final int firstShard = Math.floorMod(this.nextShard.getAndAdd(points.size()), this.shards.size());
+        final List<List<E>> pointsByShard = new ArrayList<>(this.shards.size());
+
+        for (int i = 0; i < this.shards.size(); i++) {
+            pointsByShard.add(new ArrayList<>());
+        }
+
+        int shard = firstShard;
+
+        for (final E point : points) {
+            pointsByShard.get(shard).add(point);
+            shard = (shard + 1) % this.shards.size();
+        }
+
+        final List<CompletableFuture<Boolean>> futures = new ArrayList<>(this.shards.size());
+
+        for (int i = 0; i < this.shards.size(); i++) {
+            final List<E> shardPoints = pointsByShard.get(i);
+
+            if (!shardPoints.isEmpty()) {
+                final byte[] request = encodeRequest(ShardProtocol.ADD, out -> {
+                    out.writeInt(shardPoints.size());
+
+                    for (final E point : shardPoints) {
+                        this.pointCodec.write(point, out);
+                    }
+                });
+
+                futures.add(this.shards.get(i).exchange(request).thenApply(response -> decodeResponse(response, DataInputStream::readBoolean)));
+            }
+        }
+
+        boolean modified = false;
+
+        for (final CompletableFuture<Boolean> future : futures) {
+            modified = join(future) || modified;
+        }
+
+        return modified;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#remove(java.lang.Object)
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean remove(final Object point) {
+        final byte[] request;
+
+        try {
+            request = encodeRequest(ShardProtocol.REMOVE, out -> this.pointCodec.write((E) point, out));
+        } catch (final ClassCastException e) {
+            return false;
+        }
+
+        for (final ShardTransport shard : this.shards) {
+            if (join(shard.exchange(request).thenApply(response -> decodeResponse(response, DataInputStream::readBoolean)))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#removeAll(java.util.Collection)
+     */
+    @Override
+    public boolean removeAll(final Collection<?> points) {
+        return this.exchangeWithAllShardsForModification(this.encodePointsRequest(ShardProtocol.REMOVE_ALL, points));
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#retainAll(java.util.Collection)
+     */
+    @Override
+    public boolean retainAll(final Collection<?> points) {
+        return this.exchangeWithAllShardsForModification(this.encodePointsRequest(ShardProtocol.RETAIN_ALL, points));
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#clear()
+     */
+    @Override
+    public void clear() {
+        this.exchangeWithAllShards(encodeRequest(ShardProtocol.CLEAR, out -> {}), in -> null);
+    }
+
+    private boolean exchangeWithAllShardsForModification(final byte[] request) {
+        boolean modified = false;
+
+        for (final boolean shardModified : this.exchangeWithAllShards(request, DataInputStream::readBoolean)) {
+            modified = shardModified || modified;
+        }
+
+        return modified;
+    }
+
+    /**
+     * Encodes a request whose body is a list of points. Objects that aren't points of the type this coordinator
+     * stores can't be equal to any point in a shard, and so are left out.
+     */
+    @SuppressWarnings("unchecked")
+    private byte[] encodePointsRequest(final byte operation, final Collection<?> points) {
+        final ByteArrayOutputStream pointBytes = new ByteArrayOutputStream();
+        final DataOutputStream pointsOut = new DataOutputStream(pointBytes);
+
+        int count = 0;
+
+        for (final Object point : points) {
+            final ByteArrayOutputStream singlePointBytes = new ByteArrayOutputStream();
+
+            try {
+                this.pointCodec.write((E) point, new DataOutputStream(singlePointBytes));
+                singlePointBytes.writeTo(pointsOut);
+            } catch (final ClassCastException e) {
+                continue;
+            } catch (final IOException e) {
+                throw new RemoteShardException("Failed to encode request.", e);
+            }
+
+            count += 1;
+        }
+
+        final int pointCount = count;
+
+        return encodeRequest(operation, out -> {
+            out.writeInt(pointCount);
+            pointBytes.writeTo(out);
+        });
+    }
+
+    private ShardTransport getNextShard() {
+        return this.shards.get(Math.floorMod(this.nextShard.getAndIncrement(), this.shards.size()));
+    }
+
+    private List<E> readPoints(final DataInputStream in) throws IOException {
+        final int count = ShardProtocol.readCount(in);
+        final List<E> points = new ArrayList<>(Math.min(count, in.available()));
+
+        for (int i = 0; i < count; i++) {
+            points.add(this.pointCodec.read(in));
+        }
+
+        return points;
+    }
+
+    /**
+     * Sends the same request to every shard at once and waits for all of the responses.
+     */
+    private <T> List<T> exchangeWithAllShards(final byte[] request, final ResponseBodyReader<T> reader) {
+        final List<CompletableFuture<T>> futures = new ArrayList<>(this.shards.size());
+
+        for (final ShardTransport shard : this.shards) {
+            futures.add(shard.exchange(request).thenApply(response -> decodeResponse(response, reader)));
+        }
+
+        final List<T> results = new ArrayList<>(futures.size());
+
+        for (final CompletableFuture<T> future : futures) {
+            results.add(join(future));
+        }
+
+        return results;
+    }
+
+    private static byte[] encodeRequest(final byte operation, final RequestBodyWriter bodyWriter) {
+        final ByteArrayOutputStream requestBytes = new ByteArrayOutputStream();
+
+        try {
+            final DataOutputStream out = new DataOutputStream(requestBytes);
+            out.writeByte(operation);
+            bodyWriter.write(out);
+            out.flush();
+        } catch (final IOException e) {
+            throw new RemoteShardException("Failed to encode request.", e);
+        }
+
+        return requestBytes.toByteArray();
+    }
+
+    private static <T> T decodeResponse(final byte[] response, final ResponseBodyReader<T> bodyReader) {
+        try {
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(response));
+
+            if (in.readByte() != ShardProtocol.STATUS_OK) {
+                throw new RemoteShardException("Shard could not handle request: " + in.readUTF());
+            }
+
+            return bodyReader.read(in);
+        } catch (final IOException e) {
+            throw new RemoteShardException("Failed to decode response.", e);
+        }
+    }
+
+    private static <T> T join(final CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+
+            throw new RemoteShardException("Failed to exchange request with shard.", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.eatthepath.jvptree;
+
+/**
+ * Indicates that a remote shard could not be reached or could not handle a request.
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ */
+public class RemoteShardException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs a new remote shard exception with the given detail message.
+     *
+     * @param message a description of the problem
+     */
+    public RemoteShardException(final String message) {
+        super(message);
+    }
+
+    /**
+     * Constructs a new remote shard exception with the given detail message and cause.
+     *
+     * @param message a description of the problem
+     * @param cause the underlying cause of the problem
+     */
+    public RemoteShardException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,638 @@
+package com.eatthepath.jvptree;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.eatthepath.jvptree.util.SamplingMedianDistanceThresholdSelectionStrategy;
+
+/**
+ * <p>A thread-safe spatial index for workloads with a steady stream of new points. New points are written to a small
+ * buffer that is searched exhaustively; when the buffer fills, it is compacted into a vp-tree "segment" in the
+ * background. Compaction also merges the newest segments into larger ones as they grow to a comparable size, so an
+ * index holding <em>n</em> points has <em>O(log(n))</em> segments and each point is rebuilt into a new segment
+ * <em>O(log(n))</em> times over its life. Adding a point never waits for a tree to be built.</p>
+ *
+ * <p>Queries search every segment and the buffer with a single collector, and so results are exact; the closest points
+ * found in the (typically larger) older segments let searches of newer segments and the buffer prune aggressively.
+ * Queries may run concurrently with one another and with background compaction, but not with other writes.</p>
+ *
+ * <p>Compaction runs in the {@linkplain ForkJoinPool#commonPool() common fork/join pool} by default, though callers
+ * may provide an executor of their own. Callers may also compact the entire index into a single segment on demand
+ * with {@link #compact()}. If the executor rejects a compaction task, the write that scheduled it still succeeds and
+ * its points stay in the write buffer; the next write tries to schedule a compaction again. If a background compaction
+ * fails, its points are returned to the write buffer and background compaction stops until a call to
+ * {@link #compact()} succeeds; see {@link #getCompactionFailure()}.</p>
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @param <P> the base type of points between which distances can be measured
+ * @param <E> the specific type of point contained in this index
+ */
+public class SegmentedVPTree<P, E extends P> extends AbstractCollection<E> implements SpatialIndex<P, E> {
+
+    private final DistanceFunction<P> distanceFunction;
+    private final ThresholdSelectionStrategy<P, E> thresholdSelectionStrategy;
+    private final int nodeCapacity;
+    private final int bufferCapacity;
+    private final Executor compactionExecutor;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Only one compaction may be in progress at a time
+    private final Object compactionLock = new Object();
+
+    // Everything below is guarded by `lock`
+    private ArrayList<E> buffer = new ArrayList<>();
+
+    // Segments are kept in order of age (and, generally, of decreasing size); the newest segments are always the ones
+    // being compacted
+    private final ArrayList<VPTree<P, E>> segments = new ArrayList<>();
+
+    // While a compaction is in progress, the buffer being compacted remains searchable here, the newest
+    // `compactingSegmentCount` segments are being merged, and points removed from any of those components are noted so
+    // they can also be removed from the merged segment.
+    private ArrayList<E> compactingBuffer;
+    private int compactingSegmentCount;
+    private List<Object> pointsRemovedDuringCompaction;
+
+    // Incremented when the index is cleared so that in-progress compactions know to discard their results
+    private long generation;
+
+    private boolean compactionScheduled;
+
+    // The reason the most recent background compaction failed, if it did; background compaction stays suspended until
+    // this is cleared by a successful compaction
+    private RuntimeException compactionFailure;
+
+    public static final int DEFAULT_BUFFER_CAPACITY = 1024;
+
+    /**
+     * Segments at most this many times larger than the points accumulated for a compaction so far are merged into the
+     * new segment.
+     */
+    private static final int MERGE_RATIO = 2;
+
+    /**
+     * Constructs a new, empty segmented index that uses the given distance function. The index will use default
+     * vp-tree settings and a default buffer capacity ({@value #DEFAULT_BUFFER_CAPACITY} points), and will compact
+     * segments in the {@linkplain ForkJoinPool#commonPool() common fork/join pool}.
+     *
+     * @param distanceFunction the distance function to use to calculate the distance between points
+     */
+    public SegmentedVPTree(final DistanceFunction<P> distanceFunction) {
+        this(distanceFunction, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructs a new, empty segmented index that uses the given distance function and compacts segments with the
+     * given executor. The index will use default vp-tree settings and a default buffer capacity
+     * ({@value #DEFAULT_BUFFER_CAPACITY} points).
+     *
+     * @param distanceFunction the distance function to use to calculate the distance between points
+     * @param compactionExecutor the executor with which to compact segments in the background
+     */
+    public SegmentedVPTree(final DistanceFunction<P> distanceFunction, final Executor compactionExecutor) {
+        this(distanceFunction, new SamplingMedianDistanceThresholdSelectionStrategy<P, E>(
+                SamplingMedianDistanceThresholdSelectionStrategy.DEFAULT_NUMBER_OF_SAMPLES),
+                VPTree.DEFAULT_NODE_CAPACITY, DEFAULT_BUFFER_CAPACITY, compactionExecutor);
+    }
+
+    /**
+     * Constructs a new, empty segmented index.
+     *
+     * @param distanceFunction the distance function to use to calculate the distance between points
+     * @param thresholdSelectionStrategy the function to use to choose distance thresholds when building segments
+     * @param nodeCapacity the largest capacity a node may have before it should be partitioned
+     * @param bufferCapacity the number of points that may be written to the buffer before it is compacted into a new
+     * segment
+     * @param compactionExecutor the executor with which to compact segments in the background
+     */
+    public SegmentedVPTree(final DistanceFunction<P> distanceFunction, final ThresholdSelectionStrategy<P, E> thresholdSelectionStrategy, final int nodeCapacity, final int bufferCapacity, final Executor compactionExecutor) {
+        if (nodeCapacity < 1) {
+            throw new IllegalArgumentException("Node capacity must be positive.");
+        }
+
+        if (bufferCapacity < 1) {
+            throw new IllegalArgumentException("Buffer capacity must be positive.");
+        }
+
+        this.distanceFunction = distanceFunction;
+        this.thresholdSelectionStrategy = thresholdSelectionStrategy;
+        this.nodeCapacity = nodeCapacity;
+        this.bufferCapacity = bufferCapacity;
+        this.compactionExecutor = compactionExecutor;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.eatthepath.jvptree.SpatialIndex#getNearestNeighbors(java.lang.Object, int)
+     */
+    @Override
+    public List<E> getNearestNeighbors(final P queryPoint, final int maxResults) {
+        return this.getNearestNeighbors(queryPoint, maxResults, point -> true);
+    }
+
+    @Override
+    public List<E> getNearestNeighbors(final P queryPoint, final int maxResults, final PointFilter<? super E> filter) {
+        final NearestNeighborCollector<P, E> collector =
+                new NearestNeighborCollector<>(queryPoint, this.distanceFunction, maxResults);
+
+        this.lock.readLock().lock();
+
+        try {
+            // Older segments are generally larger and likely to hold most of the nearest neighbors, so we search them
+            // first to tighten the search bound for everything else.
+            for (final VPTree<P, E> segment : this.segments) {
+                segment.collectNearestNeighbors(collector, maxResults, filter);
+            }
+
+            if (this.compactingBuffer != null) {
+                offerAll(this.compactingBuffer, collector, filter);
+            }
+
+            offerAll(this.buffer, collector, filter);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+
+        return collector.toSortedList();
+    }
+
+    private static <P, E extends P> void offerAll(final List<E> points, final NearestNeighborCollector<P, E> collector, final PointFilter<? super E> filter) {
+        for (int i = 0; i < points.size(); i++) {
+            final E point = points.get(i);
+
+            if (filter.allowPoint(point)) {
+                collector.offerPoint(point);
+            }
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.eatthepath.jvptree.SpatialIndex#getAllWithinDistance(java.lang.Object, double)
+     */
+    @Override
+    public List<E> getAllWithinDistance(final P queryPoint, final double maxDistance) {
+        return this.getAllWithinDistance(queryPoint, maxDistance, point -> true);
+    }
+
+    @Override
+    public List<E> getAllWithinDistance(final P queryPoint, final double maxDistance, final PointFilter<? super E> filter) {
+        final List<E> pointsWithinRange = new ArrayList<>();
+
+        this.lock.readLock().lock();
+
+        try {
+            for (final VPTree<P, E> segment : this.segments) {
+                segment.forEachWithinDistance(queryPoint, maxDistance, filter, (point, distance) -> pointsWithinRange.add(point));
+            }
+
+            if (this.compactingBuffer != null) {
+                this.addAllWithinDistance(this.compactingBuffer, queryPoint, maxDistance, filter, pointsWithinRange);
+            }
+
+            this.addAllWithinDistance(this.buffer, queryPoint, maxDistance, filter, pointsWithinRange);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+
+        return pointsWithinRange;
+    }
+
+    private void addAllWithinDistance(final List<E> points, final P queryPoint, final double maxDistance, final PointFilter<? super E> filter, final List<E> pointsWithinRange) {
+        for (int i = 0; i < points.size(); i++) {
+            final E point = points.get(i);
+
+            if (this.distanceFunction.getDistance(queryPoint, point) <= maxDistance && filter.allowPoint(point)) {
+                pointsWithinRange.add(point);
+            }
+        }
+    }
+
+    /**
+     * Compacts the entire index (the write buffer and all segments) into a single segment on the calling thread. If a
+     * background compaction is already in progress, this method waits for it to finish first. Points may be added to
+     * or removed from the index and the index may be queried while this method is running. If background compaction
+     * had stopped because of an earlier failure, it resumes once this method succeeds.
+     */
+    public void compact() {
+        this.compact(true);
+    }
+
+    /**
+     * Returns the exception that caused the most recent background compaction to fail, if background compaction has
+     * stopped because of a failure. While background compaction is stopped, new points accumulate (and remain
+     * searchable) in the write buffer; a successful call to {@link #compact()} or {@link #clear()} resumes background
+     * compaction.
+     *
+     * @return the exception that caused background compaction to stop, or {@code null} if background compaction has not
+     * stopped
+     */
+    public RuntimeException getCompactionFailure() {
+        this.lock.readLock().lock();
+
+        try {
+            return this.compactionFailure;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    private void compactInBackground() {
+        RuntimeException failure = null;
+
+        try {
+            this.compact(false);
+        } catch (final RuntimeException e) {
+            // Nobody is waiting on this task to report the failure to, and rescheduling right away would most likely
+            // just fail again with the same points, so we stop compacting in the background until somebody notices
+            failure = e;
+        } finally {
+            final boolean reschedule;
+
+            this.lock.writeLock().lock();
+
+            try {
+                this.compactionScheduled = false;
+
+                if (failure != null) {
+                    this.compactionFailure = failure;
+                }
+
+                // Writes may have outpaced compaction; if so, go around again
+                reschedule = this.shouldScheduleCompaction();
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+
+            if (reschedule) {
+                this.scheduleCompaction();
+            }
+        }
+    }
+
+    /**
+     * Compacts the write buffer into a new segment. The new segment absorbs existing segments, newest first, for as
+     * long as they're no more than {@value #MERGE_RATIO} times the size of the new segment so far (or all existing
+     * segments if {@code mergeAllSegments} is {@code true}). The new segment is built without holding the index's lock.
+     */
+    private void compact(final boolean mergeAllSegments) {
+        synchronized (this.compactionLock) {
+            final List<E> points;
+            final long generation;
+
+            this.lock.writeLock().lock();
+
+            try {
+                int firstCompactingSegment = this.segments.size();
+                int pointCount = this.buffer.size();
+
+                while (firstCompactingSegment > 0 &&
+                        (mergeAllSegments || this.segments.get(firstCompactingSegment - 1).size() <= pointCount * MERGE_RATIO)) {
+
+                    firstCompactingSegment -= 1;
+                    pointCount += this.segments.get(firstCompactingSegment).size();
+                }
+
+                final int compactingSegmentCount = this.segments.size() - firstCompactingSegment;
+
+                if (this.buffer.isEmpty() && compactingSegmentCount < 2) {
+                    // There's nothing to merge
+                    return;
+                }
+
+                points = new ArrayList<>(pointCount);
+                points.addAll(this.buffer);
+
+                for (int i = firstCompactingSegment; i < this.segments.size(); i++) {
+                    points.addAll(this.segments.get(i));
+                }
+
+                this.compactingBuffer = this.buffer;
+                this.compactingSegmentCount = compactingSegmentCount;
+                this.pointsRemovedDuringCompaction = new ArrayList<>();
+
+                this.buffer = new ArrayList<>();
+
+                generation = this.generation;
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+
+            VPTree<P, E> mergedSegment = null;
+
+            try {
+                mergedSegment = new VPTree<>(this.distanceFunction, this.thresholdSelectionStrategy, this.nodeCapacity, points);
+            } finally {
+                this.lock.writeLock().lock();
+
+                try {
+                    if (generation == this.generation) {
+                        if (mergedSegment != null) {
+                            // Each recorded removal took out exactly one copy of its point, and so we replay them one
+                            // at a time; removeAll would take out every copy
+                            for (final Object point : this.pointsRemovedDuringCompaction) {
+                                mergedSegment.remove(point);
+                            }
+
+                            this.segments.subList(this.segments.size() - this.compactingSegmentCount, this.segments.size()).clear();
+
+                            if (!mergedSegment.isEmpty()) {
+                                this.segments.add(mergedSegment);
+                            }
+
+                            this.compactionFailure = null;
+                        } else {
+                            // Building the new segment failed; put the buffered points back where we found them
+                            this.buffer.addAll(0, this.compactingBuffer);
+                        }
+                    }
+
+                    this.compactingBuffer = null;
+                    this.compactingSegmentCount = 0;
+                    this.pointsRemovedDuringCompaction = null;
+                } finally {
+                    this.lock.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    private boolean shouldScheduleCompaction() {
+        return !this.compactionScheduled && this.compactionFailure == null && this.buffer.size() >= this.bufferCapacity;
+    }
+
+    private void scheduleCompaction() {
+        this.lock.writeLock().lock();
+
+        try {
+            if (this.compactionScheduled) {
+                return;
+            }
+
+            this.compactionScheduled = true;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        try {
+            this.compactionExecutor.execute(this::compactInBackground);
+        } catch (final RejectedExecutionException e) {
+            // The points that prompted this compaction have already been written to the buffer, so failing the write
+            // now would be misleading; leave them there, and the next write will try to schedule a compaction again
+            this.lock.writeLock().lock();
+
+            try {
+                this.compactionScheduled = false;
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of segments in this index, not counting the write buffer.
+     *
+     * @return the number of segments in this index
+     */
+    int getSegmentCount() {
+        this.lock.readLock().lock();
+
+        try {
+            return this.segments.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#size()
+     */
+    @Override
+    public int size() {
+        this.lock.readLock().lock();
+
+        try {
+            int size = this.buffer.size();
+
+            if (this.compactingBuffer != null) {
+                size += this.compactingBuffer.size();
+            }
+
+            for (final VPTree<P, E> segment : this.segments) {
+                size += segment.size();
+            }
+
+            return size;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#contains(java.lang.Object)
+     */
+    @Override
+    public boolean contains(final Object o) {
+        this.lock.readLock().lock();
+
+        try {
+            if (this.buffer.contains(o) || (this.compactingBuffer != null && this.compactingBuffer.contains(o))) {
+                return true;
+            }
+
+            for (final VPTree<P, E> segment : this.segments) {
+                if (segment.contains(o)) {
+                    return true;
+                }
+            }
+
+            return false;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the points in this index at the time this method was called. The returned
+     * iterator does not support removal.
+     *
+     * @return an iterator over a snapshot of the points in this index
+     */
+    @Override
+    public Iterator<E> iterator() {
+        final ArrayList<E> points = new ArrayList<>();
+
+        this.lock.readLock().lock();
+
+        try {
+            for (final VPTree<P, E> segment : this.segments) {
+                points.addAll(segment);
+            }
+
+            if (this.compactingBuffer != null) {
+                points.addAll(this.compactingBuffer);
+            }
+
+            points.addAll(this.buffer);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+
+        return Collections.unmodifiableList(points).iterator();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#add(java.lang.Object)
+     */
+    @Override
+    public boolean add(final E point) {
+        return this.addAll(Collections.singletonList(point));
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#addAll(java.util.Collection)
+     */
+    @Override
+    public boolean addAll(final Collection<? extends E> points) {
+        final boolean scheduleCompaction;
+
+        this.lock.writeLock().lock();
+
+        try {
+            this.buffer.addAll(points);
+            scheduleCompaction = this.shouldScheduleCompaction();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        if (scheduleCompaction) {
+            this.scheduleCompaction();
+        }
+
+        return !points.isEmpty();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#remove(java.lang.Object)
+     */
+    @Override
+    public boolean remove(final Object point) {
+        this.lock.writeLock().lock();
+
+        try {
+            return this.removeWithLock(point);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#removeAll(java.util.Collection)
+     */
+    @Override
+    public boolean removeAll(final Collection<?> points) {
+        boolean modified = false;
+
+        this.lock.writeLock().lock();
+
+        try {
+            for (final Object point : points) {
+                modified = this.removeWithLock(point) || modified;
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        return modified;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#retainAll(java.util.Collection)
+     */
+    @Override
+    public boolean retainAll(final Collection<?> points) {
+        this.lock.writeLock().lock();
+
+        try {
+            final ArrayList<E> pointsToRemove = new ArrayList<>();
+
+            for (final E point : this) {
+                if (!points.contains(point)) {
+                    pointsToRemove.add(point);
+                }
+            }
+
+            for (final E point : pointsToRemove) {
+                this.removeWithLock(point);
+            }
+
+            return !pointsToRemove.isEmpty();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private boolean removeWithLock(final Object point) {
+        if (this.buffer.remove(point)) {
+            return true;
+        }
+
+        if (this.compactingBuffer != null && this.compactingBuffer.remove(point)) {
+            this.pointsRemovedDuringCompaction.add(point);
+            return true;
+        }
+
+        for (int i = this.segments.size() - 1; i >= 0; i--) {
+            if (this.segments.get(i).remove(point)) {
+                if (i >= this.segments.size() - this.compactingSegmentCount) {
+                    this.pointsRemovedDuringCompaction.add(point);
+                }
+
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#clear()
+     */
+    @Override
+    public void clear() {
+        this.lock.writeLock().lock();
+
+        try {
+            this.buffer.clear();
+            this.segments.clear();
+
+            this.compactingBuffer = null;
+            this.compactingSegmentCount = 0;
+            this.pointsRemovedDuringCompaction = null;
+            this.compactionFailure = null;
+
+            this.generation += 1;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+}
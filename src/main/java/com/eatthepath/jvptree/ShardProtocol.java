@@ -0,0 +1,121 @@
+package com.eatthepath.jvptree;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * <p>Constants and framing helpers for the binary protocol spoken between a {@link RemoteShardCoordinator} and its
+ * {@link ShardServer shards}. Every request begins with a one-byte operation code and every response begins with a
+ * one-byte status code; all numbers are big-endian as written by {@link java.io.DataOutput}, and points are written by
+ * the caller's {@link PointCodec}s.</p>
+ *
+ * <table>
+ *     <caption>Requests and responses by operation</caption>
+ *     <tr><th>Operation</th><th>Request body</th><th>Response body</th></tr>
+ *     <tr><td>{@link #NEAREST_NEIGHBORS}</td><td>query point, {@code int} max results, {@code double} distance
+ *     bound</td><td>{@code int} count, then (point, {@code double} distance) for each result</td></tr>
+ *     <tr><td>{@link #ALL_WITHIN_DISTANCE}</td><td>query point, {@code double} max distance</td><td>{@code int} count,
+ *     then each point</td></tr>
+ *     <tr><td>{@link #SIZE}</td><td>(empty)</td><td>{@code int} size</td></tr>
+ *     <tr><td>{@link #GET_ALL}</td><td>(empty)</td><td>{@code int} count, then each point</td></tr>
+ *     <tr><td>{@link #ADD}</td><td>{@code int} count, then each point</td><td>{@code boolean} modified</td></tr>
+ *     <tr><td>{@link #REMOVE}</td><td>point</td><td>{@code boolean} modified</td></tr>
+ *     <tr><td>{@link #CONTAINS}</td><td>point</td><td>{@code boolean} contains point</td></tr>
+ *     <tr><td>{@link #REMOVE_ALL}</td><td>{@code int} count, then each point</td><td>{@code boolean} modified</td></tr>
+ *     <tr><td>{@link #RETAIN_ALL}</td><td>{@code int} count, then each point</td><td>{@code boolean} modified</td></tr>
+ *     <tr><td>{@link #CLEAR}</td><td>(empty)</td><td>(empty)</td></tr>
+ * </table>
+ *
+ * <p>An error response consists of {@link #STATUS_ERROR} followed by a {@linkplain java.io.DataOutput#writeUTF(String)
+ * UTF-encoded} message. When requests and responses are carried over a stream, each is preceded by its length as an
+ * {@code int}.</p>
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ */
+final class ShardProtocol {
+
+    static final byte NEAREST_NEIGHBORS = 1;
+    static final byte ALL_WITHIN_DISTANCE = 2;
+    static final byte SIZE = 3;
+    static final byte GET_ALL = 4;
+    static final byte ADD = 5;
+    static final byte REMOVE = 6;
+    static final byte CONTAINS = 7;
+    static final byte REMOVE_ALL = 8;
+    static final byte RETAIN_ALL = 9;
+    static final byte CLEAR = 10;
+
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_ERROR = 1;
+
+    /**
+     * The largest frame a peer may send; guards against allocating huge buffers for corrupt length prefixes.
+     */
+    static final int MAX_FRAME_LENGTH = 256 * 1024 * 1024;
+
+    private ShardProtocol() {
+    }
+
+    /**
+     * Writes a length-prefixed frame to the given stream and flushes the stream.
+     *
+     * @param out the stream to which to write the frame
+     * @param frame the contents of the frame
+     *
+     * @throws IOException if the frame could not be written for any reason
+     */
+    static void writeFrame(final DataOutputStream out, final byte[] frame) throws IOException {
+        out.writeInt(frame.length);
+        out.write(frame);
+        out.flush();
+    }
+
+    /**
+     * Reads the number of items that follow in a request or response body.
+     *
+     * @param in the stream from which to read a count
+     *
+     * @return the number of items that follow
+     *
+     * @throws IOException if the count could not be read or is negative
+     */
+    static int readCount(final DataInputStream in) throws IOException {
+        final int count = in.readInt();
+
+        if (count < 0) {
+            throw new IOException("Illegal count: " + count);
+        }
+
+        return count;
+    }
+
+    /**
+     * Reads a length-prefixed frame from the given stream.
+     *
+     * @param in the stream from which to read a frame
+     *
+     * @return the contents of the frame, or {@code null} if the stream ended cleanly before a new frame began
+     *
+     * @throws IOException if a frame could not be read for any reason
+     */
+    static byte[] readFrame(final DataInputStream in) throws IOException {
+        final int length;
+
+        try {
+            length = in.readInt();
+        } catch (final EOFException e) {
+            return null;
+        }
+
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Illegal frame length: " + length);
+        }
+
+        final byte[] frame = new byte[length];
+        in.readFully(frame);
+
+        return frame;
+    }
+}
@@ -0,0 +1,278 @@
+package com.eatthepath.jvptree;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <p>Serves encoded requests from a {@link RemoteShardCoordinator} against a single vp-tree. Shard servers know nothing
+ * about how requests reach them; a {@link ShardTransport} (or a server like {@link SocketShardServer}) is responsible
+ * for delivering requests to {@link #handle(byte[])} and returning its responses.</p>
+ *
+ * <p>Shard servers are thread-safe; they may handle any number of queries at once, but handle requests that modify the
+ * tree one at a time.</p>
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @param <P> the base type of points between which distances can be measured
+ * @param <E> the specific type of point contained in this shard
+ */
+public class ShardServer<P, E extends P> {
+
+    private final VPTree<P, E> tree;
+    private final PointCodec<P> queryPointCodec;
+    private final PointCodec<E> pointCodec;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Constructs a new shard server that serves requests against the given tree. Callers must not modify the tree
+     * directly once it has been handed to a shard server.
+     *
+     * @param tree the tree against which to serve requests
+     * @param queryPointCodec the codec with which to read query points from requests
+     * @param pointCodec the codec with which to read and write the points stored in the tree
+     */
+    public ShardServer(final VPTree<P, E> tree, final PointCodec<P> queryPointCodec, final PointCodec<E> pointCodec) {
+        this.tree = tree;
+        this.queryPointCodec = queryPointCodec;
+        this.pointCodec = pointCodec;
+    }
+
+    /**
+     * Handles a single encoded request. Problems handling the request (including malformed requests) are reported as
+     * error responses rather than thrown.
+     *
+     * @param request the encoded request to handle
+     *
+     * @return the encoded response to the given request
+     */
+    public byte[] handle(final byte[] request) {
+        final ByteArrayOutputStream responseBytes = new ByteArrayOutputStream();
+
+        try {
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(request));
+            final DataOutputStream out = new DataOutputStream(responseBytes);
+
+            final byte operation = in.readByte();
+            out.writeByte(ShardProtocol.STATUS_OK);
+
+            switch (operation) {
+                case ShardProtocol.NEAREST_NEIGHBORS: {
+                    this.lock.readLock().lock();
+
+                    try {
+                        this.handleNearestNeighbors(in, out);
+                    } finally {
+                        this.lock.readLock().unlock();
+                    }
+
+                    break;
+                }
+
+                case ShardProtocol.ALL_WITHIN_DISTANCE: {
+                    this.lock.readLock().lock();
+
+                    try {
+                        this.handleAllWithinDistance(in, out);
+                    } finally {
+                        this.lock.readLock().unlock();
+                    }
+
+                    break;
+                }
+
+                case ShardProtocol.SIZE: {
+                    this.lock.readLock().lock();
+
+                    try {
+                        out.writeInt(this.tree.size());
+                    } finally {
+                        this.lock.readLock().unlock();
+                    }
+
+                    break;
+                }
+
+                case ShardProtocol.GET_ALL: {
+                    this.lock.readLock().lock();
+
+                    try {
+                        out.writeInt(this.tree.size());
+
+                        for (final E point : this.tree) {
+                            this.pointCodec.write(point, out);
+                        }
+                    } finally {
+                        this.lock.readLock().unlock();
+                    }
+
+                    break;
+                }
+
+                case ShardProtocol.ADD: {
+                    final int count = ShardProtocol.readCount(in);
+
+                    // Counts come from the wire, so don't trust them to size the list beyond what the frame could hold
+                    final List<E> points = new ArrayList<>(Math.min(count, in.available()));
+
+                    for (int i = 0; i < count; i++) {
+                        points.add(this.pointCodec.read(in));
+                    }
+
+                    this.lock.writeLock().lock();
+
+                    try {
+                        out.writeBoolean(this.tree.addAll(points));
+                    } finally {
+                        this.lock.writeLock().unlock();
+                    }
+
+                    break;
+                }
+
+                case ShardProtocol.REMOVE: {
+                    final E point = this.pointCodec.read(in);
+
+                    this.lock.writeLock().lock();
+
+                    try {
+                        out.writeBoolean(this.tree.remove(point));
+                    } finally {
+                        this.lock.writeLock().unlock();
+                    }
+
+                    break;
+                }
+
+                case ShardProtocol.CONTAINS: {
+                    final E point = this.pointCodec.read(in);
+
+                    this.lock.readLock().lock();
+
+                    try {
+                        out.writeBoolean(this.tree.contains(point));
+                    } finally {
+                        this.lock.readLock().unlock();
+                    }
+
+                    break;
+                }
+
+                case ShardProtocol.REMOVE_ALL:
+                case ShardProtocol.RETAIN_ALL: {
+                    final int count = ShardProtocol.readCount(in);
+                    final Set<E> points = new HashSet<>();
+
+                    for (int i = 0; i < count; i++) {
+                        points.add(this.pointCodec.read(in));
+                    }
+
+                    this.lock.writeLock().lock();
+
+                    try {
+                        out.writeBoolean(operation == ShardProtocol.REMOVE_ALL ?
+                                this.tree.removeAll(points) : this.tree.retainAll(points));
+                    } finally {
+                        this.lock.writeLock().unlock();
+                    }
+
+                    break;
+                }
+
+                case ShardProtocol.CLEAR: {
+                    this.lock.writeLock().lock();
+
+                    try {
+                        this.tree.clear();
+                    } finally {
+                        this.lock.writeLock().unlock();
+                    }
+
+                    break;
+                }
+
+                default: {
+                    throw new IOException("Unknown operation: " + operation);
+                }
+            }
+
+            out.flush();
+        } catch (final IOException | RuntimeException e) {
+            return this.encodeError(e);
+        }
+
+        return responseBytes.toByteArray();
+    }
+
+    private void handleNearestNeighbors(final DataInputStream in, final DataOutputStream out) throws IOException {
+        final P queryPoint = this.queryPointCodec.read(in);
+        final int maxResults = in.readInt();
+        final double distanceBound = in.readDouble();
+
+        final NearestNeighborCollector<P, E> collector =
+                new NearestNeighborCollector<>(queryPoint, this.tree.getDistanceFunction(), maxResults);
+
+        if (distanceBound < Double.POSITIVE_INFINITY) {
+            // The coordinator already knows of enough points within the bound, so the search can skip any part of the
+            // tree (including the whole tree) that lies entirely beyond it
+            final SharedDistanceBound sharedDistanceBound = new SharedDistanceBound();
+            sharedDistanceBound.offer(distanceBound);
+
+            collector.setSharedDistanceBound(sharedDistanceBound);
+        }
+
+        this.tree.collectNearestNeighbors(collector, maxResults, point -> true);
+
+        // Points we found before the collector filled up may lie beyond the bound; there's no need to send those back
+        int resultCount = 0;
+
+        while (resultCount < collector.size() && collector.getDistance(resultCount) < distanceBound) {
+            resultCount += 1;
+        }
+
+        out.writeInt(resultCount);
+
+        for (int i = 0; i < resultCount; i++) {
+            this.pointCodec.write(collector.getPoint(i), out);
+            out.writeDouble(collector.getDistance(i));
+        }
+    }
+
+    private void handleAllWithinDistance(final DataInputStream in, final DataOutputStream out) throws IOException {
+        final P queryPoint = this.queryPointCodec.read(in);
+        final double maxDistance = in.readDouble();
+
+        final List<E> pointsWithinRange = new ArrayList<>();
+        this.tree.forEachWithinDistance(queryPoint, maxDistance, (point, distance) -> pointsWithinRange.add(point));
+
+        out.writeInt(pointsWithinRange.size());
+
+        for (final E point : pointsWithinRange) {
+            this.pointCodec.write(point, out);
+        }
+    }
+
+    private byte[] encodeError(final Exception e) {
+        final ByteArrayOutputStream errorBytes = new ByteArrayOutputStream();
+
+        try {
+            final DataOutputStream out = new DataOutputStream(errorBytes);
+            out.writeByte(ShardProtocol.STATUS_ERROR);
+            out.writeUTF(String.valueOf(e.getMessage() != null ? e.getMessage() : e.getClass().getName()));
+            out.flush();
+        } catch (final IOException ignored) {
+            // Writing to a byte array can't fail
+        }
+
+        return errorBytes.toByteArray();
+    }
+}
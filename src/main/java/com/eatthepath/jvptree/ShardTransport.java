@@ -0,0 +1,24 @@
+package com.eatthepath.jvptree;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Carries encoded requests to a single shard and carries the shard's encoded responses back. Transports may deliver
+ * requests in-process, over a network, or by any other means, and may be used by many threads at once.
+ *
+ * @see RemoteShardCoordinator
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ */
+public interface ShardTransport {
+
+    /**
+     * Sends an encoded request to this transport's shard.
+     *
+     * @param request the encoded request to send
+     *
+     * @return a future that completes with the shard's encoded response, or completes exceptionally if the request
+     * could not be delivered or the response could not be received
+     */
+    CompletableFuture<byte[]> exchange(byte[] request);
+}
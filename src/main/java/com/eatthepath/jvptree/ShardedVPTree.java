@@ -0,0 +1,408 @@
+package com.eatthepath.jvptree;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+import com.eatthepath.jvptree.util.SamplingMedianDistanceThresholdSelectionStrategy;
+
+/**
+ * <p>A spatial index that divides its points among a number of independent vp-tree "shards" and searches all of its
+ * shards in parallel. Points may be assigned to shards at random, which keeps shards evenly sized, or by proximity to a
+ * set of shard "centers," which keeps nearby points together so that most shards can prune most of their trees for
+ * any given query.</p>
+ *
+ * <p>Nearest-neighbor searches in each shard share a single bound on the distance to the k-th nearest neighbor; as soon
+ * as any shard has found k candidates, every other shard can prune subtrees beyond the closest k-th distance found so
+ * far. Each shard's candidates are then merged into a single bounded heap.</p>
+ *
+ * <p>Searches run in the {@linkplain ForkJoinPool#commonPool() common fork/join pool} by default, though callers may
+ * provide an executor of their own. Like {@link VPTree}, sharded indices may be searched by many threads at once, but
+ * must not be modified while being searched.</p>
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @param <P> the base type of points between which distances can be measured
+ * @param <E> the specific type of point contained in this index
+ */
+public class ShardedVPTree<P, E extends P> extends AbstractCollection<E> implements SpatialIndex<P, E> {
+
+    /**
+     * Strategies for assigning points to shards.
+     */
+    public enum ShardingStrategy {
+        /**
+         * Assigns each point to a shard chosen at random.
+         */
+        RANDOM,
+
+        /**
+         * Assigns each point to the shard whose center is closest to the point. Shard centers are chosen at random from
+         * the points used to construct the index or, if the index was constructed without enough points, from the
+         * first points added to the index.
+         */
+        CLUSTERED
+    }
+
+    private final DistanceFunction<P> distanceFunction;
+    private final ShardingStrategy shardingStrategy;
+    private final int shardCount;
+    private final Executor executor;
+
+    private final List<VPTree<P, E>> shards;
+
+    // Only used by the clustered sharding strategy; the center at each index belongs to the shard at the same index
+    private final List<E> centers;
+
+    private final Random random = new Random();
+
+    /**
+     * Constructs a new sharded index that contains the given points and assigns them to shards at random. The index
+     * will use default vp-tree settings and will search shards in the
+     * {@linkplain ForkJoinPool#commonPool() common fork/join pool}.
+     *
+     * @param distanceFunction the distance function to use to calculate the distance between points
+     * @param points the points with which this index should be initially populated; may be empty
+     * @param shardCount the number of shards among which to divide points
+     */
+    public ShardedVPTree(final DistanceFunction<P> distanceFunction, final Collection<E> points, final int shardCount) {
+        this(distanceFunction, new SamplingMedianDistanceThresholdSelectionStrategy<P, E>(
+                SamplingMedianDistanceThresholdSelectionStrategy.DEFAULT_NUMBER_OF_SAMPLES),
+                VPTree.DEFAULT_NODE_CAPACITY, points, shardCount, ShardingStrategy.RANDOM, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructs a new sharded index that contains the given points. Shards are built in parallel with the given
+     * executor.
+     *
+     * @param distanceFunction the distance function to use to calculate the distance between points
+     * @param thresholdSelectionStrategy the function to use to choose distance thresholds when partitioning nodes
+     * @param nodeCapacity the largest capacity a node may have before it should be partitioned
+     * @param points the points with which this index should be initially populated; may be empty
+     * @param shardCount the number of shards among which to divide points
+     * @param shardingStrategy the strategy with which to assign points to shards
+     * @param executor the executor with which to build and search shards
+     */
+    public ShardedVPTree(final DistanceFunction<P> distanceFunction, final ThresholdSelectionStrategy<P, E> thresholdSelectionStrategy, final int nodeCapacity, final Collection<E> points, final int shardCount, final ShardingStrategy shardingStrategy, final Executor executor) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be positive.");
+        }
+
+        Objects.requireNonNull(shardingStrategy, "Sharding strategy must not be null.");
+
+        this.distanceFunction = distanceFunction;
+        this.shardingStrategy = shardingStrategy;
+        this.shardCount = shardCount;
+        this.executor = executor;
+
+        this.centers = new ArrayList<>(shardCount);
+
+        final List<E> pointList = new ArrayList<>(points);
+
+        if (shardingStrategy == ShardingStrategy.CLUSTERED) {
+            // Sample centers without replacement with a partial Fisher-Yates shuffle of our own copy of the points
+            for (int i = 0; i < Math.min(shardCount, pointList.size()); i++) {
+                Collections.swap(pointList, i, i + this.random.nextInt(pointList.size() - i));
+                this.centers.add(pointList.get(i));
+            }
+        }
+
+        final int[] shardAssignments = new int[pointList.size()];
+
+        // Assigning points to clusters takes a distance calculation per point per center, so spread the work across the
+        // executor in contiguous chunks
+        this.invokeAll(shardCount, chunk -> {
+            final int start = (int) ((long) pointList.size() * chunk / shardCount);
+            final int end = (int) ((long) pointList.size() * (chunk + 1) / shardCount);
+
+            for (int i = start; i < end; i++) {
+                shardAssignments[i] = this.getShardIndex(pointList.get(i));
+            }
+
+            return null;
+        });
+
+        final List<List<E>> pointsByShard = new ArrayList<>(shardCount);
+
+        for (int i = 0; i < shardCount; i++) {
+            pointsByShard.add(new ArrayList<>());
+        }
+
+        for (int i = 0; i < pointList.size(); i++) {
+            pointsByShard.get(shardAssignments[i]).add(pointList.get(i));
+        }
+
+        this.shards = this.invokeAll(shardCount, shard ->
+                new VPTree<>(distanceFunction, thresholdSelectionStrategy, nodeCapacity, pointsByShard.get(shard)));
+    }
+
+    /**
+     * Chooses the shard to which the given point should be assigned.
+     */
+    private int getShardIndex(final E point) {
+        if (this.shardingStrategy == ShardingStrategy.RANDOM) {
+            return ThreadLocalRandom.current().nextInt(this.shardCount);
+        }
+
+        return this.getClosestCenterIndex(point);
+    }
+
+    private int getClosestCenterIndex(final P point) {
+        int closestCenterIndex = 0;
+        double closestCenterDistance = Double.POSITIVE_INFINITY;
+
+        for (int i = 0; i < this.centers.size(); i++) {
+            final double distance = this.distanceFunction.getDistance(this.centers.get(i), point);
+
+            if (distance < closestCenterDistance) {
+                closestCenterIndex = i;
+                closestCenterDistance = distance;
+            }
+        }
+
+        return closestCenterIndex;
+    }
+
+    /**
+     * Runs the given task once for each index from zero (inclusive) to the given count (exclusive) in this index's
+     * executor and waits for all of the tasks to finish.
+     */
+    private <T> List<T> invokeAll(final int count, final IntFunction<T> task) {
+        final List<CompletableFuture<T>> futures = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            futures.add(CompletableFuture.supplyAsync(() -> task.apply(index), this.executor));
+        }
+
+        final List<T> results = new ArrayList<>(count);
+
+        try {
+            for (final CompletableFuture<T> future : futures) {
+                results.add(future.join());
+            }
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+
+            throw e;
+        }
+
+        return results;
+    }
+
+    private <T> List<T> invokeOnAllShards(final Function<VPTree<P, E>, T> task) {
+        return this.invokeAll(this.shardCount, shard -> task.apply(this.shards.get(shard)));
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.eatthepath.jvptree.SpatialIndex#getNearestNeighbors(java.lang.Object, int)
+     */
+    @Override
+    public List<E> getNearestNeighbors(final P queryPoint, final int maxResults) {
+        return this.getNearestNeighbors(queryPoint, maxResults, point -> true);
+    }
+
+    @Override
+    public List<E> getNearestNeighbors(final P queryPoint, final int maxResults, final PointFilter<? super E> filter) {
+        final SharedDistanceBound sharedDistanceBound = new SharedDistanceBound();
+
+        final List<NearestNeighborCollector<P, E>> shardCollectors = this.invokeOnAllShards(shard -> {
+            final NearestNeighborCollector<P, E> collector =
+                    new NearestNeighborCollector<>(queryPoint, this.distanceFunction, maxResults);
+
+            collector.setSharedDistanceBound(sharedDistanceBound);
+            shard.collectNearestNeighbors(collector, maxResults, filter);
+
+            return collector;
+        });
+
+        final NearestNeighborCollector<P, E> mergedCollector =
+                new NearestNeighborCollector<>(queryPoint, this.distanceFunction, maxResults);
+
+        for (final NearestNeighborCollector<P, E> shardCollector : shardCollectors) {
+            for (int i = 0; i < shardCollector.size(); i++) {
+                mergedCollector.offerPoint(shardCollector.getPoint(i), shardCollector.getDistance(i));
+            }
+        }
+
+        return mergedCollector.toSortedList();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.eatthepath.jvptree.SpatialIndex#getAllWithinDistance(java.lang.Object, double)
+     */
+    @Override
+    public List<E> getAllWithinDistance(final P queryPoint, final double maxDistance) {
+        return this.getAllWithinDistance(queryPoint, maxDistance, point -> true);
+    }
+
+    @Override
+    public List<E> getAllWithinDistance(final P queryPoint, final double maxDistance, final PointFilter<? super E> filter) {
+        final List<List<E>> shardResults = this.invokeOnAllShards(shard -> {
+            final List<E> pointsWithinRange = new ArrayList<>();
+            shard.forEachWithinDistance(queryPoint, maxDistance, filter, (point, distance) -> pointsWithinRange.add(point));
+
+            return pointsWithinRange;
+        });
+
+        final List<E> pointsWithinRange = new ArrayList<>();
+
+        for (final List<E> shardResult : shardResults) {
+            pointsWithinRange.addAll(shardResult);
+        }
+
+        return pointsWithinRange;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#size()
+     */
+    @Override
+    public int size() {
+        int size = 0;
+
+        for (final VPTree<P, E> shard : this.shards) {
+            size += shard.size();
+        }
+
+        return size;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#contains(java.lang.Object)
+     */
+    @Override
+    public boolean contains(final Object o) {
+        for (final VPTree<P, E> shard : this.getCandidateShards(o)) {
+            if (shard.contains(o)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the shards that might contain the given point.
+     */
+    @SuppressWarnings("unchecked")
+    private List<VPTree<P, E>> getCandidateShards(final Object point) {
+        if (this.shardingStrategy == ShardingStrategy.CLUSTERED && !this.centers.isEmpty()) {
+            // Points always go to the shard with the closest center (and centers never change once chosen), so equal
+            // points are always in the same shard
+            try {
+                return Collections.singletonList(this.shards.get(this.getClosestCenterIndex((P) point)));
+            } catch (final ClassCastException e) {
+                return Collections.emptyList();
+            }
+        }
+
+        return this.shards;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#iterator()
+     */
+    @Override
+    public Iterator<E> iterator() {
+        final ArrayList<Iterator<E>> iterators = new ArrayList<>(this.shards.size());
+
+        for (final VPTree<P, E> shard : this.shards) {
+            iterators.add(shard.iterator());
+        }
+
+        return new MetaIterator<>(iterators);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#add(java.lang.Object)
+     */
+    @Override
+    public boolean add(final E point) {
+        if (this.shardingStrategy == ShardingStrategy.CLUSTERED && this.centers.size() < this.shardCount) {
+            // Until every shard has a center, every new point becomes a center. A new center is always closest to
+            // itself (or to an earlier, equal center), so points never move to a different closest center as centers
+            // are added, and lookups can always go straight to the closest center's shard.
+            this.centers.add(point);
+        }
+
+        return this.shards.get(this.getShardIndex(point)).add(point);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#remove(java.lang.Object)
+     */
+    @Override
+    public boolean remove(final Object point) {
+        for (final VPTree<P, E> shard : this.getCandidateShards(point)) {
+            if (shard.remove(point)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#removeAll(java.util.Collection)
+     */
+    @Override
+    public boolean removeAll(final Collection<?> points) {
+        boolean modified = false;
+
+        for (final VPTree<P, E> shard : this.shards) {
+            modified = shard.removeAll(points) || modified;
+        }
+
+        return modified;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#retainAll(java.util.Collection)
+     */
+    @Override
+    public boolean retainAll(final Collection<?> points) {
+        boolean modified = false;
+
+        for (final VPTree<P, E> shard : this.shards) {
+            modified = shard.retainAll(points) || modified;
+        }
+
+        return modified;
+    }
+
+    /**
+     * Removes all points from this index. Shard centers chosen under the clustered sharding strategy are retained.
+     */
+    @Override
+    public void clear() {
+        for (final VPTree<P, E> shard : this.shards) {
+            shard.clear();
+        }
+    }
+}
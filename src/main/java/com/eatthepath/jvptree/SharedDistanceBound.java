@@ -0,0 +1,40 @@
+package com.eatthepath.jvptree;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe upper bound on the distance to the k-th nearest neighbor of a query point, shared by nearest neighbor
+ * collectors that search different parts of the same index in parallel. Whenever any collector fills up, it lowers
+ * the shared bound to the distance of its farthest point, and every other collector may then prune subtrees that lie
+ * entirely beyond that distance.
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ */
+class SharedDistanceBound {
+
+    // Non-negative doubles (including positive infinity) sort in the same order as their raw bits, so we can store the
+    // bound as a long and take minima without a compare-and-set loop of our own
+    private final AtomicLong boundBits = new AtomicLong(Double.doubleToRawLongBits(Double.POSITIVE_INFINITY));
+
+    /**
+     * Returns the current bound.
+     *
+     * @return the current bound, or positive infinity if no collector has filled up yet
+     */
+    double get() {
+        return Double.longBitsToDouble(this.boundBits.get());
+    }
+
+    /**
+     * Lowers the bound to the given distance if the given distance is smaller than the current bound.
+     *
+     * @param distance a non-negative distance within which at least k points are known to exist
+     */
+    void offer(final double distance) {
+        final long distanceBits = Double.doubleToRawLongBits(distance);
+
+        if (distanceBits < this.boundBits.get()) {
+            this.boundBits.accumulateAndGet(distanceBits, Math::min);
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package com.eatthepath.jvptree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>Finds all pairs of points within a given distance of one another by traversing two vp-tree node hierarchies
+ * together. Each node is described by a "region" made up of one or two "shells," each of which is a center point and a
+ * band of distances from that center in which all of the node's points lie. The first is the band around the node's
+ * parent's vantage point (between zero and the parent's threshold for a closer node, or between the threshold and the
+ * parent's radius for a farther node). The second is the smallest ball known to hold all of the node's points, chosen
+ * from the bands of all of the node's ancestors and the node's own radius, and so a region's bounds only ever get
+ * tighter as the join descends. By the triangle inequality, the distance between the centers of two shells and the
+ * bounds of their bands put a lower bound on the distance between any pair of points drawn from the two shells, and
+ * pairs of regions whose lower bound exceeds the join distance are skipped entirely.</p>
+ *
+ * <p>Joins are executed as fork/join tasks; matching pairs are streamed to a caller-provided consumer as they're found
+ * rather than collected. Joins fork only as many levels of tasks as they need to keep every worker in the pool busy;
+ * below that, regions are joined sequentially in the current task.</p>
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ */
+class SimilarityJoin<P, A extends P, B extends P> {
+
+    private final DistanceFunction<P> distanceFunction;
+    private final double maxDistance;
+    private final PointPairConsumer<? super A, ? super B> consumer;
+
+    // The depths (in pairs of regions) up to which the join will fork new tasks
+    private final int maxSelfJoinForkDepth;
+    private final int maxCrossJoinForkDepth;
+
+    /**
+     * The number of tasks the join tries to create for each worker in its pool, which gives workers that finish their
+     * own tasks early something to steal.
+     */
+    private static final int TASKS_PER_WORKER = 8;
+
+    private SimilarityJoin(final DistanceFunction<P> distanceFunction, final double maxDistance, final PointPairConsumer<? super A, ? super B> consumer, final int parallelism) {
+        if (maxDistance < 0) {
+            throw new IllegalArgumentException("Maximum distance must not be negative.");
+        }
+
+        this.distanceFunction = distanceFunction;
+        this.maxDistance = maxDistance;
+        this.consumer = consumer;
+
+        // Self-joins fork three ways at each level and cross-joins fork two ways
+        this.maxSelfJoinForkDepth = getForkDepth(parallelism, 3);
+        this.maxCrossJoinForkDepth = getForkDepth(parallelism, 2);
+    }
+
+    /**
+     * Returns the number of levels of tasks, each forking the given number of subtasks, needed to produce enough tasks
+     * to keep a pool with the given parallelism busy.
+     */
+    private static int getForkDepth(final int parallelism, final int subtasksPerTask) {
+        final long targetTaskCount = (long) parallelism * TASKS_PER_WORKER;
+
+        int depth = 0;
+
+        for (long taskCount = 1; taskCount < targetTaskCount; taskCount *= subtasksPerTask) {
+            depth += 1;
+        }
+
+        return depth;
+    }
+
+    /**
+     * Passes every pair of distinct points in the tree with the given root node that are within the given distance of
+     * one another to the given consumer. Each unordered pair is reported exactly once.
+     *
+     * @param rootNode the root node of the tree to join with itself
+     * @param distanceFunction the distance function to use to calculate the distance between points
+     * @param maxDistance the maximum distance between points in a reported pair
+     * @param consumer the consumer to which to pass matching pairs
+     * @param forkJoinPool the pool in which to execute the join
+     */
+    static <P, E extends P> void selfJoin(final VPTreeNode<P, E> rootNode, final DistanceFunction<P> distanceFunction,
+            final double maxDistance, final PointPairConsumer<? super E, ? super E> consumer, final ForkJoinPool forkJoinPool) {
+
+        final SimilarityJoin<P, E, E> join =
+                new SimilarityJoin<>(distanceFunction, maxDistance, consumer, forkJoinPool.getParallelism());
+
+        forkJoinPool.invoke(join.new SelfJoinTask(Region.forRootNode(rootNode), 0));
+    }
+
+    /**
+     * Passes every pair of points (one from each tree) that are within the given distance of one another to the given
+     * consumer.
+     *
+     * @param firstRootNode the root node of the tree from which the first point in each pair will be drawn
+     * @param secondRootNode the root node of the tree from which the second point in each pair will be drawn
+     * @param distanceFunction the distance function to use to calculate the distance between points
+     * @param maxDistance the maximum distance between points in a reported pair
+     * @param consumer the consumer to which to pass matching pairs
+     * @param forkJoinPool the pool in which to execute the join
+     */
+    static <P, A extends P, B extends P> void join(final VPTreeNode<P, A> firstRootNode, final VPTreeNode<P, B> secondRootNode,
+            final DistanceFunction<P> distanceFunction, final double maxDistance,
+            final PointPairConsumer<? super A, ? super B> consumer, final ForkJoinPool forkJoinPool) {
+
+        final SimilarityJoin<P, A, B> join =
+                new SimilarityJoin<>(distanceFunction, maxDistance, consumer, forkJoinPool.getParallelism());
+
+        forkJoinPool.invoke(join.new CrossJoinTask(Region.forRootNode(firstRootNode), Region.forRootNode(secondRootNode), 0));
+    }
+
+    /**
+     * Tests whether any pair of points drawn from the two given regions could possibly be within this join's maximum
+     * distance of one another.
+     */
+    private boolean mayContainMatchingPairs(final Region<P, ?> firstRegion, final Region<P, ?> secondRegion) {
+        for (final Shell<P> firstShell : firstRegion.shells) {
+            for (final Shell<P> secondShell : secondRegion.shells) {
+                if (this.getLowerBound(firstShell, secondShell) > this.maxDistance) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns a lower bound on the distance between any point in the first given shell and any point in the second.
+     */
+    private double getLowerBound(final Shell<P> firstShell, final Shell<P> secondShell) {
+        final double distanceBetweenCenters = firstShell.center == secondShell.center ?
+                0 : this.distanceFunction.getDistance(firstShell.center, secondShell.center);
+
+        return Math.max(
+                distanceBetweenCenters - firstShell.maxDistance - secondShell.maxDistance,
+                Math.max(secondShell.minDistance - distanceBetweenCenters - firstShell.maxDistance,
+                        firstShell.minDistance - distanceBetweenCenters - secondShell.maxDistance));
+    }
+
+    private void joinLeaves(final VPTreeNode<P, A> firstLeaf, final VPTreeNode<P, B> secondLeaf) {
+        final List<A> firstPoints = firstLeaf.getPoints();
+        final List<B> secondPoints = secondLeaf.getPoints();
+
+        // Deleted points may not have been purged yet, and so we skip them in place rather than copying either leaf's
+        // live points for every pair of leaves we visit
+        for (int i = 0; i < firstPoints.size(); i++) {
+            if (firstLeaf.isTombstoned(i)) {
+                continue;
+            }
+
+            for (int j = 0; j < secondPoints.size(); j++) {
+                if (secondLeaf.isTombstoned(j)) {
+                    continue;
+                }
+
+                final double distance = this.distanceFunction.getDistance(firstPoints.get(i), secondPoints.get(j));
+
+                if (distance <= this.maxDistance) {
+                    this.consumer.acceptPair(firstPoints.get(i), secondPoints.get(j), distance);
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void joinLeafWithItself(final VPTreeNode<P, A> leaf) {
+        // Self-joins only ever happen when A and B are the same type
+        final List<A> points = leaf.getPoints();
+        final PointPairConsumer<? super A, ? super A> selfConsumer = (PointPairConsumer<? super A, ? super A>) this.consumer;
+
+        for (int i = 0; i < points.size(); i++) {
+            if (leaf.isTombstoned(i)) {
+                continue;
+            }
+
+            for (int j = i + 1; j < points.size(); j++) {
+                if (leaf.isTombstoned(j)) {
+                    continue;
+                }
+
+                final double distance = this.distanceFunction.getDistance(points.get(i), points.get(j));
+
+                if (distance <= this.maxDistance) {
+                    selfConsumer.acceptPair(points.get(i), points.get(j), distance);
+                }
+            }
+        }
+    }
+
+    /**
+     * A center point and a band of distances from that center in which all of a region's points lie.
+     */
+    private static class Shell<P> {
+        private final P center;
+        private final double minDistance;
+        private final double maxDistance;
+
+        private Shell(final P center, final double minDistance, final double maxDistance) {
+            this.center = center;
+            this.minDistance = minDistance;
+            this.maxDistance = maxDistance;
+        }
+    }
+
+    /**
+     * A node along with the shells in which all of its points lie: the band around its parent's vantage point (which
+     * is the only shell that may keep points away from its center) and the smallest ball known to hold all of its
+     * points.
+     */
+    private static class Region<P, T extends P> {
+        private final VPTreeNode<P, T> node;
+
+        // The smallest ball known to hold all of this region's points, or null if no such ball is known
+        private final Shell<P> ball;
+
+        private final List<Shell<P>> shells;
+
+        private Region(final VPTreeNode<P, T> node, final Shell<P> band, final Shell<P> ancestorBall) {
+            this.node = node;
+
+            Shell<P> ball = ancestorBall;
+
+            if (band != null) {
+                ball = getSmallerBall(ball, new Shell<>(band.center, 0, band.maxDistance));
+            }
+
+            if (!node.isLeaf()) {
+                ball = getSmallerBall(ball, new Shell<>(node.getVantagePoint(), 0, node.getRadius()));
+            }
+
+            this.ball = ball;
+            this.shells = new ArrayList<>(2);
+
+            if (band != null) {
+                this.shells.add(band);
+            }
+
+            // A ball around the same center as the band can't tell us anything the band doesn't
+            if (ball != null && (band == null || ball.center != band.center)) {
+                this.shells.add(ball);
+            }
+        }
+
+        private static <P, T extends P> Region<P, T> forRootNode(final VPTreeNode<P, T> rootNode) {
+            return new Region<>(rootNode, null, null);
+        }
+
+        private static <P> Shell<P> getSmallerBall(final Shell<P> ball, final Shell<P> otherBall) {
+            return ball == null || otherBall.maxDistance < ball.maxDistance ? otherBall : ball;
+        }
+
+        private Region<P, T> getCloserRegion() {
+            return new Region<>(this.node.getCloser(), new Shell<>(this.node.getVantagePoint(), 0,
+                    Math.min(this.node.getThreshold(), this.node.getRadius())), this.ball);
+        }
+
+        private Region<P, T> getFartherRegion() {
+            return new Region<>(this.node.getFarther(), new Shell<>(this.node.getVantagePoint(), this.node.getThreshold(),
+                    this.node.getRadius()), this.ball);
+        }
+    }
+
+    private class SelfJoinTask extends RecursiveAction {
+
+        private final Region<P, A> region;
+        private final int depth;
+
+        private static final long serialVersionUID = 1L;
+
+        private SelfJoinTask(final Region<P, A> region, final int depth) {
+            this.region = region;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.region.node.isLeaf()) {
+                SimilarityJoin.this.joinLeafWithItself(this.region.node);
+            } else {
+                final Region<P, A> closerRegion = this.region.getCloserRegion();
+                final Region<P, A> fartherRegion = this.region.getFartherRegion();
+
+                @SuppressWarnings("unchecked")
+                final CrossJoinTask crossJoinTask =
+                        new CrossJoinTask(closerRegion, (Region<P, B>) (Region<P, ?>) fartherRegion, this.depth + 1);
+
+                final SelfJoinTask closerTask = new SelfJoinTask(closerRegion, this.depth + 1);
+                final SelfJoinTask fartherTask = new SelfJoinTask(fartherRegion, this.depth + 1);
+
+                if (this.depth < SimilarityJoin.this.maxSelfJoinForkDepth) {
+                    invokeAll(closerTask, fartherTask, crossJoinTask);
+                } else {
+                    closerTask.compute();
+                    fartherTask.compute();
+                    crossJoinTask.compute();
+                }
+            }
+        }
+    }
+
+    private class CrossJoinTask extends RecursiveAction {
+
+        private final Region<P, A> firstRegion;
+        private final Region<P, B> secondRegion;
+        private final int depth;
+
+        private static final long serialVersionUID = 1L;
+
+        private CrossJoinTask(final Region<P, A> firstRegion, final Region<P, B> secondRegion, final int depth) {
+            this.firstRegion = firstRegion;
+            this.secondRegion = secondRegion;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            if (!SimilarityJoin.this.mayContainMatchingPairs(this.firstRegion, this.secondRegion)) {
+                return;
+            }
+
+            final VPTreeNode<P, A> firstNode = this.firstRegion.node;
+            final VPTreeNode<P, B> secondNode = this.secondRegion.node;
+
+            if (firstNode.isLeaf() && secondNode.isLeaf()) {
+                SimilarityJoin.this.joinLeaves(firstNode, secondNode);
+            } else {
+                // Split whichever node covers the larger region (or the only branch node, if one is a leaf)
+                final boolean splitFirstNode = !firstNode.isLeaf() &&
+                        (secondNode.isLeaf() || firstNode.getThreshold() >= secondNode.getThreshold());
+
+                final CrossJoinTask closerTask;
+                final CrossJoinTask fartherTask;
+
+                if (splitFirstNode) {
+                    closerTask = new CrossJoinTask(this.firstRegion.getCloserRegion(), this.secondRegion, this.depth + 1);
+                    fartherTask = new CrossJoinTask(this.firstRegion.getFartherRegion(), this.secondRegion, this.depth + 1);
+                } else {
+                    closerTask = new CrossJoinTask(this.firstRegion, this.secondRegion.getCloserRegion(), this.depth + 1);
+                    fartherTask = new CrossJoinTask(this.firstRegion, this.secondRegion.getFartherRegion(), this.depth + 1);
+                }
+
+                if (this.depth < SimilarityJoin.this.maxCrossJoinForkDepth) {
+                    invokeAll(closerTask, fartherTask);
+                } else {
+                    closerTask.compute();
+                    fartherTask.compute();
+                }
+            }
+        }
+    }
+}
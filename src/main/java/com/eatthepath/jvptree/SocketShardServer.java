@@ -0,0 +1,156 @@
+package com.eatthepath.jvptree;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Accepts connections from {@link SocketShardTransport}s and serves their requests with a {@link ShardServer}. Socket
+ * shard servers listen only on the loopback interface and serve each connection on its own daemon thread; they are
+ * intended for exercising the shard protocol across processes on a single machine.
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ */
+public class SocketShardServer implements Closeable {
+
+    private final ShardServer<?, ?> shardServer;
+    private final ServerSocket serverSocket;
+
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+
+    private static final long MIN_ACCEPT_RETRY_DELAY_MILLIS = 10;
+    private static final long MAX_ACCEPT_RETRY_DELAY_MILLIS = 1000;
+
+    private static final Logger log = Logger.getLogger(SocketShardServer.class.getName());
+
+    /**
+     * Constructs a new socket shard server that listens on an ephemeral port on the loopback interface.
+     *
+     * @param shardServer the shard server with which to serve requests
+     *
+     * @throws IOException if the server socket could not be bound for any reason
+     *
+     * @see #getAddress()
+     */
+    public SocketShardServer(final ShardServer<?, ?> shardServer) throws IOException {
+        this(shardServer, 0);
+    }
+
+    /**
+     * Constructs a new socket shard server that listens on the given port on the loopback interface.
+     *
+     * @param shardServer the shard server with which to serve requests
+     * @param port the port on which to listen, or 0 to listen on an ephemeral port
+     *
+     * @throws IOException if the server socket could not be bound for any reason
+     */
+    public SocketShardServer(final ShardServer<?, ?> shardServer, final int port) throws IOException {
+        this.shardServer = shardServer;
+        this.serverSocket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+
+        final Thread acceptThread = new Thread(this::acceptConnections, "jvptree-shard-server-" + this.serverSocket.getLocalPort());
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * Returns the address on which this server is listening for connections.
+     *
+     * @return the address on which this server is listening for connections
+     */
+    public InetSocketAddress getAddress() {
+        return (InetSocketAddress) this.serverSocket.getLocalSocketAddress();
+    }
+
+    private void acceptConnections() {
+        long retryDelayMillis = MIN_ACCEPT_RETRY_DELAY_MILLIS;
+
+        while (!this.serverSocket.isClosed()) {
+            final Socket socket;
+
+            try {
+                socket = this.serverSocket.accept();
+                retryDelayMillis = MIN_ACCEPT_RETRY_DELAY_MILLIS;
+            } catch (final IOException e) {
+                if (this.serverSocket.isClosed()) {
+                    break;
+                }
+
+                // Failures to accept connections (running out of file descriptors, for example) may persist for a
+                // while; back off instead of spinning until they clear up
+                log.log(Level.WARNING, "Failed to accept connection; will retry in " + retryDelayMillis + " ms", e);
+
+                try {
+                    Thread.sleep(retryDelayMillis);
+                } catch (final InterruptedException interrupted) {
+                    break;
+                }
+
+                retryDelayMillis = Math.min(retryDelayMillis * 2, MAX_ACCEPT_RETRY_DELAY_MILLIS);
+                continue;
+            }
+
+            this.connections.add(socket);
+
+            final Thread connectionThread = new Thread(() -> this.serveConnection(socket),
+                    "jvptree-shard-connection-" + socket.getPort());
+
+            connectionThread.setDaemon(true);
+            connectionThread.start();
+        }
+    }
+
+    private void serveConnection(final Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            byte[] request;
+
+            while ((request = ShardProtocol.readFrame(in)) != null) {
+                ShardProtocol.writeFrame(out, this.shardServer.handle(request));
+            }
+        } catch (final IOException ignored) {
+            // The client has gone away or sent something unreadable; either way, we're done with this connection
+        } finally {
+            this.connections.remove(socket);
+
+            try {
+                socket.close();
+            } catch (final IOException ignored) {
+                // Nothing else we can do here
+            }
+        }
+    }
+
+    /**
+     * Stops accepting connections and closes all open connections.
+     *
+     * @throws IOException if the server socket could not be closed for any reason
+     */
+    @Override
+    public void close() throws IOException {
+        this.serverSocket.close();
+
+        for (final Socket socket : this.connections) {
+            try {
+                socket.close();
+            } catch (final IOException ignored) {
+                // Keep closing other connections
+            }
+        }
+    }
+}
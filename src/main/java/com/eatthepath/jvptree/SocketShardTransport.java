@@ -0,0 +1,93 @@
+package com.eatthepath.jvptree;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A shard transport that sends requests to a {@link SocketShardServer} over a single socket connection. Requests are
+ * sent one at a time; callers that need more concurrency per shard may open several transports to the same server.
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ */
+public class SocketShardTransport implements ShardTransport, Closeable {
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    private final Executor executor;
+
+    /**
+     * Connects a new socket transport to the shard server at the given address. Requests will block threads in the
+     * {@linkplain ForkJoinPool#commonPool() common fork/join pool} while awaiting responses.
+     *
+     * @param address the address of the shard server to which to connect
+     *
+     * @throws IOException if a connection could not be established for any reason
+     */
+    public SocketShardTransport(final InetSocketAddress address) throws IOException {
+        this(address, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Connects a new socket transport to the shard server at the given address.
+     *
+     * @param address the address of the shard server to which to connect
+     * @param executor the executor whose threads should send requests and await responses
+     *
+     * @throws IOException if a connection could not be established for any reason
+     */
+    public SocketShardTransport(final InetSocketAddress address, final Executor executor) throws IOException {
+        this.socket = new Socket(address.getAddress(), address.getPort());
+        this.socket.setTcpNoDelay(true);
+
+        this.in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream()));
+
+        this.executor = executor;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.eatthepath.jvptree.ShardTransport#exchange(byte[])
+     */
+    @Override
+    public CompletableFuture<byte[]> exchange(final byte[] request) {
+        return CompletableFuture.supplyAsync(() -> {
+            synchronized (this.socket) {
+                try {
+                    ShardProtocol.writeFrame(this.out, request);
+
+                    final byte[] response = ShardProtocol.readFrame(this.in);
+
+                    if (response == null) {
+                        throw new RemoteShardException("Shard closed the connection before responding.");
+                    }
+
+                    return response;
+                } catch (final IOException e) {
+                    throw new RemoteShardException("Failed to exchange request with shard.", e);
+                }
+            }
+        }, this.executor);
+    }
+
+    /**
+     * Closes this transport's connection to its shard server.
+     *
+     * @throws IOException if the connection could not be closed for any reason
+     */
+    @Override
+    public void close() throws IOException {
+        this.socket.close();
+    }
+}
@@ -0,0 +1,321 @@
+package com.eatthepath.jvptree;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.AbstractCollection;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import com.eatthepath.jvptree.util.SamplingMedianDistanceThresholdSelectionStrategy;
+
+/**
+ * <p>A spatial index that only retains points added within a sliding window of time. Points are grouped into
+ * vp-tree "buckets" by the time at which they were added; each bucket covers a fixed span of time (its "width"), and
+ * once every point in a bucket is older than the index's retention period, the entire bucket is discarded at once
+ * without touching any of its points. Because points expire a whole bucket at a time, points may remain in the index
+ * for up to one bucket width longer than the retention period.</p>
+ *
+ * <p>Queries search every live bucket with a single collector, and so results are exact with respect to the points
+ * that haven't yet expired. Expired buckets are discarded lazily whenever the index is read or modified. Times are
+ * read from a {@link Clock}, which callers may provide (for example, to control time in tests).</p>
+ *
+ * <p>Like {@link VPTree}, time-windowed indices are not thread-safe.</p>
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @param <P> the base type of points between which distances can be measured
+ * @param <E> the specific type of point contained in this index
+ */
+public class TimeWindowedVPTree<P, E extends P> extends AbstractCollection<E> implements SpatialIndex<P, E> {
+
+    private final DistanceFunction<P> distanceFunction;
+    private final ThresholdSelectionStrategy<P, E> thresholdSelectionStrategy;
+    private final int nodeCapacity;
+
+    private final long bucketWidthMillis;
+    private final long retentionMillis;
+    private final Clock clock;
+
+    // Buckets are kept in order of increasing start time
+    private final ArrayDeque<Bucket<P, E>> buckets = new ArrayDeque<>();
+
+    private static class Bucket<P, E extends P> {
+        private final long startMillis;
+        private final VPTree<P, E> tree;
+
+        private Bucket(final long startMillis, final VPTree<P, E> tree) {
+            this.startMillis = startMillis;
+            this.tree = tree;
+        }
+    }
+
+    /**
+     * Constructs a new, empty time-windowed index that uses the given distance function and the system clock. The
+     * index will use default vp-tree settings.
+     *
+     * @param distanceFunction the distance function to use to calculate the distance between points
+     * @param bucketWidth the span of time covered by each bucket
+     * @param retention the length of time for which points should be retained
+     */
+    public TimeWindowedVPTree(final DistanceFunction<P> distanceFunction, final Duration bucketWidth, final Duration retention) {
+        this(distanceFunction, new SamplingMedianDistanceThresholdSelectionStrategy<P, E>(
+                SamplingMedianDistanceThresholdSelectionStrategy.DEFAULT_NUMBER_OF_SAMPLES),
+                VPTree.DEFAULT_NODE_CAPACITY, bucketWidth, retention, Clock.systemUTC());
+    }
+
+    /**
+     * Constructs a new, empty time-windowed index.
+     *
+     * @param distanceFunction the distance function to use to calculate the distance between points
+     * @param thresholdSelectionStrategy the function to use to choose distance thresholds when partitioning nodes
+     * @param nodeCapacity the largest capacity a node may have before it should be partitioned
+     * @param bucketWidth the span of time covered by each bucket; must be at least one millisecond
+     * @param retention the length of time for which points should be retained; must be at least one millisecond
+     * @param clock the clock from which to read the current time when adding and expiring points
+     */
+    public TimeWindowedVPTree(final DistanceFunction<P> distanceFunction, final ThresholdSelectionStrategy<P, E> thresholdSelectionStrategy, final int nodeCapacity, final Duration bucketWidth, final Duration retention, final Clock clock) {
+        if (nodeCapacity < 1) {
+            throw new IllegalArgumentException("Node capacity must be positive.");
+        }
+
+        if (bucketWidth.toMillis() < 1) {
+            throw new IllegalArgumentException("Bucket width must be at least one millisecond.");
+        }
+
+        if (retention.toMillis() < 1) {
+            throw new IllegalArgumentException("Retention period must be at least one millisecond.");
+        }
+
+        this.distanceFunction = distanceFunction;
+        this.thresholdSelectionStrategy = thresholdSelectionStrategy;
+        this.nodeCapacity = nodeCapacity;
+
+        this.bucketWidthMillis = bucketWidth.toMillis();
+        this.retentionMillis = retention.toMillis();
+        this.clock = clock;
+    }
+
+    /**
+     * Discards all buckets whose points are all older than the retention period.
+     */
+    private void expireBuckets() {
+        final long oldestRetainedMillis = this.clock.millis() - this.retentionMillis;
+
+        while (!this.buckets.isEmpty() && this.buckets.peekFirst().startMillis + this.bucketWidthMillis <= oldestRetainedMillis) {
+            this.buckets.removeFirst();
+        }
+    }
+
+    /**
+     * Returns the tree for the bucket that covers the current time, creating a new bucket if necessary.
+     */
+    private VPTree<P, E> getCurrentTree() {
+        final long startMillis = Math.floorDiv(this.clock.millis(), this.bucketWidthMillis) * this.bucketWidthMillis;
+
+        // If the clock ever moves backward, we'll keep adding points to the newest bucket we have rather than inserting
+        // a bucket out of order
+        if (this.buckets.isEmpty() || startMillis > this.buckets.peekLast().startMillis) {
+            this.buckets.addLast(new Bucket<>(startMillis,
+                    new VPTree<>(this.distanceFunction, this.thresholdSelectionStrategy, this.nodeCapacity)));
+        }
+
+        return this.buckets.peekLast().tree;
+    }
+
+    /**
+     * Returns the number of live buckets in this index.
+     *
+     * @return the number of live buckets in this index
+     */
+    int getBucketCount() {
+        this.expireBuckets();
+        return this.buckets.size();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.eatthepath.jvptree.SpatialIndex#getNearestNeighbors(java.lang.Object, int)
+     */
+    @Override
+    public List<E> getNearestNeighbors(final P queryPoint, final int maxResults) {
+        return this.getNearestNeighbors(queryPoint, maxResults, point -> true);
+    }
+
+    @Override
+    public List<E> getNearestNeighbors(final P queryPoint, final int maxResults, final PointFilter<? super E> filter) {
+        this.expireBuckets();
+
+        final NearestNeighborCollector<P, E> collector =
+                new NearestNeighborCollector<>(queryPoint, this.distanceFunction, maxResults);
+
+        for (final Bucket<P, E> bucket : this.buckets) {
+            bucket.tree.collectNearestNeighbors(collector, maxResults, filter);
+        }
+
+        return collector.toSortedList();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.eatthepath.jvptree.SpatialIndex#getAllWithinDistance(java.lang.Object, double)
+     */
+    @Override
+    public List<E> getAllWithinDistance(final P queryPoint, final double maxDistance) {
+        return this.getAllWithinDistance(queryPoint, maxDistance, point -> true);
+    }
+
+    @Override
+    public List<E> getAllWithinDistance(final P queryPoint, final double maxDistance, final PointFilter<? super E> filter) {
+        this.expireBuckets();
+
+        final List<E> pointsWithinRange = new ArrayList<>();
+
+        for (final Bucket<P, E> bucket : this.buckets) {
+            bucket.tree.forEachWithinDistance(queryPoint, maxDistance, filter, (point, distance) -> pointsWithinRange.add(point));
+        }
+
+        return pointsWithinRange;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#size()
+     */
+    @Override
+    public int size() {
+        this.expireBuckets();
+
+        int size = 0;
+
+        for (final Bucket<P, E> bucket : this.buckets) {
+            size += bucket.tree.size();
+        }
+
+        return size;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#contains(java.lang.Object)
+     */
+    @Override
+    public boolean contains(final Object o) {
+        this.expireBuckets();
+
+        for (final Bucket<P, E> bucket : this.buckets) {
+            if (bucket.tree.contains(o)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns an iterator over the live points in this index, from oldest bucket to newest. The returned iterator does
+     * not support removal.
+     *
+     * @return an iterator over the live points in this index
+     */
+    @Override
+    public Iterator<E> iterator() {
+        this.expireBuckets();
+
+        final ArrayList<Iterator<E>> iterators = new ArrayList<>(this.buckets.size());
+
+        for (final Bucket<P, E> bucket : this.buckets) {
+            iterators.add(bucket.tree.iterator());
+        }
+
+        return new MetaIterator<>(iterators);
+    }
+
+    /**
+     * Adds a point to this index at the current time.
+     *
+     * @param point the point to add
+     *
+     * @return {@code true} (as specified by {@link Collection#add(Object)})
+     */
+    @Override
+    public boolean add(final E point) {
+        this.expireBuckets();
+        return this.getCurrentTree().add(point);
+    }
+
+    /**
+     * Adds all of the given points to this index at the current time.
+     *
+     * @param points the points to add
+     *
+     * @return {@code true} if any points were added or {@code false} otherwise
+     */
+    @Override
+    public boolean addAll(final Collection<? extends E> points) {
+        this.expireBuckets();
+        return !points.isEmpty() && this.getCurrentTree().addAll(points);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#remove(java.lang.Object)
+     */
+    @Override
+    public boolean remove(final Object point) {
+        this.expireBuckets();
+
+        for (final Bucket<P, E> bucket : this.buckets) {
+            if (bucket.tree.remove(point)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#removeAll(java.util.Collection)
+     */
+    @Override
+    public boolean removeAll(final Collection<?> points) {
+        this.expireBuckets();
+
+        boolean modified = false;
+
+        for (final Bucket<P, E> bucket : this.buckets) {
+            modified = bucket.tree.removeAll(points) || modified;
+        }
+
+        return modified;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#retainAll(java.util.Collection)
+     */
+    @Override
+    public boolean retainAll(final Collection<?> points) {
+        this.expireBuckets();
+
+        boolean modified = false;
+
+        for (final Bucket<P, E> bucket : this.buckets) {
+            modified = bucket.tree.retainAll(points) || modified;
+        }
+
+        return modified;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#clear()
+     */
+    @Override
+    public void clear() {
+        this.buckets.clear();
+    }
+}
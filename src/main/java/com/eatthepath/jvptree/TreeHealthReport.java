@@ -0,0 +1,479 @@
+package com.eatthepath.jvptree;
+
+import java.util.Arrays;
+
+/**
+ * <p>A snapshot of the shape of a vp-tree, gathered in a single pass over the tree's nodes without calculating any
+ * distances. Health reports describe how deep the tree's leaves are, how full they are, how evenly the tree's branch
+ * nodes split their points, and roughly how much memory the tree's nodes and point locator occupy. Reports are cheap
+ * enough (linear in the number of nodes, not points) to gather periodically and export to a metrics system.</p>
+ *
+ * <p>Trees rebalance themselves incrementally as points are added and removed, but long periods of churn can still
+ * leave a tree deeper, sparser, or more cluttered with deleted points than a freshly-built tree. Reports estimate
+ * whether {@linkplain VPTree#rebuild() rebuilding} the tree from scratch would pay off; see
+ * {@link #isRebuildRecommended()}.</p>
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @see VPTree#getHealthReport()
+ */
+public class TreeHealthReport {
+
+    private final int size;
+    private final int nodeCapacity;
+
+    private final int branchNodeCount;
+    private final int leafNodeCount;
+    private final int oversizedLeafCount;
+    private final int deletedPointCount;
+
+    private final int[] leafDepthHistogram;
+    private final int[] leafSizeHistogram;
+    private final double[] balanceRatios;
+
+    private final double averagePointDepth;
+    private final long estimatedHeapBytes;
+
+    /**
+     * A rebuild is recommended if the average point is this many times deeper than it would be in a perfectly balanced
+     * tree (plus a little slack for small trees).
+     */
+    private static final double MAX_DEPTH_RATIO = 1.5;
+
+    /**
+     * A rebuild is recommended if leaves are, on average, less full than this share of their capacity.
+     */
+    private static final double MIN_LEAF_FILL = 0.25;
+
+    /**
+     * A rebuild is recommended if deleted points awaiting removal outnumber this share of the tree's live points.
+     */
+    private static final double MAX_DELETED_POINT_RATIO = 0.25;
+
+    // Estimates assume a 64-bit JVM with compressed object pointers
+    private static final int REFERENCE_BYTES = 4;
+    private static final int ARRAY_HEADER_BYTES = 16;
+    private static final int NODE_BYTES = 80;
+    private static final int ARRAY_LIST_BYTES = 24;
+    private static final int ARRAY_SLICE_BYTES = 24;
+    private static final int BIT_SET_BYTES = 24;
+    private static final int ATTRIBUTE_SUMMARY_BYTES = 64;
+    private static final int HASH_MAP_BYTES = 48;
+    private static final int HASH_MAP_ENTRY_BYTES = 32;
+    private static final int IDENTITY_HASH_MAP_BYTES = 40;
+
+    private static final double LN_2 = Math.log(2);
+
+    private static class ShapeAccumulator {
+        private int branchNodeCount;
+        private int leafNodeCount;
+        private int oversizedLeafCount;
+        private int deletedPointCount;
+
+        private int[] leafDepthHistogram = new int[0];
+        private int[] leafSizeHistogram = new int[0];
+
+        private double[] balanceRatioSums = new double[0];
+        private int[] branchNodesByDepth = new int[0];
+
+        private long totalPointDepth;
+        private long estimatedHeapBytes;
+
+        private void addLeaf(final int depth, final int liveSize) {
+            this.leafDepthHistogram = increment(this.leafDepthHistogram, depth);
+            this.leafSizeHistogram = increment(this.leafSizeHistogram, liveSize);
+            this.totalPointDepth += (long) depth * liveSize;
+        }
+
+        private void addBranch(final int depth, final double balanceRatio) {
+            if (depth >= this.branchNodesByDepth.length) {
+                this.branchNodesByDepth = Arrays.copyOf(this.branchNodesByDepth, depth + 1);
+                this.balanceRatioSums = Arrays.copyOf(this.balanceRatioSums, depth + 1);
+            }
+
+            this.branchNodesByDepth[depth] += 1;
+            this.balanceRatioSums[depth] += balanceRatio;
+        }
+
+        private static int[] increment(final int[] histogram, final int index) {
+            final int[] updatedHistogram = index < histogram.length ? histogram : Arrays.copyOf(histogram, index + 1);
+            updatedHistogram[index] += 1;
+
+            return updatedHistogram;
+        }
+    }
+
+    private TreeHealthReport(final int size, final int nodeCapacity, final ShapeAccumulator accumulator) {
+        this.size = size;
+        this.nodeCapacity = nodeCapacity;
+
+        this.branchNodeCount = accumulator.branchNodeCount;
+        this.leafNodeCount = accumulator.leafNodeCount;
+        this.oversizedLeafCount = accumulator.oversizedLeafCount;
+        this.deletedPointCount = accumulator.deletedPointCount;
+
+        this.leafDepthHistogram = accumulator.leafDepthHistogram;
+        this.leafSizeHistogram = accumulator.leafSizeHistogram;
+
+        this.balanceRatios = new double[accumulator.branchNodesByDepth.length];
+
+        for (int depth = 0; depth < this.balanceRatios.length; depth++) {
+            this.balanceRatios[depth] = accumulator.balanceRatioSums[depth] / accumulator.branchNodesByDepth[depth];
+        }
+
+        this.averagePointDepth = size > 0 ? (double) accumulator.totalPointDepth / size : 0;
+        this.estimatedHeapBytes = accumulator.estimatedHeapBytes;
+    }
+
+    /**
+     * Gathers a health report for the tree with the given root node.
+     *
+     * @param rootNode the root node of the tree to examine; may be {@code null} if the tree is empty
+     * @param nodeCapacity the tree's desired maximum leaf size
+     * @param locatorMode the tree's locator mode
+     *
+     * @return a health report for the given tree
+     */
+    static TreeHealthReport forTree(final VPTreeNode<?, ?> rootNode, final int nodeCapacity, final VPTree.LocatorMode locatorMode) {
+        final ShapeAccumulator accumulator = new ShapeAccumulator();
+        final int size = rootNode != null ? rootNode.size() : 0;
+
+        if (rootNode != null) {
+            examineNode(rootNode, 0, nodeCapacity, accumulator);
+        }
+
+        // Locators don't keep track of their own size, so we estimate it the same way we would for a freshly-built tree
+        if (size > 0) {
+            accumulator.estimatedHeapBytes += estimateLocatorBytes(size, locatorMode);
+        }
+
+        return new TreeHealthReport(size, nodeCapacity, accumulator);
+    }
+
+    private static void examineNode(final VPTreeNode<?, ?> node, final int depth, final int nodeCapacity, final ShapeAccumulator accumulator) {
+        accumulator.estimatedHeapBytes += NODE_BYTES;
+
+        if (node.getAttributeSummary() != null) {
+            accumulator.estimatedHeapBytes += ATTRIBUTE_SUMMARY_BYTES;
+        }
+
+        if (node.isLeaf()) {
+            final int storedPoints = node.getPoints().size();
+            final int liveSize = node.size();
+
+            accumulator.leafNodeCount += 1;
+            accumulator.deletedPointCount += node.getTombstoneCount();
+
+            // Leaves can only grow beyond their capacity if they couldn't be partitioned
+            if (liveSize > nodeCapacity) {
+                accumulator.oversizedLeafCount += 1;
+            }
+
+            accumulator.addLeaf(depth, liveSize);
+
+            accumulator.estimatedHeapBytes += node.getPoints() instanceof ArraySlice ?
+                    getLeafSliceBytes(storedPoints) : getLeafListBytes(storedPoints);
+
+            if (node.getTombstoneCount() > 0) {
+                accumulator.estimatedHeapBytes += BIT_SET_BYTES + align(ARRAY_HEADER_BYTES + (Long.BYTES * ((storedPoints + 63) / 64)));
+            }
+        } else {
+            accumulator.branchNodeCount += 1;
+
+            final int closerSize = node.getCloser().size();
+            final int fartherSize = node.getFarther().size();
+
+            accumulator.addBranch(depth, node.size() > 0 ? (double) Math.max(closerSize, fartherSize) / node.size() : 0.5);
+
+            examineNode(node.getCloser(), depth + 1, nodeCapacity, accumulator);
+            examineNode(node.getFarther(), depth + 1, nodeCapacity, accumulator);
+        }
+    }
+
+    private static long getLeafListBytes(final int storedPoints) {
+        return ARRAY_LIST_BYTES + getReferenceArrayBytes(storedPoints);
+    }
+
+    private static long getLeafSliceBytes(final int storedPoints) {
+        // Leaves that haven't changed since they were built share a single array with other leaves
+        return ARRAY_SLICE_BYTES + ((long) REFERENCE_BYTES * storedPoints);
+    }
+
+    private static long getReferenceArrayBytes(final long length) {
+        return align(ARRAY_HEADER_BYTES + (REFERENCE_BYTES * length));
+    }
+
+    private static long align(final long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    /**
+     * Estimates the heap memory, in bytes, that the nodes of a freshly-built tree with the given size and node
+     * capacity would occupy, assuming the tree has no point locator or attribute summaries. Estimates are made without
+     * building a tree and so may be used to size a heap in advance; they are computed on the same basis as
+     * {@link #getEstimatedHeapBytes()}, and so likewise assume a 64-bit JVM with compressed object pointers and do not
+     * include the memory occupied by the points themselves. Trees that have changed since they were built may occupy
+     * somewhat more memory.
+     *
+     * @param size the number of points in the tree
+     * @param nodeCapacity the tree's node capacity
+     *
+     * @return an estimate of the heap memory occupied by the nodes of a tree with the given size and node capacity
+     *
+     * @see #estimateHeapBytes(int, int, VPTree.LocatorMode, boolean)
+     */
+    public static long estimateHeapBytes(final int size, final int nodeCapacity) {
+        return estimateHeapBytes(size, nodeCapacity, VPTree.LocatorMode.NONE, false);
+    }
+
+    /**
+     * Estimates the heap memory, in bytes, that a freshly-built tree with the given size, node capacity, and options
+     * would occupy. Like {@link #getEstimatedHeapBytes()}, estimates include the memory occupied by the tree's point
+     * locator, if any.
+     *
+     * @param size the number of points in the tree
+     * @param nodeCapacity the tree's node capacity
+     * @param locatorMode the tree's locator mode
+     * @param summarizeAttributes {@code true} if the tree has an attribute function and so keeps an attribute summary
+     * for each node, or {@code false} otherwise
+     *
+     * @return an estimate of the heap memory occupied by a tree with the given size, node capacity, and options
+     *
+     * @see VPTree#setLocatorMode(VPTree.LocatorMode)
+     * @see VPTree#setAttributeFunction(java.util.function.Function)
+     */
+    public static long estimateHeapBytes(final int size, final int nodeCapacity, final VPTree.LocatorMode locatorMode, final boolean summarizeAttributes) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Size must not be negative.");
+        }
+
+        if (nodeCapacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+
+        if (size == 0) {
+            return 0;
+        }
+
+        return estimateNodeBytes(size, nodeCapacity, summarizeAttributes) +
+                estimateLocatorBytes(size, locatorMode);
+    }
+
+    private static long estimateNodeBytes(final int size, final int nodeCapacity, final boolean summarizeAttributes) {
+        final long bytesPerNode = NODE_BYTES + (summarizeAttributes ? ATTRIBUTE_SUMMARY_BYTES : 0);
+
+        // Nodes never split their points exactly in half, and so the sizes of the nodes that are eventually too small
+        // to partition are smeared more or less evenly (on a logarithmic scale) between half of the node capacity and
+        // the full node capacity. That puts the average leaf at about ln(2) of the node capacity.
+        final long leafNodeCount = size <= nodeCapacity ? 1 : Math.max(2, Math.round(size / (nodeCapacity * LN_2)));
+
+        // All of the leaves in a freshly-built tree share a single array of points
+        return (bytesPerNode * ((2 * leafNodeCount) - 1)) + (ARRAY_SLICE_BYTES * leafNodeCount) +
+                ((long) REFERENCE_BYTES * size);
+    }
+
+    /**
+     * Estimates the heap memory, in bytes, occupied by a point locator with the given mode that holds the given number
+     * of points.
+     */
+    private static long estimateLocatorBytes(final int size, final VPTree.LocatorMode locatorMode) {
+        switch (locatorMode) {
+            case NONE: {
+                return 0;
+            }
+
+            case EQUALITY: {
+                // Hash maps grow their tables (by powers of two) to keep them no more than three-quarters full
+                int tableLength = 16;
+
+                while (size > tableLength * 0.75) {
+                    tableLength *= 2;
+                }
+
+                return HASH_MAP_BYTES + getReferenceArrayBytes(tableLength) + ((long) HASH_MAP_ENTRY_BYTES * size);
+            }
+
+            case IDENTITY: {
+                // Identity hash maps store keys and values side by side in a table that's kept at most a third full
+                long tableLength = 64;
+
+                while (size * 3L > tableLength) {
+                    tableLength *= 2;
+                }
+
+                return IDENTITY_HASH_MAP_BYTES + getReferenceArrayBytes(tableLength);
+            }
+
+            default: {
+                throw new IllegalArgumentException("Unexpected locator mode: " + locatorMode);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of live points in the tree.
+     *
+     * @return the number of live points in the tree
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * Returns the number of branch (non-leaf) nodes in the tree.
+     *
+     * @return the number of branch nodes in the tree
+     */
+    public int getBranchNodeCount() {
+        return this.branchNodeCount;
+    }
+
+    /**
+     * Returns the number of leaf nodes in the tree.
+     *
+     * @return the number of leaf nodes in the tree
+     */
+    public int getLeafNodeCount() {
+        return this.leafNodeCount;
+    }
+
+    /**
+     * Returns the number of leaf nodes that hold more points than the tree's node capacity. Leaves only grow beyond
+     * their capacity if their points could not be partitioned (for example, because all of the leaf's points are the
+     * same distance from every candidate vantage point); searches must examine every point in an oversized leaf.
+     *
+     * @return the number of oversized leaf nodes in the tree
+     */
+    public int getOversizedLeafCount() {
+        return this.oversizedLeafCount;
+    }
+
+    /**
+     * Returns the number of removed points that are still stored in leaf nodes awaiting removal.
+     *
+     * @return the number of deleted points still stored in the tree
+     *
+     * @see VPTree#setTombstoneThreshold(double)
+     */
+    public int getDeletedPointCount() {
+        return this.deletedPointCount;
+    }
+
+    /**
+     * Returns a histogram of the depths of the tree's leaf nodes. The element at index {@code i} of the returned array
+     * is the number of leaves at depth {@code i}; the root node is at depth 0.
+     *
+     * @return a histogram of the depths of the tree's leaf nodes
+     */
+    public int[] getLeafDepthHistogram() {
+        return this.leafDepthHistogram.clone();
+    }
+
+    /**
+     * Returns a histogram of the sizes of the tree's leaf nodes. The element at index {@code i} of the returned array
+     * is the number of leaves that hold exactly {@code i} live points.
+     *
+     * @return a histogram of the sizes of the tree's leaf nodes
+     */
+    public int[] getLeafSizeHistogram() {
+        return this.leafSizeHistogram.clone();
+    }
+
+    /**
+     * Returns the average balance ratio of the tree's branch nodes at each depth. A branch node's balance ratio is the
+     * share of its points held by its larger child; a perfectly-balanced node has a balance ratio of 0.5, and a node
+     * whose points are all in one child has a balance ratio of 1. The element at index {@code i} of the returned array
+     * is the average balance ratio of the branch nodes at depth {@code i}.
+     *
+     * @return the average balance ratio of the tree's branch nodes at each depth
+     *
+     * @see VPTree#setSkewFactor(double)
+     */
+    public double[] getBalanceRatios() {
+        return this.balanceRatios.clone();
+    }
+
+    /**
+     * Returns the depth of the deepest leaf node in the tree.
+     *
+     * @return the depth of the deepest leaf node in the tree
+     */
+    public int getMaxDepth() {
+        return Math.max(this.leafDepthHistogram.length - 1, 0);
+    }
+
+    /**
+     * Returns the average depth of the leaf nodes that hold the tree's points, weighted by the number of points in each
+     * leaf. This approximates the number of branch nodes a typical search must visit to reach a point's leaf.
+     *
+     * @return the average depth of the tree's points
+     */
+    public double getAveragePointDepth() {
+        return this.averagePointDepth;
+    }
+
+    /**
+     * Returns the depth a point would have in a perfectly-balanced tree with the same size and node capacity as the
+     * examined tree.
+     *
+     * @return the depth of points in an ideal tree of the same size
+     */
+    public int getIdealDepth() {
+        final int fullLeaves = (this.size + this.nodeCapacity - 1) / this.nodeCapacity;
+        return fullLeaves > 1 ? 32 - Integer.numberOfLeadingZeros(fullLeaves - 1) : 0;
+    }
+
+    /**
+     * Returns a rough estimate of the heap memory, in bytes, occupied by the tree's nodes, their internal structures,
+     * and the tree's point locator, if any. The estimate assumes a 64-bit JVM with compressed object pointers and does
+     * not include the memory occupied by the points themselves.
+     *
+     * @return an estimate of the heap memory occupied by the tree's nodes and point locator
+     */
+    public long getEstimatedHeapBytes() {
+        return this.estimatedHeapBytes;
+    }
+
+    /**
+     * Indicates whether rebuilding the tree from scratch would likely make searches noticeably faster or save a
+     * noticeable amount of memory. A rebuild is recommended if any of the following are true:
+     *
+     * <ul>
+     *  <li>The average point is much deeper than it would be in an ideal tree of the same size.</li>
+     *  <li>Leaves are, on average, less than a quarter full (which typically happens after many removals).</li>
+     *  <li>Deleted points still stored in leaves outnumber a quarter of the tree's live points.</li>
+     * </ul>
+     *
+     * @return {@code true} if rebuilding the tree is recommended or {@code false} otherwise
+     *
+     * @see VPTree#rebuild()
+     */
+    public boolean isRebuildRecommended() {
+        if (this.size == 0) {
+            return this.leafNodeCount > 0 && this.deletedPointCount > 0;
+        }
+
+        final boolean tooDeep = this.averagePointDepth > (this.getIdealDepth() * MAX_DEPTH_RATIO) + 1;
+        final boolean tooSparse = this.leafNodeCount > 1 &&
+                (double) this.size / ((long) this.leafNodeCount * this.nodeCapacity) < MIN_LEAF_FILL;
+        final boolean tooManyDeletedPoints = this.deletedPointCount > MAX_DELETED_POINT_RATIO * this.size;
+
+        return tooDeep || tooSparse || tooManyDeletedPoints;
+    }
+
+    @Override
+    public String toString() {
+        return "TreeHealthReport{" +
+                "size=" + this.size +
+                ", branchNodeCount=" + this.branchNodeCount +
+                ", leafNodeCount=" + this.leafNodeCount +
+                ", oversizedLeafCount=" + this.oversizedLeafCount +
+                ", deletedPointCount=" + this.deletedPointCount +
+                ", maxDepth=" + this.getMaxDepth() +
+                ", averagePointDepth=" + this.averagePointDepth +
+                ", idealDepth=" + this.getIdealDepth() +
+                ", estimatedHeapBytes=" + this.estimatedHeapBytes +
+                ", rebuildRecommended=" + this.isRebuildRecommended() +
+                '}';
+    }
+}
@@ -5,7 +5,12 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
+import com.eatthepath.jvptree.util.ProfilingDistanceFunction.Phase;
 import com.eatthepath.jvptree.util.SamplingMedianDistanceThresholdSelectionStrategy;
 
 /**
@@ -31,13 +36,68 @@ import com.eatthepath.jvptree.util.SamplingMedianDistanceThresholdSelectionStrat
 public class VPTree<P, E extends P> implements SpatialIndex<P, E> {
 
     private final DistanceFunction<P> distanceFunction;
-    private final ThresholdSelectionStrategy<P, E> thresholdSelectionStrategy;
-    private final int nodeCapacity;
+    private final VPTreeContext<P, E> context;
 
     private VPTreeNode<P, E> rootNode;
 
+    private AggregateQueryStatistics aggregateQueryStatistics;
+
     public static final int DEFAULT_NODE_CAPACITY = 32;
 
+    /**
+     * The default skew factor for new trees.
+     *
+     * @see #setSkewFactor(double)
+     */
+    public static final double DEFAULT_SKEW_FACTOR = 0.75;
+
+    /**
+     * The default maximum rebuild size for new trees, which places no limit on the size of nodes that may be rebuilt.
+     *
+     * @see #setMaxRebuildSize(int)
+     */
+    public static final int DEFAULT_MAX_REBUILD_SIZE = Integer.MAX_VALUE;
+
+    /**
+     * The default tombstone threshold for new trees.
+     *
+     * @see #setTombstoneThreshold(double)
+     */
+    public static final double DEFAULT_TOMBSTONE_THRESHOLD = 0;
+
+    /**
+     * The default brute-force selectivity for new trees.
+     *
+     * @see #setBruteForceSelectivity(double)
+     */
+    public static final double DEFAULT_BRUTE_FORCE_SELECTIVITY = 0.01;
+
+    /**
+     * Ways in which a vp-tree can find points it contains without searching the tree.
+     *
+     * @see VPTree#setLocatorMode(LocatorMode)
+     */
+    public enum LocatorMode {
+        /**
+         * Points are found by searching the tree; this is the default mode.
+         */
+        NONE,
+
+        /**
+         * Points are found with a hash table that matches points by equality.
+         */
+        EQUALITY,
+
+        /**
+         * Points are found with a hash table that matches points by identity.
+         */
+        IDENTITY
+    }
+
+    // Trees with an equality locator remove sets of points by sweeping the whole tree only if the set is at least this
+    // large a fraction of the tree; smaller sets are cheaper to remove one point at a time through the locator
+    private static final double LOCATOR_SWEEP_FRACTION = 0.25;
+
     private static final PointFilter<Object> NO_OP_POINT_FILTER = new PointFilter<Object>() {
 
         @Override
@@ -122,18 +182,317 @@ public class VPTree<P, E extends P> implements SpatialIndex<P, E> {
      */
     public VPTree(final DistanceFunction<P> distanceFunction, final ThresholdSelectionStrategy<P, E> thresholdSelectionStrategy, final int nodeCapacity, final Collection<E> points) {
         this.distanceFunction = distanceFunction;
-        this.thresholdSelectionStrategy = thresholdSelectionStrategy;
-        this.nodeCapacity = nodeCapacity;
+        this.context = new VPTreeContext<>(distanceFunction, thresholdSelectionStrategy, nodeCapacity);
 
         if (points != null && !points.isEmpty()) {
-            this.rootNode = new VPTreeNode<>(
-                    points,
-                    this.distanceFunction,
-                    this.thresholdSelectionStrategy,
-                    this.nodeCapacity);
+            final Phase previousPhase = this.context.enterPhase(Phase.BUILD);
+
+            try {
+                this.rootNode = new VPTreeNode<>(points, this.context);
+            } finally {
+                this.context.exitPhase(previousPhase);
+            }
         }
     }
 
+    /**
+     * Returns this tree's skew factor.
+     *
+     * @return this tree's skew factor
+     *
+     * @see #setSkewFactor(double)
+     */
+    public double getSkewFactor() {
+        return this.context.getSkewFactor();
+    }
+
+    /**
+     * <p>Sets the largest share of a node's points that may be held by one of that node's children before the node is
+     * rebuilt. Vantage points and thresholds are chosen to split points evenly when nodes are constructed, but points
+     * added or removed later may leave parts of the tree lopsided, which makes searches slower. When points are added
+     * or removed, nodes along the affected path whose larger child holds more than {@code skewFactor} of the node's
+     * points are rebuilt with a new vantage point and threshold.</p>
+     *
+     * <p>Nodes are only rebuilt after enough points have been added or removed below them that they could have become
+     * lopsided since they were last built, and so the cost of rebuilding is spread across many mutations. The bound on
+     * rebuilding work is amortized, not per-mutation: over any sequence of mutations, each one pays for at most
+     * {@code 1 / (skewFactor - 0.5)} point moves at each level of the tree, but a single mutation that tips a large
+     * node out of balance rebuilds that node on the caller's thread, and if that node is the root, the mutation takes
+     * time linear in the size of the tree unless the tree has a {@linkplain #setMaxRebuildSize(int) maximum rebuild
+     * size}. Lower skew factors keep the tree more closely balanced (and searches faster) at the cost of more frequent
+     * rebuilds; a skew factor of 1 disables rebuilding entirely. The default skew factor is
+     * {@value #DEFAULT_SKEW_FACTOR}.</p>
+     *
+     * @param skewFactor the largest share of a node's points that may be held by one of its children; must be greater
+     * than 0.5 and no greater than 1
+     */
+    public void setSkewFactor(final double skewFactor) {
+        this.context.setSkewFactor(skewFactor);
+    }
+
+    /**
+     * Returns the largest number of points a node may hold and still be rebuilt as part of adding or removing a point.
+     *
+     * @return this tree's maximum rebuild size
+     *
+     * @see #setMaxRebuildSize(int)
+     */
+    public int getMaxRebuildSize() {
+        return this.context.getMaxRebuildSize();
+    }
+
+    /**
+     * <p>Sets the largest number of points a node may hold and still be rebuilt as part of adding or removing a point.
+     * Nodes that become lopsided as points are added or removed are rebuilt on the caller's thread (see
+     * {@link #setSkewFactor(double)}), and so without a limit, an unlucky mutation may rebuild the whole tree. With a
+     * limit, no node that holds more than {@code maxRebuildSize} points is ever rebuilt by a mutation; nodes that do
+     * are left lopsided, and only the nodes below them keep rebalancing themselves. Every node a mutation rebuilds
+     * lies on the path to the point that was added or removed, and so a single mutation moves at most
+     * {@code maxRebuildSize} points at each level of the tree.</p>
+     *
+     * <p>Searches in a tree with lopsided nodes are still correct, but may be slower. Callers that set a limit should
+     * {@linkplain #rebuild() rebuild} the tree at a convenient time when its {@linkplain #getHealthReport() health
+     * report} recommends it. The default maximum rebuild size is {@value #DEFAULT_MAX_REBUILD_SIZE}, which places no
+     * limit on the size of nodes that may be rebuilt.</p>
+     *
+     * @param maxRebuildSize the largest number of points a node may hold and still be rebuilt by a mutation; must be
+     * positive
+     */
+    public void setMaxRebuildSize(final int maxRebuildSize) {
+        this.context.setMaxRebuildSize(maxRebuildSize);
+    }
+
+    /**
+     * Returns this tree's tombstone threshold.
+     *
+     * @return this tree's tombstone threshold
+     *
+     * @see #setTombstoneThreshold(double)
+     */
+    public double getTombstoneThreshold() {
+        return this.context.getTombstoneThreshold();
+    }
+
+    /**
+     * <p>Sets the share of a leaf node's points that may be marked as deleted before the deleted points are physically
+     * removed from the node. Removing a point marks it with a "tombstone" that queries, iterators, and all other
+     * operations respect, but leaves it in place in its leaf's list of points; once tombstones make up more than
+     * {@code tombstoneThreshold} of a leaf's points, the leaf is compacted in a single pass. Higher thresholds make
+     * removals cheaper (especially bulk removals via {@link #removeAll(Collection)} with a {@link Set} or
+     * {@link #removeIf(Predicate)}) at the cost of leaving more dead points for queries to skip. Deleted points are
+     * only ever purged by operations that modify the tree; operations that only read the tree skip them.</p>
+     *
+     * <p>The default threshold is {@value #DEFAULT_TOMBSTONE_THRESHOLD}, which removes points from leaf nodes
+     * immediately.</p>
+     *
+     * @param tombstoneThreshold the share of a leaf node's points that may be marked as deleted before the leaf is
+     * compacted; must be at least 0 and less than 1
+     */
+    public void setTombstoneThreshold(final double tombstoneThreshold) {
+        this.context.setTombstoneThreshold(tombstoneThreshold);
+    }
+
+    /**
+     * Returns this tree's locator mode.
+     *
+     * @return this tree's locator mode
+     *
+     * @see #setLocatorMode(LocatorMode)
+     */
+    public LocatorMode getLocatorMode() {
+        final PointLocator<P, E> locator = this.context.getPointLocator();
+
+        if (locator == null) {
+            return LocatorMode.NONE;
+        } else {
+            return locator.isMatchByIdentity() ? LocatorMode.IDENTITY : LocatorMode.EQUALITY;
+        }
+    }
+
+    /**
+     * <p>Sets the way in which this tree finds points it contains. By default, {@link #contains(Object)},
+     * {@link #remove(Object)}, and related methods search for points by walking from the root of the tree to the leaf
+     * that should contain the point, which requires a distance calculation at every level of the tree. Trees may
+     * instead maintain a hash table that maps each point to the leaf that contains it, in which case finding a point
+     * requires no distance calculations at all. The hash table costs memory in proportion to the number of points in
+     * the tree and a small amount of extra time whenever points are added, removed, or moved between nodes.</p>
+     *
+     * <p>A tree with a {@link LocatorMode#EQUALITY} locator finds points that are {@linkplain Object#equals(Object)
+     * equal} to the given point, just like a tree without a locator; points must have {@link Object#hashCode()}
+     * implementations consistent with {@code equals}. A tree with a {@link LocatorMode#IDENTITY} locator only finds the
+     * very same instance as the given point.</p>
+     *
+     * <p>Changing locator modes requires visiting every point in the tree.</p>
+     *
+     * @param locatorMode the way in which this tree should find points it contains
+     */
+    public void setLocatorMode(final LocatorMode locatorMode) {
+        this.context.setPointLocator(locatorMode == LocatorMode.NONE ?
+                null : new PointLocator<>(locatorMode == LocatorMode.IDENTITY));
+
+        if (this.rootNode != null) {
+            this.rootNode.registerAllPoints();
+        }
+    }
+
+    /**
+     * Returns the function this tree uses to extract the attribute values it summarizes.
+     *
+     * @return this tree's attribute function, or {@code null} if this tree does not summarize attribute values
+     *
+     * @see #setAttributeFunction(Function)
+     */
+    public Function<? super E, ?> getAttributeFunction() {
+        return this.context.getAttributeFunction();
+    }
+
+    /**
+     * <p>Sets the function this tree uses to extract attribute values (a tenant or category identifier, for example)
+     * from its points. When a tree has an attribute function, each of its nodes keeps a small, approximate
+     * {@linkplain AttributeSummary summary} of the attribute values of the points in or below that node, and searches
+     * with an {@link AttributeFilter} skip any node whose summary the filter rejects without calculating any
+     * distances.</p>
+     *
+     * <p>Summaries are kept up to date as points are added, but values of removed points may linger in summaries until
+     * the affected nodes are rebuilt; this makes searches less selective, but never incorrect. Summaries cost a few
+     * dozen bytes per node and an extra call to the attribute function for each point added to the tree. Setting an
+     * attribute function requires visiting every point in the tree.</p>
+     *
+     * @param attributeFunction the function with which to extract attribute values from points, or {@code null} to
+     * stop summarizing attribute values
+     */
+    public void setAttributeFunction(final Function<? super E, ?> attributeFunction) {
+        this.context.setAttributeFunction(attributeFunction);
+
+        if (this.rootNode != null) {
+            this.rootNode.updateAllAttributeSummaries();
+        }
+    }
+
+    /**
+     * Returns this tree's brute-force selectivity.
+     *
+     * @return this tree's brute-force selectivity
+     *
+     * @see #setBruteForceSelectivity(double)
+     */
+    public double getBruteForceSelectivity() {
+        return this.context.getBruteForceSelectivity();
+    }
+
+    /**
+     * <p>Sets the estimated share of this tree's points that an {@link AttributeFilter} may allow before searches stop
+     * scanning allowed points directly and start searching the tree normally. Before searching a tree that has an
+     * {@linkplain #setAttributeFunction(Function) attribute function} with an attribute filter, the tree first gathers
+     * the leaves whose attribute summaries the filter allows (which requires no distance calculations). If those
+     * leaves hold no more than {@code bruteForceSelectivity} of the tree's points, the tree calculates the distance to
+     * each allowed point in those leaves instead of searching from the root; for very selective filters, this avoids
+     * calculating distances to vantage points of subtrees that hold few or no allowed points.</p>
+     *
+     * <p>The default brute-force selectivity is {@value #DEFAULT_BRUTE_FORCE_SELECTIVITY}; a brute-force selectivity
+     * of 0 only skips searching the tree when no points can pass the filter.</p>
+     *
+     * @param bruteForceSelectivity the largest estimated share of this tree's points a filter may allow before searches
+     * use the tree normally; must be between 0 and 1
+     */
+    public void setBruteForceSelectivity(final double bruteForceSelectivity) {
+        this.context.setBruteForceSelectivity(bruteForceSelectivity);
+    }
+
+    /**
+     * Returns the aggregate statistics in which this tree records the work done by its queries.
+     *
+     * @return this tree's aggregate query statistics, or {@code null} if this tree does not record statistics for every
+     * query
+     *
+     * @see #setAggregateQueryStatistics(AggregateQueryStatistics)
+     */
+    public AggregateQueryStatistics getAggregateQueryStatistics() {
+        return this.aggregateQueryStatistics;
+    }
+
+    /**
+     * Sets the aggregate statistics in which this tree records the work done by every nearest-neighbor and distance
+     * query it performs. Queries against a tree with aggregate statistics use an instrumented search that counts
+     * distance calculations, nodes visited, and so on; queries against a tree without aggregate statistics (the
+     * default) use an uninstrumented search and pay nothing for statistics. A single aggregate may be shared by many
+     * trees and by queries running on many threads.
+     *
+     * @param aggregateQueryStatistics the aggregate statistics in which to record the work done by queries, or
+     * {@code null} to stop recording statistics for every query
+     *
+     * @see #getNearestNeighbors(Object, int, PointFilter, QueryStatistics)
+     * @see #getAllWithinDistance(Object, double, PointFilter, QueryStatistics)
+     */
+    public void setAggregateQueryStatistics(final AggregateQueryStatistics aggregateQueryStatistics) {
+        this.aggregateQueryStatistics = aggregateQueryStatistics;
+    }
+
+    /**
+     * Returns the listener this tree notifies about queries, rebuilds, and partition failures.
+     *
+     * @return this tree's listener, or {@code null} if this tree does not have a listener
+     *
+     * @see #setListener(VPTreeListener)
+     */
+    public VPTreeListener getListener() {
+        return this.context.getListener();
+    }
+
+    /**
+     * Sets the listener this tree notifies about nearest-neighbor and distance queries, rebuilt nodes, and failed
+     * attempts to partition nodes. Like {@linkplain #setAggregateQueryStatistics(AggregateQueryStatistics) aggregate
+     * statistics}, a listener makes this tree use instrumented searches, but only while the listener reports that it's
+     * {@linkplain VPTreeListener#isEnabled() enabled}; trees without a listener (the default) or with a disabled
+     * listener pay nothing for query events.
+     *
+     * @param listener the listener to notify about events in this tree, or {@code null} to stop notifying a listener
+     */
+    public void setListener(final VPTreeListener listener) {
+        this.context.setListener(listener);
+    }
+
+    /**
+     * Examines the shape of this tree and returns a report describing its depth, balance, leaf sizes, and approximate
+     * memory footprint. Gathering a report visits every node in the tree, but does not calculate any distances or
+     * visit individual points.
+     *
+     * @return a report describing the shape of this tree
+     */
+    public TreeHealthReport getHealthReport() {
+        return TreeHealthReport.forTree(this.rootNode, this.context.getNodeCapacity(), this.getLocatorMode());
+    }
+
+    /**
+     * Rebuilds this tree from scratch with newly-chosen vantage points. Rebuilding a tree takes roughly as long as
+     * constructing a new tree with the same points, but restores the tree's balance and releases memory held for
+     * removed points. Trees rebalance themselves incrementally as they change, and so rebuilding is only worthwhile
+     * after long periods of churn; see {@link TreeHealthReport#isRebuildRecommended()}.
+     */
+    public void rebuild() {
+        if (this.rootNode != null) {
+            if (this.rootNode.size() == 0) {
+                this.clear();
+            } else {
+                final Phase previousPhase = this.context.enterPhase(Phase.REBUILD);
+
+                try {
+                    this.rootNode.rebuild();
+                } finally {
+                    this.context.exitPhase(previousPhase);
+                }
+            }
+        }
+    }
+
+    DistanceFunction<P> getDistanceFunction() {
+        return this.distanceFunction;
+    }
+
+    VPTreeNode<P, E> getRootNode() {
+        return this.rootNode;
+    }
+
     /*
      * (non-Javadoc)
      * @see com.eatthepath.jvptree.SpatialIndex#getNearestNeighbors(java.lang.Object, int)
@@ -153,7 +512,57 @@ public class VPTree<P, E extends P> implements SpatialIndex<P, E> {
             final NearestNeighborCollector<P, E> collector =
                     new NearestNeighborCollector<>(queryPoint, this.distanceFunction, maxResults);
 
-            this.rootNode.collectNearestNeighbors(collector, filter);
+            this.collectNearestNeighbors(collector, maxResults, filter, null);
+
+            nearestNeighbors = collector.toSortedList();
+        }
+
+        return nearestNeighbors;
+    }
+
+    /**
+     * Finds the nearest neighbors accepted by the given filter to a given query point and places them in the given
+     * collector, replacing any results from previous queries. Callers that issue many queries may reuse a single
+     * collector to avoid allocating new result objects for each query; the collector will only allocate memory if
+     * {@code maxResults} is larger than in any previous query that used the same collector.
+     *
+     * @param queryPoint the point for which to find neighbors
+     * @param maxResults the maximum number of neighbors to find
+     * @param filter a filter to apply to each element to determine if it should be included in the set of neighbors
+     * @param collector the collector in which to place the nearest neighbors to the given query point; results may be
+     * read from the collector in order of increasing distance from the query point once this method returns
+     */
+    public void getNearestNeighbors(final P queryPoint, final int maxResults, final PointFilter<? super E> filter, final NearestNeighborCollector<P, E> collector) {
+        collector.reset(queryPoint, this.distanceFunction, maxResults);
+
+        if (this.rootNode != null) {
+            this.collectNearestNeighbors(collector, maxResults, filter, null);
+        }
+    }
+
+    /**
+     * Returns a list of the nearest neighbors to a given query point that match the given filter, recording the work
+     * done by the search in the given statistics. The returned list is sorted by increasing distance from the query
+     * point.
+     *
+     * @param queryPoint the point for which to find neighbors
+     * @param maxResults the maximum length of the returned list
+     * @param filter a filter to apply to each element to determine if it should be included in the set of neighbors
+     * @param statistics the statistics to which to add the work done by this query; callers may pass a
+     * {@link QueryTrace} to record each step of the search
+     *
+     * @return a list of the nearest neighbors to the given query point
+     */
+    public List<E> getNearestNeighbors(final P queryPoint, final int maxResults, final PointFilter<? super E> filter, final QueryStatistics statistics) {
+        final List<E> nearestNeighbors;
+
+        if (this.rootNode == null) {
+            nearestNeighbors = null;
+        } else {
+            final NearestNeighborCollector<P, E> collector =
+                    new NearestNeighborCollector<>(queryPoint, this.distanceFunction, maxResults);
+
+            this.collectNearestNeighbors(collector, maxResults, filter, statistics);
 
             nearestNeighbors = collector.toSortedList();
         }
@@ -161,6 +570,121 @@ public class VPTree<P, E extends P> implements SpatialIndex<P, E> {
         return nearestNeighbors;
     }
 
+    /**
+     * Gathers nearest neighbors into the given collector without resetting it, so the collector may share a distance
+     * bound with searches of other trees. Like public queries, this records the search in this tree's statistics,
+     * listener, and profiling phase, and may scan a few leaves directly instead of searching from the root.
+     *
+     * @param collector the collector to which to offer candidate points
+     * @param maxResults the maximum number of neighbors to find
+     * @param filter a filter to apply to each candidate point
+     */
+    void collectNearestNeighbors(final NearestNeighborCollector<P, E> collector, final int maxResults, final PointFilter<? super E> filter) {
+        if (this.rootNode != null) {
+            this.collectNearestNeighbors(collector, maxResults, filter, null);
+        }
+    }
+
+    /**
+     * Gathers nearest neighbors into the given collector. If anything wants to know about the query (the caller, this
+     * tree's aggregate statistics, or this tree's listener while it's {@linkplain VPTreeListener#isEnabled() enabled}),
+     * this uses an instrumented search; otherwise, it uses a plain search that pays nothing for instrumentation.
+     *
+     * @param statistics the statistics to which to add the work done by the query; may be {@code null}
+     */
+    private void collectNearestNeighbors(final NearestNeighborCollector<P, E> collector, final int maxResults, final PointFilter<? super E> filter, final QueryStatistics statistics) {
+        final Phase previousPhase = this.context.enterPhase(Phase.QUERY);
+
+        try {
+            this.collectNearestNeighbors(collector, maxResults, filter, statistics, this.getLeavesToScan(filter));
+        } finally {
+            this.context.exitPhase(previousPhase);
+        }
+    }
+
+    private void collectNearestNeighbors(final NearestNeighborCollector<P, E> collector, final int maxResults, final PointFilter<? super E> filter, final QueryStatistics statistics, final List<VPTreeNode<P, E>> leavesToScan) {
+        final VPTreeListener queryListener = this.getQueryListener();
+
+        if (statistics == null && this.aggregateQueryStatistics == null && queryListener == null) {
+            if (leavesToScan == null) {
+                this.rootNode.collectNearestNeighbors(collector, filter);
+            } else {
+                for (final VPTreeNode<P, E> leaf : leavesToScan) {
+                    leaf.collectNearestNeighbors(collector, filter);
+                }
+            }
+        } else {
+            final long startNanos = System.nanoTime();
+            final QueryStatistics searchStatistics = statistics != null ? statistics : new QueryStatistics();
+            final QueryStatistics snapshot = searchStatistics.copy();
+
+            if (leavesToScan == null) {
+                this.rootNode.collectNearestNeighbors(collector, filter, searchStatistics);
+            } else {
+                for (final VPTreeNode<P, E> leaf : leavesToScan) {
+                    leaf.collectNearestNeighbors(collector, filter, searchStatistics);
+                }
+            }
+
+            final QueryStatistics queryStatistics = this.recordQueryStatistics(searchStatistics, snapshot);
+
+            if (queryListener != null) {
+                queryListener.nearestNeighborQueryCompleted(maxResults, collector.size(), queryStatistics,
+                        System.nanoTime() - startNanos);
+            }
+        }
+    }
+
+    /**
+     * Returns this tree's listener if it has one and it currently wants to hear about queries.
+     *
+     * @return this tree's listener, or {@code null} if this tree has no listener or its listener is disabled
+     *
+     * @see VPTreeListener#isEnabled()
+     */
+    private VPTreeListener getQueryListener() {
+        final VPTreeListener listener = this.context.getListener();
+        return listener != null && listener.isEnabled() ? listener : null;
+    }
+
+    /**
+     * Adds the work done by a finished query to this tree's aggregate statistics (if any). Searches record their work
+     * directly in the caller's statistics (which may be a {@link QueryTrace} that needs to see each step of the search)
+     * or a fresh statistics object, so the work done by this query alone is the difference from a snapshot taken before
+     * the search began.
+     *
+     * @return the work done by the finished query
+     */
+    private QueryStatistics recordQueryStatistics(final QueryStatistics searchStatistics, final QueryStatistics snapshot) {
+        final QueryStatistics queryStatistics = searchStatistics.since(snapshot);
+
+        if (this.aggregateQueryStatistics != null) {
+            this.aggregateQueryStatistics.add(queryStatistics);
+        }
+
+        return queryStatistics;
+    }
+
+    /**
+     * Decides whether a search with the given filter should scan a few leaves directly instead of searching from the
+     * root of the tree.
+     *
+     * @return the leaves to scan, or {@code null} if the search should start from the root of the tree
+     *
+     * @see #setBruteForceSelectivity(double)
+     */
+    private List<VPTreeNode<P, E>> getLeavesToScan(final PointFilter<? super E> filter) {
+        if (this.context.getAttributeFunction() == null || !(filter instanceof AttributeFilter)) {
+            return null;
+        }
+
+        final int maxPoints = (int) (this.context.getBruteForceSelectivity() * this.rootNode.size());
+        final List<VPTreeNode<P, E>> leaves = new ArrayList<>();
+
+        return this.rootNode.collectCandidateLeaves((AttributeFilter<?>) filter, leaves, maxPoints) <= maxPoints ?
+                leaves : null;
+    }
+
     /*
      * (non-Javadoc)
      * @see com.eatthepath.jvptree.SpatialIndex#getAllWithinRange(java.lang.Object, double)
@@ -178,12 +702,325 @@ public class VPTree<P, E extends P> implements SpatialIndex<P, E> {
             pointsWithinRange = null;
         } else {
             pointsWithinRange = new ArrayList<>();
-            this.rootNode.collectAllWithinDistance(queryPoint, maxDistance, pointsWithinRange, filter);
+            this.forEachWithinDistance(queryPoint, maxDistance, filter, (point, distance) -> pointsWithinRange.add(point));
+        }
+
+        return pointsWithinRange;
+    }
+
+    /**
+     * Returns all points within a given distance of a query point that match the given filter, recording the work done
+     * by the search in the given statistics. The returned list is not sorted.
+     *
+     * @param queryPoint the point for which to find neighbors
+     * @param maxDistance the maximum allowable distance from the query point; points farther away than
+     * {@code maxDistance} will be excluded from the returned list
+     * @param filter a filter to apply to each element to determine if it should be included in the returned list
+     * @param statistics the statistics to which to add the work done by this query; callers may pass a
+     * {@link QueryTrace} to record each step of the search
+     *
+     * @return a list of all points within the given distance of the query point
+     */
+    public List<E> getAllWithinDistance(final P queryPoint, final double maxDistance, final PointFilter<? super E> filter, final QueryStatistics statistics) {
+        final List<E> pointsWithinRange;
+
+        if (this.rootNode == null) {
+            pointsWithinRange = null;
+        } else {
+            pointsWithinRange = new ArrayList<>();
+            this.visitAllWithinDistance(queryPoint, maxDistance, filter,
+                    (point, distance) -> pointsWithinRange.add(point), statistics);
+        }
+
+        return pointsWithinRange;
+    }
+
+    /**
+     * Passes each point within a given distance of a query point, along with its distance from the query point, to the
+     * given consumer. Points are passed to the consumer in no particular order. Unlike
+     * {@link #getAllWithinDistance(Object, double)}, this method does not allocate a collection of results.
+     *
+     * @param queryPoint the point for which to find neighbors
+     * @param maxDistance the maximum allowable distance from the query point; points farther away than
+     * {@code maxDistance} will not be passed to the consumer
+     * @param consumer the consumer to which to pass points within the given distance of the query point
+     */
+    public void forEachWithinDistance(final P queryPoint, final double maxDistance, final PointConsumer<? super E> consumer) {
+        this.forEachWithinDistance(queryPoint, maxDistance, NO_OP_POINT_FILTER, consumer);
+    }
+
+    /**
+     * Passes each point within a given distance of a query point that matches the given filter, along with its distance
+     * from the query point, to the given consumer. Points are passed to the consumer in no particular order.
+     *
+     * @param queryPoint the point for which to find neighbors
+     * @param maxDistance the maximum allowable distance from the query point; points farther away than
+     * {@code maxDistance} will not be passed to the consumer
+     * @param filter a filter to apply to each element to determine if it should be passed to the consumer
+     * @param consumer the consumer to which to pass points within the given distance of the query point
+     */
+    public void forEachWithinDistance(final P queryPoint, final double maxDistance, final PointFilter<? super E> filter, final PointConsumer<? super E> consumer) {
+        if (this.rootNode != null) {
+            this.visitAllWithinDistance(queryPoint, maxDistance, filter, consumer, null);
+        }
+    }
+
+    /**
+     * Passes points within the given distance of the query point to the given consumer, choosing between instrumented
+     * and plain searches in the same way as
+     * {@link #collectNearestNeighbors(NearestNeighborCollector, int, PointFilter, QueryStatistics)}.
+     *
+     * @param statistics the statistics to which to add the work done by the query; may be {@code null}
+     */
+    private void visitAllWithinDistance(final P queryPoint, final double maxDistance, final PointFilter<? super E> filter, final PointConsumer<? super E> consumer, final QueryStatistics statistics) {
+        final Phase previousPhase = this.context.enterPhase(Phase.QUERY);
+
+        try {
+            this.visitAllWithinDistance(queryPoint, maxDistance, filter, consumer, statistics, this.getLeavesToScan(filter));
+        } finally {
+            this.context.exitPhase(previousPhase);
+        }
+    }
+
+    private void visitAllWithinDistance(final P queryPoint, final double maxDistance, final PointFilter<? super E> filter, final PointConsumer<? super E> consumer, final QueryStatistics statistics, final List<VPTreeNode<P, E>> leavesToScan) {
+        final VPTreeListener queryListener = this.getQueryListener();
+
+        if (statistics == null && this.aggregateQueryStatistics == null && queryListener == null) {
+            if (leavesToScan == null) {
+                this.rootNode.visitAllWithinDistance(queryPoint, maxDistance, consumer, filter);
+            } else {
+                for (final VPTreeNode<P, E> leaf : leavesToScan) {
+                    leaf.visitAllWithinDistance(queryPoint, maxDistance, consumer, filter);
+                }
+            }
+        } else {
+            final long startNanos = System.nanoTime();
+            final QueryStatistics searchStatistics = statistics != null ? statistics : new QueryStatistics();
+            final QueryStatistics snapshot = searchStatistics.copy();
+            final int[] resultCount = new int[1];
+
+            final PointConsumer<E> countingConsumer = (point, distance) -> {
+                resultCount[0] += 1;
+                consumer.acceptPoint(point, distance);
+            };
+
+            if (leavesToScan == null) {
+                this.rootNode.visitAllWithinDistance(queryPoint, maxDistance, countingConsumer, filter, searchStatistics);
+            } else {
+                for (final VPTreeNode<P, E> leaf : leavesToScan) {
+                    leaf.visitAllWithinDistance(queryPoint, maxDistance, countingConsumer, filter, searchStatistics);
+                }
+            }
+
+            final QueryStatistics queryStatistics = this.recordQueryStatistics(searchStatistics, snapshot);
+
+            if (queryListener != null) {
+                queryListener.distanceQueryCompleted(maxDistance, resultCount[0], queryStatistics,
+                        System.nanoTime() - startNanos);
+            }
+        }
+    }
+
+    /**
+     * Returns a list of all points whose distance from a query point falls between the given minimum and maximum
+     * distances (inclusive).
+     *
+     * @param queryPoint the point for which to find neighbors
+     * @param minDistance the minimum allowable distance from the query point; points closer than {@code minDistance}
+     * will not be included in the returned list
+     * @param maxDistance the maximum allowable distance from the query point; points farther away than
+     * {@code maxDistance} will not be included in the returned list
+     *
+     * @return a list of all points within the given band of distances from the query point
+     */
+    public List<E> getAllWithinDistanceRange(final P queryPoint, final double minDistance, final double maxDistance) {
+        return this.getAllWithinDistanceRange(queryPoint, minDistance, maxDistance, NO_OP_POINT_FILTER);
+    }
+
+    /**
+     * Returns a list of all points that match the given filter and whose distance from a query point falls between the
+     * given minimum and maximum distances (inclusive).
+     *
+     * @param queryPoint the point for which to find neighbors
+     * @param minDistance the minimum allowable distance from the query point; points closer than {@code minDistance}
+     * will not be included in the returned list
+     * @param maxDistance the maximum allowable distance from the query point; points farther away than
+     * {@code maxDistance} will not be included in the returned list
+     * @param filter a filter to apply to each element to determine if it should be included in the returned list
+     *
+     * @return a list of all points within the given band of distances from the query point
+     */
+    public List<E> getAllWithinDistanceRange(final P queryPoint, final double minDistance, final double maxDistance, final PointFilter<? super E> filter) {
+        if (minDistance > maxDistance) {
+            throw new IllegalArgumentException("Minimum distance must not be greater than maximum distance.");
+        }
+
+        final List<E> pointsWithinRange;
+
+        if (this.rootNode == null) {
+            pointsWithinRange = null;
+        } else {
+            pointsWithinRange = new ArrayList<>();
+
+            final Phase previousPhase = this.context.enterPhase(Phase.QUERY);
+
+            try {
+                this.rootNode.collectAllWithinDistanceRange(queryPoint, minDistance, maxDistance, pointsWithinRange, filter);
+            } finally {
+                this.context.exitPhase(previousPhase);
+            }
         }
 
         return pointsWithinRange;
     }
 
+    /**
+     * Returns a list of the points farthest from a given query point. The returned list is sorted by decreasing
+     * distance from the query point and will contain at most {@code maxResults} elements.
+     *
+     * @param queryPoint the point for which to find the farthest neighbors
+     * @param maxResults the maximum length of the returned list
+     *
+     * @return a list of the farthest neighbors to the given query point sorted by decreasing distance from the query
+     * point
+     */
+    public List<E> getFarthestNeighbors(final P queryPoint, final int maxResults) {
+        return this.getFarthestNeighbors(queryPoint, maxResults, NO_OP_POINT_FILTER);
+    }
+
+    /**
+     * Returns a list of the points accepted by the given filter that are farthest from a given query point. The
+     * returned list is sorted by decreasing distance from the query point and will contain at most {@code maxResults}
+     * elements.
+     *
+     * @param queryPoint the point for which to find the farthest neighbors
+     * @param maxResults the maximum length of the returned list
+     * @param filter a filter to apply to each element to determine if it should be included in the list of neighbors
+     *
+     * @return a list of the farthest neighbors to the given query point sorted by decreasing distance from the query
+     * point
+     */
+    public List<E> getFarthestNeighbors(final P queryPoint, final int maxResults, final PointFilter<? super E> filter) {
+        final List<E> farthestNeighbors;
+
+        if (this.rootNode == null) {
+            farthestNeighbors = null;
+        } else {
+            final FarthestNeighborCollector<P, E> collector =
+                    new FarthestNeighborCollector<>(queryPoint, this.distanceFunction, maxResults);
+
+            final Phase previousPhase = this.context.enterPhase(Phase.QUERY);
+
+            try {
+                this.rootNode.collectFarthestNeighbors(collector, filter);
+            } finally {
+                this.context.exitPhase(previousPhase);
+            }
+
+            farthestNeighbors = collector.toSortedList();
+        }
+
+        return farthestNeighbors;
+    }
+
+    /**
+     * Builds a k-nearest-neighbor graph over all of the points in this tree. Points are identified by their position in
+     * the order returned by this tree's {@linkplain #iterator() iterator} (or, equivalently, by {@link #toArray()});
+     * the returned array contains one row for each point in the tree, and each row contains the positions of up to
+     * {@code k} of that point's nearest neighbors (not including the point itself), sorted by increasing distance.
+     *
+     * <p>This is much faster than calling {@link #getNearestNeighbors(Object, int)} for each point in the tree: points
+     * that share a leaf node are processed together and share distance calculations, and leaves are processed in
+     * parallel using the {@linkplain ForkJoinPool#commonPool() common fork/join pool}. The tree must not be modified
+     * while the graph is being built.</p>
+     *
+     * @param k the maximum number of neighbors to find for each point
+     *
+     * @return the positions of the nearest neighbors of each point in the tree
+     */
+    public int[][] buildKnnGraph(final int k) {
+        return this.buildKnnGraph(k, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Builds a k-nearest-neighbor graph over all of the points in this tree, processing leaves in parallel in the given
+     * fork/join pool.
+     *
+     * @param k the maximum number of neighbors to find for each point
+     * @param forkJoinPool the pool in which to process leaves
+     *
+     * @return the positions of the nearest neighbors of each point in the tree
+     *
+     * @see #buildKnnGraph(int)
+     */
+    public int[][] buildKnnGraph(final int k, final ForkJoinPool forkJoinPool) {
+        return this.rootNode == null ?
+                new int[0][] : new KnnGraphBuilder<>(this.rootNode, this.distanceFunction, k).build(forkJoinPool);
+    }
+
+    /**
+     * Passes every pair of distinct points in this tree that are within the given distance of one another to the given
+     * consumer. Each unordered pair is reported exactly once, in no particular order. The join is executed in parallel
+     * in the {@linkplain ForkJoinPool#commonPool() common fork/join pool}, and so the given consumer must be safe to
+     * call from multiple threads at once. The tree must not be modified while the join is in progress.
+     *
+     * @param maxDistance the maximum distance between points in a reported pair
+     * @param consumer the consumer to which to pass pairs of points within the given distance of one another
+     */
+    public void forEachPairWithinDistance(final double maxDistance, final PointPairConsumer<? super E, ? super E> consumer) {
+        this.forEachPairWithinDistance(maxDistance, consumer, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Passes every pair of distinct points in this tree that are within the given distance of one another to the given
+     * consumer, executing the join in the given fork/join pool.
+     *
+     * @param maxDistance the maximum distance between points in a reported pair
+     * @param consumer the consumer to which to pass pairs of points within the given distance of one another
+     * @param forkJoinPool the pool in which to execute the join
+     *
+     * @see #forEachPairWithinDistance(double, PointPairConsumer)
+     */
+    public void forEachPairWithinDistance(final double maxDistance, final PointPairConsumer<? super E, ? super E> consumer, final ForkJoinPool forkJoinPool) {
+        if (this.rootNode != null) {
+            SimilarityJoin.selfJoin(this.rootNode, this.distanceFunction, maxDistance, consumer, forkJoinPool);
+        }
+    }
+
+    /**
+     * Passes every pair of points (the first from this tree and the second from the given tree) that are within the
+     * given distance of one another to the given consumer. Distances are calculated with this tree's distance function.
+     * The join is executed in parallel in the {@linkplain ForkJoinPool#commonPool() common fork/join pool}, and so the
+     * given consumer must be safe to call from multiple threads at once. Neither tree may be modified while the join is
+     * in progress.
+     *
+     * @param otherTree the tree from which to draw the second point in each pair
+     * @param maxDistance the maximum distance between points in a reported pair
+     * @param consumer the consumer to which to pass pairs of points within the given distance of one another
+     * @param <F> the specific type of point contained in the other tree
+     */
+    public <F extends P> void forEachPairWithinDistance(final VPTree<P, F> otherTree, final double maxDistance, final PointPairConsumer<? super E, ? super F> consumer) {
+        this.forEachPairWithinDistance(otherTree, maxDistance, consumer, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Passes every pair of points (the first from this tree and the second from the given tree) that are within the
+     * given distance of one another to the given consumer, executing the join in the given fork/join pool.
+     *
+     * @param otherTree the tree from which to draw the second point in each pair
+     * @param maxDistance the maximum distance between points in a reported pair
+     * @param consumer the consumer to which to pass pairs of points within the given distance of one another
+     * @param forkJoinPool the pool in which to execute the join
+     * @param <F> the specific type of point contained in the other tree
+     *
+     * @see #forEachPairWithinDistance(VPTree, double, PointPairConsumer)
+     */
+    public <F extends P> void forEachPairWithinDistance(final VPTree<P, F> otherTree, final double maxDistance, final PointPairConsumer<? super E, ? super F> consumer, final ForkJoinPool forkJoinPool) {
+        if (this.rootNode != null && otherTree.rootNode != null) {
+            SimilarityJoin.join(this.rootNode, otherTree.rootNode, this.distanceFunction, maxDistance, consumer, forkJoinPool);
+        }
+    }
+
     /*
      * (non-Javadoc)
      * @see java.util.Collection#size()
@@ -209,10 +1046,18 @@ public class VPTree<P, E extends P> implements SpatialIndex<P, E> {
     @Override
     @SuppressWarnings("unchecked")
     public boolean contains(final Object o) {
+        if (this.context.getPointLocator() != null) {
+            return this.context.getPointLocator().contains(o);
+        }
+
+        final Phase previousPhase = this.context.enterPhase(Phase.QUERY);
+
         try {
             return this.rootNode == null ? false : this.rootNode.contains((E) o);
         } catch (final ClassCastException e) {
             return false;
+        } finally {
+            this.context.exitPhase(previousPhase);
         }
     }
 
@@ -299,21 +1144,20 @@ public class VPTree<P, E extends P> implements SpatialIndex<P, E> {
         // Adding points always modifies a VPTree
         final boolean modified = !points.isEmpty();
 
-        if (this.rootNode == null) {
-            // We don't need to anneal here because annealing happens automatically as part of node construction
-            this.rootNode = new VPTreeNode<>(
-                    (Collection<E>) points,
-                    this.distanceFunction,
-                    this.thresholdSelectionStrategy,
-                    this.nodeCapacity);
-        } else {
-            for (final E point : points) {
-                this.rootNode.add(point);
-            }
+        final Phase previousPhase = this.context.enterPhase(this.rootNode == null ? Phase.BUILD : Phase.INSERT);
 
-            if (modified) {
-                this.rootNode.anneal();
+        try {
+            if (this.rootNode == null) {
+                // Nodes are partitioned automatically as part of node construction
+                this.rootNode = new VPTreeNode<>((Collection<E>) points, this.context);
+            } else {
+                // Nodes rebalance themselves along the path to each new point as it's added
+                for (final E point : points) {
+                    this.rootNode.add(point);
+                }
             }
+        } finally {
+            this.context.exitPhase(previousPhase);
         }
 
         return modified;
@@ -324,34 +1168,91 @@ public class VPTree<P, E extends P> implements SpatialIndex<P, E> {
      * @see java.util.Collection#remove(java.lang.Object)
      */
     public boolean remove(final Object point) {
-        return this.removeAll(Collections.singletonList(point));
+        if (this.rootNode == null) {
+            return false;
+        }
+
+        final Phase previousPhase = this.context.enterPhase(Phase.REMOVE);
+
+        try {
+            return this.removeOne(point);
+        } finally {
+            this.context.exitPhase(previousPhase);
+        }
     }
 
-    /*
-     * (non-Javadoc)
-     * @see java.util.Collection#removeAll(java.util.Collection)
+    /**
+     * Removes every point in this tree that matches any point in the given collection. Like
+     * {@link Collection#removeAll(Collection)}, and unlike {@link #remove(Object)}, this removes all copies of a point
+     * that appears in this tree more than once, regardless of the type of the given collection.
+     *
+     * @param points the points to remove from this tree
+     *
+     * @return {@code true} if any points were removed from this tree or {@code false} otherwise
      */
-    @SuppressWarnings("unchecked")
     public boolean removeAll(final Collection<?> points) {
         boolean pointRemoved = false;
 
-        if (this.rootNode == null) {
-            pointRemoved = false;
-        } else {
-            for (final Object point : points) {
-                try {
-                    pointRemoved = this.rootNode.remove((E) point) || pointRemoved;
-                } catch (final ClassCastException ignored) {
-                    // Ignored; no change to `pointRemoved`
+        final PointLocator<P, E> locator = this.context.getPointLocator();
+
+        if (this.rootNode != null) {
+            final Phase previousPhase = this.context.enterPhase(Phase.REMOVE);
+
+            try {
+                if (points instanceof Set && (locator == null ||
+                        (!locator.isMatchByIdentity() && points.size() >= this.size() * LOCATOR_SWEEP_FRACTION))) {
+
+                    // Sets can tell us whether they contain a point cheaply, so without a locator, it's faster to check
+                    // every point in the tree in a single pass than it is to search for every point in the set
+                    // individually. With a locator, finding each point in the set is cheap, too, and sweeping the tree
+                    // only wins if the set covers a large part of the tree. Sets match points by equality, so identity
+                    // locators never sweep.
+                    pointRemoved = this.rootNode.removeIf(points::contains);
+                } else {
+                    for (final Object point : points) {
+                        // Keep removing until no copies of the point remain, whether or not we have a locator, so the
+                        // result doesn't depend on which way we chose to remove points
+                        while (this.removeOne(point)) {
+                            pointRemoved = true;
+                        }
+                    }
                 }
+            } finally {
+                this.context.exitPhase(previousPhase);
             }
         }
 
-        if (pointRemoved) {
-            this.rootNode.anneal();
+        return pointRemoved;
+    }
+
+    /**
+     * Removes a single point that matches the given point from this tree, which must not be empty.
+     *
+     * @return {@code true} if a point was removed or {@code false} otherwise
+     */
+    @SuppressWarnings("unchecked")
+    private boolean removeOne(final Object point) {
+        final PointLocator<P, E> locator = this.context.getPointLocator();
+
+        if (locator != null) {
+            final VPTreeNode<P, E> leaf = locator.getLeaf(point);
+            return leaf != null && leaf.removeFromLeaf(point);
         }
 
-        return pointRemoved;
+        try {
+            return this.rootNode.remove((E) point);
+        } catch (final ClassCastException e) {
+            return false;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.Collection#removeIf(java.util.function.Predicate)
+     */
+    @Override
+    public boolean removeIf(final Predicate<? super E> filter) {
+        return this.rootNode == null ? false : this.rootNode.removeIf(filter);
     }
 
     /*
@@ -360,13 +1261,7 @@ public class VPTree<P, E extends P> implements SpatialIndex<P, E> {
      */
     @Override
     public boolean retainAll(final Collection<?> points) {
-        final boolean modified = this.rootNode == null ? false : this.rootNode.retainAll(points);
-
-        if (modified) {
-            this.rootNode.anneal();
-        }
-
-        return modified;
+        return this.rootNode == null ? false : this.rootNode.retainAll(points);
     }
 
     /*
@@ -376,5 +1271,9 @@ public class VPTree<P, E extends P> implements SpatialIndex<P, E> {
     @Override
     public void clear() {
         this.rootNode = null;
+
+        if (this.context.getPointLocator() != null) {
+            this.context.setPointLocator(new PointLocator<>(this.context.getPointLocator().isMatchByIdentity()));
+        }
     }
 }
@@ -0,0 +1,169 @@
+package com.eatthepath.jvptree;
+
+import java.util.function.Function;
+
+import com.eatthepath.jvptree.util.ProfilingDistanceFunction;
+
+/**
+ * Settings shared by all of the nodes in a single vp-tree. Nodes hold a reference to their tree's context rather than
+ * their own copies of its settings so that settings which may change over the life of a tree (like its skew factor)
+ * only need to be changed in one place.
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ */
+class VPTreeContext<P, E extends P> {
+
+    private final DistanceFunction<P> distanceFunction;
+    private final ProfilingDistanceFunction<P> profiler;
+    private final ThresholdSelectionStrategy<P, E> thresholdSelectionStrategy;
+    private final int nodeCapacity;
+
+    private double skewFactor = VPTree.DEFAULT_SKEW_FACTOR;
+    private int maxRebuildSize = VPTree.DEFAULT_MAX_REBUILD_SIZE;
+    private double tombstoneThreshold = VPTree.DEFAULT_TOMBSTONE_THRESHOLD;
+
+    private PointLocator<P, E> pointLocator;
+
+    private Function<? super E, ?> attributeFunction;
+    private double bruteForceSelectivity = VPTree.DEFAULT_BRUTE_FORCE_SELECTIVITY;
+
+    private VPTreeListener listener;
+
+    /**
+     * Constructs a new tree context with default values for settings that may be changed later.
+     *
+     * @param distanceFunction the distance function to use when partitioning points
+     * @param thresholdSelectionStrategy the threshold selection strategy to use when partitioning points
+     * @param nodeCapacity the desired maximum capacity of leaf nodes
+     */
+    @SuppressWarnings("unchecked")
+    VPTreeContext(final DistanceFunction<P> distanceFunction, final ThresholdSelectionStrategy<P, E> thresholdSelectionStrategy, final int nodeCapacity) {
+        if (nodeCapacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+
+        this.distanceFunction = distanceFunction;
+        this.profiler = distanceFunction instanceof ProfilingDistanceFunction ?
+                (ProfilingDistanceFunction<P>) distanceFunction : null;
+
+        this.thresholdSelectionStrategy = thresholdSelectionStrategy;
+        this.nodeCapacity = nodeCapacity;
+    }
+
+    DistanceFunction<P> getDistanceFunction() {
+        return this.distanceFunction;
+    }
+
+    /**
+     * Attributes distance calculations made by the current thread to the given phase if this tree's distance function
+     * is a {@link ProfilingDistanceFunction}, and does nothing otherwise.
+     *
+     * @param phase the phase to which to attribute subsequent distance calculations
+     *
+     * @return the phase to pass to {@link #exitPhase(ProfilingDistanceFunction.Phase)} when the work is done
+     */
+    ProfilingDistanceFunction.Phase enterPhase(final ProfilingDistanceFunction.Phase phase) {
+        return this.profiler != null ? this.profiler.enterPhase(phase) : null;
+    }
+
+    void exitPhase(final ProfilingDistanceFunction.Phase previousPhase) {
+        if (this.profiler != null) {
+            this.profiler.enterPhase(previousPhase);
+        }
+    }
+
+    ThresholdSelectionStrategy<P, E> getThresholdSelectionStrategy() {
+        return this.thresholdSelectionStrategy;
+    }
+
+    int getNodeCapacity() {
+        return this.nodeCapacity;
+    }
+
+    double getSkewFactor() {
+        return this.skewFactor;
+    }
+
+    void setSkewFactor(final double skewFactor) {
+        if (!(skewFactor > 0.5 && skewFactor <= 1)) {
+            throw new IllegalArgumentException("Skew factor must be greater than 0.5 and no greater than 1.");
+        }
+
+        this.skewFactor = skewFactor;
+    }
+
+    int getMaxRebuildSize() {
+        return this.maxRebuildSize;
+    }
+
+    void setMaxRebuildSize(final int maxRebuildSize) {
+        if (maxRebuildSize < 1) {
+            throw new IllegalArgumentException("Maximum rebuild size must be positive.");
+        }
+
+        this.maxRebuildSize = maxRebuildSize;
+    }
+
+    double getTombstoneThreshold() {
+        return this.tombstoneThreshold;
+    }
+
+    void setTombstoneThreshold(final double tombstoneThreshold) {
+        if (!(tombstoneThreshold >= 0 && tombstoneThreshold < 1)) {
+            throw new IllegalArgumentException("Tombstone threshold must be at least 0 and less than 1.");
+        }
+
+        this.tombstoneThreshold = tombstoneThreshold;
+    }
+
+    /**
+     * Returns the tree's point locator.
+     *
+     * @return the tree's point locator, or {@code null} if the tree does not have a point locator
+     */
+    PointLocator<P, E> getPointLocator() {
+        return this.pointLocator;
+    }
+
+    void setPointLocator(final PointLocator<P, E> pointLocator) {
+        this.pointLocator = pointLocator;
+    }
+
+    /**
+     * Returns the function nodes use to extract the attribute values they summarize.
+     *
+     * @return the tree's attribute function, or {@code null} if nodes should not summarize attribute values
+     */
+    Function<? super E, ?> getAttributeFunction() {
+        return this.attributeFunction;
+    }
+
+    void setAttributeFunction(final Function<? super E, ?> attributeFunction) {
+        this.attributeFunction = attributeFunction;
+    }
+
+    double getBruteForceSelectivity() {
+        return this.bruteForceSelectivity;
+    }
+
+    void setBruteForceSelectivity(final double bruteForceSelectivity) {
+        if (!(bruteForceSelectivity >= 0 && bruteForceSelectivity <= 1)) {
+            throw new IllegalArgumentException("Brute-force selectivity must be between 0 and 1.");
+        }
+
+        this.bruteForceSelectivity = bruteForceSelectivity;
+    }
+
+    /**
+     * Returns the tree's listener.
+     *
+     * @return the tree's listener, or {@code null} if the tree does not have a listener
+     */
+    VPTreeListener getListener() {
+        return this.listener;
+    }
+
+    void setListener(final VPTreeListener listener) {
+        this.listener = listener;
+    }
+}
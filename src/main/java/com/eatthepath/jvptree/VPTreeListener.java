@@ -0,0 +1,77 @@
+package com.eatthepath.jvptree;
+
+/**
+ * <p>Receives notifications about notable events in the life of a vp-tree, like finished queries, rebuilt nodes, and
+ * failed attempts to partition nodes. Listeners are meant to feed monitoring and profiling systems; see
+ * {@code com.eatthepath.jvptree.jfr.JfrVPTreeListener} for a listener that emits Java Flight Recorder events.</p>
+ *
+ * <p>Trees without a listener (the default) pay nothing for events. Trees with a listener time each query and count the
+ * work it does (as with {@link QueryStatistics}) while the listener is {@linkplain #isEnabled() enabled}, and run
+ * plain, uninstrumented queries while it isn't. Listeners may be called from any thread that queries or modifies a
+ * tree, and should return quickly.</p>
+ *
+ * <p>All methods have empty default implementations so that listeners need only override the methods for the events
+ * that interest them.</p>
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @see VPTree#setListener(VPTreeListener)
+ */
+public interface VPTreeListener {
+
+    /**
+     * Indicates whether this listener currently wants to hear about queries. Trees check before each query, and only
+     * time the query, count its work, and call {@link #nearestNeighborQueryCompleted(int, int, QueryStatistics, long)}
+     * or {@link #distanceQueryCompleted(double, int, QueryStatistics, long)} if this method returns {@code true}.
+     * Listeners that only sometimes report query events (for example, because nothing is recording them) should
+     * return {@code false} while they would discard those events anyway. Rebuilds and partition failures are rare, and
+     * are reported regardless.
+     *
+     * @return {@code true} if this listener wants to hear about queries or {@code false} otherwise; {@code true} by
+     * default
+     */
+    default boolean isEnabled() {
+        return true;
+    }
+
+    /**
+     * Called when a nearest-neighbor query has finished.
+     *
+     * @param maxResults the maximum number of neighbors requested
+     * @param resultCount the number of neighbors found
+     * @param statistics the work done by the query
+     * @param durationNanos the time, in nanoseconds, the query took
+     */
+    default void nearestNeighborQueryCompleted(final int maxResults, final int resultCount, final QueryStatistics statistics, final long durationNanos) {
+    }
+
+    /**
+     * Called when a query for all points within a given distance of a query point has finished.
+     *
+     * @param maxDistance the maximum distance from the query point
+     * @param resultCount the number of points found
+     * @param statistics the work done by the query
+     * @param durationNanos the time, in nanoseconds, the query took
+     */
+    default void distanceQueryCompleted(final double maxDistance, final int resultCount, final QueryStatistics statistics, final long durationNanos) {
+    }
+
+    /**
+     * Called when a node (possibly the root node) has been rebuilt with a new vantage point, either because it had
+     * become unbalanced or because its entire tree was {@linkplain VPTree#rebuild() rebuilt}.
+     *
+     * @param pointsMoved the number of points redistributed by the rebuild
+     * @param durationNanos the time, in nanoseconds, the rebuild took
+     */
+    default void nodeRebuilt(final int pointsMoved, final long durationNanos) {
+    }
+
+    /**
+     * Called when a node's points could not be partitioned (for example, because they are all the same distance from
+     * the node's vantage point), leaving the node with more points than the tree's node capacity.
+     *
+     * @param pointCount the number of points in the node that could not be partitioned
+     */
+    default void partitionFailed(final int pointCount) {
+    }
+}
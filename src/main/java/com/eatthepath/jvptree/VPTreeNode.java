@@ -1,11 +1,17 @@
 package com.eatthepath.jvptree;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Random;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import com.eatthepath.jvptree.util.ProfilingDistanceFunction.Phase;
 
 /**
  * A single node of a vantage-point tree. Nodes may either be leaf nodes that contain points directly or branch nodes
@@ -15,19 +21,43 @@ import java.util.Random;
  */
 class VPTreeNode<P, E extends P> {
 
-    private final int capacity;
+    private final VPTreeContext<P, E> context;
     private final DistanceFunction<P> distanceFunction;
-    private final ThresholdSelectionStrategy<P, E> thresholdSelectionStrategy;
 
-    private ArrayList<E> points;
+    // Leaf nodes built along with the rest of the tree share a single array of points with the other leaves built at
+    // the same time (see ArraySlice), and copy their points into a list of their own only when points are added to or
+    // removed from the leaf
+    private List<E> points;
+
+    // Leaf nodes may mark removed points as deleted instead of removing them from the list of points right away; see
+    // VPTree#setTombstoneThreshold(double)
+    private BitSet tombstones;
+    private int tombstoneCount;
 
-    private final E vantagePoint;
+    private E vantagePoint;
 
     private double threshold;
 
+    // Branch nodes keep track of an upper bound on the distance from their vantage point to any point below them so
+    // searches can skip nodes that lie entirely beyond the distance they care about
+    private double radius;
+
     private VPTreeNode<P, E> closer;
     private VPTreeNode<P, E> farther;
 
+    // Parent links let removals that start from a leaf (see PointLocator) update the leaf's ancestors
+    private VPTreeNode<P, E> parent;
+
+    // Branch nodes keep track of the number of points below them so they can tell when they've become lopsided; leaf
+    // nodes just use the number of live points in their list of points.
+    private int size;
+
+    // The number of points added to or removed from this node's children since this node was partitioned
+    private int mutationsSincePartition;
+
+    // If the tree has an attribute function, a summary of the attribute values of the points in or below this node
+    private AttributeSummary attributeSummary;
+
     /**
      * Constructs a new node that contains the given collection of points. If the given collection of points is larger
      * than the given maximum capacity, the new node will attempts to partition the collection of points into child
@@ -43,99 +73,563 @@ class VPTreeNode<P, E extends P> {
     public VPTreeNode(final Collection<E> points, final DistanceFunction<P> distanceFunction,
             final ThresholdSelectionStrategy<P, E> thresholdSelectionStrategy, final int capacity) {
 
-        if (capacity < 1) {
-            throw new IllegalArgumentException("Capacity must be positive.");
-        }
+        this(points, new VPTreeContext<>(distanceFunction, thresholdSelectionStrategy, capacity));
+    }
+
+    /**
+     * Constructs a new node that contains the given collection of points and draws its settings from the given tree
+     * context.
+     *
+     * @param points the collection of points to store in or below this node
+     * @param context the context of the tree to which this node belongs
+     */
+    VPTreeNode(final Collection<E> points, final VPTreeContext<P, E> context) {
+        this(new ArraySlice<>(points.toArray()), context);
+    }
 
+    /**
+     * Constructs a new node that contains the points in the given slice of an array and draws its settings from the
+     * given tree context. The new node (and its children, if it's partitioned) takes ownership of the slice and may
+     * reorder the points within it.
+     *
+     * @param points the slice of points to store in or below this node
+     * @param context the context of the tree to which this node belongs
+     */
+    private VPTreeNode(final ArraySlice<E> points, final VPTreeContext<P, E> context) {
         if (points.isEmpty()) {
             throw new IllegalArgumentException("Cannot create a VPTreeNode with an empty list of points.");
         }
 
-        this.capacity = capacity;
-        this.distanceFunction = distanceFunction;
-        this.thresholdSelectionStrategy = thresholdSelectionStrategy;
-        this.points = new ArrayList<>(points);
+        this.context = context;
+        this.distanceFunction = context.getDistanceFunction();
+        this.points = points;
 
         // All nodes must have a vantage point; choose one at random from the available points
-        this.vantagePoint = this.points.get(new Random().nextInt(points.size()));
+        this.vantagePoint = this.points.get(ThreadLocalRandom.current().nextInt(points.size()));
 
-        this.anneal();
+        this.partition(false);
     }
 
-    protected void anneal() {
-        if (this.points == null) {
-            final int closerSize = this.closer.size();
-            final int fartherSize = this.farther.size();
+    /**
+     * Attempts to partition the points in this node into two child nodes if this is a leaf node that has grown beyond
+     * its desired capacity. Child nodes are partitioned recursively as they're constructed. If the tree has a point
+     * locator, points that wind up in child nodes are registered with the locator by their new leaves, and points that
+     * remain in this node are registered here if they weren't already.
+     *
+     * @param registered {@code true} if this node's points are already registered with the tree's point locator (if
+     * any) or {@code false} otherwise
+     */
+    private void partition(final boolean registered) {
+        if (this.points != null && this.size() > this.context.getNodeCapacity()) {
+            this.purgeTombstones();
+
+            // Points are partitioned in place, and child nodes take ownership of their halves of the same array
+            final ArraySlice<E> points = this.points instanceof ArraySlice ?
+                    (ArraySlice<E>) this.points : new ArraySlice<>(this.points.toArray());
+
+            this.points = points;
+
+            // Partially sort the list such that all points closer than or equal to the threshold distance from the
+            // vantage point come before the threshold point in the list and all points farther away come after the
+            // threshold point.
+            this.threshold = this.context.getThresholdSelectionStrategy().selectThreshold(points, this.vantagePoint, this.distanceFunction);
+
+            try {
+                final int firstIndexPastThreshold = this.partitionPoints(points);
+
+                this.closer = new VPTreeNode<>(points.subList(0, firstIndexPastThreshold), this.context);
+                this.farther = new VPTreeNode<>(points.subList(firstIndexPastThreshold, points.size()), this.context);
+
+                this.closer.parent = this;
+                this.farther.parent = this;
+
+                if (registered) {
+                    this.updateLocator(false);
+                }
 
-            if (closerSize == 0 || fartherSize == 0) {
-                // One of the child nodes has become empty, and needs to be pruned.
-                this.points = new ArrayList<>(closerSize + fartherSize);
-                this.addAllPointsToCollection(this.points);
+                this.size = points.size();
+                this.mutationsSincePartition = 0;
 
+                this.points = null;
+                this.tombstones = null;
+
+                this.updateAttributeSummary();
+            } catch (final PartitionException e) {
+                // We couldn't partition the list, so just store all of the points in this node
                 this.closer = null;
                 this.farther = null;
 
-                this.anneal();
+                if (this.context.getListener() != null) {
+                    this.context.getListener().partitionFailed(this.points.size());
+                }
+            }
+        }
+
+        if (this.points != null && !registered) {
+            this.updateLocator(true);
+            this.updateAttributeSummary();
+        }
+    }
+
+    /**
+     * Rebuilds this node's attribute summary from its points (if this is a leaf node) or from its children's attribute
+     * summaries (if this is a branch node). Children's summaries must already be up to date.
+     */
+    private void updateAttributeSummary() {
+        final Function<? super E, ?> attributeFunction = this.context.getAttributeFunction();
+
+        if (attributeFunction == null) {
+            this.attributeSummary = null;
+        } else {
+            final AttributeSummary summary = new AttributeSummary();
+
+            if (this.points == null) {
+                summary.addAll(this.closer.attributeSummary);
+                summary.addAll(this.farther.attributeSummary);
             } else {
-                this.closer.anneal();
-                this.farther.anneal();
+                for (int i = 0; i < this.points.size(); i++) {
+                    if (!this.isTombstoned(i)) {
+                        summary.add(attributeFunction.apply(this.points.get(i)));
+                    }
+                }
+            }
+
+            this.attributeSummary = summary;
+        }
+    }
+
+    /**
+     * Rebuilds the attribute summaries of this node and all of its children.
+     */
+    void updateAllAttributeSummaries() {
+        if (this.points == null) {
+            this.closer.updateAllAttributeSummaries();
+            this.farther.updateAllAttributeSummaries();
+        }
+
+        this.updateAttributeSummary();
+    }
+
+    /**
+     * Indicates whether this node or its children might contain points that pass the given filter according to this
+     * node's attribute summary. Nodes without attribute summaries and filters that don't examine attribute summaries
+     * never rule out any points.
+     */
+    private boolean mightContainAllowedPoints(final PointFilter<?> filter) {
+        return this.attributeSummary == null || !(filter instanceof AttributeFilter) ||
+                ((AttributeFilter<?>) filter).allowSummary(this.attributeSummary);
+    }
+
+    /**
+     * Gathers the leaf nodes in or below this node whose attribute summaries allow points that pass the given filter.
+     * Gathering stops early once the gathered leaves hold more than the given number of points.
+     *
+     * @param filter the filter with which to examine attribute summaries
+     * @param leaves the list to which to add leaves that might contain points that pass the given filter
+     * @param maxPoints the number of points beyond which to stop gathering leaves
+     *
+     * @return the number of points in the gathered leaves
+     */
+    int collectCandidateLeaves(final AttributeFilter<?> filter, final List<VPTreeNode<P, E>> leaves, final int maxPoints) {
+        if (!this.mightContainAllowedPoints(filter)) {
+            return 0;
+        }
+
+        if (this.points == null) {
+            final int closerPoints = this.closer.collectCandidateLeaves(filter, leaves, maxPoints);
+
+            return closerPoints > maxPoints ?
+                    closerPoints : closerPoints + this.farther.collectCandidateLeaves(filter, leaves, maxPoints - closerPoints);
+        } else {
+            leaves.add(this);
+            return this.size();
+        }
+    }
+
+    /**
+     * Registers or unregisters the live points in this leaf node with the tree's point locator, if it has one.
+     *
+     * @param register {@code true} to register this node's points with the locator or {@code false} to unregister them
+     */
+    private void updateLocator(final boolean register) {
+        final PointLocator<P, E> locator = this.context.getPointLocator();
+
+        if (locator != null) {
+            for (int i = 0; i < this.points.size(); i++) {
+                if (!this.isTombstoned(i)) {
+                    if (register) {
+                        locator.add(this.points.get(i), this);
+                    } else {
+                        locator.remove(this.points.get(i), this);
+                    }
+                }
             }
+        }
+    }
+
+    /**
+     * Registers the live points in this node and all of its children with the tree's point locator.
+     */
+    void registerAllPoints() {
+        if (this.points == null) {
+            this.closer.registerAllPoints();
+            this.farther.registerAllPoints();
         } else {
-            if (this.points.size() > this.capacity) {
-                // Partially sort the list such that all points closer than or equal to the threshold distance from the
-                // vantage point come before the threshold point in the list and all points farther away come after the
-                // threshold point.
-                this.threshold = this.thresholdSelectionStrategy.selectThreshold(this.points, this.vantagePoint, this.distanceFunction);
-
-                try {
-                    final int firstIndexPastThreshold =
-                            VPTreeNode.partitionPoints(this.points, this.vantagePoint, this.threshold, this.distanceFunction);
-
-                    this.closer = new VPTreeNode<>(this.points.subList(0, firstIndexPastThreshold), this.distanceFunction, this.thresholdSelectionStrategy, this.capacity);
-                    this.farther = new VPTreeNode<>(this.points.subList(firstIndexPastThreshold, this.points.size()), this.distanceFunction, this.thresholdSelectionStrategy, this.capacity);
-
-                    this.points = null;
-                } catch (final PartitionException e) {
-                    // We couldn't partition the list, so just store all of the points in this node
-                    this.closer = null;
-                    this.farther = null;
+            this.updateLocator(true);
+        }
+    }
+
+    /**
+     * Unregisters the live points in this node and all of its children from the tree's point locator.
+     */
+    private void unregisterAllPoints() {
+        if (this.points == null) {
+            this.closer.unregisterAllPoints();
+            this.farther.unregisterAllPoints();
+        } else {
+            this.updateLocator(false);
+        }
+    }
+
+    /**
+     * <p>Restores this node's balance after points have been added to or removed from this node or its children. This
+     * only examines this node; callers must rebalance children first, and so mutations rebalance nodes from the bottom
+     * of the tree up along the path they touched.</p>
+     *
+     * <ul>
+     *  <li>Leaf nodes that have grown beyond their capacity are partitioned.</li>
+     *  <li>Branch nodes with an empty child are replaced by their other child.</li>
+     *  <li>Branch nodes with one child that holds more than the tree's skew factor's share of the node's points are
+     *  rebuilt with a new vantage point and threshold.</li>
+     * </ul>
+     *
+     * <p>A freshly-partitioned node is roughly balanced, and so at least {@code (skewFactor - 0.5) * size} points must
+     * be added or removed before it can be legitimately out of balance. Nodes won't be rebuilt until that many
+     * mutations have passed through them, which bounds the amortized cost of rebuilding to a constant number of point
+     * moves per level per mutation and keeps nodes whose points simply can't be split evenly (for example, because
+     * many points are equidistant from the vantage point) from being rebuilt over and over again. The bound is only
+     * amortized: the mutation that finally tips a node out of balance pays for rebuilding the whole node, which is the
+     * whole tree if this is the root. Nodes larger than the tree's maximum rebuild size are never rebuilt here, which
+     * bounds the work any single mutation does at each level of the tree.</p>
+     */
+    private void rebalance() {
+        if (this.points == null) {
+            if (this.closer.size() == 0) {
+                this.closer.releaseSharedPoints();
+                this.replaceWith(this.farther);
+            } else if (this.farther.size() == 0) {
+                this.farther.releaseSharedPoints();
+                this.replaceWith(this.closer);
+            } else {
+                final double skewFactor = this.context.getSkewFactor();
+                final int largerChildSize = Math.max(this.closer.size(), this.farther.size());
+
+                if (largerChildSize > skewFactor * this.size &&
+                        this.mutationsSincePartition >= (skewFactor - 0.5) * this.size &&
+                        this.size <= this.context.getMaxRebuildSize()) {
+
+                    this.rebuild();
                 }
             }
+        } else {
+            this.partition(true);
         }
     }
 
+    /**
+     * Replaces the contents of this node with the contents of the given child node.
+     *
+     * @param child the child node whose contents should replace this node's contents
+     */
+    private void replaceWith(final VPTreeNode<P, E> child) {
+        if (child.points != null) {
+            // The child's points are moving to this node
+            child.updateLocator(false);
+        }
+
+        this.points = child.points;
+        this.tombstones = child.tombstones;
+        this.tombstoneCount = child.tombstoneCount;
+        this.vantagePoint = child.vantagePoint;
+        this.threshold = child.threshold;
+        this.radius = child.radius;
+        this.closer = child.closer;
+        this.farther = child.farther;
+        this.size = child.size;
+        this.mutationsSincePartition = child.mutationsSincePartition;
+        this.attributeSummary = child.attributeSummary;
+
+        if (this.points != null) {
+            this.updateLocator(true);
+        } else {
+            this.closer.parent = this;
+            this.farther.parent = this;
+        }
+    }
+
+    /**
+     * Gathers all of the points in this node's children and repartitions them with a newly-chosen vantage point.
+     */
+    void rebuild() {
+        final VPTreeListener listener = this.context.getListener();
+        final long startNanos = listener != null ? System.nanoTime() : 0;
+
+        final Object[] points = new Object[this.size()];
+        this.addPointsToArray(points, 0);
+
+        this.unregisterAllPoints();
+        this.releaseSharedPoints();
+
+        this.points = new ArraySlice<>(points);
+        this.tombstones = null;
+        this.tombstoneCount = 0;
+        this.closer = null;
+        this.farther = null;
+
+        this.vantagePoint = this.points.get(ThreadLocalRandom.current().nextInt(this.points.size()));
+
+        final Phase previousPhase = this.context.enterPhase(Phase.REBUILD);
+
+        try {
+            this.partition(false);
+        } finally {
+            this.context.exitPhase(previousPhase);
+        }
+
+        if (listener != null) {
+            listener.nodeRebuilt(points.length, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Indicates whether this node is a leaf node that stores points directly.
+     *
+     * @return {@code true} if this node is a leaf node or {@code false} if it is a branch node
+     */
+    boolean isLeaf() {
+        return this.points != null;
+    }
+
+    E getVantagePoint() {
+        return this.vantagePoint;
+    }
+
+    double getThreshold() {
+        return this.threshold;
+    }
+
+    double getRadius() {
+        return this.radius;
+    }
+
+    VPTreeNode<P, E> getCloser() {
+        return this.closer;
+    }
+
+    VPTreeNode<P, E> getFarther() {
+        return this.farther;
+    }
+
+    /**
+     * Returns the points stored directly in this node. Callers must not modify the returned list. The returned list may
+     * include deleted points; callers can skip them with {@link #isTombstoned(int)} or use {@link #getLivePoints()}.
+     *
+     * @return the points stored directly in this node, or {@code null} if this is a branch node
+     */
+    List<E> getPoints() {
+        return this.points;
+    }
+
+    /**
+     * Returns the points stored directly in this leaf node that have not been deleted. Deleted points are skipped, not
+     * purged, and so this method is safe to call from operations that only read the tree. Callers must not modify the
+     * returned list.
+     *
+     * @return the live points stored directly in this node
+     */
+    List<E> getLivePoints() {
+        if (this.tombstoneCount == 0) {
+            return this.points;
+        }
+
+        final List<E> livePoints = new ArrayList<>(this.points.size() - this.tombstoneCount);
+
+        for (int i = 0; i < this.points.size(); i++) {
+            if (!this.tombstones.get(i)) {
+                livePoints.add(this.points.get(i));
+            }
+        }
+
+        return livePoints;
+    }
+
     /**
      * Returns the number of points stored in this node and its children.
      *
      * @return the number of points stored in this node and its children
      */
     public int size() {
+        return this.points == null ? this.size : this.points.size() - this.tombstoneCount;
+    }
+
+    /**
+     * Returns the number of deleted points still stored in this leaf node.
+     *
+     * @return the number of deleted points still stored in this node, or 0 if this is a branch node
+     */
+    int getTombstoneCount() {
+        return this.tombstoneCount;
+    }
+
+    AttributeSummary getAttributeSummary() {
+        return this.attributeSummary;
+    }
+
+    /**
+     * Indicates whether the point at the given position in this leaf node's list of points has been deleted.
+     *
+     * @param index the position of the point in this node's list of points
+     *
+     * @return {@code true} if the point has been deleted or {@code false} otherwise
+     */
+    boolean isTombstoned(final int index) {
+        return this.tombstoneCount > 0 && this.tombstones.get(index);
+    }
+
+    /**
+     * Returns the index of the first point in this leaf node's list of points that matches the given point and has not
+     * been deleted. Points match if they're equal or, if the tree has an identity-based point locator, identical.
+     */
+    private int indexOfLivePoint(final Object point) {
+        final PointLocator<P, E> locator = this.context.getPointLocator();
+
+        for (int i = 0; i < this.points.size(); i++) {
+            if (!this.isTombstoned(i) &&
+                    (locator != null ? locator.matches(point, this.points.get(i)) : Objects.equals(point, this.points.get(i)))) {
+
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Marks the point at the given index in this leaf node's list of points as deleted.
+     */
+    private void addTombstone(final int index) {
+        if (this.tombstones == null) {
+            this.tombstones = new BitSet(this.points.size());
+        }
+
+        this.tombstones.set(index);
+        this.tombstoneCount += 1;
+
+        if (this.context.getPointLocator() != null) {
+            this.context.getPointLocator().remove(this.points.get(index), this);
+        }
+    }
+
+    /**
+     * Copies this leaf node's points into a list of its own (which, unlike a slice of an array shared with other nodes,
+     * can grow and shrink) if they haven't been copied already.
+     */
+    private void copyPointsIfShared() {
+        if (this.points instanceof ArraySlice) {
+            final ArraySlice<E> slice = (ArraySlice<E>) this.points;
+
+            this.points = new ArrayList<>(slice);
+            slice.release();
+        }
+    }
+
+    /**
+     * Releases the slices of shared arrays held by this node and its children so that the shared arrays don't keep
+     * this node's points reachable after this node is discarded.
+     */
+    private void releaseSharedPoints() {
         if (this.points == null) {
-            return this.closer.size() + this.farther.size();
-        } else {
-            return this.points.size();
+            this.closer.releaseSharedPoints();
+            this.farther.releaseSharedPoints();
+        } else if (this.points instanceof ArraySlice) {
+            ((ArraySlice<E>) this.points).release();
+        }
+    }
+
+    /**
+     * Physically removes deleted points from this leaf node if they make up more than the tree's tombstone threshold's
+     * share of the node's list of points.
+     */
+    private void purgeTombstonesIfNeeded() {
+        if (this.tombstoneCount > this.context.getTombstoneThreshold() * this.points.size()) {
+            this.purgeTombstones();
+        }
+    }
+
+    /**
+     * Physically removes deleted points from this leaf node.
+     */
+    private void purgeTombstones() {
+        if (this.tombstoneCount > 0) {
+            this.copyPointsIfShared();
+
+            int liveIndex = 0;
+
+            for (int i = 0; i < this.points.size(); i++) {
+                if (!this.tombstones.get(i)) {
+                    this.points.set(liveIndex++, this.points.get(i));
+                }
+            }
+
+            this.points.subList(liveIndex, this.points.size()).clear();
+
+            this.tombstones.clear();
+            this.tombstoneCount = 0;
+
+            // Removing points is a good opportunity to clear stale values from this leaf's summary
+            if (this.attributeSummary != null) {
+                this.updateAttributeSummary();
+            }
         }
     }
 
     /**
      * Adds a point to this node or one of its children. If this node is a leaf node and the addition of the new point
      * increases the size of the node beyond its desired capacity, the node will attempt to partition its points into
-     * two child nodes.
+     * two child nodes. Branch nodes along the way may be rebuilt if the new point leaves them too lopsided.
      *
      * @param point the point to add to this node
      */
     public void add(final E point) {
         if (this.points == null) {
             // This is not a leaf node; pass this point on to the appropriate child
-            this.getChildNodeForPoint(point).add(point);
+            final double distanceFromVantagePoint = this.distanceFunction.getDistance(this.vantagePoint, point);
+
+            (distanceFromVantagePoint <= this.threshold ? this.closer : this.farther).add(point);
+            this.radius = Math.max(this.radius, distanceFromVantagePoint);
+
+            this.size += 1;
+            this.mutationsSincePartition += 1;
         } else {
+            this.copyPointsIfShared();
             this.points.add(point);
+
+            if (this.context.getPointLocator() != null) {
+                this.context.getPointLocator().add(point, this);
+            }
         }
+
+        if (this.attributeSummary != null) {
+            this.attributeSummary.add(this.context.getAttributeFunction().apply(point));
+        }
+
+        this.rebalance();
     }
 
     /**
      * Removes a point from this node (if it is a leaf node) or one of its children. If the removal of the point would
-     * result in an empty node, the empty node's parent will absorb and re-partition all points from all child nodes.
+     * result in an empty node, the empty node's parent will be replaced by its other child. Branch nodes along the way
+     * may be rebuilt if the removal leaves them too lopsided.
      *
      * @param point the point to remove from this node or one of its children
      * @return {@code true} if a points was removed or {@code false} otherwise
@@ -146,17 +640,59 @@ class VPTreeNode<P, E extends P> {
         if (this.points == null) {
             // This is not a leaf node; try to remove the point from an appropriate child node
             modified = this.getChildNodeForPoint(point).remove(point);
+
+            if (modified) {
+                this.size -= 1;
+                this.mutationsSincePartition += 1;
+
+                this.rebalance();
+            }
         } else {
-            modified = this.points.remove(point);
+            final int index = this.indexOfLivePoint(point);
+            modified = index >= 0;
+
+            if (modified) {
+                this.addTombstone(index);
+                this.purgeTombstonesIfNeeded();
+            }
         }
 
         return modified;
     }
 
+    /**
+     * Removes a point from this leaf node without searching for it from the root of the tree, then updates and
+     * rebalances this node's ancestors. This is intended for use with a {@link PointLocator} that has already
+     * identified this node as a leaf that contains the given point.
+     *
+     * @param point the point to remove from this leaf node
+     *
+     * @return {@code true} if a point was removed or {@code false} otherwise
+     */
+    boolean removeFromLeaf(final Object point) {
+        final int index = this.indexOfLivePoint(point);
+
+        if (index < 0) {
+            return false;
+        }
+
+        this.addTombstone(index);
+        this.purgeTombstonesIfNeeded();
+
+        for (VPTreeNode<P, E> ancestor = this.parent; ancestor != null; ancestor = ancestor.parent) {
+            ancestor.size -= 1;
+            ancestor.mutationsSincePartition += 1;
+
+            ancestor.rebalance();
+        }
+
+        return true;
+    }
+
     /**
      * Removes all from this node and its children that are not in the given collection of points. If the removal of a
-     * point would result in an empty node, the empty node's parent will absorb and re-partition all points from all
-     * child nodes.
+     * point would result in an empty node, the empty node's parent will be replaced by its other child. Branch nodes
+     * may be rebuilt if the removal leaves them too lopsided.
      *
      * @param points the collection of points to retain
      *
@@ -164,15 +700,49 @@ class VPTreeNode<P, E extends P> {
      * operation or {@code false} otherwise
      */
     public boolean retainAll(final Collection<?> points) {
-        final boolean modified;
+        return this.removeIf(point -> !points.contains(point));
+    }
+
+    /**
+     * Removes all points from this node and its children that match the given predicate in a single pass over the
+     * node's leaves. If the removal of a point would result in an empty node, the empty node's parent will be replaced
+     * by its other child. Branch nodes may be rebuilt if the removal leaves them too lopsided.
+     *
+     * @param predicate the predicate that identifies points to be removed
+     *
+     * @return {@code true} if any points were removed from this node or one of its children as a result of this
+     * operation or {@code false} otherwise
+     */
+    public boolean removeIf(final Predicate<? super E> predicate) {
+        boolean modified;
 
         if (this.points == null) {
-            final boolean modifiedCloser = this.closer.retainAll(points);
-            final boolean modifiedFarther = this.farther.retainAll(points);
+            final boolean modifiedCloser = this.closer.removeIf(predicate);
+            final boolean modifiedFarther = this.farther.removeIf(predicate);
 
             modified = modifiedCloser || modifiedFarther;
+
+            if (modified) {
+                final int newSize = this.closer.size() + this.farther.size();
+
+                this.mutationsSincePartition += this.size - newSize;
+                this.size = newSize;
+
+                this.rebalance();
+            }
         } else {
-            modified = this.points.retainAll(points);
+            modified = false;
+
+            for (int i = 0; i < this.points.size(); i++) {
+                if (!this.isTombstoned(i) && predicate.test(this.points.get(i))) {
+                    this.addTombstone(i);
+                    modified = true;
+                }
+            }
+
+            if (modified) {
+                this.purgeTombstonesIfNeeded();
+            }
         }
 
         return modified;
@@ -186,47 +756,66 @@ class VPTreeNode<P, E extends P> {
      * @return {@code true} if this node or one of its children contains the given point or {@code false} otherwise
      */
     public boolean contains(final E point) {
-        return this.points == null ? this.getChildNodeForPoint(point).contains(point) : this.points.contains(point);
+        return this.points == null ? this.getChildNodeForPoint(point).contains(point) : this.indexOfLivePoint(point) >= 0;
     }
 
+    /**
+     * Gathers the points in this node and its children that are nearest to the collector's query point.
+     *
+     * @param collector the collector to which candidate points should be offered
+     * @param filter a filter to apply to each candidate point
+     */
     public void collectNearestNeighbors(final NearestNeighborCollector<P, E> collector, final PointFilter<? super E> filter) {
-        if (this.points == null) {
-            final VPTreeNode<P, E> firstNodeSearched = this.getChildNodeForPoint(collector.getQueryPoint());
-            firstNodeSearched.collectNearestNeighbors(collector, filter);
+        if (!this.mightContainAllowedPoints(filter)) {
+            return;
+        }
 
+        final P queryPoint = collector.getQueryPoint();
+
+        if (this.points == null) {
             final double distanceFromVantagePointToQueryPoint =
-                    this.distanceFunction.getDistance(this.vantagePoint, collector.getQueryPoint());
+                    this.distanceFunction.getDistance(this.vantagePoint, queryPoint);
 
-            final double distanceFromQueryPointToFarthestPoint =
-                    this.distanceFunction.getDistance(collector.getQueryPoint(), collector.getFarthestPoint());
+            final double distanceFromQueryPointToBall = this.getDistanceToBall(distanceFromVantagePointToQueryPoint);
+
+            if (distanceFromVantagePointToQueryPoint <= this.threshold) {
+                if (mightHoldNearerPoint(distanceFromQueryPointToBall, collector.getDistanceToFarthestPoint())) {
+                    this.closer.collectNearestNeighbors(collector, filter);
+                }
 
-            if (firstNodeSearched == this.closer) {
                 // We've already searched the node that contains points within this node's threshold. We also want to
                 // search the farther node if the distance from the query point to the most distant point in the
                 // neighbor collector is greater than the distance from the query point to this node's threshold, since
                 // there could be a point outside of this node that's closer than the most distant neighbor we've found
-                // so far.
-
-                final double distanceFromQueryPointToThreshold = this.threshold - distanceFromVantagePointToQueryPoint;
+                // so far. Until the collector is full, any point might make the cut.
+                final double distanceFromQueryPointToThreshold =
+                        this.getDistanceToFartherChild(distanceFromVantagePointToQueryPoint, distanceFromQueryPointToBall);
 
-                if (distanceFromQueryPointToFarthestPoint > distanceFromQueryPointToThreshold) {
+                if (mightHoldNearerPointBeyondThreshold(distanceFromQueryPointToThreshold, collector.getDistanceToFarthestPoint())) {
                     this.farther.collectNearestNeighbors(collector, filter);
                 }
             } else {
+                if (mightHoldNearerPoint(distanceFromQueryPointToBall, collector.getDistanceToFarthestPoint())) {
+                    this.farther.collectNearestNeighbors(collector, filter);
+                }
+
                 // We've already searched the node that contains points beyond this node's threshold. We want to search
                 // the within-threshold node if it's "easier" to get from the query point to this node's region than it
                 // is to get from the query point to the most distant match, since there could be a point within this
                 // node's threshold that's closer than the most distant match.
-                final double distanceFromQueryPointToThreshold = distanceFromVantagePointToQueryPoint - this.threshold;
+                final double distanceFromQueryPointToThreshold =
+                        this.getDistanceToCloserChild(distanceFromVantagePointToQueryPoint, distanceFromQueryPointToBall);
 
-                if(distanceFromQueryPointToThreshold <= distanceFromQueryPointToFarthestPoint) {
+                if (mightHoldNearerPoint(distanceFromQueryPointToThreshold, collector.getDistanceToFarthestPoint())) {
                     this.closer.collectNearestNeighbors(collector, filter);
                 }
             }
         } else {
-            for (final E point : this.points) {
-                if (filter.allowPoint(point)) {
-                    collector.offerPoint(point);
+            for (int i = 0; i < this.points.size(); i++) {
+                final E point = this.points.get(i);
+
+                if (!this.isTombstoned(i) && filter.allowPoint(point)) {
+                    collector.offerPoint(point, this.distanceFunction.getDistance(queryPoint, point));
                 }
             }
         }
@@ -238,23 +827,362 @@ class VPTreeNode<P, E extends P> {
      * @param queryPoint the point from which to measure distance to other points
      * @param maxDistance the distance within which to collect points
      * @param collection the collection to which points within the maximum distance should be added
+     * @param filter a filter to apply to each point within the maximum distance
+     */
+    public void collectAllWithinDistance(final P queryPoint, final double maxDistance, final Collection<? super E> collection, final PointFilter<? super E> filter) {
+        this.visitAllWithinDistance(queryPoint, maxDistance, (point, distance) -> collection.add(point), filter);
+    }
+
+    /**
+     * Passes all points within a given maximum distance of the given query point to the given consumer.
+     *
+     * @param queryPoint the point from which to measure distance to other points
+     * @param maxDistance the distance within which to visit points
+     * @param consumer the consumer to which points within the maximum distance should be passed
+     * @param filter a filter to apply to each point within the maximum distance
+     */
+    public void visitAllWithinDistance(final P queryPoint, final double maxDistance, final PointConsumer<? super E> consumer, final PointFilter<? super E> filter) {
+        if (!this.mightContainAllowedPoints(filter)) {
+            return;
+        }
+
+        if (this.points == null) {
+            final double distanceFromVantagePointToQueryPoint =
+                    this.distanceFunction.getDistance(this.vantagePoint, queryPoint);
+
+            // We want to search any of this node's children that intersect with the query region
+            if (this.queryRegionMayIntersectCloser(distanceFromVantagePointToQueryPoint, maxDistance)) {
+                this.closer.visitAllWithinDistance(queryPoint, maxDistance, consumer, filter);
+            }
+
+            if (this.queryRegionMayIntersectFarther(distanceFromVantagePointToQueryPoint, maxDistance)) {
+                this.farther.visitAllWithinDistance(queryPoint, maxDistance, consumer, filter);
+            }
+        } else {
+            for (int i = 0; i < this.points.size(); i++) {
+                if (this.isTombstoned(i)) {
+                    continue;
+                }
+
+                final E point = this.points.get(i);
+                final double distance = this.distanceFunction.getDistance(queryPoint, point);
+
+                if (distance <= maxDistance) {
+                    if (filter.allowPoint(point)) {
+                        consumer.acceptPoint(point, distance);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a lower bound on the distance from a query point to any point below this branch node. Every point below
+     * this node lies within this node's radius of its vantage point, so no point can be any closer to the query point
+     * than the query point is to the edge of that ball.
+     */
+    private double getDistanceToBall(final double distanceFromVantagePointToQueryPoint) {
+        return Math.max(distanceFromVantagePointToQueryPoint - this.radius, 0);
+    }
+
+    /**
+     * Returns a lower bound on the distance from a query point beyond this node's threshold to any point in this node's
+     * closer child.
+     */
+    private double getDistanceToCloserChild(final double distanceFromVantagePointToQueryPoint, final double distanceFromQueryPointToBall) {
+        return Math.max(distanceFromVantagePointToQueryPoint - this.threshold, distanceFromQueryPointToBall);
+    }
+
+    /**
+     * Returns a lower bound on the distance from a query point within this node's threshold to any point in this
+     * node's farther child.
+     */
+    private double getDistanceToFartherChild(final double distanceFromVantagePointToQueryPoint, final double distanceFromQueryPointToBall) {
+        return Math.max(this.threshold - distanceFromVantagePointToQueryPoint, distanceFromQueryPointToBall);
+    }
+
+    /**
+     * Indicates whether a region at the given distance from a query point might hold a point nearer than the most
+     * distant neighbor found so far. The collector's bound may be shared with other searches, and until the collector
+     * is full, any point might make the cut.
+     */
+    private static boolean mightHoldNearerPoint(final double distanceToRegion, final double distanceToFarthestPoint) {
+        return distanceToRegion <= distanceToFarthestPoint;
+    }
+
+    /**
+     * Indicates whether the farther child of a node might hold a point nearer than the most distant neighbor found so
+     * far when the query point lies within the node's threshold. Points in the farther child lie strictly beyond the
+     * threshold, and so a tie can't produce a nearer point there.
+     */
+    private static boolean mightHoldNearerPointBeyondThreshold(final double distanceToFartherChild, final double distanceToFarthestPoint) {
+        return distanceToFarthestPoint > distanceToFartherChild;
+    }
+
+    /**
+     * Indicates whether a distance query's region might intersect this node's closer child. Neither child intersects
+     * with the query region if the query region lies entirely outside of this node's radius.
+     */
+    private boolean queryRegionMayIntersectCloser(final double distanceFromVantagePointToQueryPoint, final double maxDistance) {
+        return distanceFromVantagePointToQueryPoint - this.radius <= maxDistance &&
+                distanceFromVantagePointToQueryPoint <= this.threshold + maxDistance;
+    }
+
+    /**
+     * Indicates whether a distance query's region might intersect this node's farther child.
+     */
+    private boolean queryRegionMayIntersectFarther(final double distanceFromVantagePointToQueryPoint, final double maxDistance) {
+        return distanceFromVantagePointToQueryPoint - this.radius <= maxDistance &&
+                distanceFromVantagePointToQueryPoint + maxDistance > this.threshold;
+    }
+
+    /**
+     * Gathers the points in this node and its children that are nearest to the collector's query point, recording the
+     * work done along the way. This is an instrumented copy of
+     * {@link #collectNearestNeighbors(NearestNeighborCollector, PointFilter)}, which is kept separate so uninstrumented
+     * searches never call into a statistics object (and so stay monomorphic no matter what kinds of statistics other
+     * searches use); the two make their pruning decisions with the same helper methods, and so visit nodes in exactly the
+     * same way.
+     *
+     * @param collector the collector to which candidate points should be offered
+     * @param filter a filter to apply to each candidate point
+     * @param statistics the statistics in which to record the work done by the search
+     */
+    void collectNearestNeighbors(final NearestNeighborCollector<P, E> collector, final PointFilter<? super E> filter, final QueryStatistics statistics) {
+        if (!this.mightContainAllowedPoints(filter)) {
+            statistics.recordSummaryRejection();
+            return;
+        }
+
+        final P queryPoint = collector.getQueryPoint();
+
+        if (this.points == null) {
+            statistics.recordInternalNodeVisit();
+            statistics.recordDistanceEvaluation();
+
+            final double distanceFromVantagePointToQueryPoint =
+                    this.distanceFunction.getDistance(this.vantagePoint, queryPoint);
+
+            final double distanceFromQueryPointToBall = this.getDistanceToBall(distanceFromVantagePointToQueryPoint);
+
+            if (distanceFromVantagePointToQueryPoint <= this.threshold) {
+                statistics.branchEntered(distanceFromVantagePointToQueryPoint, this.threshold, true);
+
+                final double distanceToFarthestPointBeforeCloser = collector.getDistanceToFarthestPoint();
+                final boolean searchCloser = mightHoldNearerPoint(distanceFromQueryPointToBall, distanceToFarthestPointBeforeCloser);
+
+                statistics.childConsidered(true, searchCloser, distanceFromQueryPointToBall, distanceToFarthestPointBeforeCloser);
+
+                if (searchCloser) {
+                    this.closer.collectNearestNeighbors(collector, filter, statistics);
+                } else {
+                    statistics.recordPrunedSubtree();
+                }
+
+                // We've already searched the node that contains points within this node's threshold. We also want to
+                // search the farther node if the distance from the query point to the most distant point in the
+                // neighbor collector is greater than the distance from the query point to this node's threshold, since
+                // there could be a point outside of this node that's closer than the most distant neighbor we've found
+                // so far. Until the collector is full, any point might make the cut.
+                final double distanceFromQueryPointToThreshold =
+                        this.getDistanceToFartherChild(distanceFromVantagePointToQueryPoint, distanceFromQueryPointToBall);
+                final double distanceToFarthestPoint = collector.getDistanceToFarthestPoint();
+                final boolean searchFarther =
+                        mightHoldNearerPointBeyondThreshold(distanceFromQueryPointToThreshold, distanceToFarthestPoint);
+
+                statistics.childConsidered(false, searchFarther, distanceFromQueryPointToThreshold, distanceToFarthestPoint);
+
+                if (searchFarther) {
+                    this.farther.collectNearestNeighbors(collector, filter, statistics);
+                } else {
+                    statistics.recordPrunedSubtree();
+                }
+            } else {
+                statistics.branchEntered(distanceFromVantagePointToQueryPoint, this.threshold, false);
+
+                final double distanceToFarthestPointBeforeFarther = collector.getDistanceToFarthestPoint();
+                final boolean searchFarther = mightHoldNearerPoint(distanceFromQueryPointToBall, distanceToFarthestPointBeforeFarther);
+
+                statistics.childConsidered(false, searchFarther, distanceFromQueryPointToBall, distanceToFarthestPointBeforeFarther);
+
+                if (searchFarther) {
+                    this.farther.collectNearestNeighbors(collector, filter, statistics);
+                } else {
+                    statistics.recordPrunedSubtree();
+                }
+
+                // We've already searched the node that contains points beyond this node's threshold. We want to search
+                // the within-threshold node if it's "easier" to get from the query point to this node's region than it
+                // is to get from the query point to the most distant match, since there could be a point within this
+                // node's threshold that's closer than the most distant match.
+                final double distanceFromQueryPointToThreshold =
+                        this.getDistanceToCloserChild(distanceFromVantagePointToQueryPoint, distanceFromQueryPointToBall);
+                final double distanceToFarthestPoint = collector.getDistanceToFarthestPoint();
+                final boolean searchCloser = mightHoldNearerPoint(distanceFromQueryPointToThreshold, distanceToFarthestPoint);
+
+                statistics.childConsidered(true, searchCloser, distanceFromQueryPointToThreshold, distanceToFarthestPoint);
+
+                if (searchCloser) {
+                    this.closer.collectNearestNeighbors(collector, filter, statistics);
+                } else {
+                    statistics.recordPrunedSubtree();
+                }
+            }
+
+            statistics.branchExited();
+        } else {
+            statistics.recordLeafScan();
+            statistics.leafEntered();
+
+            for (int i = 0; i < this.points.size(); i++) {
+                if (this.isTombstoned(i)) {
+                    continue;
+                }
+
+                final E point = this.points.get(i);
+
+                if (filter.allowPoint(point)) {
+                    statistics.recordDistanceEvaluation();
+                    collector.offerPoint(point, this.distanceFunction.getDistance(queryPoint, point));
+                } else {
+                    statistics.recordFilterRejection();
+                }
+            }
+
+            statistics.leafExited(collector.getDistanceToFarthestPoint());
+        }
+    }
+
+    /**
+     * Passes all points within a given maximum distance of the given query point to the given consumer, recording the
+     * work done along the way. This is an instrumented copy of
+     * {@link #visitAllWithinDistance(Object, double, PointConsumer, PointFilter)}; the two make their pruning decisions
+     * with the same helper methods.
+     *
+     * @param queryPoint the point from which to measure distance to other points
+     * @param maxDistance the distance within which to visit points
+     * @param consumer the consumer to which points within the maximum distance should be passed
+     * @param filter a filter to apply to each point within the maximum distance
+     * @param statistics the statistics in which to record the work done by the search
      */
-    public void collectAllWithinDistance(final P queryPoint, final double maxDistance, final Collection<E> collection, final PointFilter<? super E> filter) {
+    void visitAllWithinDistance(final P queryPoint, final double maxDistance, final PointConsumer<? super E> consumer, final PointFilter<? super E> filter, final QueryStatistics statistics) {
+        if (!this.mightContainAllowedPoints(filter)) {
+            statistics.recordSummaryRejection();
+            return;
+        }
+
         if (this.points == null) {
+            statistics.recordInternalNodeVisit();
+            statistics.recordDistanceEvaluation();
+
             final double distanceFromVantagePointToQueryPoint =
                     this.distanceFunction.getDistance(this.vantagePoint, queryPoint);
 
+            statistics.branchEntered(distanceFromVantagePointToQueryPoint, this.threshold, true);
+
             // We want to search any of this node's children that intersect with the query region
-            if (distanceFromVantagePointToQueryPoint <= this.threshold + maxDistance) {
-                this.closer.collectAllWithinDistance(queryPoint, maxDistance, collection, filter);
+            final boolean searchCloser = this.queryRegionMayIntersectCloser(distanceFromVantagePointToQueryPoint, maxDistance);
+            statistics.childConsidered(true, searchCloser,
+                    Math.max(distanceFromVantagePointToQueryPoint - Math.min(this.threshold, this.radius), 0), maxDistance);
+
+            if (searchCloser) {
+                this.closer.visitAllWithinDistance(queryPoint, maxDistance, consumer, filter, statistics);
+            } else {
+                statistics.recordPrunedSubtree();
             }
 
-            if (distanceFromVantagePointToQueryPoint + maxDistance > this.threshold) {
-                this.farther.collectAllWithinDistance(queryPoint, maxDistance, collection, filter);
+            final boolean searchFarther = this.queryRegionMayIntersectFarther(distanceFromVantagePointToQueryPoint, maxDistance);
+            statistics.childConsidered(false, searchFarther,
+                    Math.max(Math.max(this.threshold - distanceFromVantagePointToQueryPoint,
+                            distanceFromVantagePointToQueryPoint - this.radius), 0), maxDistance);
+
+            if (searchFarther) {
+                this.farther.visitAllWithinDistance(queryPoint, maxDistance, consumer, filter, statistics);
+            } else {
+                statistics.recordPrunedSubtree();
             }
+
+            statistics.branchExited();
         } else {
-            for (final E point : this.points) {
-                if (this.distanceFunction.getDistance(queryPoint, point) <= maxDistance) {
+            statistics.recordLeafScan();
+            statistics.leafEntered();
+
+            for (int i = 0; i < this.points.size(); i++) {
+                if (this.isTombstoned(i)) {
+                    continue;
+                }
+
+                final E point = this.points.get(i);
+
+                statistics.recordDistanceEvaluation();
+                final double distance = this.distanceFunction.getDistance(queryPoint, point);
+
+                if (distance <= maxDistance) {
+                    if (filter.allowPoint(point)) {
+                        consumer.acceptPoint(point, distance);
+                    } else {
+                        statistics.recordFilterRejection();
+                    }
+                }
+            }
+
+            statistics.leafExited(maxDistance);
+        }
+    }
+
+    /**
+     * Gathers all points whose distance from the given query point falls within the given (inclusive) range into the
+     * given collection.
+     *
+     * @param queryPoint the point from which to measure distance to other points
+     * @param minDistance the minimum distance at which to collect points
+     * @param maxDistance the maximum distance at which to collect points
+     * @param collection the collection to which points within the distance range should be added
+     * @param filter a filter to apply to each point within the distance range
+     */
+    public void collectAllWithinDistanceRange(final P queryPoint, final double minDistance, final double maxDistance, final Collection<E> collection, final PointFilter<? super E> filter) {
+        if (!this.mightContainAllowedPoints(filter)) {
+            return;
+        }
+
+        if (this.points == null) {
+            final double distanceFromVantagePointToQueryPoint =
+                    this.distanceFunction.getDistance(this.vantagePoint, queryPoint);
+
+            // Every point below this node lies within this node's radius of its vantage point, so no point in either
+            // child can be closer to the query point than the query point is to the edge of that ball
+            final double distanceFromQueryPointToBall = distanceFromVantagePointToQueryPoint - this.radius;
+
+            // Points in the closer node are no farther than the threshold from the vantage point, and so lie somewhere
+            // between (distanceFromVantagePointToQueryPoint - threshold) and (distanceFromVantagePointToQueryPoint +
+            // threshold) from the query point. We only need to search the closer node if that band overlaps the query
+            // band.
+            if (distanceFromVantagePointToQueryPoint <= this.threshold + maxDistance &&
+                    distanceFromQueryPointToBall <= maxDistance &&
+                    distanceFromVantagePointToQueryPoint + this.threshold >= minDistance) {
+
+                this.closer.collectAllWithinDistanceRange(queryPoint, minDistance, maxDistance, collection, filter);
+            }
+
+            // Points in the farther node lie between the threshold and the radius from the vantage point, and so are
+            // no farther than (distanceFromVantagePointToQueryPoint + radius) from the query point. We only need to
+            // search the farther node if the query band reaches beyond the threshold and that band overlaps it.
+            if (distanceFromVantagePointToQueryPoint + maxDistance > this.threshold &&
+                    distanceFromQueryPointToBall <= maxDistance &&
+                    distanceFromVantagePointToQueryPoint + this.radius >= minDistance) {
+
+                this.farther.collectAllWithinDistanceRange(queryPoint, minDistance, maxDistance, collection, filter);
+            }
+        } else {
+            for (int i = 0; i < this.points.size(); i++) {
+                if (this.isTombstoned(i)) {
+                    continue;
+                }
+
+                final E point = this.points.get(i);
+                final double distance = this.distanceFunction.getDistance(queryPoint, point);
+
+                if (distance >= minDistance && distance <= maxDistance) {
                     if (filter.allowPoint(point)) {
                         collection.add(point);
                     }
@@ -263,6 +1191,50 @@ class VPTreeNode<P, E extends P> {
         }
     }
 
+    /**
+     * Gathers the points in this node and its children that are farthest from the collector's query point.
+     *
+     * @param collector the collector to which candidate points should be offered
+     * @param filter a filter to apply to each candidate point
+     */
+    public void collectFarthestNeighbors(final FarthestNeighborCollector<P, E> collector, final PointFilter<? super E> filter) {
+        if (!this.mightContainAllowedPoints(filter)) {
+            return;
+        }
+
+        if (this.points == null) {
+            final double distanceFromVantagePointToQueryPoint =
+                    this.distanceFunction.getDistance(this.vantagePoint, collector.getQueryPoint());
+
+            // No point below this node can be farther from the query point than the query point's distance to the
+            // vantage point plus this node's radius; if that's not farther than the nearest point we've already
+            // collected (which may well be the case for nodes below ones we've already searched), nothing in the
+            // farther node could make the cut. Searching the farther node first tends to fill the collector with
+            // distant points quickly, which lets us skip the closer node more often.
+            if (!collector.isFull() ||
+                    distanceFromVantagePointToQueryPoint + this.radius > collector.getDistanceToNearestPoint()) {
+
+                this.farther.collectFarthestNeighbors(collector, filter);
+            }
+
+            // Likewise, no point in the closer node can be farther from the query point than the query point's distance
+            // to the vantage point plus the threshold.
+            if (!collector.isFull() ||
+                    distanceFromVantagePointToQueryPoint + this.threshold > collector.getDistanceToNearestPoint()) {
+
+                this.closer.collectFarthestNeighbors(collector, filter);
+            }
+        } else {
+            for (int i = 0; i < this.points.size(); i++) {
+                final E point = this.points.get(i);
+
+                if (!this.isTombstoned(i) && filter.allowPoint(point)) {
+                    collector.offerPoint(point);
+                }
+            }
+        }
+    }
+
     /**
      * Returns the child node (either the closer node or farther node) that would contain the given point given its
      * distance from this node's vantage point.
@@ -286,8 +1258,14 @@ class VPTreeNode<P, E extends P> {
         if (this.points == null) {
             this.closer.addAllPointsToCollection(collection);
             this.farther.addAllPointsToCollection(collection);
-        } else {
+        } else if (this.tombstoneCount == 0) {
             collection.addAll(this.points);
+        } else {
+            for (int i = 0; i < this.points.size(); i++) {
+                if (!this.tombstones.get(i)) {
+                    collection.add(this.points.get(i));
+                }
+            }
         }
     }
 
@@ -308,8 +1286,15 @@ class VPTreeNode<P, E extends P> {
 
             pointsAdded = pointsAddedFromCloserNode + pointsAddedFromFartherNode;
         } else {
-            System.arraycopy(this.points.toArray(), 0, array, offset, this.points.size());
-            pointsAdded = this.points.size();
+            int i = offset;
+
+            for (int j = 0; j < this.points.size(); j++) {
+                if (!this.isTombstoned(j)) {
+                    array[i++] = this.points.get(j);
+                }
+            }
+
+            pointsAdded = i - offset;
         }
 
         return pointsAdded;
@@ -325,33 +1310,49 @@ class VPTreeNode<P, E extends P> {
         if (this.points == null) {
             this.closer.collectIterators(collection);
             this.farther.collectIterators(collection);
-        } else {
+        } else if (this.tombstoneCount == 0) {
             collection.add(this.points.iterator());
+        } else {
+            final ArrayList<E> livePoints = new ArrayList<>(this.size());
+            this.addAllPointsToCollection(livePoints);
+
+            collection.add(livePoints.iterator());
         }
     }
 
     /**
-     * Partitions the points in the given list such that all points that fall within the given distance threshold of the
-     * given vantage point are on one "side" of the list and all points beyond the threshold are on the other.
+     * Partitions the points in the given list such that all points that fall within this node's distance threshold of
+     * its vantage point are on one "side" of the list and all points beyond the threshold are on the other. Because
+     * partitioning measures the distance from the vantage point to every point in the list, it also records the
+     * greatest of those distances as this node's radius.
      *
      * @param points the list of points to partition
-     * @param vantagePoint the point from which to measure distances
-     * @param threshold the distance threshold to be used for partitioning
-     * @param distanceFunction the function to use to calculate distances from the vantage point
      * @return the index of the first point in the list that falls beyond the distance threshold
      *
      * @throws PartitionException if the list of points could not be partitioned (i.e. because they are all the same
      * distance from the vantage point).
      */
-    private static <E> int partitionPoints(final List<E> points, final E vantagePoint, final double threshold, final DistanceFunction<? super E> distanceFunction) throws PartitionException {
+    private int partitionPoints(final List<E> points) throws PartitionException {
+        final E vantagePoint = this.vantagePoint;
+        final double threshold = this.threshold;
+        final DistanceFunction<P> distanceFunction = this.distanceFunction;
+
         int i = 0;
         int j = points.size() - 1;
 
+        double radius = 0;
+
         // This is, essentially, a single swapping quicksort iteration
         for (; i <= j; i++) {
-            if (distanceFunction.getDistance(vantagePoint, points.get(i)) > threshold) {
+            final double distanceFromVantagePoint = distanceFunction.getDistance(vantagePoint, points.get(i));
+            radius = Math.max(radius, distanceFromVantagePoint);
+
+            if (distanceFromVantagePoint > threshold) {
                 for (; j >= i; j--) {
-                    if (distanceFunction.getDistance(vantagePoint, points.get(j)) <= threshold) {
+                    final double otherDistanceFromVantagePoint = distanceFunction.getDistance(vantagePoint, points.get(j));
+                    radius = Math.max(radius, otherDistanceFromVantagePoint);
+
+                    if (otherDistanceFromVantagePoint <= threshold) {
                         Collections.swap(points, i, j--);
                         break;
                     }
@@ -359,6 +1360,8 @@ class VPTreeNode<P, E extends P> {
             }
         }
 
+        this.radius = radius;
+
         final int firstIndexPastThreshold = distanceFunction.getDistance(vantagePoint, points.get(i - 1)) > threshold ? i - 1 : i;
 
         if (distanceFunction.getDistance(vantagePoint, points.get(0)) <= threshold &&
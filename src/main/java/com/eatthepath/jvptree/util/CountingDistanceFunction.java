@@ -0,0 +1,60 @@
+package com.eatthepath.jvptree.util;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.eatthepath.jvptree.DistanceFunction;
+
+/**
+ * A distance function that counts the number of times it has been called before passing each call to another distance
+ * function. Because most of the cost of building and searching a vp-tree is in calculating distances, the number of
+ * calls is a precise, machine-independent way to compare threshold selection strategies, node capacities, and other
+ * settings. Counting distance functions may safely be shared by many threads; calls are counted with striped counters,
+ * and so threads calculating distances concurrently do not contend with one another.
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @see ProfilingDistanceFunction
+ */
+public class CountingDistanceFunction<T> implements DistanceFunction<T> {
+
+    private final DistanceFunction<T> distanceFunction;
+    private final LongAdder callCount = new LongAdder();
+
+    /**
+     * Constructs a new counting distance function that passes calls to the given distance function.
+     *
+     * @param distanceFunction the distance function to which to pass calls
+     */
+    public CountingDistanceFunction(final DistanceFunction<T> distanceFunction) {
+        this.distanceFunction = distanceFunction;
+    }
+
+    @Override
+    public double getDistance(final T firstPoint, final T secondPoint) {
+        this.callCount.increment();
+        return this.distanceFunction.getDistance(firstPoint, secondPoint);
+    }
+
+    /**
+     * Returns the number of times this distance function has been called since it was constructed or last reset.
+     *
+     * @return the number of times this distance function has been called
+     */
+    public long getCallCount() {
+        return this.callCount.sum();
+    }
+
+    /**
+     * Resets this distance function's call count to zero.
+     */
+    public void reset() {
+        this.callCount.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "CountingDistanceFunction{" +
+                "callCount=" + this.getCallCount() +
+                '}';
+    }
+}
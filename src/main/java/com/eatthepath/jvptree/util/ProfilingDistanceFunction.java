@@ -0,0 +1,274 @@
+package com.eatthepath.jvptree.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.eatthepath.jvptree.DistanceFunction;
+
+/**
+ * <p>A distance function that counts calls and measures how long calls take before passing each call to another
+ * distance function, and attributes that work to the phase of a vp-tree's life that caused it. Trees constructed with
+ * a profiling distance function automatically mark the work they do as {@linkplain Phase#BUILD building},
+ * {@linkplain Phase#INSERT inserting}, {@linkplain Phase#REMOVE removing}, {@linkplain Phase#REBUILD rebuilding}, or
+ * {@linkplain Phase#QUERY querying}; callers may also mark phases themselves with {@link #enterPhase(Phase)}.</p>
+ *
+ * <p>Every call is counted, but to keep the overhead of profiling small even for very cheap distance functions, only
+ * about one in every {@code sampleInterval} calls is timed; the total time spent in each phase is estimated from the
+ * mean duration of the sampled calls. Samples are chosen at random intervals so that they aren't synchronized with any
+ * regular pattern of calls. Phases are tracked separately for each thread, and counts and timings are kept in striped
+ * counters, so profiling distance functions may safely be shared by many threads without contention. Work done on
+ * behalf of a tree by other threads (for example, the fork/join workers used by
+ * {@link com.eatthepath.jvptree.VPTree#buildKnnGraph(int)}) is attributed to the phase of the thread that did the
+ * work, which is usually {@link Phase#OTHER}.</p>
+ *
+ * @author <a href="https://github.com/jchambers">Jon Chambers</a>
+ *
+ * @see CountingDistanceFunction
+ */
+public class ProfilingDistanceFunction<T> implements DistanceFunction<T> {
+
+    private final DistanceFunction<T> distanceFunction;
+    private final int sampleInterval;
+
+    private final LongAdder[] callCounts = createAdders();
+    private final LongAdder[] sampleCounts = createAdders();
+    private final LongAdder[] sampledNanos = createAdders();
+
+    private final ThreadLocal<ThreadState> threadState;
+
+    /**
+     * The default average number of calls per timed call.
+     */
+    public static final int DEFAULT_SAMPLE_INTERVAL = 64;
+
+    /**
+     * The phases of a vp-tree's life to which work may be attributed.
+     */
+    public enum Phase {
+        /**
+         * Constructing a tree (or adding points to an empty tree).
+         */
+        BUILD,
+
+        /**
+         * Adding points to a non-empty tree, not including any rebuilding of nodes caused by the new points.
+         */
+        INSERT,
+
+        /**
+         * Removing points from a tree, not including any rebuilding of nodes caused by the removal.
+         */
+        REMOVE,
+
+        /**
+         * Rebuilding all or part of a tree, either explicitly or to restore balance after points are added or removed.
+         */
+        REBUILD,
+
+        /**
+         * Searching a tree.
+         */
+        QUERY,
+
+        /**
+         * Any work not attributed to another phase.
+         */
+        OTHER
+    }
+
+    private static class ThreadState {
+        private Phase phase = Phase.OTHER;
+        private int callsUntilSample;
+    }
+
+    /**
+     * Constructs a new profiling distance function that passes calls to the given distance function and times a default
+     * fraction ({@code 1 / }{@value DEFAULT_SAMPLE_INTERVAL}) of calls.
+     *
+     * @param distanceFunction the distance function to which to pass calls
+     */
+    public ProfilingDistanceFunction(final DistanceFunction<T> distanceFunction) {
+        this(distanceFunction, DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    /**
+     * Constructs a new profiling distance function that passes calls to the given distance function and times, on
+     * average, one in every {@code sampleInterval} calls.
+     *
+     * @param distanceFunction the distance function to which to pass calls
+     * @param sampleInterval the average number of calls per timed call; must be positive, and a sample interval of 1
+     * times every call
+     */
+    public ProfilingDistanceFunction(final DistanceFunction<T> distanceFunction, final int sampleInterval) {
+        if (sampleInterval < 1) {
+            throw new IllegalArgumentException("Sample interval must be positive.");
+        }
+
+        this.distanceFunction = distanceFunction;
+        this.sampleInterval = sampleInterval;
+
+        this.threadState = ThreadLocal.withInitial(() -> {
+            final ThreadState state = new ThreadState();
+            state.callsUntilSample = this.getCallsUntilNextSample();
+
+            return state;
+        });
+    }
+
+    private static LongAdder[] createAdders() {
+        final LongAdder[] adders = new LongAdder[Phase.values().length];
+
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+
+        return adders;
+    }
+
+    @Override
+    public double getDistance(final T firstPoint, final T secondPoint) {
+        final ThreadState state = this.threadState.get();
+        final int phase = state.phase.ordinal();
+
+        this.callCounts[phase].increment();
+
+        if (--state.callsUntilSample > 0) {
+            return this.distanceFunction.getDistance(firstPoint, secondPoint);
+        }
+
+        state.callsUntilSample = this.getCallsUntilNextSample();
+
+        final long startNanos = System.nanoTime();
+        final double distance = this.distanceFunction.getDistance(firstPoint, secondPoint);
+
+        this.sampledNanos[phase].add(System.nanoTime() - startNanos);
+        this.sampleCounts[phase].increment();
+
+        return distance;
+    }
+
+    private int getCallsUntilNextSample() {
+        // Choose uniformly between 1 and (2 * sampleInterval) - 1 so that the mean interval is sampleInterval
+        return 1 + ThreadLocalRandom.current().nextInt(2 * this.sampleInterval - 1);
+    }
+
+    /**
+     * Attributes all subsequent calls from the current thread to the given phase. Callers should restore the previous
+     * phase when they're done:
+     *
+     * <pre>final Phase previousPhase = distanceFunction.enterPhase(Phase.QUERY);
+
+try {
+    // Do some work
+} finally {
+    distanceFunction.enterPhase(previousPhase);
+}</pre>
+     *
+     * @param phase the phase to which to attribute subsequent calls from the current thread
+     *
+     * @return the phase to which the current thread's calls were previously attributed
+     */
+    public Phase enterPhase(final Phase phase) {
+        final ThreadState state = this.threadState.get();
+        final Phase previousPhase = state.phase;
+
+        state.phase = phase;
+
+        return previousPhase;
+    }
+
+    /**
+     * Returns the number of calls attributed to the given phase since this distance function was constructed or last
+     * reset.
+     *
+     * @param phase the phase for which to count calls
+     *
+     * @return the number of calls attributed to the given phase
+     */
+    public long getCallCount(final Phase phase) {
+        return this.callCounts[phase.ordinal()].sum();
+    }
+
+    /**
+     * Returns the total number of calls to this distance function since it was constructed or last reset.
+     *
+     * @return the total number of calls to this distance function
+     */
+    public long getCallCount() {
+        long callCount = 0;
+
+        for (final LongAdder adder : this.callCounts) {
+            callCount += adder.sum();
+        }
+
+        return callCount;
+    }
+
+    /**
+     * Returns the number of timed calls attributed to the given phase since this distance function was constructed or
+     * last reset.
+     *
+     * @param phase the phase for which to count timed calls
+     *
+     * @return the number of timed calls attributed to the given phase
+     */
+    public long getSampleCount(final Phase phase) {
+        return this.sampleCounts[phase.ordinal()].sum();
+    }
+
+    /**
+     * Returns the mean duration of the timed calls attributed to the given phase.
+     *
+     * @param phase the phase for which to calculate a mean call duration
+     *
+     * @return the mean duration, in nanoseconds, of calls attributed to the given phase, or {@code NaN} if no calls
+     * attributed to the given phase have been timed
+     */
+    public double getMeanCallNanos(final Phase phase) {
+        final long sampleCount = this.getSampleCount(phase);
+
+        return sampleCount == 0 ? Double.NaN : (double) this.sampledNanos[phase.ordinal()].sum() / sampleCount;
+    }
+
+    /**
+     * Returns an estimate of the total time spent in calls attributed to the given phase, calculated from the number of
+     * calls and the mean duration of timed calls.
+     *
+     * @param phase the phase for which to estimate the time spent calculating distances
+     *
+     * @return an estimate of the total time, in nanoseconds, spent in calls attributed to the given phase; 0 if no
+     * calls attributed to the given phase have been timed
+     */
+    public long getEstimatedNanos(final Phase phase) {
+        final long sampleCount = this.getSampleCount(phase);
+
+        return sampleCount == 0 ? 0 : Math.round(this.getMeanCallNanos(phase) * this.getCallCount(phase));
+    }
+
+    /**
+     * Resets all counts and timings to zero. Phases entered by threads are not affected.
+     */
+    public void reset() {
+        for (int i = 0; i < this.callCounts.length; i++) {
+            this.callCounts[i].reset();
+            this.sampleCounts[i].reset();
+            this.sampledNanos[i].reset();
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("ProfilingDistanceFunction{");
+
+        for (final Phase phase : Phase.values()) {
+            if (phase.ordinal() > 0) {
+                builder.append(", ");
+            }
+
+            builder.append(phase).append("={calls=").append(this.getCallCount(phase))
+                    .append(", estimatedNanos=").append(this.getEstimatedNanos(phase)).append('}');
+        }
+
+        return builder.append('}').toString();
+    }
+}
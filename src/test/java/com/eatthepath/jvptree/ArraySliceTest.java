@@ -0,0 +1,68 @@
+package com.eatthepath.jvptree;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ArraySliceTest {
+
+    @Test
+    public void testGetAndSet() {
+        final Object[] array = new Object[] { 0, 1, 2, 3, 4, 5 };
+        final ArraySlice<Integer> slice = new ArraySlice<Integer>(array).subList(1, 4);
+
+        assertEquals(3, slice.size());
+        assertEquals(Arrays.asList(1, 2, 3), slice);
+
+        assertEquals(2, slice.set(1, 7));
+        assertEquals(7, array[2]);
+
+        Collections.swap(slice, 0, 2);
+        assertArrayEquals(new Object[] { 0, 3, 7, 1, 4, 5 }, array);
+
+        assertThrows(IndexOutOfBoundsException.class, () -> slice.get(3));
+        assertThrows(IndexOutOfBoundsException.class, () -> slice.get(-1));
+        assertThrows(UnsupportedOperationException.class, () -> slice.add(8));
+    }
+
+    @Test
+    public void testSubList() {
+        final Object[] array = new Object[] { 0, 1, 2, 3, 4, 5 };
+        final ArraySlice<Integer> slice = new ArraySlice<Integer>(array).subList(1, 5);
+        final ArraySlice<Integer> subSlice = slice.subList(1, 3);
+
+        assertEquals(Arrays.asList(2, 3), subSlice);
+
+        subSlice.set(0, 9);
+        assertEquals(9, slice.get(1));
+
+        assertTrue(slice.subList(2, 2).isEmpty());
+        assertThrows(IndexOutOfBoundsException.class, () -> slice.subList(3, 5));
+        assertThrows(IndexOutOfBoundsException.class, () -> slice.subList(2, 1));
+    }
+
+    @Test
+    public void testToArray() {
+        final Object[] array = new Object[] { 0, 1, 2, 3, 4, 5 };
+        final ArraySlice<Integer> slice = new ArraySlice<Integer>(array).subList(2, 5);
+
+        final Object[] copy = slice.toArray();
+        assertArrayEquals(new Object[] { 2, 3, 4 }, copy);
+
+        copy[0] = 17;
+        assertEquals(2, array[2]);
+
+        assertArrayEquals(new Integer[] { 2, 3, 4 }, slice.toArray(new Integer[0]));
+    }
+
+    @Test
+    public void testRelease() {
+        final Object[] array = new Object[] { 0, 1, 2, 3, 4, 5 };
+        new ArraySlice<Integer>(array).subList(1, 3).release();
+
+        assertArrayEquals(new Object[] { 0, null, null, 3, 4, 5 }, array);
+    }
+}
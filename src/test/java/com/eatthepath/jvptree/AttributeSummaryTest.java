@@ -0,0 +1,59 @@
+package com.eatthepath.jvptree;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AttributeSummaryTest {
+
+    @Test
+    public void testMightContain() {
+        final AttributeSummary summary = new AttributeSummary();
+
+        assertFalse(summary.mightContain("a"));
+        assertFalse(summary.mightContain(null));
+
+        summary.add("a");
+        summary.add(null);
+
+        assertTrue(summary.mightContain("a"));
+        assertTrue(summary.mightContain(null));
+
+        // Bloom filters can have false positives, but with only two values in the summary, most other values should be
+        // ruled out
+        int falsePositives = 0;
+
+        for (int i = 0; i < 1000; i++) {
+            if (summary.mightContain(i)) {
+                falsePositives += 1;
+            }
+        }
+
+        assertTrue(falsePositives < 10);
+    }
+
+    @Test
+    public void testMightContainAny() {
+        final AttributeSummary summary = new AttributeSummary();
+        summary.add(17);
+
+        assertTrue(summary.mightContainAny(Arrays.asList(3, 17)));
+        assertFalse(summary.mightContainAny(Arrays.asList()));
+    }
+
+    @Test
+    public void testAddAll() {
+        final AttributeSummary first = new AttributeSummary();
+        final AttributeSummary second = new AttributeSummary();
+
+        first.add("a");
+        second.add("b");
+        first.addAll(second);
+
+        assertTrue(first.mightContain("a"));
+        assertTrue(first.mightContain("b"));
+        assertFalse(second.mightContain("a"));
+    }
+}
@@ -0,0 +1,145 @@
+package com.eatthepath.jvptree;
+
+import com.eatthepath.jvptree.BoundedVPTree.EvictionPolicy;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BoundedVPTreeTest {
+
+    @Test
+    public void testBoundedVPTreeIllegalArguments() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new BoundedVPTree<Number, Integer>(new IntegerDistanceFunction(), 0, EvictionPolicy.RANDOM));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new BoundedVPTree<Number, Integer>(new IntegerDistanceFunction(), 4, 10, 0, EvictionPolicy.RANDOM));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new BoundedVPTree<Number, Integer>(new IntegerDistanceFunction(), 4, 10, 11, EvictionPolicy.RANDOM));
+    }
+
+    @Test
+    public void testFirstInFirstOut() {
+        final BoundedVPTree<Number, Integer> index =
+                new BoundedVPTree<>(new IntegerDistanceFunction(), 4, 100, 10, EvictionPolicy.FIRST_IN_FIRST_OUT);
+
+        for (int i = 0; i < 100; i++) {
+            index.add(i);
+        }
+
+        assertEquals(100, index.size());
+        assertEquals(0, index.getEvictionCount());
+
+        // Queries don't affect eviction order under FIFO
+        assertEquals(new HashSet<>(Arrays.asList(0, 1)), new HashSet<>(index.getNearestNeighbors(0, 2)));
+        assertEquals(2, index.getHitCount());
+
+        // Exceeding capacity evicts a full batch of the oldest points
+        index.add(100);
+
+        assertEquals(91, index.size());
+        assertEquals(10, index.getEvictionCount());
+
+        for (int i = 0; i < 10; i++) {
+            assertFalse(index.contains(i));
+        }
+
+        assertTrue(index.contains(10));
+        assertTrue(index.contains(100));
+        assertEquals(new HashSet<>(Arrays.asList(10, 11)), new HashSet<>(index.getNearestNeighbors(0, 2)));
+    }
+
+    @Test
+    public void testLeastRecentlyUsed() {
+        final BoundedVPTree<Number, Integer> index =
+                new BoundedVPTree<>(new IntegerDistanceFunction(), 4, 100, 10, EvictionPolicy.LEAST_RECENTLY_USED);
+
+        for (int i = 0; i < 100; i++) {
+            index.add(i);
+        }
+
+        // Returning points from queries marks them as recently used
+        assertEquals(new HashSet<>(Arrays.asList(0, 1, 2, 3, 4)), new HashSet<>(index.getAllWithinDistance(2, 2)));
+        assertEquals(5, index.getHitCount());
+
+        index.add(100);
+
+        assertEquals(91, index.size());
+        assertEquals(10, index.getEvictionCount());
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(index.contains(i));
+        }
+
+        for (int i = 5; i < 15; i++) {
+            assertFalse(index.contains(i));
+        }
+
+        assertTrue(index.contains(15));
+    }
+
+    @Test
+    public void testRandom() {
+        final BoundedVPTree<Number, Integer> index =
+                new BoundedVPTree<>(new IntegerDistanceFunction(), 4, 100, 10, EvictionPolicy.RANDOM);
+
+        final List<Integer> points = new ArrayList<>();
+
+        for (int i = 0; i < 1000; i++) {
+            points.add(i);
+        }
+
+        assertTrue(index.addAll(points));
+
+        assertTrue(index.size() <= 100);
+        assertEquals(1000 - index.size(), index.getEvictionCount());
+
+        // Whatever survived eviction must still be searchable
+        for (final Integer point : new ArrayList<>(index)) {
+            assertEquals(point, index.getNearestNeighbors(point, 1).get(0));
+        }
+
+        // ...and nothing that was evicted should be left behind in the underlying tree
+        assertEquals(new HashSet<>(index), new HashSet<>(index.getAllWithinDistance(500, 1000)));
+        assertEquals(index.size(), index.getAllWithinDistance(500, 1000).size());
+    }
+
+    @Test
+    public void testRemove() {
+        final BoundedVPTree<Number, Integer> index =
+                new BoundedVPTree<>(new IntegerDistanceFunction(), 4, 100, 10, EvictionPolicy.LEAST_RECENTLY_USED);
+
+        for (int i = 0; i < 20; i++) {
+            index.add(i);
+        }
+
+        assertTrue(index.remove(7));
+        assertFalse(index.remove(7));
+        assertFalse(index.remove("Not a number"));
+        assertFalse(index.contains(7));
+
+        assertTrue(index.removeAll(Arrays.asList(1, 2, 3)));
+        assertFalse(index.removeAll(Arrays.asList(1, 2, 3)));
+        assertTrue(index.retainAll(Arrays.asList(4, 5, 6, 8)));
+
+        final Iterator<Integer> iterator = index.iterator();
+        assertEquals(4, (int) iterator.next());
+        iterator.remove();
+
+        assertEquals(Arrays.asList(5, 6, 8), new ArrayList<>(index));
+        assertEquals(new HashSet<>(Arrays.asList(5, 6)), new HashSet<>(index.getNearestNeighbors(4, 2)));
+
+        index.clear();
+
+        assertTrue(index.isEmpty());
+        assertTrue(index.getNearestNeighbors(4, 2).isEmpty());
+        assertEquals(0, index.getEvictionCount());
+    }
+}
@@ -0,0 +1,199 @@
+package com.eatthepath.jvptree;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import com.eatthepath.jvptree.util.MedianDistanceThresholdSelectionStrategy;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DBSCANClustererTest {
+
+    @Test
+    void testCluster() {
+        final List<Integer> points = new ArrayList<>();
+
+        for (int i = 0; i < 100; i++) {
+            points.add(i);
+        }
+
+        for (int i = 200; i < 300; i += 2) {
+            points.add(i);
+        }
+
+        // A lone point far away from everything else should be noise
+        points.add(1000);
+
+        final VPTree<Number, Integer> vpTree =
+                new VPTree<>(new IntegerDistanceFunction(), new MedianDistanceThresholdSelectionStrategy<>(), 4, points);
+
+        final Integer[] pointsInTree = vpTree.toArray(new Integer[0]);
+        final int[] labels = new DBSCANClusterer<Number, Integer>(4, 4).cluster(vpTree);
+
+        assertEquals(pointsInTree.length, labels.length);
+
+        final Map<Integer, Integer> labelsByPoint = new HashMap<>();
+
+        for (int i = 0; i < pointsInTree.length; i++) {
+            labelsByPoint.put(pointsInTree[i], labels[i]);
+        }
+
+        assertEquals(DBSCANClusterer.NOISE, (int) labelsByPoint.get(1000));
+
+        final int firstClusterLabel = labelsByPoint.get(0);
+        final int secondClusterLabel = labelsByPoint.get(200);
+
+        assertNotEquals(DBSCANClusterer.NOISE, firstClusterLabel);
+        assertNotEquals(DBSCANClusterer.NOISE, secondClusterLabel);
+        assertNotEquals(firstClusterLabel, secondClusterLabel);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(firstClusterLabel, (int) labelsByPoint.get(i));
+        }
+
+        for (int i = 200; i < 300; i += 2) {
+            assertEquals(secondClusterLabel, (int) labelsByPoint.get(i));
+        }
+
+        // Clusters should be numbered in order of first appearance
+        int expectedNextLabel = 0;
+
+        for (final int label : labels) {
+            if (label == expectedNextLabel) {
+                expectedNextLabel += 1;
+            } else {
+                assertTrue(label < expectedNextLabel);
+            }
+        }
+
+        assertEquals(2, expectedNextLabel);
+    }
+
+    @Test
+    void testClusterMatchesNaiveCorePoints() {
+        final Random random = new Random(17);
+        final List<Double> points = new ArrayList<>();
+
+        for (int i = 0; i < 2000; i++) {
+            points.add(random.nextDouble());
+        }
+
+        final DistanceFunction<Double> distanceFunction = (a, b) -> Math.abs(a - b);
+        final VPTree<Double, Double> vpTree =
+                new VPTree<>(distanceFunction, new MedianDistanceThresholdSelectionStrategy<>(), 8, points);
+
+        final double epsilon = 0.001;
+        final int minPoints = 4;
+
+        final Double[] pointsInTree = vpTree.toArray(new Double[0]);
+        final int[] labels = new DBSCANClusterer<Double, Double>(epsilon, minPoints).cluster(vpTree);
+
+        // Core points that are within epsilon of one another must share a label, and no two core points may share a
+        // label unless they're connected by a chain of core points.
+        final List<Integer> coreIndices = new ArrayList<>();
+
+        for (int i = 0; i < pointsInTree.length; i++) {
+            int neighbors = 0;
+
+            for (final Double point : pointsInTree) {
+                if (distanceFunction.getDistance(pointsInTree[i], point) <= epsilon) {
+                    neighbors += 1;
+                }
+            }
+
+            if (neighbors >= minPoints) {
+                coreIndices.add(i);
+                assertNotEquals(DBSCANClusterer.NOISE, labels[i]);
+            }
+        }
+
+        assertFalse(coreIndices.isEmpty());
+
+        // In one dimension, sorted core points form a chain; consecutive core points share a cluster if and only if
+        // they're within epsilon of one another.
+        coreIndices.sort((a, b) -> Double.compare(pointsInTree[a], pointsInTree[b]));
+
+        final Set<Integer> labelsSeen = new HashSet<>();
+
+        for (int i = 1; i < coreIndices.size(); i++) {
+            final int previous = coreIndices.get(i - 1);
+            final int current = coreIndices.get(i);
+
+            if (distanceFunction.getDistance(pointsInTree[previous], pointsInTree[current]) <= epsilon) {
+                assertEquals(labels[previous], labels[current]);
+            } else {
+                assertTrue(labelsSeen.add(labels[previous]));
+            }
+        }
+    }
+
+    @Test
+    void testClusterBorderPointsDeterministically() {
+        final List<Integer> points = new ArrayList<>();
+
+        // Two clusters (0-10 and 14-24) with a border point (12) that can be reached from a core point in either one
+        for (int i = 0; i <= 10; i++) {
+            points.add(i);
+            points.add(i + 14);
+        }
+
+        points.add(12);
+
+        final VPTree<Number, Integer> vpTree =
+                new VPTree<>(new IntegerDistanceFunction(), new MedianDistanceThresholdSelectionStrategy<>(), 4, points);
+
+        final List<Integer> pointsInTree = new ArrayList<>(vpTree);
+        final int borderPointIndex = pointsInTree.indexOf(12);
+
+        // The border point should join the cluster of whichever of its core neighbors comes first
+        final int expectedOwnerIndex = Math.min(pointsInTree.indexOf(10), pointsInTree.indexOf(14));
+
+        for (int parallelism = 1; parallelism <= 8; parallelism++) {
+            final ForkJoinPool forkJoinPool = new ForkJoinPool(parallelism);
+
+            try {
+                for (int i = 0; i < 10; i++) {
+                    final int[] labels = new DBSCANClusterer<Number, Integer>(2, 4).cluster(vpTree, forkJoinPool);
+
+                    assertNotEquals(labels[pointsInTree.indexOf(10)], labels[pointsInTree.indexOf(14)]);
+                    assertEquals(labels[expectedOwnerIndex], labels[borderPointIndex]);
+                }
+            } finally {
+                forkJoinPool.shutdown();
+            }
+        }
+    }
+
+    @Test
+    void testClusterSparsePoints() {
+        final List<Integer> points = new ArrayList<>();
+
+        for (int i = 0; i < 100; i++) {
+            points.add(i * 10);
+        }
+
+        final VPTree<Number, Integer> vpTree = new VPTree<>(new IntegerDistanceFunction(), points);
+
+        for (final int label : new DBSCANClusterer<Number, Integer>(2, 2).cluster(vpTree)) {
+            assertEquals(DBSCANClusterer.NOISE, label);
+        }
+    }
+
+    @Test
+    void testClusterEmptyTree() {
+        assertEquals(0, new DBSCANClusterer<Number, Integer>(1, 1).cluster(new VPTree<>(new IntegerDistanceFunction())).length);
+    }
+
+    @Test
+    void testIllegalArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new DBSCANClusterer<Number, Integer>(-1, 1));
+        assertThrows(IllegalArgumentException.class, () -> new DBSCANClusterer<Number, Integer>(1, 0));
+    }
+}
@@ -0,0 +1,83 @@
+package com.eatthepath.jvptree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FarthestNeighborCollectorTest {
+
+    private FarthestNeighborCollector<Number, Integer> collector;
+
+    private static final int CAPACITY = 5;
+
+    @BeforeEach
+    void setup() {
+        this.collector = new FarthestNeighborCollector<>(0, new IntegerDistanceFunction(), CAPACITY);
+    }
+
+    @Test
+    void testOfferPointAndGetDistanceToNearestPoint() {
+        assertFalse(this.collector.isFull(), "Empty collector should not be full.");
+        assertEquals(0, this.collector.getDistanceToNearestPoint(),
+                "Distance to nearest point in an empty collector should be zero.");
+
+        this.collector.offerPoint(17);
+        assertEquals(17, this.collector.getDistanceToNearestPoint(),
+                "Nearest point in collector with single element should be the single element");
+
+        this.collector.offerPoint(2);
+        assertEquals(2, this.collector.getDistanceToNearestPoint(),
+                "Nearest point after adding a closer point to a non-full collector should be the closer point");
+
+        for (int i = 0; i < CAPACITY; i++) {
+            this.collector.offerPoint(30);
+        }
+
+        assertTrue(this.collector.isFull());
+        assertEquals(30, this.collector.getDistanceToNearestPoint(),
+                "Nearest point after flushing with identical farther points should be farther point");
+
+        for (int i = 0; i < CAPACITY; i++) {
+            this.collector.offerPoint(1);
+        }
+
+        assertEquals(30, this.collector.getDistanceToNearestPoint(),
+                "Nearest point after flushing with identical closer points should still be farther point");
+    }
+
+    @Test
+    public void testToSortedList() {
+        assertTrue(this.collector.toSortedList().isEmpty(), "Sorted list from empty collector should be empty.");
+
+        this.collector.offerPoint(19);
+        this.collector.offerPoint(77);
+        this.collector.offerPoint(4);
+        this.collector.offerPoint(1);
+        this.collector.offerPoint(2);
+        this.collector.offerPoint(62);
+        this.collector.offerPoint(8375);
+        this.collector.offerPoint(3);
+        this.collector.offerPoint(5);
+        this.collector.offerPoint(5);
+
+        final ArrayList<Integer> expectedList = new ArrayList<>();
+        Collections.addAll(expectedList, 8375, 77, 62, 19, 5);
+
+        assertEquals(CAPACITY, expectedList.size());
+        assertEquals(expectedList, this.collector.toSortedList());
+
+        // Sorting shouldn't disturb the collector's ability to take more points
+        this.collector.offerPoint(100);
+        this.collector.offerPoint(6);
+
+        expectedList.add(1, 100);
+        expectedList.remove(5);
+
+        assertEquals(expectedList, this.collector.toSortedList());
+        assertEquals(19, this.collector.getDistanceToNearestPoint());
+    }
+}
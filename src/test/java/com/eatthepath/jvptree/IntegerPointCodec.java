@@ -0,0 +1,18 @@
+package com.eatthepath.jvptree;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+public class IntegerPointCodec implements PointCodec<Integer> {
+
+    @Override
+    public void write(final Integer point, final DataOutput out) throws IOException {
+        out.writeInt(point);
+    }
+
+    @Override
+    public Integer read(final DataInput in) throws IOException {
+        return in.readInt();
+    }
+}
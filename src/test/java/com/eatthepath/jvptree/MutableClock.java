@@ -0,0 +1,33 @@
+package com.eatthepath.jvptree;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+/**
+ * A clock that starts at the epoch and only moves when a test advances it.
+ */
+public class MutableClock extends Clock {
+    private Instant instant = Instant.EPOCH;
+
+    void advance(final Duration duration) {
+        this.instant = this.instant.plus(duration);
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(final ZoneId zone) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Instant instant() {
+        return this.instant;
+    }
+}
@@ -1,6 +1,8 @@
 package com.eatthepath.jvptree;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -66,9 +68,114 @@ public class NearestNeighborCollectorTest {
         this.collector.offerPoint(5);
 
         final ArrayList<Integer> expectedList = new ArrayList<>();
-        java.util.Collections.addAll(expectedList, 1, 2, 3, 4, 5);
+        Collections.addAll(expectedList, 1, 2, 3, 4, 5);
 
         assertEquals(CAPACITY, expectedList.size());
         assertEquals(expectedList, this.collector.toSortedList());
     }
+
+    @Test
+    void testGetPointAndGetDistance() {
+        this.collector.offerPoint(19);
+        this.collector.offerPoint(4);
+        this.collector.offerPoint(77);
+
+        assertEquals(3, this.collector.size());
+
+        assertEquals(4, this.collector.getPoint(0));
+        assertEquals(19, this.collector.getPoint(1));
+        assertEquals(77, this.collector.getPoint(2));
+
+        assertEquals(4, this.collector.getDistance(0));
+        assertEquals(19, this.collector.getDistance(1));
+        assertEquals(77, this.collector.getDistance(2));
+
+        assertThrows(IndexOutOfBoundsException.class, () -> this.collector.getPoint(3));
+
+        // Reading results shouldn't prevent the collector from accepting more points
+        this.collector.offerPoint(1);
+        this.collector.offerPoint(2);
+        this.collector.offerPoint(3);
+
+        assertEquals(CAPACITY, this.collector.size());
+        assertEquals(Arrays.asList(1, 2, 3, 4, 19), this.collector.toSortedList());
+    }
+
+    @Test
+    void testReset() {
+        final NearestNeighborCollector<Number, Integer> reusableCollector = new NearestNeighborCollector<>();
+
+        reusableCollector.reset(0, 2);
+        reusableCollector.offerPoint(7, 7);
+        reusableCollector.offerPoint(3, 3);
+        reusableCollector.offerPoint(5, 5);
+
+        assertEquals(Arrays.asList(3, 5), reusableCollector.toSortedList());
+
+        reusableCollector.reset(10, 40);
+        assertEquals(0, reusableCollector.size());
+
+        for (int i = 0; i < 100; i++) {
+            reusableCollector.offerPoint(i, Math.abs(10 - i));
+        }
+
+        assertEquals(40, reusableCollector.size());
+        assertEquals(10, reusableCollector.getPoint(0));
+        assertEquals(0, reusableCollector.getDistance(0));
+
+        assertThrows(IllegalArgumentException.class, () -> reusableCollector.reset(0, 0));
+    }
+
+    @Test
+    void testOfferPointWithoutKnownDistance() {
+        final NearestNeighborCollector<Number, Integer> reusableCollector = new NearestNeighborCollector<>();
+
+        // Collectors without a distance function can only take points with known distances
+        reusableCollector.reset(0, 2);
+        assertThrows(IllegalStateException.class, () -> reusableCollector.offerPoint(3));
+
+        reusableCollector.reset(0, new IntegerDistanceFunction(), 2);
+        reusableCollector.offerPoint(7);
+        reusableCollector.offerPoint(3);
+        reusableCollector.offerPoint(5);
+
+        assertEquals(Arrays.asList(3, 5), reusableCollector.toSortedList());
+
+        // Resetting without a distance function should keep the one the collector already has
+        reusableCollector.reset(10, 1);
+        reusableCollector.offerPoint(8);
+        reusableCollector.offerPoint(11);
+
+        assertEquals(Collections.singletonList(11), reusableCollector.toSortedList());
+    }
+
+    @Test
+    void testSharedDistanceBound() {
+        final SharedDistanceBound sharedDistanceBound = new SharedDistanceBound();
+
+        final NearestNeighborCollector<Number, Integer> first = new NearestNeighborCollector<>(0, new IntegerDistanceFunction(), 2);
+        final NearestNeighborCollector<Number, Integer> second = new NearestNeighborCollector<>(0, new IntegerDistanceFunction(), 2);
+
+        first.setSharedDistanceBound(sharedDistanceBound);
+        second.setSharedDistanceBound(sharedDistanceBound);
+
+        assertEquals(Double.POSITIVE_INFINITY, second.getDistanceToFarthestPoint());
+
+        // A collector only lowers the shared bound once it's full
+        first.offerPoint(3);
+        assertEquals(Double.POSITIVE_INFINITY, second.getDistanceToFarthestPoint());
+
+        first.offerPoint(5);
+        assertEquals(5, sharedDistanceBound.get());
+        assertEquals(5, second.getDistanceToFarthestPoint());
+
+        second.offerPoint(8);
+        second.offerPoint(9);
+        assertEquals(5, second.getDistanceToFarthestPoint());
+
+        second.offerPoint(1);
+        second.offerPoint(2);
+        assertEquals(2, sharedDistanceBound.get());
+        assertEquals(2, first.getDistanceToFarthestPoint());
+    }
 }
@@ -0,0 +1,297 @@
+package com.eatthepath.jvptree;
+
+import com.eatthepath.jvptree.util.MedianDistanceThresholdSelectionStrategy;
+import com.eatthepath.jvptree.util.ProfilingDistanceFunction;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PartitionedVPTreeTest {
+
+    private static final int BRUTE_FORCE_CUTOFF = 16;
+
+    @Test
+    public void testPartitionedVPTreeIllegalArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new PartitionedVPTree<Integer, Number, Integer>(
+                new IntegerDistanceFunction(), new MedianDistanceThresholdSelectionStrategy<>(), 0,
+                point -> point / 100, BRUTE_FORCE_CUTOFF, Clock.systemUTC()));
+
+        assertThrows(IllegalArgumentException.class, () -> new PartitionedVPTree<Integer, Number, Integer>(
+                new IntegerDistanceFunction(), new MedianDistanceThresholdSelectionStrategy<>(), 4,
+                point -> point / 100, -1, Clock.systemUTC()));
+    }
+
+    @Test
+    public void testAdd() {
+        final PartitionedVPTree<Integer, Number, Integer> index = this.createTestIndex(Clock.systemUTC());
+
+        // One large partition and one small partition
+        for (int i = 0; i < 100; i++) {
+            index.add(i);
+        }
+
+        for (int i = 100; i < 110; i++) {
+            index.add(i);
+        }
+
+        assertEquals(110, index.size());
+        assertEquals(new HashSet<>(Arrays.asList(0, 1)), index.getPartitionKeys());
+        assertEquals(100, index.getPartitionSize(0));
+        assertEquals(10, index.getPartitionSize(1));
+        assertEquals(0, index.getPartitionSize(2));
+
+        assertTrue(index.isPartitionIndexed(0));
+        assertFalse(index.isPartitionIndexed(1));
+
+        assertTrue(index.contains(50));
+        assertTrue(index.contains(105));
+        assertFalse(index.contains(205));
+        assertFalse(index.contains("Not a point"));
+    }
+
+    @Test
+    public void testGetNearestNeighbors() {
+        final PartitionedVPTree<Integer, Number, Integer> index = this.createTestIndex(Clock.systemUTC());
+
+        for (int i = 0; i < 110; i++) {
+            index.add(i);
+        }
+
+        // Points from neighboring partitions should be merged in cross-partition queries...
+        assertEquals(new HashSet<>(Arrays.asList(98, 99, 100)), new HashSet<>(index.getNearestNeighbors(99, 3)));
+
+        // ...but not in queries that name a single partition
+        assertEquals(new HashSet<>(Arrays.asList(96, 97, 98, 99)), new HashSet<>(index.getNearestNeighbors(0, 99, 4)));
+        assertEquals(new HashSet<>(Arrays.asList(100, 101, 102, 103)), new HashSet<>(index.getNearestNeighbors(1, 99, 4)));
+
+        assertEquals(new HashSet<>(Arrays.asList(100, 102)),
+                new HashSet<>(index.getNearestNeighbors(1, 99, 2, point -> point.intValue() % 2 == 0)));
+
+        assertEquals(new HashSet<>(Arrays.asList(98, 99, 100)),
+                new HashSet<>(index.getNearestNeighbors(Arrays.asList(0, 1, 7), 99, 3, point -> true)));
+
+        assertTrue(index.getNearestNeighbors(7, 99, 4).isEmpty());
+    }
+
+    @Test
+    public void testGetNearestNeighborsProfiled() {
+        final ProfilingDistanceFunction<Number> distanceFunction =
+                new ProfilingDistanceFunction<>(new IntegerDistanceFunction());
+
+        final PartitionedVPTree<Integer, Number, Integer> index = new PartitionedVPTree<>(distanceFunction,
+                new MedianDistanceThresholdSelectionStrategy<>(), 4, point -> point / 100, BRUTE_FORCE_CUTOFF,
+                Clock.systemUTC());
+
+        for (int i = 0; i < 200; i++) {
+            index.add(i);
+        }
+
+        assertTrue(index.isPartitionIndexed(0));
+        assertTrue(index.isPartitionIndexed(1));
+
+        distanceFunction.reset();
+
+        // Searches of indexed partitions should go through each partition's instrumented query path, and so be
+        // attributed to queries
+        assertEquals(new HashSet<>(Arrays.asList(98, 99, 100)), new HashSet<>(index.getNearestNeighbors(99, 3)));
+        assertEquals(new HashSet<>(Arrays.asList(100, 101)), new HashSet<>(index.getNearestNeighbors(1, 99, 2)));
+        assertTrue(distanceFunction.getCallCount() > 0);
+        assertEquals(distanceFunction.getCallCount(), distanceFunction.getCallCount(ProfilingDistanceFunction.Phase.QUERY));
+    }
+
+    @Test
+    public void testGetAllWithinDistance() {
+        final PartitionedVPTree<Integer, Number, Integer> index = this.createTestIndex(Clock.systemUTC());
+
+        for (int i = 0; i < 110; i++) {
+            index.add(i);
+        }
+
+        assertEquals(new HashSet<>(Arrays.asList(97, 98, 99, 100, 101)),
+                new HashSet<>(index.getAllWithinDistance(99, 2)));
+
+        assertEquals(new HashSet<>(Arrays.asList(97, 98, 99)), new HashSet<>(index.getAllWithinDistance(0, 99, 2)));
+        assertEquals(new HashSet<>(Arrays.asList(100, 101)), new HashSet<>(index.getAllWithinDistance(1, 99, 2)));
+
+        assertEquals(Collections.singletonList(100),
+                index.getAllWithinDistance(1, 99, 2, point -> point.intValue() % 2 == 0));
+
+        assertTrue(index.getAllWithinDistance(7, 99, 2).isEmpty());
+    }
+
+    @Test
+    public void testRemove() {
+        final PartitionedVPTree<Integer, Number, Integer> index = this.createTestIndex(Clock.systemUTC());
+
+        for (int i = 0; i < 110; i++) {
+            index.add(i);
+        }
+
+        assertFalse(index.remove(200));
+        assertFalse(index.remove("Not a point"));
+
+        assertTrue(index.remove(50));
+        assertTrue(index.remove(105));
+        assertFalse(index.contains(50));
+        assertFalse(index.contains(105));
+        assertEquals(108, index.size());
+
+        // Removing the last point in a partition should discard the partition
+        assertTrue(index.removeAll(Arrays.asList(100, 101, 102, 103, 104, 106, 107, 108, 109)));
+        assertEquals(Collections.singleton(0), index.getPartitionKeys());
+
+        assertTrue(index.retainAll(Arrays.asList(1, 2, 3)));
+        assertEquals(new HashSet<>(Arrays.asList(1, 2, 3)), new HashSet<>(index));
+    }
+
+    @Test
+    public void testRemoveDuplicatePoints() {
+        // Partition 0 holds enough points to be indexed with a tree, while partition 1 is small enough to be scanned;
+        // both hold two copies of each point
+        for (final Collection<Integer> pointsToRemove : Arrays.<Collection<Integer>>asList(
+                Arrays.asList(5, 102), new HashSet<>(Arrays.asList(5, 102)))) {
+
+            final PartitionedVPTree<Integer, Number, Integer> index = this.createDuplicateTestIndex();
+
+            assertTrue(index.isPartitionIndexed(0));
+            assertFalse(index.isPartitionIndexed(1));
+
+            assertTrue(index.removeAll(pointsToRemove));
+            assertEquals(198, index.getPartitionSize(0));
+            assertEquals(8, index.getPartitionSize(1));
+            assertFalse(index.contains(5));
+            assertFalse(index.contains(102));
+        }
+
+        final PartitionedVPTree<Integer, Number, Integer> index = this.createDuplicateTestIndex();
+
+        assertTrue(index.remove(5));
+        assertTrue(index.remove(102));
+        assertEquals(199, index.getPartitionSize(0));
+        assertEquals(9, index.getPartitionSize(1));
+        assertTrue(index.contains(5));
+        assertTrue(index.contains(102));
+    }
+
+    @Test
+    public void testRemovePartition() {
+        final PartitionedVPTree<Integer, Number, Integer> index = this.createTestIndex(Clock.systemUTC());
+
+        for (int i = 0; i < 110; i++) {
+            index.add(i);
+        }
+
+        assertEquals(100, index.removePartition(0));
+        assertEquals(0, index.removePartition(0));
+
+        assertEquals(10, index.size());
+        assertEquals(Collections.singleton(1), index.getPartitionKeys());
+        assertEquals(new HashSet<>(Arrays.asList(100, 101)), new HashSet<>(index.getNearestNeighbors(0, 2)));
+    }
+
+    @Test
+    public void testCompactIdlePartitions() {
+        final MutableClock clock = new MutableClock();
+        final PartitionedVPTree<Integer, Number, Integer> index = this.createTestIndex(clock);
+
+        for (int i = 0; i < 200; i++) {
+            index.add(i);
+        }
+
+        assertTrue(index.isPartitionIndexed(0));
+        assertTrue(index.isPartitionIndexed(1));
+
+        // Shrink the first partition below the brute-force cutoff
+        for (int i = 10; i < 100; i++) {
+            index.remove(i);
+        }
+
+        clock.advance(Duration.ofMinutes(10));
+
+        // Using the second partition should keep it from being compacted
+        assertEquals(Collections.singletonList(150), index.getNearestNeighbors(1, 150, 1));
+
+        assertEquals(1, index.compactIdlePartitions(Duration.ofMinutes(5)));
+        assertFalse(index.isPartitionIndexed(0));
+        assertTrue(index.isPartitionIndexed(1));
+
+        // The first partition hasn't changed since it was compacted, and so there's no need to compact it again
+        clock.advance(Duration.ofMinutes(10));
+        assertEquals(1, index.compactIdlePartitions(Duration.ofMinutes(5)));
+        assertEquals(0, index.compactIdlePartitions(Duration.ofMinutes(5)));
+
+        assertEquals(10, index.getPartitionSize(0));
+        assertEquals(new HashSet<>(Arrays.asList(8, 9)), new HashSet<>(index.getNearestNeighbors(0, 20, 2)));
+
+        index.compactPartition(1);
+
+        assertTrue(index.isPartitionIndexed(1));
+        assertEquals(100, index.getPartitionSize(1));
+        assertEquals(new HashSet<>(Arrays.asList(149, 150, 151)), new HashSet<>(index.getNearestNeighbors(1, 150, 3)));
+    }
+
+    @Test
+    public void testCompactIdlePartitionsAfterCrossPartitionQueries() {
+        final MutableClock clock = new MutableClock();
+        final PartitionedVPTree<Integer, Number, Integer> index = this.createTestIndex(clock);
+
+        for (int i = 0; i < 200; i++) {
+            index.add(i);
+        }
+
+        clock.advance(Duration.ofMinutes(10));
+
+        // Queries that search every partition don't count as uses of any one partition
+        assertEquals(Collections.singletonList(150), index.getNearestNeighbors(150, 1));
+        assertEquals(Collections.singletonList(150), index.getAllWithinDistance(150, 0));
+
+        assertEquals(2, index.compactIdlePartitions(Duration.ofMinutes(5)));
+
+        // Modifying a partition should make it eligible for compaction again, and new partitions have never been
+        // compacted at all
+        index.add(200);
+        index.remove(150);
+        clock.advance(Duration.ofMinutes(10));
+
+        assertEquals(2, index.compactIdlePartitions(Duration.ofMinutes(5)));
+    }
+
+    @Test
+    public void testClear() {
+        final PartitionedVPTree<Integer, Number, Integer> index = this.createTestIndex(Clock.systemUTC());
+
+        for (int i = 0; i < 110; i++) {
+            index.add(i);
+        }
+
+        index.clear();
+
+        assertTrue(index.isEmpty());
+        assertFalse(index.iterator().hasNext());
+        assertTrue(index.getPartitionKeys().isEmpty());
+        assertTrue(index.getNearestNeighbors(12, 3).isEmpty());
+    }
+
+    private PartitionedVPTree<Integer, Number, Integer> createTestIndex(final Clock clock) {
+        return new PartitionedVPTree<>(new IntegerDistanceFunction(), new MedianDistanceThresholdSelectionStrategy<>(),
+                4, point -> point / 100, BRUTE_FORCE_CUTOFF, clock);
+    }
+
+    private PartitionedVPTree<Integer, Number, Integer> createDuplicateTestIndex() {
+        final PartitionedVPTree<Integer, Number, Integer> index = this.createTestIndex(Clock.systemUTC());
+
+        for (int i = 0; i < 105; i++) {
+            index.add(i);
+            index.add(i);
+        }
+
+        return index;
+    }
+}
@@ -0,0 +1,134 @@
+package com.eatthepath.jvptree;
+
+import com.eatthepath.jvptree.util.MedianDistanceThresholdSelectionStrategy;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueryTraceTest {
+
+    private List<Integer> points;
+    private VPTree<Number, Integer> vpTree;
+
+    @BeforeEach
+    public void setUp() {
+        this.points = new ArrayList<>();
+
+        for (int i = 0; i < 1000; i++) {
+            this.points.add(i);
+        }
+
+        this.vpTree = new VPTree<>((first, second) -> Math.abs(first.intValue() - second.intValue()),
+                new MedianDistanceThresholdSelectionStrategy<>(), 8, this.points);
+    }
+
+    @Test
+    public void testNearestNeighborTrace() {
+        final QueryTrace trace = new QueryTrace();
+
+        assertEquals(this.vpTree.getNearestNeighbors(500, 3, point -> true),
+                this.vpTree.getNearestNeighbors(500, 3, point -> true, trace));
+
+        assertEquals(trace.getInternalNodesVisited() + trace.getLeavesScanned(), trace.getNodeVisits().size());
+        assertEquals(0, trace.getNodeVisits().get(0).getDepth());
+        assertFalse(trace.getNodeVisits().get(0).isLeaf());
+
+        long leafDistanceEvaluations = 0;
+
+        for (final QueryTrace.NodeVisit visit : trace.getNodeVisits()) {
+            if (visit.isLeaf()) {
+                assertTrue(visit.getChildDecisions().isEmpty());
+                leafDistanceEvaluations += visit.getDistanceEvaluations();
+            } else {
+                assertEquals(visit.getDistanceFromVantagePointToQueryPoint() <= visit.getThreshold() ?
+                        QueryTrace.Child.CLOSER : QueryTrace.Child.FARTHER, visit.getFirstChild());
+
+                assertEquals(2, visit.getChildDecisions().size());
+                assertEquals(visit.getFirstChild(), visit.getChildDecisions().get(0).getChild());
+
+                // Even the child that contains the query point may be pruned if the whole node lies beyond the bound
+                for (final QueryTrace.ChildDecision decision : visit.getChildDecisions()) {
+                    if (decision.getOutcome() == QueryTrace.Outcome.PRUNED_BY_DISTANCE) {
+                        assertTrue(decision.getMinDistanceToChild() >= decision.getBound());
+                    } else {
+                        assertTrue(decision.getMinDistanceToChild() <= decision.getBound());
+                    }
+                }
+            }
+        }
+
+        assertEquals(trace.getInternalNodesVisited() + leafDistanceEvaluations, trace.getDistanceEvaluations());
+
+        // A good search should rule out most of the tree by distance
+        assertTrue(trace.getNodeVisits().stream()
+                .flatMap(visit -> visit.getChildDecisions().stream())
+                .anyMatch(decision -> decision.getOutcome() == QueryTrace.Outcome.PRUNED_BY_DISTANCE));
+
+        assertFalse(trace.toString().isEmpty());
+
+        trace.reset();
+        assertTrue(trace.getNodeVisits().isEmpty());
+        assertEquals(0, trace.getDistanceEvaluations());
+    }
+
+    @Test
+    public void testDistanceTrace() {
+        final QueryTrace trace = new QueryTrace();
+
+        assertEquals(5, this.vpTree.getAllWithinDistance(500, 2, point -> true, trace).size());
+        assertEquals(trace.getInternalNodesVisited() + trace.getLeavesScanned(), trace.getNodeVisits().size());
+
+        for (final QueryTrace.NodeVisit visit : trace.getNodeVisits()) {
+            if (visit.isLeaf()) {
+                assertEquals(2, visit.getBoundAfterScan());
+            } else {
+                for (final QueryTrace.ChildDecision decision : visit.getChildDecisions()) {
+                    assertEquals(2, decision.getBound());
+
+                    if (decision.getOutcome() == QueryTrace.Outcome.PRUNED_BY_DISTANCE) {
+                        assertTrue(decision.getMinDistanceToChild() >= decision.getBound());
+                    } else {
+                        assertTrue(decision.getMinDistanceToChild() <= decision.getBound());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAttributeSummaryTrace() {
+        // Points are grouped into "tenants" of 100 consecutive integers
+        final Function<Integer, Integer> tenant = point -> point / 100;
+
+        this.vpTree.setAttributeFunction(tenant);
+        this.vpTree.setBruteForceSelectivity(0);
+
+        final QueryTrace trace = new QueryTrace();
+
+        this.vpTree.getNearestNeighbors(500, 3, AttributeFilter.attributeEquals(tenant, 2), trace);
+
+        assertTrue(trace.getNodeVisits().stream()
+                .flatMap(visit -> visit.getChildDecisions().stream())
+                .anyMatch(decision -> decision.getOutcome() == QueryTrace.Outcome.PRUNED_BY_ATTRIBUTE_SUMMARY));
+    }
+
+    @Test
+    public void testTraceWithAggregateStatistics() {
+        final AggregateQueryStatistics aggregateStatistics = new AggregateQueryStatistics();
+        this.vpTree.setAggregateQueryStatistics(aggregateStatistics);
+
+        final QueryTrace trace = new QueryTrace();
+
+        this.vpTree.getNearestNeighbors(500, 3, point -> true, trace);
+        this.vpTree.getNearestNeighbors(500, 3, point -> true, trace);
+
+        // Traces accumulate across queries, but the aggregate statistics should count each query's work only once
+        assertEquals(2, aggregateStatistics.getQueries());
+        assertEquals(trace.getDistanceEvaluations(), aggregateStatistics.getDistanceEvaluations());
+    }
+}
@@ -0,0 +1,233 @@
+package com.eatthepath.jvptree;
+
+import com.eatthepath.jvptree.ShardServerTest.NumberPointCodec;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RemoteShardCoordinatorTest {
+
+    private static final int SHARD_COUNT = 3;
+
+    @Test
+    public void testRemoteShardCoordinatorIllegalArguments() {
+        assertThrows(IllegalArgumentException.class, () ->
+                new RemoteShardCoordinator<>(Collections.emptyList(), new NumberPointCodec(), new IntegerPointCodec()));
+    }
+
+    @Test
+    public void testGetNearestNeighbors() {
+        final RemoteShardCoordinator<Number, Integer> coordinator = this.createLoopbackCoordinator();
+        coordinator.addAll(this.createTestPoints(1000));
+
+        assertEquals(new HashSet<>(Arrays.asList(499, 500, 501)), new HashSet<>(coordinator.getNearestNeighbors(500, 3)));
+        assertEquals(Arrays.asList(0, 1, 2), coordinator.getNearestNeighbors(-10, 3));
+
+        // Filters that reject most points force the coordinator to ask shards for more results
+        assertEquals(Arrays.asList(500, 400, 600),
+                coordinator.getNearestNeighbors(490, 3, point -> point.intValue() % 100 == 0));
+
+        assertTrue(coordinator.getNearestNeighbors(500, 3, point -> false).isEmpty());
+    }
+
+    @Test
+    public void testGetNearestNeighborsDistanceBound() throws Exception {
+        final ExecutorService executorService = Executors.newFixedThreadPool(SHARD_COUNT);
+
+        try {
+            final List<Double> distanceBounds = Collections.synchronizedList(new ArrayList<>());
+            final List<ShardTransport> transports = new ArrayList<>();
+
+            for (int i = 0; i < SHARD_COUNT; i++) {
+                final ShardTransport transport = new LoopbackShardTransport(new ShardServer<>(
+                        new VPTree<>(new IntegerDistanceFunction()), new NumberPointCodec(), new IntegerPointCodec()), executorService);
+
+                transports.add(request -> {
+                    if (request[0] == ShardProtocol.NEAREST_NEIGHBORS) {
+                        // Operation, query point, and max results precede the distance bound
+                        distanceBounds.add(ByteBuffer.wrap(request, 9, 8).getDouble());
+                    }
+
+                    return transport.exchange(request);
+                });
+            }
+
+            final RemoteShardCoordinator<Number, Integer> coordinator =
+                    new RemoteShardCoordinator<>(transports, new NumberPointCodec(), new IntegerPointCodec());
+
+            coordinator.addAll(this.createTestPoints(1000));
+
+            assertEquals(new HashSet<>(Arrays.asList(499, 500, 501)), new HashSet<>(coordinator.getNearestNeighbors(500, 3)));
+
+            // Even with an asynchronous transport, only the seed shard should be queried without a bound
+            assertEquals(SHARD_COUNT, distanceBounds.size());
+            assertEquals(Double.POSITIVE_INFINITY, distanceBounds.get(0));
+
+            for (final double distanceBound : distanceBounds.subList(1, SHARD_COUNT)) {
+                assertTrue(distanceBound < Double.POSITIVE_INFINITY);
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void testGetAllWithinDistance() {
+        final RemoteShardCoordinator<Number, Integer> coordinator = this.createLoopbackCoordinator();
+        coordinator.addAll(this.createTestPoints(1000));
+
+        assertEquals(new HashSet<>(Arrays.asList(498, 499, 500, 501, 502)),
+                new HashSet<>(coordinator.getAllWithinDistance(500, 2)));
+
+        assertEquals(new HashSet<>(Arrays.asList(498, 500, 502)),
+                new HashSet<>(coordinator.getAllWithinDistance(500, 2, point -> point.intValue() % 2 == 0)));
+    }
+
+    @Test
+    public void testCollectionOperations() {
+        final RemoteShardCoordinator<Number, Integer> coordinator = this.createLoopbackCoordinator();
+
+        assertTrue(coordinator.isEmpty());
+        assertTrue(coordinator.getNearestNeighbors(12, 3).isEmpty());
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(coordinator.add(i));
+        }
+
+        assertEquals(10, coordinator.size());
+        assertTrue(coordinator.contains(7));
+        assertFalse(coordinator.contains(10));
+
+        assertTrue(coordinator.remove(7));
+        assertFalse(coordinator.remove(7));
+        assertFalse(coordinator.remove("Not a number"));
+
+        assertTrue(coordinator.retainAll(Arrays.asList(1, 2, 3)));
+        assertEquals(new HashSet<>(Arrays.asList(1, 2, 3)), new HashSet<>(coordinator));
+
+        coordinator.clear();
+        assertTrue(coordinator.isEmpty());
+    }
+
+    @Test
+    public void testCollectionOperationsAreSentToShards() {
+        final List<Byte> operations = Collections.synchronizedList(new ArrayList<>());
+        final List<ShardTransport> transports = new ArrayList<>();
+
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            final ShardTransport transport = new LoopbackShardTransport(new ShardServer<>(
+                    new VPTree<>(new IntegerDistanceFunction()), new NumberPointCodec(), new IntegerPointCodec()));
+
+            transports.add(request -> {
+                operations.add(request[0]);
+                return transport.exchange(request);
+            });
+        }
+
+        final RemoteShardCoordinator<Number, Integer> coordinator =
+                new RemoteShardCoordinator<>(transports, new NumberPointCodec(), new IntegerPointCodec());
+
+        coordinator.addAll(this.createTestPoints(10));
+
+        assertTrue(coordinator.contains(7));
+        assertFalse(coordinator.contains("Not a number"));
+        assertTrue(coordinator.removeAll(Arrays.asList(1, 2, "Not a number")));
+        assertFalse(coordinator.removeAll(Arrays.asList(1, 2)));
+        assertTrue(coordinator.retainAll(Arrays.asList(3, 4, 5, "Not a number")));
+        assertEquals(3, coordinator.size());
+
+        coordinator.clear();
+        assertEquals(0, coordinator.size());
+
+        // None of those operations should need a snapshot of every point, or a separate request for each point
+        assertFalse(operations.contains(ShardProtocol.GET_ALL));
+        assertFalse(operations.contains(ShardProtocol.REMOVE));
+    }
+
+    @Test
+    public void testShardErrors() {
+        final RemoteShardCoordinator<Number, Integer> coordinator = new RemoteShardCoordinator<>(
+                Collections.singletonList(request -> CompletableFuture.completedFuture(new byte[] { ShardProtocol.STATUS_ERROR, 0, 4, 'O', 'o', 'p', 's' })),
+                new NumberPointCodec(), new IntegerPointCodec());
+
+        final RemoteShardException exception = assertThrows(RemoteShardException.class, coordinator::size);
+        assertTrue(exception.getMessage().contains("Oops"));
+
+        final RemoteShardCoordinator<Number, Integer> brokenCoordinator = new RemoteShardCoordinator<>(
+                Collections.singletonList(request -> {
+                    final CompletableFuture<byte[]> future = new CompletableFuture<>();
+                    future.completeExceptionally(new IOException("Connection refused"));
+
+                    return future;
+                }),
+                new NumberPointCodec(), new IntegerPointCodec());
+
+        assertThrows(RemoteShardException.class, () -> brokenCoordinator.getNearestNeighbors(12, 3));
+    }
+
+    @Test
+    public void testSocketTransport() throws IOException {
+        final List<SocketShardServer> servers = new ArrayList<>();
+        final List<SocketShardTransport> transports = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < SHARD_COUNT; i++) {
+                final SocketShardServer server = new SocketShardServer(new ShardServer<>(
+                        new VPTree<>(new IntegerDistanceFunction()), new NumberPointCodec(), new IntegerPointCodec()));
+
+                servers.add(server);
+                transports.add(new SocketShardTransport(server.getAddress()));
+            }
+
+            final RemoteShardCoordinator<Number, Integer> coordinator =
+                    new RemoteShardCoordinator<>(transports, new NumberPointCodec(), new IntegerPointCodec());
+
+            coordinator.addAll(this.createTestPoints(1000));
+
+            assertEquals(1000, coordinator.size());
+            assertEquals(new HashSet<>(Arrays.asList(499, 500, 501)), new HashSet<>(coordinator.getNearestNeighbors(500, 3)));
+            assertEquals(new HashSet<>(Arrays.asList(498, 499, 500, 501, 502)),
+                    new HashSet<>(coordinator.getAllWithinDistance(500, 2)));
+        } finally {
+            for (final SocketShardTransport transport : transports) {
+                transport.close();
+            }
+
+            for (final SocketShardServer server : servers) {
+                server.close();
+            }
+        }
+    }
+
+    private RemoteShardCoordinator<Number, Integer> createLoopbackCoordinator() {
+        final List<ShardTransport> transports = new ArrayList<>();
+
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            transports.add(new LoopbackShardTransport(new ShardServer<>(
+                    new VPTree<>(new IntegerDistanceFunction()), new NumberPointCodec(), new IntegerPointCodec())));
+        }
+
+        return new RemoteShardCoordinator<>(transports, new NumberPointCodec(), new IntegerPointCodec());
+    }
+
+    private List<Integer> createTestPoints(final int count) {
+        final List<Integer> points = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            points.add(i);
+        }
+
+        return points;
+    }
+}
@@ -0,0 +1,317 @@
+package com.eatthepath.jvptree;
+
+import com.eatthepath.jvptree.util.MedianDistanceThresholdSelectionStrategy;
+import com.eatthepath.jvptree.util.ProfilingDistanceFunction;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SegmentedVPTreeTest {
+
+    private static final int BUFFER_CAPACITY = 16;
+
+    @Test
+    public void testGetNearestNeighbors() {
+        final SegmentedVPTree<Number, Integer> index = this.createTestIndex();
+
+        // Add points in an order that spreads neighboring points across segments and the buffer
+        for (int i = 0; i < 1000; i++) {
+            index.add((i * 37) % 1000);
+        }
+
+        assertTrue(index.getSegmentCount() > 1);
+
+        assertEquals(new HashSet<>(Arrays.asList(499, 500, 501)), new HashSet<>(index.getNearestNeighbors(500, 3)));
+        assertEquals(new HashSet<>(Arrays.asList(499, 501)),
+                new HashSet<>(index.getNearestNeighbors(500, 2, point -> point.intValue() != 500)));
+        assertTrue(index.getNearestNeighbors(500, 3, point -> false).isEmpty());
+    }
+
+    @Test
+    public void testGetNearestNeighborsProfiled() {
+        final ProfilingDistanceFunction<Number> distanceFunction =
+                new ProfilingDistanceFunction<>(new IntegerDistanceFunction());
+
+        final SegmentedVPTree<Number, Integer> index = new SegmentedVPTree<>(distanceFunction,
+                new MedianDistanceThresholdSelectionStrategy<>(), 4, BUFFER_CAPACITY, Runnable::run);
+
+        for (int i = 0; i < 100; i++) {
+            index.add(i);
+        }
+
+        // Leave every point in a segment so that no distances are calculated while scanning the write buffer
+        index.compact();
+        distanceFunction.reset();
+
+        // Segment searches should go through each segment's instrumented query path, and so be attributed to queries
+        assertEquals(new HashSet<>(Arrays.asList(49, 50, 51)), new HashSet<>(index.getNearestNeighbors(50, 3)));
+        assertTrue(distanceFunction.getCallCount() > 0);
+        assertEquals(distanceFunction.getCallCount(), distanceFunction.getCallCount(ProfilingDistanceFunction.Phase.QUERY));
+    }
+
+    @Test
+    public void testGetAllWithinDistance() {
+        final SegmentedVPTree<Number, Integer> index = this.createTestIndex();
+
+        for (int i = 0; i < 1000; i++) {
+            index.add((i * 37) % 1000);
+        }
+
+        assertEquals(new HashSet<>(Arrays.asList(498, 499, 500, 501, 502)),
+                new HashSet<>(index.getAllWithinDistance(500, 2)));
+
+        assertEquals(new HashSet<>(Arrays.asList(498, 500, 502)),
+                new HashSet<>(index.getAllWithinDistance(500, 2, point -> point.intValue() % 2 == 0)));
+    }
+
+    @Test
+    public void testCompaction() {
+        final SegmentedVPTree<Number, Integer> index = this.createTestIndex();
+
+        for (int i = 0; i < 4096; i++) {
+            index.add(i);
+
+            // Merging segments of similar sizes should keep the number of segments logarithmic in the number of points
+            assertTrue(index.getSegmentCount() <= 2 + (int) Math.ceil(Math.log(i + 1) / Math.log(2)));
+        }
+
+        assertEquals(4096, index.size());
+
+        index.compact();
+
+        assertEquals(1, index.getSegmentCount());
+        assertEquals(4096, index.size());
+        assertEquals(new HashSet<>(Arrays.asList(2047, 2048, 2049)), new HashSet<>(index.getNearestNeighbors(2048, 3)));
+    }
+
+    @Test
+    public void testBackgroundCompactionFailure() {
+        final AtomicBoolean failCompaction = new AtomicBoolean(true);
+        final MedianDistanceThresholdSelectionStrategy<Number, Integer> thresholdSelectionStrategy =
+                new MedianDistanceThresholdSelectionStrategy<>();
+
+        final SegmentedVPTree<Number, Integer> index = new SegmentedVPTree<>(new IntegerDistanceFunction(),
+                (points, origin, distanceFunction) -> {
+                    if (failCompaction.get()) {
+                        throw new IllegalStateException("Compaction failed");
+                    }
+
+                    return thresholdSelectionStrategy.selectThreshold(points, origin, distanceFunction);
+                }, 4, BUFFER_CAPACITY, Runnable::run);
+
+        assertNull(index.getCompactionFailure());
+
+        for (int i = 0; i < BUFFER_CAPACITY * 4; i++) {
+            assertTrue(index.add(i));
+        }
+
+        // A failed compaction should stop background compaction rather than retrying over and over, and should leave
+        // all of the points in place
+        assertTrue(index.getCompactionFailure() instanceof IllegalStateException);
+        assertEquals(0, index.getSegmentCount());
+        assertEquals(BUFFER_CAPACITY * 4, index.size());
+        assertEquals(new HashSet<>(Arrays.asList(9, 10, 11)), new HashSet<>(index.getNearestNeighbors(10, 3)));
+
+        failCompaction.set(false);
+        index.compact();
+
+        assertNull(index.getCompactionFailure());
+        assertEquals(1, index.getSegmentCount());
+        assertEquals(BUFFER_CAPACITY * 4, index.size());
+
+        // Background compaction should resume once an explicit compaction succeeds
+        for (int i = 0; i < BUFFER_CAPACITY; i++) {
+            index.add(i + 1000);
+        }
+
+        assertEquals(2, index.getSegmentCount());
+    }
+
+    @Test
+    public void testRejectedCompaction() {
+        final SegmentedVPTree<Number, Integer> index =
+                new SegmentedVPTree<>(new IntegerDistanceFunction(), new MedianDistanceThresholdSelectionStrategy<>(),
+                        4, BUFFER_CAPACITY, command -> {
+                            throw new RejectedExecutionException();
+                        });
+
+        // Writes should still succeed (and their points should stay in the buffer) if compaction can't be scheduled
+        for (int i = 0; i < BUFFER_CAPACITY * 2; i++) {
+            assertTrue(index.add(i));
+        }
+
+        assertEquals(0, index.getSegmentCount());
+        assertEquals(BUFFER_CAPACITY * 2, index.size());
+        assertNull(index.getCompactionFailure());
+
+        index.compact();
+
+        assertEquals(1, index.getSegmentCount());
+        assertEquals(BUFFER_CAPACITY * 2, index.size());
+    }
+
+    @Test
+    public void testRemove() {
+        final SegmentedVPTree<Number, Integer> index = this.createTestIndex();
+
+        for (int i = 0; i < 100; i++) {
+            index.add(i);
+        }
+
+        assertFalse(index.remove(100));
+
+        // Remove points from the buffer and from segments
+        assertTrue(index.remove(99));
+        assertTrue(index.remove(0));
+
+        assertFalse(index.contains(99));
+        assertFalse(index.contains(0));
+        assertEquals(98, index.size());
+
+        assertTrue(index.removeAll(Arrays.asList(1, 2, 3)));
+        assertTrue(index.retainAll(Arrays.asList(4, 5, 6)));
+        assertEquals(new HashSet<>(Arrays.asList(4, 5, 6)), new HashSet<>(index));
+
+        index.compact();
+        assertEquals(Arrays.asList(4, 5), index.getNearestNeighbors(4, 2));
+    }
+
+    @Test
+    public void testRemoveDuplicatePointDuringCompaction() throws Exception {
+        final CountDownLatch compactionStarted = new CountDownLatch(1);
+        final CountDownLatch finishCompaction = new CountDownLatch(1);
+        final AtomicBoolean firstThresholdSelection = new AtomicBoolean(true);
+
+        final MedianDistanceThresholdSelectionStrategy<Number, Integer> thresholdSelectionStrategy =
+                new MedianDistanceThresholdSelectionStrategy<>();
+
+        final ExecutorService compactionExecutor = Executors.newSingleThreadExecutor();
+
+        try {
+            // Hold the compaction open partway through building the new segment
+            final SegmentedVPTree<Number, Integer> index = new SegmentedVPTree<>(new IntegerDistanceFunction(),
+                    (points, origin, distanceFunction) -> {
+                        if (firstThresholdSelection.getAndSet(false)) {
+                            compactionStarted.countDown();
+
+                            try {
+                                finishCompaction.await();
+                            } catch (final InterruptedException e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+
+                        return thresholdSelectionStrategy.selectThreshold(points, origin, distanceFunction);
+                    }, 2, 4, compactionExecutor);
+
+            index.addAll(Arrays.asList(7, 7, 1, 2));
+            assertTrue(compactionStarted.await(10, TimeUnit.SECONDS));
+
+            assertTrue(index.remove(7));
+            finishCompaction.countDown();
+
+            compactionExecutor.shutdown();
+            assertTrue(compactionExecutor.awaitTermination(10, TimeUnit.SECONDS));
+
+            // Removing one copy of a point while a compaction is underway should leave the other copy in place
+            assertEquals(1, index.getSegmentCount());
+            assertEquals(3, index.size());
+            assertEquals(1, Collections.frequency(new ArrayList<>(index), 7));
+            assertTrue(index.containsAll(Arrays.asList(1, 2)));
+        } finally {
+            finishCompaction.countDown();
+            compactionExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testClear() {
+        final SegmentedVPTree<Number, Integer> index = this.createTestIndex();
+
+        for (int i = 0; i < 100; i++) {
+            index.add(i);
+        }
+
+        index.clear();
+
+        assertTrue(index.isEmpty());
+        assertFalse(index.iterator().hasNext());
+        assertTrue(index.getNearestNeighbors(12, 3).isEmpty());
+    }
+
+    @Test
+    public void testConcurrentWritesAndQueries() throws Exception {
+        final int threadCount = 4;
+        final int pointsPerThread = 5000;
+
+        final ExecutorService compactionExecutor = Executors.newSingleThreadExecutor();
+        final ExecutorService writerExecutor = Executors.newFixedThreadPool(threadCount);
+
+        try {
+            final SegmentedVPTree<Number, Integer> index = new SegmentedVPTree<>(new IntegerDistanceFunction(),
+                    new MedianDistanceThresholdSelectionStrategy<>(), 8, 64, compactionExecutor);
+
+            final List<Future<?>> futures = new ArrayList<>();
+
+            for (int t = 0; t < threadCount; t++) {
+                final int thread = t;
+
+                futures.add(writerExecutor.submit(() -> {
+                    for (int i = 0; i < pointsPerThread; i++) {
+                        final int point = (i * threadCount) + thread;
+                        index.add(point);
+
+                        // Every point we've written so far must be visible to queries, even mid-compaction
+                        assertEquals(Collections.singletonList(point), index.getNearestNeighbors(point, 1));
+
+                        // Remove every tenth point to exercise removals that race with compaction
+                        if (i % 10 == 0) {
+                            assertTrue(index.remove(point));
+                        }
+                    }
+                }));
+            }
+
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+
+            index.compact();
+
+            final int expectedSize = threadCount * (pointsPerThread - (pointsPerThread / 10));
+
+            assertEquals(1, index.getSegmentCount());
+            assertEquals(expectedSize, index.size());
+
+            for (int thread = 0; thread < threadCount; thread++) {
+                for (int i = 0; i < pointsPerThread; i++) {
+                    assertEquals(i % 10 != 0, index.contains((i * threadCount) + thread));
+                }
+            }
+        } finally {
+            writerExecutor.shutdown();
+            compactionExecutor.shutdown();
+
+            assertTrue(compactionExecutor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+    private SegmentedVPTree<Number, Integer> createTestIndex() {
+        // Compact on the calling thread so tests are deterministic
+        return new SegmentedVPTree<>(new IntegerDistanceFunction(), new MedianDistanceThresholdSelectionStrategy<>(),
+                4, BUFFER_CAPACITY, Runnable::run);
+    }
+}
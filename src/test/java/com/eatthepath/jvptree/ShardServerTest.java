@@ -0,0 +1,137 @@
+package com.eatthepath.jvptree;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShardServerTest {
+
+    @Test
+    public void testHandleNearestNeighbors() throws IOException {
+        final AtomicInteger distanceCalculations = new AtomicInteger();
+
+        final List<Integer> points = new ArrayList<>();
+
+        for (int i = 0; i < 1000; i++) {
+            points.add(i);
+        }
+
+        final VPTree<Number, Integer> tree = new VPTree<>((first, second) -> {
+            distanceCalculations.incrementAndGet();
+            return Math.abs(first.intValue() - second.intValue());
+        }, points);
+
+        final ShardServer<Number, Integer> shardServer = new ShardServer<>(tree, new NumberPointCodec(), new IntegerPointCodec());
+
+        {
+            final DataInputStream in = this.getResponseBody(shardServer.handle(this.encodeNearestNeighborsRequest(500, 3, Double.POSITIVE_INFINITY)));
+
+            assertEquals(3, in.readInt());
+            assertEquals(500, in.readInt());
+            assertEquals(0, in.readDouble());
+        }
+
+        distanceCalculations.set(0);
+
+        {
+            // Every point is within 999 of the root's vantage point, wherever it is, and so every point is at least
+            // 1501 away from 2500. Nothing is closer than the bound, so the shard should measure the distance to the
+            // root's vantage point, prune the whole tree, and have nothing to report.
+            final DataInputStream in = this.getResponseBody(shardServer.handle(this.encodeNearestNeighborsRequest(2500, 3, 100)));
+            assertEquals(0, in.readInt());
+        }
+
+        assertEquals(1, distanceCalculations.get());
+
+        distanceCalculations.set(0);
+
+        {
+            // Without a bound, the shard has to search the tree to find the nearest points
+            final DataInputStream in = this.getResponseBody(shardServer.handle(this.encodeNearestNeighborsRequest(2500, 3, Double.POSITIVE_INFINITY)));
+
+            assertEquals(3, in.readInt());
+            assertEquals(999, in.readInt());
+            assertEquals(1501, in.readDouble());
+        }
+
+        assertTrue(distanceCalculations.get() > 1);
+    }
+
+    @Test
+    public void testHandleNearestNeighborsRecordsStatistics() throws IOException {
+        final List<Integer> points = new ArrayList<>();
+
+        for (int i = 0; i < 1000; i++) {
+            points.add(i);
+        }
+
+        final VPTree<Number, Integer> tree = new VPTree<>(new IntegerDistanceFunction(), points);
+        final AggregateQueryStatistics statistics = new AggregateQueryStatistics();
+        tree.setAggregateQueryStatistics(statistics);
+
+        final ShardServer<Number, Integer> shardServer = new ShardServer<>(tree, new NumberPointCodec(), new IntegerPointCodec());
+        assertEquals(3, this.getResponseBody(shardServer.handle(this.encodeNearestNeighborsRequest(500, 3, Double.POSITIVE_INFINITY))).readInt());
+
+        assertEquals(1, statistics.getQueries());
+        assertTrue(statistics.getDistanceEvaluations() > 0);
+    }
+
+    @Test
+    public void testHandleMalformedRequest() throws IOException {
+        final ShardServer<Number, Integer> shardServer =
+                new ShardServer<>(new VPTree<>(new IntegerDistanceFunction()), new NumberPointCodec(), new IntegerPointCodec());
+
+        // Counts that are negative or far larger than the rest of the request shouldn't be trusted to size anything
+        final byte[] hugeCountRequest = { ShardProtocol.ADD, 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0, 0, 0, 1 };
+        final byte[] negativeCountRequest = { ShardProtocol.REMOVE_ALL, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff };
+
+        for (final byte[] request : new byte[][] { new byte[0], new byte[] { 99 }, new byte[] { ShardProtocol.ADD, 0, 0 },
+                hugeCountRequest, negativeCountRequest }) {
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(shardServer.handle(request)));
+
+            assertEquals(ShardProtocol.STATUS_ERROR, in.readByte());
+            assertFalse(in.readUTF().isEmpty());
+        }
+    }
+
+    private byte[] encodeNearestNeighborsRequest(final int queryPoint, final int maxResults, final double distanceBound) throws IOException {
+        final ByteArrayOutputStream requestBytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(requestBytes);
+
+        out.writeByte(ShardProtocol.NEAREST_NEIGHBORS);
+        out.writeInt(queryPoint);
+        out.writeInt(maxResults);
+        out.writeDouble(distanceBound);
+
+        return requestBytes.toByteArray();
+    }
+
+    private DataInputStream getResponseBody(final byte[] response) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(response));
+        assertEquals(ShardProtocol.STATUS_OK, in.readByte());
+
+        return in;
+    }
+
+    static class NumberPointCodec implements PointCodec<Number> {
+
+        @Override
+        public void write(final Number point, final java.io.DataOutput out) throws IOException {
+            out.writeInt(point.intValue());
+        }
+
+        @Override
+        public Number read(final java.io.DataInput in) throws IOException {
+            return in.readInt();
+        }
+    }
+}
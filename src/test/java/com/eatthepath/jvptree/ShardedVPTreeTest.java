@@ -0,0 +1,161 @@
+package com.eatthepath.jvptree;
+
+import com.eatthepath.jvptree.ShardedVPTree.ShardingStrategy;
+import com.eatthepath.jvptree.util.MedianDistanceThresholdSelectionStrategy;
+import com.eatthepath.jvptree.util.ProfilingDistanceFunction;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShardedVPTreeTest {
+
+    private static final int SHARD_COUNT = 4;
+
+    @Test
+    public void testShardedVPTreeIllegalArguments() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new ShardedVPTree<Number, Integer>(new IntegerDistanceFunction(), Collections.emptyList(), 0));
+    }
+
+    @Test
+    public void testGetNearestNeighbors() {
+        for (final ShardingStrategy shardingStrategy : ShardingStrategy.values()) {
+            final ShardedVPTree<Number, Integer> index = this.createTestIndex(this.createTestPoints(1000), shardingStrategy);
+
+            assertEquals(new HashSet<>(Arrays.asList(499, 500, 501)), new HashSet<>(index.getNearestNeighbors(500, 3)));
+            assertEquals(new HashSet<>(Arrays.asList(499, 501)),
+                    new HashSet<>(index.getNearestNeighbors(500, 2, point -> point.intValue() != 500)));
+
+            assertEquals(Arrays.asList(0, 1, 2), index.getNearestNeighbors(-10, 3));
+            assertTrue(index.getNearestNeighbors(500, 3, point -> false).isEmpty());
+        }
+    }
+
+    @Test
+    public void testGetNearestNeighborsProfiled() {
+        final ProfilingDistanceFunction<Number> distanceFunction =
+                new ProfilingDistanceFunction<>(new IntegerDistanceFunction());
+
+        final ShardedVPTree<Number, Integer> index = new ShardedVPTree<>(distanceFunction,
+                new MedianDistanceThresholdSelectionStrategy<>(), 4, this.createTestPoints(1000), SHARD_COUNT,
+                ShardingStrategy.RANDOM, Runnable::run);
+
+        distanceFunction.reset();
+
+        // Shard searches should go through each shard's instrumented query path, and so be attributed to queries
+        assertEquals(Arrays.asList(0, 1, 2), index.getNearestNeighbors(-10, 3));
+        assertTrue(distanceFunction.getCallCount() > 0);
+        assertEquals(distanceFunction.getCallCount(), distanceFunction.getCallCount(ProfilingDistanceFunction.Phase.QUERY));
+    }
+
+    @Test
+    public void testGetNearestNeighborsInParallel() {
+        final ExecutorService executor = Executors.newFixedThreadPool(SHARD_COUNT);
+
+        try {
+            final List<Integer> points = this.createTestPoints(10000);
+            final VPTree<Number, Integer> referenceTree = new VPTree<>(new IntegerDistanceFunction(), points);
+
+            for (final ShardingStrategy shardingStrategy : ShardingStrategy.values()) {
+                final ShardedVPTree<Number, Integer> index = new ShardedVPTree<>(new IntegerDistanceFunction(),
+                        new MedianDistanceThresholdSelectionStrategy<>(), 8, points, SHARD_COUNT, shardingStrategy, executor);
+
+                final Random random = new Random(37);
+
+                for (int i = 0; i < 100; i++) {
+                    final int queryPoint = random.nextInt(12000) - 1000;
+
+                    // Compare distances rather than points, since ties may be broken differently
+                    assertEquals(this.getDistances(queryPoint, referenceTree.getNearestNeighbors(queryPoint, 10)),
+                            this.getDistances(queryPoint, index.getNearestNeighbors(queryPoint, 10)));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testGetAllWithinDistance() {
+        for (final ShardingStrategy shardingStrategy : ShardingStrategy.values()) {
+            final ShardedVPTree<Number, Integer> index = this.createTestIndex(this.createTestPoints(1000), shardingStrategy);
+
+            assertEquals(new HashSet<>(Arrays.asList(498, 499, 500, 501, 502)),
+                    new HashSet<>(index.getAllWithinDistance(500, 2)));
+
+            assertEquals(new HashSet<>(Arrays.asList(498, 500, 502)),
+                    new HashSet<>(index.getAllWithinDistance(500, 2, point -> point.intValue() % 2 == 0)));
+        }
+    }
+
+    @Test
+    public void testAddAndRemove() {
+        for (final ShardingStrategy shardingStrategy : ShardingStrategy.values()) {
+            // Start empty so that clustered shards need to choose centers as points are added
+            final ShardedVPTree<Number, Integer> index = this.createTestIndex(Collections.emptyList(), shardingStrategy);
+
+            assertTrue(index.getNearestNeighbors(12, 3).isEmpty());
+
+            for (final int point : this.createTestPoints(100)) {
+                assertTrue(index.add(point));
+            }
+
+            assertEquals(100, index.size());
+
+            for (int i = 0; i < 100; i++) {
+                assertTrue(index.contains(i));
+            }
+
+            assertFalse(index.contains(100));
+            assertFalse(index.contains("Not a number"));
+
+            assertTrue(index.remove(50));
+            assertFalse(index.remove(50));
+            assertFalse(index.contains(50));
+
+            assertTrue(index.removeAll(Arrays.asList(1, 2, 3)));
+            assertTrue(index.retainAll(Arrays.asList(4, 5, 6, 50)));
+            assertEquals(new HashSet<>(Arrays.asList(4, 5, 6)), new HashSet<>(index));
+
+            index.clear();
+            assertTrue(index.isEmpty());
+        }
+    }
+
+    private ShardedVPTree<Number, Integer> createTestIndex(final List<Integer> points, final ShardingStrategy shardingStrategy) {
+        // Search shards on the calling thread so tests are deterministic
+        return new ShardedVPTree<>(new IntegerDistanceFunction(), new MedianDistanceThresholdSelectionStrategy<>(), 4,
+                points, SHARD_COUNT, shardingStrategy, Runnable::run);
+    }
+
+    private List<Integer> createTestPoints(final int count) {
+        final List<Integer> points = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            points.add(i);
+        }
+
+        Collections.shuffle(points, new Random(17));
+
+        return points;
+    }
+
+    private List<Double> getDistances(final int queryPoint, final List<Integer> points) {
+        final List<Double> distances = new ArrayList<>(points.size());
+
+        for (final Integer point : points) {
+            distances.add((double) Math.abs(queryPoint - point));
+        }
+
+        return distances;
+    }
+}
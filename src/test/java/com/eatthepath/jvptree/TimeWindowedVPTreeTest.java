@@ -0,0 +1,151 @@
+package com.eatthepath.jvptree;
+
+import com.eatthepath.jvptree.util.MedianDistanceThresholdSelectionStrategy;
+import com.eatthepath.jvptree.util.ProfilingDistanceFunction;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimeWindowedVPTreeTest {
+
+    private static final Duration BUCKET_WIDTH = Duration.ofMinutes(1);
+    private static final Duration RETENTION = Duration.ofMinutes(15);
+
+    @Test
+    public void testTimeWindowedVPTreeIllegalArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new TimeWindowedVPTree<Number, Integer>(
+                new IntegerDistanceFunction(), Duration.ZERO, RETENTION));
+
+        assertThrows(IllegalArgumentException.class, () -> new TimeWindowedVPTree<Number, Integer>(
+                new IntegerDistanceFunction(), BUCKET_WIDTH, Duration.ZERO));
+    }
+
+    @Test
+    public void testExpiry() {
+        final MutableClock clock = new MutableClock();
+        final TimeWindowedVPTree<Number, Integer> index = this.createTestIndex(clock);
+
+        // Add ten points per minute for twenty minutes
+        for (int minute = 0; minute < 20; minute++) {
+            for (int i = 0; i < 10; i++) {
+                index.add((minute * 10) + i);
+            }
+
+            clock.advance(BUCKET_WIDTH);
+        }
+
+        // It's now the start of minute 20; everything added before minute 5 has expired
+        assertEquals(15, index.getBucketCount());
+        assertEquals(150, index.size());
+        assertFalse(index.contains(49));
+        assertTrue(index.contains(50));
+
+        assertEquals(new HashSet<>(Arrays.asList(50, 51, 52)), new HashSet<>(index.getNearestNeighbors(0, 3)));
+        assertTrue(index.getAllWithinDistance(25, 20).isEmpty());
+
+        // Points in a partially-expired bucket stay until the whole bucket has expired
+        clock.advance(Duration.ofSeconds(30));
+        assertTrue(index.contains(50));
+
+        clock.advance(Duration.ofSeconds(30));
+        assertFalse(index.contains(50));
+        assertEquals(140, index.size());
+
+        clock.advance(RETENTION);
+        assertTrue(index.isEmpty());
+        assertEquals(0, index.getBucketCount());
+        assertTrue(index.getNearestNeighbors(12, 3).isEmpty());
+    }
+
+    @Test
+    public void testGetNearestNeighbors() {
+        final MutableClock clock = new MutableClock();
+        final TimeWindowedVPTree<Number, Integer> index = this.createTestIndex(clock);
+
+        // Spread neighboring points across buckets
+        for (int i = 0; i < 100; i++) {
+            index.add((i * 37) % 100);
+            clock.advance(Duration.ofSeconds(5));
+        }
+
+        assertTrue(index.getBucketCount() > 1);
+
+        assertEquals(new HashSet<>(Arrays.asList(49, 50, 51)), new HashSet<>(index.getNearestNeighbors(50, 3)));
+        assertEquals(new HashSet<>(Arrays.asList(49, 51)),
+                new HashSet<>(index.getNearestNeighbors(50, 2, point -> point.intValue() != 50)));
+    }
+
+    @Test
+    public void testGetNearestNeighborsProfiled() {
+        final MutableClock clock = new MutableClock();
+        final ProfilingDistanceFunction<Number> distanceFunction =
+                new ProfilingDistanceFunction<>(new IntegerDistanceFunction());
+
+        final TimeWindowedVPTree<Number, Integer> index = new TimeWindowedVPTree<>(distanceFunction,
+                new MedianDistanceThresholdSelectionStrategy<>(), 4, BUCKET_WIDTH, RETENTION, clock);
+
+        for (int i = 0; i < 100; i++) {
+            index.add((i * 37) % 100);
+            clock.advance(Duration.ofSeconds(5));
+        }
+
+        distanceFunction.reset();
+
+        // Bucket searches should go through each bucket's instrumented query path, and so be attributed to queries
+        assertEquals(new HashSet<>(Arrays.asList(49, 50, 51)), new HashSet<>(index.getNearestNeighbors(50, 3)));
+        assertTrue(distanceFunction.getCallCount() > 0);
+        assertEquals(distanceFunction.getCallCount(), distanceFunction.getCallCount(ProfilingDistanceFunction.Phase.QUERY));
+    }
+
+    @Test
+    public void testGetAllWithinDistance() {
+        final MutableClock clock = new MutableClock();
+        final TimeWindowedVPTree<Number, Integer> index = this.createTestIndex(clock);
+
+        for (int i = 0; i < 100; i++) {
+            index.add((i * 37) % 100);
+            clock.advance(Duration.ofSeconds(5));
+        }
+
+        assertEquals(new HashSet<>(Arrays.asList(48, 49, 50, 51, 52)),
+                new HashSet<>(index.getAllWithinDistance(50, 2)));
+
+        assertEquals(new HashSet<>(Arrays.asList(48, 50, 52)),
+                new HashSet<>(index.getAllWithinDistance(50, 2, point -> point.intValue() % 2 == 0)));
+    }
+
+    @Test
+    public void testAddAllAndRemove() {
+        final MutableClock clock = new MutableClock();
+        final TimeWindowedVPTree<Number, Integer> index = this.createTestIndex(clock);
+
+        assertFalse(index.addAll(new HashSet<>()));
+        assertTrue(index.addAll(Arrays.asList(1, 2, 3, 4)));
+
+        clock.advance(BUCKET_WIDTH);
+        assertTrue(index.addAll(Arrays.asList(5, 6, 7, 8)));
+
+        assertEquals(2, index.getBucketCount());
+
+        assertTrue(index.remove(1));
+        assertFalse(index.remove(1));
+        assertTrue(index.removeAll(Arrays.asList(2, 5)));
+        assertTrue(index.retainAll(Arrays.asList(3, 6, 7)));
+
+        assertEquals(new HashSet<>(Arrays.asList(3, 6, 7)), new HashSet<>(index));
+
+        index.clear();
+        assertTrue(index.isEmpty());
+        assertFalse(index.iterator().hasNext());
+    }
+
+    private TimeWindowedVPTree<Number, Integer> createTestIndex(final Clock clock) {
+        return new TimeWindowedVPTree<>(new IntegerDistanceFunction(), new MedianDistanceThresholdSelectionStrategy<>(),
+                4, BUCKET_WIDTH, RETENTION, clock);
+    }
+}
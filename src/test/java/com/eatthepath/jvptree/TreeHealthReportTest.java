@@ -0,0 +1,164 @@
+package com.eatthepath.jvptree;
+
+import com.eatthepath.jvptree.util.MedianDistanceThresholdSelectionStrategy;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TreeHealthReportTest {
+
+    @Test
+    public void testEmptyTree() {
+        final TreeHealthReport report = new VPTree<Number, Integer>(new IntegerDistanceFunction()).getHealthReport();
+
+        assertEquals(0, report.getSize());
+        assertEquals(0, report.getBranchNodeCount());
+        assertEquals(0, report.getLeafNodeCount());
+        assertEquals(0, report.getMaxDepth());
+        assertEquals(0, report.getIdealDepth());
+        assertEquals(0, report.getEstimatedHeapBytes());
+        assertEquals(0, report.getLeafDepthHistogram().length);
+        assertFalse(report.isRebuildRecommended());
+    }
+
+    @Test
+    public void testBalancedTree() {
+        final TreeHealthReport report = this.createTestTree(1024).getHealthReport();
+
+        assertEquals(1024, report.getSize());
+        assertEquals(report.getLeafNodeCount() - 1, report.getBranchNodeCount());
+        assertEquals(0, report.getOversizedLeafCount());
+        assertEquals(0, report.getDeletedPointCount());
+        assertEquals(7, report.getIdealDepth());
+
+        final int[] leafDepthHistogram = report.getLeafDepthHistogram();
+        final int[] leafSizeHistogram = report.getLeafSizeHistogram();
+
+        int leavesByDepth = 0;
+
+        for (final int leaves : leafDepthHistogram) {
+            leavesByDepth += leaves;
+        }
+
+        int leavesBySize = 0;
+        int points = 0;
+
+        for (int size = 0; size < leafSizeHistogram.length; size++) {
+            leavesBySize += leafSizeHistogram[size];
+            points += size * leafSizeHistogram[size];
+        }
+
+        assertEquals(report.getLeafNodeCount(), leavesByDepth);
+        assertEquals(report.getLeafNodeCount(), leavesBySize);
+        assertEquals(1024, points);
+        assertEquals(leafDepthHistogram.length - 1, report.getMaxDepth());
+        assertTrue(leafSizeHistogram.length <= 9);
+
+        assertEquals(report.getMaxDepth(), report.getBalanceRatios().length);
+
+        for (final double balanceRatio : report.getBalanceRatios()) {
+            assertTrue(balanceRatio >= 0.5 && balanceRatio <= 1);
+        }
+
+        assertTrue(report.getAveragePointDepth() >= report.getIdealDepth());
+        assertTrue(report.getEstimatedHeapBytes() > 1024 * 4);
+        assertFalse(report.isRebuildRecommended());
+    }
+
+    @Test
+    public void testOversizedLeaves() {
+        // Identical points can't be partitioned
+        final List<Integer> points = new ArrayList<>(Collections.nCopies(100, 17));
+        points.add(1000);
+
+        final VPTree<Number, Integer> vpTree =
+                new VPTree<>(new IntegerDistanceFunction(), new MedianDistanceThresholdSelectionStrategy<>(), 8, points);
+
+        final TreeHealthReport report = vpTree.getHealthReport();
+
+        assertEquals(101, report.getSize());
+        assertEquals(1, report.getOversizedLeafCount());
+        assertTrue(report.getLeafSizeHistogram().length > 100);
+    }
+
+    @Test
+    public void testDeletedPointsAndRebuild() {
+        final VPTree<Number, Integer> vpTree = this.createTestTree(1024);
+        vpTree.setTombstoneThreshold(0.9);
+
+        vpTree.removeIf(point -> point % 4 != 0);
+
+        final TreeHealthReport churnedReport = vpTree.getHealthReport();
+
+        assertEquals(256, churnedReport.getSize());
+        assertTrue(churnedReport.getDeletedPointCount() > 256);
+        assertTrue(churnedReport.isRebuildRecommended());
+
+        vpTree.rebuild();
+
+        final TreeHealthReport rebuiltReport = vpTree.getHealthReport();
+
+        assertEquals(256, rebuiltReport.getSize());
+        assertEquals(0, rebuiltReport.getDeletedPointCount());
+        assertTrue(rebuiltReport.getEstimatedHeapBytes() < churnedReport.getEstimatedHeapBytes());
+        assertFalse(rebuiltReport.isRebuildRecommended());
+
+        assertEquals(256, vpTree.size());
+        assertEquals(Collections.singletonList(512), vpTree.getNearestNeighbors(513, 1));
+    }
+
+    @Test
+    public void testEstimateHeapBytes() {
+        assertEquals(0, TreeHealthReport.estimateHeapBytes(0, 8));
+
+        for (final int size : new int[] { 1, 8, 9, 1000, 1024 }) {
+            final VPTree<Number, Integer> vpTree = this.createTestTree(size);
+            final long estimatedHeapBytes = TreeHealthReport.estimateHeapBytes(size, 8);
+
+            assertEquals(vpTree.getHealthReport().getEstimatedHeapBytes(), estimatedHeapBytes, estimatedHeapBytes * 0.1);
+
+            vpTree.setAttributeFunction(point -> point % 3);
+
+            final long estimatedHeapBytesWithSummaries =
+                    TreeHealthReport.estimateHeapBytes(size, 8, VPTree.LocatorMode.NONE, true);
+
+            assertTrue(estimatedHeapBytesWithSummaries > estimatedHeapBytes);
+            assertEquals(vpTree.getHealthReport().getEstimatedHeapBytes(), estimatedHeapBytesWithSummaries, estimatedHeapBytesWithSummaries * 0.1);
+
+            // Reports for trees with point locators should agree with estimates for the same locator mode
+            for (final VPTree.LocatorMode locatorMode : VPTree.LocatorMode.values()) {
+                vpTree.setLocatorMode(locatorMode);
+
+                final long estimatedHeapBytesWithLocator =
+                        TreeHealthReport.estimateHeapBytes(size, 8, locatorMode, true);
+
+                assertEquals(vpTree.getHealthReport().getEstimatedHeapBytes(), estimatedHeapBytesWithLocator, estimatedHeapBytesWithLocator * 0.1);
+            }
+        }
+
+        assertTrue(TreeHealthReport.estimateHeapBytes(1024, 8, VPTree.LocatorMode.EQUALITY, false) >
+                TreeHealthReport.estimateHeapBytes(1024, 8) + (1024 * 4));
+
+        assertTrue(TreeHealthReport.estimateHeapBytes(1024, 8, VPTree.LocatorMode.IDENTITY, false) >
+                TreeHealthReport.estimateHeapBytes(1024, 8) + (1024 * 4));
+
+        assertTrue(TreeHealthReport.estimateHeapBytes(1024, 4) > TreeHealthReport.estimateHeapBytes(1024, 64));
+
+        assertThrows(IllegalArgumentException.class, () -> TreeHealthReport.estimateHeapBytes(-1, 8));
+        assertThrows(IllegalArgumentException.class, () -> TreeHealthReport.estimateHeapBytes(1024, 0));
+    }
+
+    private VPTree<Number, Integer> createTestTree(final int size) {
+        final List<Integer> points = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            points.add(i);
+        }
+
+        return new VPTree<>(new IntegerDistanceFunction(), new MedianDistanceThresholdSelectionStrategy<>(), 8, points);
+    }
+}
@@ -139,6 +139,42 @@ public class VPTreeNodeTest {
         }
     }
 
+    @Test
+    void testCollectAllWithinDistanceRange() {
+        final int queryPoint = TEST_NODE_SIZE / 2;
+        final int minRange = TEST_NODE_SIZE / 16;
+        final int maxRange = TEST_NODE_SIZE / 8;
+
+        for (final VPTreeNode<Number, Integer> testNode : this.createTestNodes(TEST_NODE_SIZE)) {
+            final ArrayList<Integer> collectedPoints = new ArrayList<>();
+
+            testNode.collectAllWithinDistanceRange(queryPoint, minRange, maxRange, collectedPoints, NO_OP_POINT_FILTER);
+
+            assertEquals(2 * (maxRange - minRange + 1), collectedPoints.size());
+
+            for (int i = minRange; i <= maxRange; i++) {
+                assertTrue(collectedPoints.contains(queryPoint - i));
+                assertTrue(collectedPoints.contains(queryPoint + i));
+            }
+        }
+    }
+
+    @Test
+    void testCollectFarthestNeighbors() {
+        final Integer queryPoint = TEST_NODE_SIZE / 4;
+        final int numberOfNeighbors = 3;
+
+        for (final VPTreeNode<Number, Integer> testNode : this.createTestNodes(TEST_NODE_SIZE)) {
+            final FarthestNeighborCollector<Number, Integer> collector =
+                    new FarthestNeighborCollector<>(queryPoint, new IntegerDistanceFunction(), numberOfNeighbors);
+
+            testNode.collectFarthestNeighbors(collector, NO_OP_POINT_FILTER);
+
+            assertEquals(java.util.Arrays.asList(TEST_NODE_SIZE - 1, TEST_NODE_SIZE - 2, TEST_NODE_SIZE - 3),
+                    collector.toSortedList());
+        }
+    }
+
     @Test
     void testAddPointsToArray() {
         for (final VPTreeNode<Number, Integer> testNode : this.createTestNodes(TEST_NODE_SIZE)) {
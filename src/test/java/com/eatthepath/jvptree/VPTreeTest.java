@@ -1,11 +1,23 @@
 package com.eatthepath.jvptree;
 
+import com.eatthepath.jvptree.util.CountingDistanceFunction;
+import com.eatthepath.jvptree.util.MedianDistanceThresholdSelectionStrategy;
 import org.junit.jupiter.api.Test;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -44,138 +56,1392 @@ public class VPTreeTest {
                 java.util.Arrays.asList(queryPoint - 2, queryPoint, queryPoint + 2)));
     }
 
+    @Test
+    public void testGetNearestNeighborsSmallNodes() {
+        final ArrayList<Integer> points = new ArrayList<>();
+
+        for (int i = 0; i < TEST_TREE_SIZE; i++) {
+            points.add(i);
+        }
+
+        // With nodes smaller than the number of requested neighbors, the first node searched can't hold all of the
+        // neighbors on its own.
+        final VPTree<Number, Integer> vpTree =
+                new VPTree<>(new IntegerDistanceFunction(), new MedianDistanceThresholdSelectionStrategy<>(), 2, points);
+
+        for (int queryPoint = 0; queryPoint < TEST_TREE_SIZE; queryPoint++) {
+            assertEquals(16, vpTree.getNearestNeighbors(queryPoint, 16).size());
+        }
+
+        assertTrue(vpTree.getNearestNeighbors(0, 16, point -> false).isEmpty());
+    }
+
+    @Test
+    public void testGetNearestNeighborsWithCollector() {
+        final VPTree<Number, Integer> vpTree = this.createTestTree(TEST_TREE_SIZE);
+        final NearestNeighborCollector<Number, Integer> collector = new NearestNeighborCollector<>();
+
+        for (int queryPoint = 1; queryPoint < TEST_TREE_SIZE - 1; queryPoint++) {
+            vpTree.getNearestNeighbors(queryPoint, 3, point -> true, collector);
+
+            assertEquals(3, collector.size());
+            assertEquals(queryPoint, collector.getPoint(0));
+            assertEquals(0, collector.getDistance(0));
+            assertEquals(1, collector.getDistance(1));
+            assertEquals(1, collector.getDistance(2));
+        }
+
+        this.createTestTree(0).getNearestNeighbors(7, 3, point -> true, collector);
+        assertEquals(0, collector.size());
+    }
+
+    @Test
+    public void testForEachWithinDistance() {
+        final VPTree<Number, Integer> vpTree = this.createTestTree(TEST_TREE_SIZE);
+
+        final int queryPoint = TEST_TREE_SIZE / 2;
+        final int maxDistance = TEST_TREE_SIZE / 8;
+
+        final List<Integer> pointsWithinRange = new ArrayList<>();
+
+        vpTree.forEachWithinDistance(queryPoint, maxDistance, (point, distance) -> {
+            assertEquals(Math.abs(queryPoint - point), distance);
+            pointsWithinRange.add(point);
+        });
+
+        assertEquals((2 * maxDistance) + 1, pointsWithinRange.size());
+
+        for (int i = queryPoint - maxDistance; i <= queryPoint + maxDistance; i++) {
+            assertTrue(pointsWithinRange.contains(i));
+        }
+
+        pointsWithinRange.clear();
+        vpTree.forEachWithinDistance(queryPoint, maxDistance, point -> point % 2 == 0,
+                (point, distance) -> pointsWithinRange.add(point));
+
+        assertEquals(maxDistance + 1, pointsWithinRange.size());
+    }
+
     @Test
     public void testGetAllWithinRange() {
         final VPTree<Number, Integer> vpTree = this.createTestTree(TEST_TREE_SIZE);
 
-        final int queryPoint = TEST_TREE_SIZE / 2;
-        final int maxDistance = TEST_TREE_SIZE / 8;
+        final int queryPoint = TEST_TREE_SIZE / 2;
+        final int maxDistance = TEST_TREE_SIZE / 8;
+
+        final PointFilter<Integer> evenNumberFilter = point -> point % 2 == 0;
+
+        final List<Integer> pointsWithinRange = vpTree.getAllWithinDistance(queryPoint, maxDistance, evenNumberFilter);
+
+        assertEquals(maxDistance + 1, pointsWithinRange.size());
+
+        for (int i = queryPoint - maxDistance; i <= queryPoint + maxDistance; i += 2) {
+            assertTrue(pointsWithinRange.contains(i));
+        }
+    }
+
+    @Test
+    public void testGetAllWithinRangeWithFilter() {
+        final VPTree<Number, Integer> vpTree = this.createTestTree(TEST_TREE_SIZE);
+
+        final int queryPoint = TEST_TREE_SIZE / 2;
+        final int maxDistance = TEST_TREE_SIZE / 8;
+
+        final List<Integer> pointsWithinRange = vpTree.getAllWithinDistance(queryPoint, maxDistance);
+
+        assertEquals((2 * maxDistance) + 1, pointsWithinRange.size());
+
+        for (int i = queryPoint - maxDistance; i <= queryPoint + maxDistance; i++) {
+            assertTrue(pointsWithinRange.contains(i));
+        }
+    }
+
+    @Test
+    public void testGetAllWithinDistanceRange() {
+        final VPTree<Number, Integer> vpTree = this.createTestTree(TEST_TREE_SIZE);
+
+        final int queryPoint = TEST_TREE_SIZE / 2;
+        final int minDistance = TEST_TREE_SIZE / 16;
+        final int maxDistance = TEST_TREE_SIZE / 8;
+
+        final List<Integer> pointsWithinRange = vpTree.getAllWithinDistanceRange(queryPoint, minDistance, maxDistance);
+
+        assertEquals(2 * (maxDistance - minDistance + 1), pointsWithinRange.size());
+
+        for (int i = minDistance; i <= maxDistance; i++) {
+            assertTrue(pointsWithinRange.contains(queryPoint - i));
+            assertTrue(pointsWithinRange.contains(queryPoint + i));
+        }
+    }
+
+    @Test
+    public void testGetAllWithinDistanceRangeWithFilter() {
+        final VPTree<Number, Integer> vpTree = this.createTestTree(TEST_TREE_SIZE);
+
+        final int queryPoint = TEST_TREE_SIZE / 2;
+        final int minDistance = TEST_TREE_SIZE / 16;
+        final int maxDistance = TEST_TREE_SIZE / 8;
+
+        final PointFilter<Integer> evenNumberFilter = point -> point % 2 == 0;
+
+        final List<Integer> pointsWithinRange =
+                vpTree.getAllWithinDistanceRange(queryPoint, minDistance, maxDistance, evenNumberFilter);
+
+        assertEquals(maxDistance - minDistance + 2, pointsWithinRange.size());
+
+        for (final Integer point : pointsWithinRange) {
+            assertEquals(0, point % 2);
+
+            final int distance = Math.abs(point - queryPoint);
+            assertTrue(distance >= minDistance && distance <= maxDistance);
+        }
+    }
+
+    @Test
+    public void testGetAllWithinDistanceRangeIllegalRange() {
+        final VPTree<Number, Integer> vpTree = this.createTestTree(TEST_TREE_SIZE);
+
+        assertThrows(IllegalArgumentException.class, () -> vpTree.getAllWithinDistanceRange(0, 2, 1));
+    }
+
+    @Test
+    public void testGetAllWithinDistanceRangePrunesByRadius() {
+        final List<Integer> points = new ArrayList<>(TEST_TREE_SIZE);
+
+        for (int i = 0; i < TEST_TREE_SIZE; i++) {
+            points.add(i);
+        }
+
+        final CountingDistanceFunction<Number> distanceFunction =
+                new CountingDistanceFunction<>(new IntegerDistanceFunction());
+
+        final VPTree<Number, Integer> vpTree = new VPTree<>(distanceFunction, points);
+        distanceFunction.reset();
+
+        // Every point lies within the root's radius of its vantage point, so no point can be this far from the query
+        // point and the search should stop at the root
+        assertTrue(vpTree.getAllWithinDistanceRange(0, TEST_TREE_SIZE * 4, TEST_TREE_SIZE * 8).isEmpty());
+        assertEquals(1, distanceFunction.getCallCount());
+    }
+
+    @Test
+    public void testDistanceRangeAndFarthestNeighborsMatchBruteForce() {
+        final Random random = new Random(17);
+        final List<Integer> points = new ArrayList<>();
+
+        for (int i = 0; i < 1024; i++) {
+            points.add(random.nextInt(4096));
+        }
+
+        final VPTree<Number, Integer> vpTree =
+                new VPTree<>(new IntegerDistanceFunction(), new MedianDistanceThresholdSelectionStrategy<>(), 8, points);
+
+        // Points added after construction (and beyond the range of the original points) widen nodes' radii
+        for (int i = 0; i < 64; i++) {
+            final Integer point = 4096 + random.nextInt(1024);
+
+            points.add(point);
+            vpTree.add(point);
+        }
+
+        for (int i = 0; i < 64; i++) {
+            final int queryPoint = random.nextInt(6144) - 512;
+            final int minDistance = random.nextInt(2048);
+            final int maxDistance = minDistance + random.nextInt(512);
+
+            final List<Integer> expectedWithinRange = new ArrayList<>();
+            final List<Integer> expectedDistances = new ArrayList<>();
+
+            for (final Integer point : points) {
+                final int distance = Math.abs(point - queryPoint);
+
+                if (distance >= minDistance && distance <= maxDistance) {
+                    expectedWithinRange.add(point);
+                }
+
+                expectedDistances.add(distance);
+            }
+
+            final List<Integer> withinRange = vpTree.getAllWithinDistanceRange(queryPoint, minDistance, maxDistance);
+
+            Collections.sort(expectedWithinRange);
+            Collections.sort(withinRange);
+
+            assertEquals(expectedWithinRange, withinRange);
+
+            expectedDistances.sort(Collections.reverseOrder());
+
+            final List<Integer> farthestDistances = new ArrayList<>();
+
+            for (final Integer point : vpTree.getFarthestNeighbors(queryPoint, 5)) {
+                farthestDistances.add(Math.abs(point - queryPoint));
+            }
+
+            assertEquals(expectedDistances.subList(0, 5), farthestDistances);
+        }
+    }
+
+    @Test
+    public void testGetFarthestNeighbors() {
+        final VPTree<Number, Integer> vpTree = this.createTestTree(TEST_TREE_SIZE);
+
+        final Integer queryPoint = TEST_TREE_SIZE / 4;
+        final int numberOfNeighbors = 3;
+
+        final List<Integer> farthestNeighbors = vpTree.getFarthestNeighbors(queryPoint, numberOfNeighbors);
+
+        assertEquals(Arrays.asList(TEST_TREE_SIZE - 1, TEST_TREE_SIZE - 2, TEST_TREE_SIZE - 3), farthestNeighbors);
+    }
+
+    @Test
+    public void testGetFarthestNeighborsWithFilter() {
+        final VPTree<Number, Integer> vpTree = this.createTestTree(TEST_TREE_SIZE);
+
+        final Integer queryPoint = (3 * TEST_TREE_SIZE) / 4;
+        final int numberOfNeighbors = 3;
+
+        final PointFilter<Integer> oddNumberFilter = point -> point % 2 == 1;
+
+        final List<Integer> farthestNeighbors =
+                vpTree.getFarthestNeighbors(queryPoint, numberOfNeighbors, oddNumberFilter);
+
+        assertEquals(Arrays.asList(1, 3, 5), farthestNeighbors);
+    }
+
+    @Test
+    public void testBuildKnnGraph() {
+        final VPTree<Number, Integer> vpTree = this.createTestTree(TEST_TREE_SIZE);
+        final Integer[] points = vpTree.toArray(new Integer[0]);
+
+        final int[][] graph = vpTree.buildKnnGraph(2);
+
+        assertEquals(TEST_TREE_SIZE, graph.length);
+
+        for (int i = 0; i < graph.length; i++) {
+            final List<Integer> neighbors = new ArrayList<>();
+
+            for (final int neighborIndex : graph[i]) {
+                neighbors.add(points[neighborIndex]);
+            }
+
+            final int point = points[i];
+
+            if (point == 0) {
+                assertEquals(Arrays.asList(1, 2), neighbors);
+            } else if (point == TEST_TREE_SIZE - 1) {
+                assertEquals(Arrays.asList(TEST_TREE_SIZE - 2, TEST_TREE_SIZE - 3), neighbors);
+            } else {
+                assertEquals(2, neighbors.size());
+                assertTrue(neighbors.containsAll(Arrays.asList(point - 1, point + 1)));
+            }
+        }
+    }
+
+    @Test
+    public void testBuildKnnGraphMatchesNearestNeighbors() {
+        final Random random = new Random(17);
+        final List<Double> points = new ArrayList<>();
+
+        for (int i = 0; i < 1000; i++) {
+            points.add(random.nextDouble());
+        }
+
+        final VPTree<Double, Double> vpTree =
+                new VPTree<>((a, b) -> Math.abs(a - b), new MedianDistanceThresholdSelectionStrategy<>(), 8, points);
+
+        final Double[] pointsInTree = vpTree.toArray(new Double[0]);
+        final int k = 5;
+
+        final int[][] graph = vpTree.buildKnnGraph(k);
+
+        for (int i = 0; i < pointsInTree.length; i++) {
+            final List<Double> expectedNeighbors = new ArrayList<>(points);
+            expectedNeighbors.sort(new DistanceComparator<>(pointsInTree[i], (a, b) -> Math.abs(a - b)));
+
+            // The nearest "neighbor" of each point is the point itself, which the graph excludes
+            expectedNeighbors.remove(0);
+            expectedNeighbors.subList(k, expectedNeighbors.size()).clear();
+            final List<Double> neighbors = new ArrayList<>();
+
+            for (final int neighborIndex : graph[i]) {
+                neighbors.add(pointsInTree[neighborIndex]);
+            }
+
+            assertEquals(expectedNeighbors, neighbors);
+        }
+    }
+
+    @Test
+    public void testBuildKnnGraphEmptyTree() {
+        assertEquals(0, this.createTestTree(0).buildKnnGraph(3).length);
+    }
+
+    @Test
+    public void testForEachPairWithinDistance() {
+        final VPTree<Number, Integer> vpTree = this.createTestTree(TEST_TREE_SIZE);
+        final int maxDistance = 2;
+
+        final Set<List<Integer>> pairs = Collections.synchronizedSet(new HashSet<>());
+
+        vpTree.forEachPairWithinDistance(maxDistance, (firstPoint, secondPoint, distance) -> {
+            assertEquals(Math.abs(firstPoint - secondPoint), distance);
+            assertTrue(pairs.add(Arrays.asList(Math.min(firstPoint, secondPoint), Math.max(firstPoint, secondPoint))),
+                    "Each pair should be reported exactly once");
+        });
+
+        final Set<List<Integer>> expectedPairs = new HashSet<>();
+
+        for (int i = 0; i < TEST_TREE_SIZE; i++) {
+            for (int j = i + 1; j <= i + maxDistance && j < TEST_TREE_SIZE; j++) {
+                expectedPairs.add(Arrays.asList(i, j));
+            }
+        }
+
+        assertEquals(expectedPairs, pairs);
+    }
+
+    @Test
+    public void testForEachPairWithinDistanceAfterAdd() {
+        final VPTree<Number, Integer> vpTree = this.createTestTree(TEST_TREE_SIZE);
+
+        // Points beyond the range of the original points stretch the regions the join relies upon to prune pairs
+        for (int i = TEST_TREE_SIZE; i < TEST_TREE_SIZE * 2; i += 7) {
+            vpTree.add(i);
+        }
+
+        final int maxDistance = 8;
+        final Set<List<Integer>> pairs = Collections.synchronizedSet(new HashSet<>());
+
+        vpTree.forEachPairWithinDistance(maxDistance, (firstPoint, secondPoint, distance) ->
+                pairs.add(Arrays.asList(Math.min(firstPoint, secondPoint), Math.max(firstPoint, secondPoint))));
+
+        final List<Integer> points = new ArrayList<>(vpTree);
+        final Set<List<Integer>> expectedPairs = new HashSet<>();
+
+        for (final Integer firstPoint : points) {
+            for (final Integer secondPoint : points) {
+                if (firstPoint < secondPoint && secondPoint - firstPoint <= maxDistance) {
+                    expectedPairs.add(Arrays.asList(firstPoint, secondPoint));
+                }
+            }
+        }
+
+        assertEquals(expectedPairs, pairs);
+    }
+
+    @Test
+    public void testForEachPairWithinDistanceOtherTree() {
+        final Random random = new Random(17);
+        final List<Double> firstPoints = new ArrayList<>();
+        final List<Double> secondPoints = new ArrayList<>();
+
+        for (int i = 0; i < 500; i++) {
+            firstPoints.add(random.nextDouble());
+            secondPoints.add(random.nextDouble());
+        }
+
+        final DistanceFunction<Double> distanceFunction = (a, b) -> Math.abs(a - b);
+        final VPTree<Double, Double> firstTree = new VPTree<>(distanceFunction, firstPoints);
+        final VPTree<Double, Double> secondTree =
+                new VPTree<>(distanceFunction, new MedianDistanceThresholdSelectionStrategy<>(), 4, secondPoints);
+
+        final double maxDistance = 0.01;
+        final Set<List<Double>> pairs = Collections.synchronizedSet(new HashSet<>());
+
+        firstTree.forEachPairWithinDistance(secondTree, maxDistance,
+                (firstPoint, secondPoint, distance) -> pairs.add(Arrays.asList(firstPoint, secondPoint)));
+
+        final Set<List<Double>> expectedPairs = new HashSet<>();
+
+        for (final Double firstPoint : firstPoints) {
+            for (final Double secondPoint : secondPoints) {
+                if (distanceFunction.getDistance(firstPoint, secondPoint) <= maxDistance) {
+                    expectedPairs.add(Arrays.asList(firstPoint, secondPoint));
+                }
+            }
+        }
+
+        assertFalse(expectedPairs.isEmpty());
+        assertEquals(expectedPairs, pairs);
+    }
+
+    @Test
+    public void testSize() {
+        final ArrayList<Integer> points = new ArrayList<>();
+
+        for (int i = 0; i < TEST_TREE_SIZE; i++) {
+            points.add(i);
+        }
+
+        {
+            final VPTree<Number, Integer> initiallyEmptyTree = new VPTree<>(new IntegerDistanceFunction());
+            assertEquals(0, initiallyEmptyTree.size());
+
+            initiallyEmptyTree.addAll(points);
+
+            assertEquals(points.size(), initiallyEmptyTree.size());
+
+            initiallyEmptyTree.removeAll(points);
+
+            assertEquals(0, initiallyEmptyTree.size());
+        }
+
+        {
+            final VPTree<Number, Integer> initiallyPopulatedTree = new VPTree<>(new IntegerDistanceFunction(), points);
+            assertEquals(points.size(), initiallyPopulatedTree.size());
+        }
+    }
+
+    @Test
+    public void testIsEmpty() {
+        final VPTree<Number, Integer> vpTree = this.createTestTree(0);
+        final Integer testPoint = 12;
+
+        assertTrue(vpTree.isEmpty());
+
+        vpTree.add(testPoint);
+        assertFalse(vpTree.isEmpty());
+
+        vpTree.remove(testPoint);
+        assertTrue(vpTree.isEmpty());
+    }
+
+    @Test
+    public void testAdd() {
+        final VPTree<Number, Integer> vpTree = this.createTestTree(0);
+        final Integer testPoint = 12;
+
+        assertFalse(vpTree.contains(testPoint));
+
+        assertTrue(vpTree.add(testPoint));
+        assertTrue(vpTree.contains(testPoint));
+    }
+
+    @Test
+    public void testAddBeyondExistingPoints() {
+        final VPTree<Number, Integer> vpTree = this.createTestTree(TEST_TREE_SIZE);
+        final Integer distantPoint = TEST_TREE_SIZE * 10;
+
+        // Searches skip nodes whose points all lie too far from the query point, so nodes need to account for points
+        // added after they were partitioned
+        vpTree.add(distantPoint);
+
+        assertEquals(Collections.singletonList(distantPoint), vpTree.getNearestNeighbors(TEST_TREE_SIZE * 20, 1));
+        assertEquals(Collections.singletonList(distantPoint), vpTree.getAllWithinDistance(TEST_TREE_SIZE * 20, TEST_TREE_SIZE * 10));
+    }
+
+    @Test
+    public void testAddAll() {
+        final VPTree<Number, Integer> vpTree = this.createTestTree(0);
+
+        final int numberOfPoints = 256;
+        final ArrayList<Integer> points = new ArrayList<>(numberOfPoints);
+
+        for (int i = 0; i < numberOfPoints; i++) {
+            points.add(i);
+        }
+
+        assertTrue(vpTree.addAll(points));
+        assertEquals(points.size(), vpTree.size());
+        assertTrue(vpTree.containsAll(points));
+    }
+
+    @Test
+    public void testRemove() {
+        final VPTree<Number, Integer> vpTree = this.createTestTree(0);
+        final Integer testPoint = 12;
+
+        assertFalse(vpTree.remove(testPoint));
+
+        vpTree.add(testPoint);
+        assertTrue(vpTree.remove(testPoint));
+        assertTrue(vpTree.isEmpty());
+    }
+
+    @Test
+    public void testRemovedPointsAreNotRetained() {
+        final List<Integer> points = new ArrayList<>();
+
+        // Integers outside of the small-value cache are distinct instances
+        for (int i = 0; i < 10_000; i++) {
+            points.add(1000 + i);
+        }
+
+        final VPTree<Number, Integer> vpTree = new VPTree<>(new IntegerDistanceFunction(), points);
+        points.clear();
+
+        // Branch nodes hold on to their vantage points even after they're removed, so choose points that are only
+        // stored in leaves; removals use equal, but distinct, instances
+        final WeakReference<Integer> removedPoint = new WeakReference<>(findLeafOnlyPoint(vpTree.getRootNode()));
+
+        assertTrue(vpTree.removeAll(Collections.singletonList(removedPoint.get() + 0)));
+        assertCollected(removedPoint);
+
+        vpTree.rebuild();
+
+        final WeakReference<Integer> removedAfterRebuild = new WeakReference<>(findLeafOnlyPoint(vpTree.getRootNode()));
+
+        assertTrue(vpTree.remove(removedAfterRebuild.get() + 0));
+        assertCollected(removedAfterRebuild);
+
+        assertEquals(9998, vpTree.size());
+    }
+
+    private static Integer findLeafOnlyPoint(final VPTreeNode<Number, Integer> rootNode) {
+        final Set<Integer> vantagePoints = Collections.newSetFromMap(new IdentityHashMap<>());
+        final List<Integer> leafPoints = new ArrayList<>();
+
+        final ArrayDeque<VPTreeNode<Number, Integer>> nodes = new ArrayDeque<>();
+        nodes.push(rootNode);
+
+        while (!nodes.isEmpty()) {
+            final VPTreeNode<Number, Integer> node = nodes.pop();
+            vantagePoints.add(node.getVantagePoint());
+
+            if (node.isLeaf()) {
+                leafPoints.addAll(node.getPoints());
+            } else {
+                nodes.push(node.getCloser());
+                nodes.push(node.getFarther());
+            }
+        }
+
+        for (final Integer point : leafPoints) {
+            if (!vantagePoints.contains(point)) {
+                return point;
+            }
+        }
+
+        throw new AssertionError("Every point is a vantage point.");
+    }
+
+    private static void assertCollected(final WeakReference<?> reference) {
+        for (int i = 0; i < 10 && reference.get() != null; i++) {
+            System.gc();
+        }
+
+        assertNull(reference.get(), "Removed points should not remain reachable from the tree.");
+    }
+
+    @Test
+    public void testRemoveAll() {
+        final ArrayList<Integer> pointsToRemove = new ArrayList<>();
+
+        for (int i = 0; i < TEST_TREE_SIZE; i += 2) {
+            pointsToRemove.add(i);
+        }
+
+        final VPTree<Number, Integer> vpTree = this.createTestTree(TEST_TREE_SIZE);
+
+        assertTrue(vpTree.removeAll(pointsToRemove));
+        assertEquals(TEST_TREE_SIZE - pointsToRemove.size(), vpTree.size());
+
+        for (final Integer point : pointsToRemove) {
+            assertFalse(vpTree.contains(point));
+        }
+
+        assertFalse(vpTree.removeAll(pointsToRemove));
+    }
+
+    @Test
+    public void testAddRebalancesTree() {
+        final int numberOfPoints = 4096;
+
+        final VPTree<Number, Integer> vpTree =
+                new VPTree<>(new IntegerDistanceFunction(), new MedianDistanceThresholdSelectionStrategy<>(), 8);
+
+        // Adding points in order would send every new point to the same side of every existing node, and without
+        // rebalancing, the tree would degenerate into something closer to a linked list than a tree.
+        for (int i = 0; i < numberOfPoints; i++) {
+            vpTree.add(i);
+        }
+
+        assertEquals(numberOfPoints, vpTree.size());
+
+        for (int i = 0; i < numberOfPoints; i++) {
+            assertTrue(vpTree.contains(i));
+        }
+
+        assertTrue(getDepth(vpTree.getRootNode()) <= getMaximumExpectedDepth(numberOfPoints, vpTree.getSkewFactor()));
+        assertEquals(new HashSet<>(Arrays.asList(2046, 2047, 2048)), new HashSet<>(vpTree.getNearestNeighbors(2047, 3)));
+    }
+
+    @Test
+    public void testRemoveRebalancesTree() {
+        final int numberOfPoints = 4096;
+
+        final ArrayList<Integer> points = new ArrayList<>(numberOfPoints);
+
+        for (int i = 0; i < numberOfPoints; i++) {
+            points.add(i);
+        }
+
+        final VPTree<Number, Integer> vpTree =
+                new VPTree<>(new IntegerDistanceFunction(), new MedianDistanceThresholdSelectionStrategy<>(), 8, points);
+
+        // Removing a contiguous run of points hollows out one side of many nodes
+        for (int i = 0; i < numberOfPoints - 256; i++) {
+            assertTrue(vpTree.remove(i));
+        }
+
+        assertEquals(256, vpTree.size());
+        assertTrue(getDepth(vpTree.getRootNode()) <= getMaximumExpectedDepth(256, vpTree.getSkewFactor()));
+
+        for (int i = numberOfPoints - 256; i < numberOfPoints; i++) {
+            assertTrue(vpTree.contains(i));
+        }
+    }
+
+    @Test
+    public void testRebalancingCostIsAmortized() {
+        final int numberOfPoints = 1024;
+
+        final ArrayList<Integer> points = new ArrayList<>(numberOfPoints);
+
+        for (int i = 0; i < numberOfPoints; i++) {
+            points.add(i);
+        }
+
+        final VPTree<Number, Integer> vpTree =
+                new VPTree<>(new IntegerDistanceFunction(), new MedianDistanceThresholdSelectionStrategy<>(), 8, points);
+
+        final AtomicInteger largestRebuild = new AtomicInteger();
+        final AtomicInteger totalPointsMoved = new AtomicInteger();
+
+        vpTree.setListener(new VPTreeListener() {
+            @Override
+            public void nodeRebuilt(final int pointsMoved, final long durationNanos) {
+                largestRebuild.set(Math.max(largestRebuild.get(), pointsMoved));
+                totalPointsMoved.addAndGet(pointsMoved);
+            }
+        });
+
+        // Adding points beyond one edge of the tree eventually makes the root lopsided
+        int mutations = 0;
+
+        while (largestRebuild.get() < vpTree.size() && mutations < 8 * numberOfPoints) {
+            vpTree.add(numberOfPoints + mutations);
+            mutations += 1;
+        }
+
+        // In the worst case, a single mutation rebuilds the whole tree...
+        assertEquals(vpTree.size(), largestRebuild.get());
+
+        // ...but that's only possible after enough mutations to pay for it; each mutation pays for at most
+        // 1 / (skewFactor - 0.5) point moves at each level of the tree
+        final int maxDepth = getMaximumExpectedDepth(vpTree.size(), vpTree.getSkewFactor());
+        assertTrue(totalPointsMoved.get() <= mutations * maxDepth / (vpTree.getSkewFactor() - 0.5));
+    }
+
+    @Test
+    public void testMaxRebuildSizeBoundsWorkPerMutation() {
+        final int numberOfPoints = 1024;
+        final int maxRebuildSize = 64;
+
+        final ArrayList<Integer> points = new ArrayList<>(numberOfPoints);
+
+        for (int i = 0; i < numberOfPoints; i++) {
+            points.add(i);
+        }
+
+        final VPTree<Number, Integer> vpTree =
+                new VPTree<>(new IntegerDistanceFunction(), new MedianDistanceThresholdSelectionStrategy<>(), 8, points);
+
+        vpTree.setMaxRebuildSize(maxRebuildSize);
+
+        final AtomicInteger largestRebuild = new AtomicInteger();
+        final AtomicInteger pointsMovedByMutation = new AtomicInteger();
+
+        vpTree.setListener(new VPTreeListener() {
+            @Override
+            public void nodeRebuilt(final int pointsMoved, final long durationNanos) {
+                largestRebuild.set(Math.max(largestRebuild.get(), pointsMoved));
+                pointsMovedByMutation.addAndGet(pointsMoved);
+            }
+        });
+
+        // Without a limit, adding points beyond one edge of the tree eventually makes a single mutation rebuild the
+        // whole tree (see testRebalancingCostIsAmortized)
+        int mostPointsMovedByOneMutation = 0;
+
+        for (int i = 0; i < 4 * numberOfPoints; i++) {
+            pointsMovedByMutation.set(0);
+            vpTree.add(numberOfPoints + i);
+
+            // Every node a mutation rebuilds lies on the path to the new point
+            assertTrue(pointsMovedByMutation.get() <= maxRebuildSize * getDepth(vpTree.getRootNode()));
+            mostPointsMovedByOneMutation = Math.max(mostPointsMovedByOneMutation, pointsMovedByMutation.get());
+        }
+
+        // Small nodes still rebalance themselves, but no mutation comes anywhere close to rebuilding the whole tree
+        assertTrue(largestRebuild.get() > 0);
+        assertTrue(largestRebuild.get() <= maxRebuildSize);
+        assertTrue(mostPointsMovedByOneMutation < numberOfPoints / 4);
+
+        // Nodes too large to rebuild along the way are left lopsided until the tree is rebuilt explicitly
+        assertTrue(vpTree.getHealthReport().isRebuildRecommended());
+
+        vpTree.rebuild();
+
+        assertEquals(vpTree.size(), largestRebuild.get());
+        assertTrue(getDepth(vpTree.getRootNode()) <= getMaximumExpectedDepth(vpTree.size(), vpTree.getSkewFactor()));
+    }
+
+    @Test
+    public void testSetMaxRebuildSize() {
+        final VPTree<Number, Integer> vpTree = this.createTestTree(TEST_TREE_SIZE);
+
+        assertEquals(VPTree.DEFAULT_MAX_REBUILD_SIZE, vpTree.getMaxRebuildSize());
+
+        vpTree.setMaxRebuildSize(1);
+        assertEquals(1, vpTree.getMaxRebuildSize());
+
+        assertThrows(IllegalArgumentException.class, () -> vpTree.setMaxRebuildSize(0));
+    }
+
+    @Test
+    public void testSetSkewFactor() {
+        final VPTree<Number, Integer> vpTree = this.createTestTree(TEST_TREE_SIZE);
+
+        assertEquals(VPTree.DEFAULT_SKEW_FACTOR, vpTree.getSkewFactor());
+
+        vpTree.setSkewFactor(1);
+        assertEquals(1, vpTree.getSkewFactor());
+
+        assertThrows(IllegalArgumentException.class, () -> vpTree.setSkewFactor(0.5));
+        assertThrows(IllegalArgumentException.class, () -> vpTree.setSkewFactor(1.1));
+    }
+
+    @Test
+    public void testRemoveWithTombstones() {
+        final VPTree<Number, Integer> vpTree = this.createTestTree(TEST_TREE_SIZE);
+        vpTree.setTombstoneThreshold(0.9);
+
+        for (int i = 0; i < TEST_TREE_SIZE; i += 2) {
+            assertTrue(vpTree.remove(i));
+            assertFalse(vpTree.remove(i));
+        }
+
+        assertEquals(TEST_TREE_SIZE / 2, vpTree.size());
+
+        for (int i = 0; i < TEST_TREE_SIZE; i++) {
+            assertEquals(i % 2 == 1, vpTree.contains(i));
+        }
+
+        final List<Integer> iteratedPoints = new ArrayList<>();
+        vpTree.iterator().forEachRemaining(iteratedPoints::add);
+
+        assertEquals(TEST_TREE_SIZE / 2, iteratedPoints.size());
+        assertEquals(iteratedPoints, Arrays.asList(vpTree.toArray()));
+
+        for (final Integer point : iteratedPoints) {
+            assertEquals(1, point % 2);
+        }
+
+        assertEquals(new HashSet<>(Arrays.asList(127, 129)), new HashSet<>(vpTree.getNearestNeighbors(128, 2)));
+        assertEquals(new HashSet<>(Arrays.asList(127, 129)), new HashSet<>(vpTree.getAllWithinDistance(128, 1)));
+        assertEquals(new HashSet<>(Arrays.asList(125, 131)), new HashSet<>(vpTree.getAllWithinDistanceRange(128, 3, 3)));
+        assertEquals(Collections.singletonList(TEST_TREE_SIZE - 1), vpTree.getFarthestNeighbors(0, 1));
+
+        final int deletedPointCount = vpTree.getHealthReport().getDeletedPointCount();
+        assertTrue(deletedPointCount > 0);
+
+        // Bulk operations that work with leaves directly identify points by iteration order
+        final int[][] graph = vpTree.buildKnnGraph(1);
+        assertEquals(TEST_TREE_SIZE / 2, graph.length);
+
+        for (int i = 0; i < graph.length; i++) {
+            assertEquals(2, Math.abs(iteratedPoints.get(i) - iteratedPoints.get(graph[i][0])));
+        }
+
+        final List<Integer> pairedPoints = Collections.synchronizedList(new ArrayList<>());
+
+        vpTree.forEachPairWithinDistance(2, (first, second, distance) -> {
+            pairedPoints.add(first);
+            pairedPoints.add(second);
+        });
+
+        assertEquals(2 * ((TEST_TREE_SIZE / 2) - 1), pairedPoints.size());
+        pairedPoints.forEach(point -> assertEquals(1, point % 2));
+
+        pairedPoints.clear();
+        vpTree.forEachPairWithinDistance(vpTree, 0, (first, second, distance) -> pairedPoints.add(first));
+
+        assertEquals(TEST_TREE_SIZE / 2, pairedPoints.size());
+        pairedPoints.forEach(point -> assertEquals(1, point % 2));
+
+        final int[] labels = new DBSCANClusterer<Number, Integer>(2, 2).cluster(vpTree);
+        assertEquals(TEST_TREE_SIZE / 2, labels.length);
+        assertTrue(Arrays.stream(labels).allMatch(label -> label == 0));
+
+        // None of those operations modify the tree, and so none of them should purge deleted points
+        assertEquals(deletedPointCount, vpTree.getHealthReport().getDeletedPointCount());
+
+        // Points can be added again after they've been removed
+        assertTrue(vpTree.add(0));
+        assertTrue(vpTree.contains(0));
+        assertEquals((TEST_TREE_SIZE / 2) + 1, vpTree.size());
+    }
+
+    @Test
+    public void testRemoveAllSet() {
+        final VPTree<Number, Integer> vpTree = this.createTestTree(TEST_TREE_SIZE);
+        vpTree.setTombstoneThreshold(0.5);
+
+        final Set<Integer> pointsToRemove = new HashSet<>();
 
-        final PointFilter<Integer> evenNumberFilter = point -> point % 2 == 0;
+        for (int i = 0; i < TEST_TREE_SIZE; i += 2) {
+            pointsToRemove.add(i);
+        }
 
-        final List<Integer> pointsWithinRange = vpTree.getAllWithinDistance(queryPoint, maxDistance, evenNumberFilter);
+        assertTrue(vpTree.removeAll(pointsToRemove));
+        assertEquals(TEST_TREE_SIZE - pointsToRemove.size(), vpTree.size());
 
-        assertEquals(maxDistance + 1, pointsWithinRange.size());
+        for (final Integer point : pointsToRemove) {
+            assertFalse(vpTree.contains(point));
+        }
 
-        for (int i = queryPoint - maxDistance; i <= queryPoint + maxDistance; i += 2) {
-            assertTrue(pointsWithinRange.contains(i));
+        assertFalse(vpTree.removeAll(pointsToRemove));
+    }
+
+    @Test
+    public void testRemoveAllDuplicatePoints() {
+        // Like Collection#removeAll, removeAll should remove every copy of a point no matter what kind of collection
+        // holds the points to remove
+        for (final Collection<Integer> pointsToRemove : Arrays.<Collection<Integer>>asList(
+                new HashSet<>(Collections.singletonList(5)), Collections.singletonList(5))) {
+
+            final VPTree<Number, Integer> vpTree = this.createDuplicateTestTree(100);
+
+            assertTrue(vpTree.removeAll(pointsToRemove));
+            assertEquals(198, vpTree.size());
+            assertFalse(vpTree.contains(5));
         }
+
+        // ...while remove only removes a single copy
+        final VPTree<Number, Integer> vpTree = this.createDuplicateTestTree(100);
+
+        assertTrue(vpTree.remove(5));
+        assertEquals(199, vpTree.size());
+        assertTrue(vpTree.contains(5));
     }
 
     @Test
-    public void testGetAllWithinRangeWithFilter() {
+    public void testRemoveAllSetWithLocator() {
         final VPTree<Number, Integer> vpTree = this.createTestTree(TEST_TREE_SIZE);
+        vpTree.setLocatorMode(VPTree.LocatorMode.EQUALITY);
 
-        final int queryPoint = TEST_TREE_SIZE / 2;
-        final int maxDistance = TEST_TREE_SIZE / 8;
+        final AtomicInteger containsCalls = new AtomicInteger();
 
-        final List<Integer> pointsWithinRange = vpTree.getAllWithinDistance(queryPoint, maxDistance);
+        final Set<Integer> pointsToRemove = new HashSet<Integer>() {
+            @Override
+            public boolean contains(final Object o) {
+                containsCalls.incrementAndGet();
+                return super.contains(o);
+            }
+        };
 
-        assertEquals((2 * maxDistance) + 1, pointsWithinRange.size());
+        pointsToRemove.addAll(Arrays.asList(3, 17, 250));
 
-        for (int i = queryPoint - maxDistance; i <= queryPoint + maxDistance; i++) {
-            assertTrue(pointsWithinRange.contains(i));
+        // Small sets should be removed through the locator rather than by checking every point in the tree
+        assertTrue(vpTree.removeAll(pointsToRemove));
+        assertEquals(TEST_TREE_SIZE - 3, vpTree.size());
+        assertEquals(0, containsCalls.get());
+
+        for (final Integer point : pointsToRemove) {
+            assertFalse(vpTree.contains(point));
+        }
+
+        pointsToRemove.clear();
+
+        for (int i = 0; i < TEST_TREE_SIZE; i += 2) {
+            pointsToRemove.add(i);
+        }
+
+        // ...but removing a large share of the tree is cheaper in a single pass
+        assertTrue(vpTree.removeAll(pointsToRemove));
+        assertEquals((TEST_TREE_SIZE / 2) - 2, vpTree.size());
+        assertTrue(containsCalls.get() > 0);
+
+        for (final Integer point : pointsToRemove) {
+            assertFalse(vpTree.contains(point));
         }
     }
 
     @Test
-    public void testSize() {
-        final ArrayList<Integer> points = new ArrayList<>();
+    public void testRemoveAllDuplicatePointsWithLocator() {
+        // Whether a set is small enough to remove through the locator or large enough to sweep the tree shouldn't
+        // change which points get removed
+        final Set<Integer> largeSet = new HashSet<>();
+
+        for (int i = 0; i < 100; i += 2) {
+            largeSet.add(i);
+        }
+
+        for (final VPTree.LocatorMode locatorMode : Arrays.asList(VPTree.LocatorMode.EQUALITY, VPTree.LocatorMode.IDENTITY)) {
+            for (final Collection<Integer> pointsToRemove : Arrays.<Collection<Integer>>asList(
+                    new HashSet<>(Collections.singletonList(5)), Collections.singletonList(5), largeSet)) {
+
+                final VPTree<Number, Integer> vpTree = this.createDuplicateTestTree(100);
+                vpTree.setLocatorMode(locatorMode);
+
+                assertTrue(vpTree.removeAll(pointsToRemove));
+                assertEquals(200 - (2 * pointsToRemove.size()), vpTree.size());
+
+                for (final Integer point : pointsToRemove) {
+                    assertFalse(vpTree.contains(point));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRemoveIf() {
+        final VPTree<Number, Integer> vpTree = this.createTestTree(TEST_TREE_SIZE);
+
+        assertTrue(vpTree.removeIf(point -> point.intValue() >= 16));
+        assertFalse(vpTree.removeIf(point -> point.intValue() >= 16));
+
+        assertEquals(16, vpTree.size());
 
         for (int i = 0; i < TEST_TREE_SIZE; i++) {
-            points.add(i);
+            assertEquals(i < 16, vpTree.contains(i));
         }
 
-        {
-            final VPTree<Number, Integer> initiallyEmptyTree = new VPTree<>(new IntegerDistanceFunction());
-            assertEquals(0, initiallyEmptyTree.size());
+        assertFalse(this.createTestTree(0).removeIf(point -> true));
+    }
 
-            initiallyEmptyTree.addAll(points);
+    @Test
+    public void testSetTombstoneThreshold() {
+        final VPTree<Number, Integer> vpTree = this.createTestTree(TEST_TREE_SIZE);
 
-            assertEquals(points.size(), initiallyEmptyTree.size());
+        assertEquals(VPTree.DEFAULT_TOMBSTONE_THRESHOLD, vpTree.getTombstoneThreshold());
 
-            initiallyEmptyTree.removeAll(points);
+        vpTree.setTombstoneThreshold(0.25);
+        assertEquals(0.25, vpTree.getTombstoneThreshold());
 
-            assertEquals(0, initiallyEmptyTree.size());
+        assertThrows(IllegalArgumentException.class, () -> vpTree.setTombstoneThreshold(-0.1));
+        assertThrows(IllegalArgumentException.class, () -> vpTree.setTombstoneThreshold(1));
+    }
+
+    @Test
+    public void testLocatorModeEquality() {
+        final AtomicInteger distanceCalculations = new AtomicInteger();
+
+        final DistanceFunction<Number> countingDistanceFunction = (firstPoint, secondPoint) -> {
+            distanceCalculations.incrementAndGet();
+            return Math.abs(firstPoint.intValue() - secondPoint.intValue());
+        };
+
+        final List<Integer> points = new ArrayList<>();
+
+        for (int i = 0; i < TEST_TREE_SIZE; i++) {
+            points.add(i);
         }
 
-        {
-            final VPTree<Number, Integer> initiallyPopulatedTree = new VPTree<>(new IntegerDistanceFunction(), points);
-            assertEquals(points.size(), initiallyPopulatedTree.size());
+        final VPTree<Number, Integer> vpTree =
+                new VPTree<>(countingDistanceFunction, new MedianDistanceThresholdSelectionStrategy<>(), 8, points);
+
+        vpTree.setLocatorMode(VPTree.LocatorMode.EQUALITY);
+        assertEquals(VPTree.LocatorMode.EQUALITY, vpTree.getLocatorMode());
+
+        // Removing points may lead to nodes being rebuilt, which would require distance calculations that have nothing
+        // to do with finding points
+        vpTree.setSkewFactor(1);
+
+        distanceCalculations.set(0);
+
+        assertTrue(vpTree.containsAll(points));
+        assertFalse(vpTree.contains(TEST_TREE_SIZE));
+        assertFalse(vpTree.contains("Not a number"));
+
+        for (int i = 0; i < TEST_TREE_SIZE; i += 2) {
+            assertTrue(vpTree.remove(i));
+            assertFalse(vpTree.contains(i));
         }
+
+        assertFalse(vpTree.remove(TEST_TREE_SIZE));
+
+        assertEquals(0, distanceCalculations.get());
+        assertEquals(TEST_TREE_SIZE / 2, vpTree.size());
+
+        vpTree.clear();
+        assertFalse(vpTree.contains(1));
     }
 
     @Test
-    public void testIsEmpty() {
-        final VPTree<Number, Integer> vpTree = this.createTestTree(0);
-        final Integer testPoint = 12;
+    public void testLocatorModeChurn() {
+        final VPTree<Number, Integer> vpTree =
+                new VPTree<>(new IntegerDistanceFunction(), new MedianDistanceThresholdSelectionStrategy<>(), 4);
+
+        vpTree.setLocatorMode(VPTree.LocatorMode.EQUALITY);
+        vpTree.setTombstoneThreshold(0.5);
+
+        // Adding and removing lots of points (including duplicates) splits, collapses, and rebuilds lots of nodes; the
+        // locator needs to keep up with all of it
+        final Random random = new Random(17);
+        final List<Integer> expectedPoints = new ArrayList<>();
+
+        for (int i = 0; i < 5000; i++) {
+            final Integer point = random.nextInt(500);
+
+            if (random.nextInt(3) == 0) {
+                assertEquals(expectedPoints.remove(point), vpTree.remove(point));
+            } else {
+                expectedPoints.add(point);
+                vpTree.add(point);
+            }
+        }
 
-        assertTrue(vpTree.isEmpty());
+        assertEquals(expectedPoints.size(), vpTree.size());
 
-        vpTree.add(testPoint);
-        assertFalse(vpTree.isEmpty());
+        for (int point = 0; point < 500; point++) {
+            assertEquals(expectedPoints.contains(point), vpTree.contains(point));
+        }
 
-        vpTree.remove(testPoint);
-        assertTrue(vpTree.isEmpty());
+        final List<Integer> actualPoints = new ArrayList<>(vpTree);
+        Collections.sort(actualPoints);
+        Collections.sort(expectedPoints);
+
+        assertEquals(expectedPoints, actualPoints);
+
+        // Switching the locator off should give the same answers by searching the tree
+        vpTree.setLocatorMode(VPTree.LocatorMode.NONE);
+
+        for (int point = 0; point < 500; point++) {
+            assertEquals(expectedPoints.contains(point), vpTree.contains(point));
+        }
     }
 
     @Test
-    public void testAdd() {
-        final VPTree<Number, Integer> vpTree = this.createTestTree(0);
-        final Integer testPoint = 12;
+    public void testLocatorModeIdentity() {
+        final Integer point = 1000;
+        final Integer equalPoint = Integer.valueOf(point.intValue());
 
-        assertFalse(vpTree.contains(testPoint));
+        assertNotSame(point, equalPoint);
 
-        assertTrue(vpTree.add(testPoint));
-        assertTrue(vpTree.contains(testPoint));
+        final VPTree<Number, Integer> vpTree = this.createTestTree(TEST_TREE_SIZE);
+        vpTree.add(point);
+
+        vpTree.setLocatorMode(VPTree.LocatorMode.IDENTITY);
+
+        assertTrue(vpTree.contains(point));
+        assertFalse(vpTree.contains(equalPoint));
+        assertFalse(vpTree.remove(equalPoint));
+
+        assertTrue(vpTree.remove(point));
+        assertFalse(vpTree.contains(point));
+        assertEquals(TEST_TREE_SIZE, vpTree.size());
     }
 
     @Test
-    public void testAddAll() {
-        final VPTree<Number, Integer> vpTree = this.createTestTree(0);
+    public void testAttributeFilter() {
+        final AtomicInteger distanceCalculations = new AtomicInteger();
 
-        final int numberOfPoints = 256;
-        final ArrayList<Integer> points = new ArrayList<>(numberOfPoints);
+        final DistanceFunction<Number> countingDistanceFunction = (firstPoint, secondPoint) -> {
+            distanceCalculations.incrementAndGet();
+            return Math.abs(firstPoint.intValue() - secondPoint.intValue());
+        };
 
-        for (int i = 0; i < numberOfPoints; i++) {
+        final List<Integer> points = new ArrayList<>();
+
+        for (int i = 0; i < 10000; i++) {
             points.add(i);
         }
 
-        assertTrue(vpTree.addAll(points));
-        assertEquals(points.size(), vpTree.size());
-        assertTrue(vpTree.containsAll(points));
+        // Points are grouped into "tenants" of 100 consecutive integers
+        final java.util.function.Function<Integer, Integer> tenant = point -> point / 100;
+        final AttributeFilter<Integer> filter = AttributeFilter.attributeEquals(tenant, 7);
+
+        final VPTree<Number, Integer> vpTree =
+                new VPTree<>(countingDistanceFunction, new MedianDistanceThresholdSelectionStrategy<>(), 8, points);
+
+        distanceCalculations.set(0);
+        final List<Integer> expectedNeighbors = vpTree.getNearestNeighbors(5000, 5, filter);
+        final int distanceCalculationsWithoutSummaries = distanceCalculations.getAndSet(0);
+
+        assertEquals(Arrays.asList(799, 798, 797, 796, 795), expectedNeighbors);
+
+        vpTree.setAttributeFunction(tenant);
+        assertSame(tenant, vpTree.getAttributeFunction());
+
+        // With a brute-force selectivity of zero, we'll always search the tree, but can skip subtrees with no allowed
+        // points
+        vpTree.setBruteForceSelectivity(0);
+
+        assertEquals(expectedNeighbors, vpTree.getNearestNeighbors(5000, 5, filter));
+        assertTrue(distanceCalculations.getAndSet(0) < distanceCalculationsWithoutSummaries);
+
+        assertEquals(21, vpTree.getAllWithinDistance(750, 10, filter).size());
+
+        // With a high brute-force selectivity, we should only calculate distances to the allowed points
+        vpTree.setBruteForceSelectivity(0.5);
+        distanceCalculations.set(0);
+
+        assertEquals(expectedNeighbors, vpTree.getNearestNeighbors(5000, 5, filter));
+        assertEquals(100, distanceCalculations.get());
+
+        assertEquals(new HashSet<>(Arrays.asList(699, 700, 701)),
+                new HashSet<>(vpTree.getAllWithinDistance(700, 1, AttributeFilter.attributeIn(tenant, Arrays.asList(6, 7)))));
+
+        // Summaries should track new points...
+        vpTree.add(123456);
+        assertEquals(Collections.singletonList(123456),
+                vpTree.getNearestNeighbors(0, 5, AttributeFilter.attributeEquals(tenant, 1234)));
+
+        // ...and removals should never cause points to be missed
+        vpTree.removeIf(point -> point % 2 == 0);
+        assertEquals(Arrays.asList(799, 797, 795, 793, 791), vpTree.getNearestNeighbors(5000, 5, filter));
+
+        vpTree.setAttributeFunction(null);
+        assertNull(vpTree.getAttributeFunction());
+        assertEquals(Arrays.asList(799, 797, 795, 793, 791), vpTree.getNearestNeighbors(5000, 5, filter));
+
+        assertThrows(IllegalArgumentException.class, () -> vpTree.setBruteForceSelectivity(1.5));
     }
 
     @Test
-    public void testRemove() {
-        final VPTree<Number, Integer> vpTree = this.createTestTree(0);
-        final Integer testPoint = 12;
+    public void testQueryStatistics() {
+        final AtomicInteger distanceCalculations = new AtomicInteger();
 
-        assertFalse(vpTree.remove(testPoint));
+        final DistanceFunction<Number> countingDistanceFunction = (firstPoint, secondPoint) -> {
+            distanceCalculations.incrementAndGet();
+            return Math.abs(firstPoint.intValue() - secondPoint.intValue());
+        };
 
-        vpTree.add(testPoint);
-        assertTrue(vpTree.remove(testPoint));
-        assertTrue(vpTree.isEmpty());
+        final List<Integer> points = new ArrayList<>();
+
+        for (int i = 0; i < 1000; i++) {
+            points.add(i);
+        }
+
+        final VPTree<Number, Integer> vpTree =
+                new VPTree<>(countingDistanceFunction, new MedianDistanceThresholdSelectionStrategy<>(), 8, points);
+
+        final PointFilter<Integer> evenPoints = point -> point % 2 == 0;
+        final QueryStatistics statistics = new QueryStatistics();
+
+        distanceCalculations.set(0);
+        final List<Integer> expectedNeighbors = vpTree.getNearestNeighbors(500, 3, evenPoints);
+        final int uninstrumentedDistanceCalculations = distanceCalculations.getAndSet(0);
+
+        // Instrumented searches should do exactly the same work as uninstrumented searches
+        assertEquals(expectedNeighbors, vpTree.getNearestNeighbors(500, 3, evenPoints, statistics));
+        assertEquals(uninstrumentedDistanceCalculations, distanceCalculations.getAndSet(0));
+        assertEquals(uninstrumentedDistanceCalculations, statistics.getDistanceEvaluations());
+
+        assertTrue(statistics.getInternalNodesVisited() > 0);
+        assertTrue(statistics.getLeavesScanned() > 0);
+        assertTrue(statistics.getSubtreesPruned() > 0);
+        assertTrue(statistics.getFilterRejections() > 0);
+
+        // Every leaf holds at most 8 points, and a good search should only scan a few of them
+        assertTrue(statistics.getLeavesScanned() * 8 < points.size());
+        assertTrue(statistics.getDistanceEvaluations() + statistics.getFilterRejections() <=
+                statistics.getInternalNodesVisited() + (statistics.getLeavesScanned() * 8));
+
+        statistics.reset();
+        assertEquals(0, statistics.getDistanceEvaluations());
+
+        assertEquals(new HashSet<>(Arrays.asList(498, 500, 502)),
+                new HashSet<>(vpTree.getAllWithinDistance(500, 2, evenPoints, statistics)));
+
+        assertEquals(distanceCalculations.getAndSet(0), statistics.getDistanceEvaluations());
+        assertEquals(2, statistics.getFilterRejections());
+
+        final AggregateQueryStatistics aggregateStatistics = new AggregateQueryStatistics();
+        vpTree.setAggregateQueryStatistics(aggregateStatistics);
+        assertSame(aggregateStatistics, vpTree.getAggregateQueryStatistics());
+
+        vpTree.getNearestNeighbors(500, 3, evenPoints);
+        vpTree.getAllWithinDistance(500, 2, evenPoints, statistics);
+
+        assertEquals(2, aggregateStatistics.getQueries());
+        assertEquals(uninstrumentedDistanceCalculations + statistics.getDistanceEvaluations() / 2,
+                aggregateStatistics.getDistanceEvaluations());
+        assertEquals(2 + 2, statistics.getFilterRejections());
+
+        aggregateStatistics.reset();
+        assertEquals(0, aggregateStatistics.getQueries());
+        assertEquals(0, aggregateStatistics.getDistanceEvaluations());
     }
 
     @Test
-    public void testRemoveAll() {
-        final ArrayList<Integer> pointsToRemove = new ArrayList<>();
+    public void testInstrumentedQueriesMatchPlainQueries() {
+        final CountingDistanceFunction<Number> distanceFunction =
+                new CountingDistanceFunction<>((firstPoint, secondPoint) -> Math.abs(firstPoint.intValue() - secondPoint.intValue()));
 
-        for (int i = 0; i < TEST_TREE_SIZE; i += 2) {
-            pointsToRemove.add(i);
+        // Tight, widely-separated clusters give the radius plenty of chances to prune, and duplicate points produce ties
+        // at pruning bounds
+        final List<Integer> points = new ArrayList<>();
+
+        for (int cluster = 0; cluster < 10; cluster++) {
+            for (int i = 0; i < 60; i++) {
+                points.add((cluster * 1000) + ((i * 7) % 50));
+            }
         }
 
-        final VPTree<Number, Integer> vpTree = this.createTestTree(TEST_TREE_SIZE);
+        final VPTree<Number, Integer> vpTree =
+                new VPTree<>(distanceFunction, new MedianDistanceThresholdSelectionStrategy<>(), 4, points);
 
-        assertTrue(vpTree.removeAll(pointsToRemove));
-        assertEquals(TEST_TREE_SIZE - pointsToRemove.size(), vpTree.size());
+        vpTree.setTombstoneThreshold(0.9);
 
-        for (final Integer point : pointsToRemove) {
-            assertFalse(vpTree.contains(point));
+        for (int i = 0; i < points.size(); i += 3) {
+            assertTrue(vpTree.remove(points.get(i)));
         }
 
-        assertFalse(vpTree.removeAll(pointsToRemove));
+        assertTrue(vpTree.getHealthReport().getDeletedPointCount() > 0);
+
+        final List<PointFilter<Integer>> filters = Arrays.asList(point -> true, point -> point % 2 == 0);
+
+        for (final PointFilter<Integer> filter : filters) {
+            for (final int queryPoint : new int[] { -5000, 0, 25, 1500, 4049, 9025, 20000 }) {
+                for (final int maxResults : new int[] { 1, 5, 40 }) {
+                    distanceFunction.reset();
+                    final List<Integer> expectedNeighbors = vpTree.getNearestNeighbors(queryPoint, maxResults, filter);
+                    final long expectedCallCount = distanceFunction.getCallCount();
+
+                    distanceFunction.reset();
+                    assertEquals(expectedNeighbors, vpTree.getNearestNeighbors(queryPoint, maxResults, filter, new QueryStatistics()));
+                    assertEquals(expectedCallCount, distanceFunction.getCallCount());
+                }
+
+                for (final double maxDistance : new double[] { 0, 10, 600, 3000 }) {
+                    distanceFunction.reset();
+                    final List<Integer> expectedPoints = vpTree.getAllWithinDistance(queryPoint, maxDistance, filter);
+                    final long expectedCallCount = distanceFunction.getCallCount();
+
+                    distanceFunction.reset();
+                    assertEquals(expectedPoints, vpTree.getAllWithinDistance(queryPoint, maxDistance, filter, new QueryStatistics()));
+                    assertEquals(expectedCallCount, distanceFunction.getCallCount());
+
+                    final List<Integer> visitedPoints = new ArrayList<>();
+                    vpTree.forEachWithinDistance(queryPoint, maxDistance, filter, (point, distance) -> visitedPoints.add(point));
+
+                    // Aggregate statistics switch streaming queries over to the instrumented search, too
+                    vpTree.setAggregateQueryStatistics(new AggregateQueryStatistics());
+
+                    final List<Integer> instrumentedVisitedPoints = new ArrayList<>();
+                    vpTree.forEachWithinDistance(queryPoint, maxDistance, filter, (point, distance) -> instrumentedVisitedPoints.add(point));
+
+                    vpTree.setAggregateQueryStatistics(null);
+
+                    assertEquals(expectedPoints, visitedPoints);
+                    assertEquals(visitedPoints, instrumentedVisitedPoints);
+                }
+            }
+        }
+
+        // A query farther from every point than the width of the whole tree lies outside the root's ball no matter which
+        // vantage point the root chose, and so shouldn't get past the root
+        final QueryStatistics statistics = new QueryStatistics();
+        distanceFunction.reset();
+
+        assertTrue(vpTree.getAllWithinDistance(-50000, 10, point -> true, statistics).isEmpty());
+        assertEquals(1, distanceFunction.getCallCount());
+        assertEquals(1, statistics.getInternalNodesVisited());
+        assertEquals(2, statistics.getSubtreesPruned());
+    }
+
+    @Test
+    public void testListener() {
+        final List<String> events = new ArrayList<>();
+
+        final VPTreeListener listener = new VPTreeListener() {
+            @Override
+            public void nearestNeighborQueryCompleted(final int maxResults, final int resultCount, final QueryStatistics statistics, final long durationNanos) {
+                assertTrue(statistics.getDistanceEvaluations() > 0);
+                events.add("knn:" + maxResults + ":" + resultCount);
+            }
+
+            @Override
+            public void distanceQueryCompleted(final double maxDistance, final int resultCount, final QueryStatistics statistics, final long durationNanos) {
+                events.add("distance:" + (int) maxDistance + ":" + resultCount);
+            }
+
+            @Override
+            public void nodeRebuilt(final int pointsMoved, final long durationNanos) {
+                events.add("rebuild:" + pointsMoved);
+            }
+
+            @Override
+            public void partitionFailed(final int pointCount) {
+                events.add("partitionFailed:" + pointCount);
+            }
+        };
+
+        final VPTree<Number, Integer> vpTree = this.createTestTree(TEST_TREE_SIZE);
+        vpTree.setListener(listener);
+        assertSame(listener, vpTree.getListener());
+
+        vpTree.getNearestNeighbors(12, 3);
+        vpTree.getAllWithinDistance(12, 2);
+        vpTree.forEachWithinDistance(12, 1, (point, distance) -> {});
+        vpTree.rebuild();
+
+        assertEquals(Arrays.asList("knn:3:3", "distance:2:5", "distance:1:3", "rebuild:" + TEST_TREE_SIZE), events);
+
+        events.clear();
+
+        final VPTree<Number, Integer> unpartitionableTree =
+                new VPTree<>(new IntegerDistanceFunction(), new MedianDistanceThresholdSelectionStrategy<>(), 8);
+
+        unpartitionableTree.setListener(listener);
+        unpartitionableTree.addAll(Collections.nCopies(9, 17));
+
+        assertEquals(Collections.singletonList("partitionFailed:9"), events);
+
+        vpTree.setListener(null);
+        events.clear();
+
+        vpTree.getNearestNeighbors(12, 3);
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void testDisabledListener() {
+        final List<String> events = new ArrayList<>();
+        final AtomicBoolean enabled = new AtomicBoolean(false);
+
+        final VPTreeListener listener = new VPTreeListener() {
+            @Override
+            public boolean isEnabled() {
+                return enabled.get();
+            }
+
+            @Override
+            public void nearestNeighborQueryCompleted(final int maxResults, final int resultCount, final QueryStatistics statistics, final long durationNanos) {
+                events.add("knn:" + maxResults + ":" + resultCount);
+            }
+
+            @Override
+            public void distanceQueryCompleted(final double maxDistance, final int resultCount, final QueryStatistics statistics, final long durationNanos) {
+                events.add("distance:" + (int) maxDistance + ":" + resultCount);
+            }
+
+            @Override
+            public void nodeRebuilt(final int pointsMoved, final long durationNanos) {
+                events.add("rebuild:" + pointsMoved);
+            }
+        };
+
+        final VPTree<Number, Integer> vpTree = this.createTestTree(TEST_TREE_SIZE);
+        vpTree.setListener(listener);
+
+        // Disabled listeners don't hear about queries, but still hear about rebuilds
+        vpTree.getNearestNeighbors(12, 3);
+        vpTree.getAllWithinDistance(12, 2);
+        vpTree.rebuild();
+
+        assertEquals(Collections.singletonList("rebuild:" + TEST_TREE_SIZE), events);
+
+        events.clear();
+        enabled.set(true);
+
+        vpTree.getNearestNeighbors(12, 3);
+        vpTree.getAllWithinDistance(12, 2);
+
+        assertEquals(Arrays.asList("knn:3:3", "distance:2:5"), events);
     }
 
     @Test
@@ -339,4 +1605,25 @@ public class VPTreeTest {
 
         return new VPTree<>(new IntegerDistanceFunction(), points);
     }
+
+    private VPTree<Number, Integer> createDuplicateTestTree(final int numberOfDistinctPoints) {
+        final List<Integer> points = new ArrayList<>(numberOfDistinctPoints * 2);
+
+        for (int i = 0; i < numberOfDistinctPoints; i++) {
+            points.add(i);
+            points.add(i);
+        }
+
+        return new VPTree<>(new IntegerDistanceFunction(), points);
+    }
+
+    private static int getDepth(final VPTreeNode<?, ?> node) {
+        return node.isLeaf() ? 1 : 1 + Math.max(getDepth(node.getCloser()), getDepth(node.getFarther()));
+    }
+
+    private static int getMaximumExpectedDepth(final int numberOfPoints, final double skewFactor) {
+        // Every step down the tree leaves us with at most (roughly) skewFactor of the points from the level above; we
+        // leave a little slack for nodes that haven't yet seen enough mutations to be rebuilt
+        return 2 * (int) Math.ceil(Math.log(numberOfPoints) / Math.log(1 / skewFactor));
+    }
 }
@@ -0,0 +1,24 @@
+package com.eatthepath.jvptree.util;
+
+import com.eatthepath.jvptree.IntegerDistanceFunction;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CountingDistanceFunctionTest {
+
+    @Test
+    void getDistance() {
+        final CountingDistanceFunction<Number> distanceFunction =
+                new CountingDistanceFunction<>(new IntegerDistanceFunction());
+
+        assertEquals(0, distanceFunction.getCallCount());
+
+        assertEquals(7, distanceFunction.getDistance(3, 10));
+        assertEquals(0, distanceFunction.getDistance(4, 4));
+        assertEquals(2, distanceFunction.getCallCount());
+
+        distanceFunction.reset();
+        assertEquals(0, distanceFunction.getCallCount());
+    }
+}
@@ -0,0 +1,104 @@
+package com.eatthepath.jvptree.util;
+
+import com.eatthepath.jvptree.IntegerDistanceFunction;
+import com.eatthepath.jvptree.VPTree;
+import com.eatthepath.jvptree.util.ProfilingDistanceFunction.Phase;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProfilingDistanceFunctionTest {
+
+    @Test
+    void testProfilingDistanceFunctionIllegalArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new ProfilingDistanceFunction<>(new IntegerDistanceFunction(), 0));
+    }
+
+    @Test
+    void getDistance() {
+        // With a sample interval of 1, every call should be timed
+        final ProfilingDistanceFunction<Number> distanceFunction =
+                new ProfilingDistanceFunction<>(new IntegerDistanceFunction(), 1);
+
+        assertEquals(7, distanceFunction.getDistance(3, 10));
+        assertEquals(1, distanceFunction.getCallCount(Phase.OTHER));
+        assertEquals(1, distanceFunction.getSampleCount(Phase.OTHER));
+
+        assertEquals(Phase.OTHER, distanceFunction.enterPhase(Phase.QUERY));
+
+        distanceFunction.getDistance(3, 10);
+        distanceFunction.getDistance(3, 10);
+
+        assertEquals(Phase.QUERY, distanceFunction.enterPhase(Phase.OTHER));
+
+        assertEquals(2, distanceFunction.getCallCount(Phase.QUERY));
+        assertEquals(2, distanceFunction.getSampleCount(Phase.QUERY));
+        assertFalse(Double.isNaN(distanceFunction.getMeanCallNanos(Phase.QUERY)));
+        assertTrue(distanceFunction.getEstimatedNanos(Phase.QUERY) >= 0);
+        assertEquals(3, distanceFunction.getCallCount());
+
+        assertTrue(Double.isNaN(distanceFunction.getMeanCallNanos(Phase.BUILD)));
+        assertEquals(0, distanceFunction.getEstimatedNanos(Phase.BUILD));
+
+        distanceFunction.reset();
+        assertEquals(0, distanceFunction.getCallCount());
+        assertEquals(0, distanceFunction.getSampleCount(Phase.QUERY));
+    }
+
+    @Test
+    void getDistanceSampled() {
+        final ProfilingDistanceFunction<Number> distanceFunction =
+                new ProfilingDistanceFunction<>(new IntegerDistanceFunction(), 16);
+
+        for (int i = 0; i < 16_000; i++) {
+            distanceFunction.getDistance(i, 0);
+        }
+
+        assertEquals(16_000, distanceFunction.getCallCount(Phase.OTHER));
+
+        // Samples are chosen at random, but should average out to about one in every sixteen calls
+        final long sampleCount = distanceFunction.getSampleCount(Phase.OTHER);
+        assertTrue(sampleCount > 500 && sampleCount < 1500);
+    }
+
+    @Test
+    void testPhaseAttribution() {
+        final ProfilingDistanceFunction<Number> distanceFunction =
+                new ProfilingDistanceFunction<>(new IntegerDistanceFunction());
+
+        final List<Integer> points = new ArrayList<>();
+
+        for (int i = 0; i < 1000; i++) {
+            points.add(i);
+        }
+
+        final VPTree<Number, Integer> vpTree =
+                new VPTree<>(distanceFunction, new MedianDistanceThresholdSelectionStrategy<>(), 8, points);
+
+        assertTrue(distanceFunction.getCallCount(Phase.BUILD) > 0);
+        assertEquals(distanceFunction.getCallCount(Phase.BUILD), distanceFunction.getCallCount());
+
+        vpTree.getNearestNeighbors(500, 3);
+        vpTree.getAllWithinDistance(500, 2);
+        assertTrue(distanceFunction.getCallCount(Phase.QUERY) > 0);
+
+        vpTree.addAll(Collections.nCopies(100, 2000));
+        assertTrue(distanceFunction.getCallCount(Phase.INSERT) > 0);
+
+        vpTree.remove(500);
+        assertTrue(distanceFunction.getCallCount(Phase.REMOVE) > 0);
+
+        distanceFunction.reset();
+        vpTree.rebuild();
+
+        assertTrue(distanceFunction.getCallCount(Phase.REBUILD) > 0);
+        assertEquals(distanceFunction.getCallCount(Phase.REBUILD), distanceFunction.getCallCount());
+
+        // Trees should leave the calling thread's phase as they found it
+        assertEquals(Phase.OTHER, distanceFunction.enterPhase(Phase.OTHER));
+    }
+}